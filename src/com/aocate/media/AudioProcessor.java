@@ -0,0 +1,207 @@
+package com.aocate.media;
+
+/**
+ * Shortens long silences and applies a constant gain to 16 bit PCM audio.
+ * <p/>
+ * A frame is silent if the peak envelope of all channels is below SILENCE_THRESHOLD. The envelope follows rising
+ * peaks immediately and falls with a short release time, so the short pauses between words are never classified as
+ * silence. Of every silence, only the first MAX_SILENCE_MS milliseconds are kept; all following silent frames are
+ * dropped. Because the dropped frames are silent, removing them doesn't cause audible clicks.
+ * <p/>
+ * Samples are interleaved if there is more than one channel; all counts in this class are counts of frames, i.e. one
+ * sample of every channel. This class is not thread-safe.
+ */
+public class AudioProcessor {
+
+	/**
+	 * Envelope level below which audio is considered silent, approximately -40 dBFS.
+	 */
+	static final int SILENCE_THRESHOLD = 328;
+	/**
+	 * Length of the part of a silence that is kept, in milliseconds.
+	 */
+	static final int MAX_SILENCE_MS = 300;
+	/**
+	 * Time in milliseconds after which the envelope has fallen to about a third of a peak.
+	 */
+	private static final int ENVELOPE_RELEASE_MS = 20;
+	/**
+	 * The gain is applied in fixed point arithmetic with this many fractional bits.
+	 */
+	private static final int GAIN_SHIFT = 12;
+	private static final int UNITY_GAIN = 1 << GAIN_SHIFT;
+
+	private final int sampleRate;
+	private final int numChannels;
+	private final int maxSilentFrames;
+	private final float envelopeDecay;
+
+	private boolean skipSilence;
+	private float gainDb;
+	private int gain = UNITY_GAIN;
+
+	private float envelope;
+	private int silentFrames;
+	private long skippedFrames;
+
+	/**
+	 * Runs of consecutive frames that have been dropped by the last call of process(). The offset of a run is the
+	 * number of remaining frames before it.
+	 */
+	private int[] runOffsets = new int[4];
+	private int[] runLengths = new int[4];
+	private int runCount;
+
+	/**
+	 * @throws java.lang.IllegalArgumentException if sampleRate or numChannels is not positive.
+	 */
+	public AudioProcessor(int sampleRate, int numChannels) {
+		if (sampleRate <= 0)
+			throw new IllegalArgumentException("sampleRate <= 0");
+		if (numChannels <= 0)
+			throw new IllegalArgumentException("numChannels <= 0");
+		this.sampleRate = sampleRate;
+		this.numChannels = numChannels;
+		this.maxSilentFrames = sampleRate * MAX_SILENCE_MS / 1000;
+		this.envelopeDecay = (float) Math.exp(-1000.0 / (ENVELOPE_RELEASE_MS * sampleRate));
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	public boolean isSkipSilence() {
+		return skipSilence;
+	}
+
+	public void setSkipSilence(boolean skipSilence) {
+		this.skipSilence = skipSilence;
+	}
+
+	public float getGain() {
+		return gainDb;
+	}
+
+	/**
+	 * Sets the gain that is applied to all samples, in dB. Samples that would exceed the range of 16 bit values are
+	 * clipped.
+	 */
+	public void setGain(float gainDb) {
+		if (gainDb == this.gainDb) {
+			return;
+		}
+		this.gainDb = gainDb;
+		this.gain = Math.round((float) Math.pow(10, gainDb / 20) * UNITY_GAIN);
+	}
+
+	/**
+	 * Returns the number of frames that have been dropped since this object has been created.
+	 */
+	public long getSkippedFrames() {
+		return skippedFrames;
+	}
+
+	/**
+	 * Returns the number of runs of consecutive frames that have been dropped by the last call of
+	 * {@link #process(short[], int)}.
+	 */
+	public int getSkippedRunCount() {
+		return runCount;
+	}
+
+	/**
+	 * Returns the number of remaining frames that preceded the given run of dropped frames in the last call of
+	 * {@link #process(short[], int)}. Runs are ordered by their offset.
+	 */
+	public int getSkippedRunOffset(int run) {
+		return runOffsets[run];
+	}
+
+	/**
+	 * Returns the number of frames of the given run of dropped frames.
+	 */
+	public int getSkippedRunLength(int run) {
+		return runLengths[run];
+	}
+
+	/**
+	 * Processes 'numFrames' frames of 'samples' in place. Frames that are dropped are removed from the array, all
+	 * other frames are moved to the front. The positions of the dropped frames are available through
+	 * {@link #getSkippedRunOffset(int)} until the next call.
+	 *
+	 * @param samples   Interleaved samples.
+	 * @param numFrames Number of frames in 'samples'.
+	 * @return The number of frames that remain in 'samples'.
+	 */
+	public int process(short[] samples, int numFrames) {
+		runCount = 0;
+		if (!skipSilence && gain == UNITY_GAIN) {
+			return numFrames;
+		}
+		int in = 0;
+		int out = 0;
+		for (int frame = 0; frame < numFrames; frame++) {
+			if (skipSilence) {
+				int peak = 0;
+				for (int channel = 0; channel < numChannels; channel++) {
+					peak = Math.max(peak, Math.abs(samples[in + channel]));
+				}
+				envelope = Math.max(peak, envelope * envelopeDecay);
+				if (envelope < SILENCE_THRESHOLD) {
+					if (silentFrames >= maxSilentFrames) {
+						skippedFrames++;
+						addSkippedFrame(out / numChannels);
+						in += numChannels;
+						continue;
+					}
+					silentFrames++;
+				} else {
+					silentFrames = 0;
+				}
+			}
+			for (int channel = 0; channel < numChannels; channel++) {
+				int value = samples[in++];
+				if (gain != UNITY_GAIN) {
+					value = (value * gain) >> GAIN_SHIFT;
+					if (value > Short.MAX_VALUE) {
+						value = Short.MAX_VALUE;
+					} else if (value < Short.MIN_VALUE) {
+						value = Short.MIN_VALUE;
+					}
+				}
+				samples[out++] = (short) value;
+			}
+		}
+		return out / numChannels;
+	}
+
+	private void addSkippedFrame(int offset) {
+		if (runCount > 0 && runOffsets[runCount - 1] == offset) {
+			runLengths[runCount - 1]++;
+			return;
+		}
+		if (runCount == runOffsets.length) {
+			int[] offsets = new int[2 * runCount];
+			int[] lengths = new int[2 * runCount];
+			System.arraycopy(runOffsets, 0, offsets, 0, runCount);
+			System.arraycopy(runLengths, 0, lengths, 0, runCount);
+			runOffsets = offsets;
+			runLengths = lengths;
+		}
+		runOffsets[runCount] = offset;
+		runLengths[runCount] = 1;
+		runCount++;
+	}
+
+	/**
+	 * Forgets the current silence, e.g. after seeking.
+	 */
+	public void clear() {
+		envelope = 0;
+		silentFrames = 0;
+	}
+}
@@ -0,0 +1,265 @@
+package com.aocate.media;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+
+/**
+ * Measures the loudness of 16 bit PCM audio and computes the gain that brings it to TARGET_LOUDNESS.
+ * <p/>
+ * The measurement follows the gating of EBU R 128 without its frequency weighting: the mean square of the samples is
+ * computed for consecutive blocks of BLOCK_MS milliseconds. Blocks below ABSOLUTE_GATE are ignored, and so are blocks
+ * that are more than RELATIVE_GATE below the mean of the remaining blocks, so that pauses don't make a recording seem
+ * quieter than it is. Block levels are counted in a histogram, so the memory that is needed doesn't depend on the
+ * length of the audio.
+ * <p/>
+ * Samples are interleaved if there is more than one channel. This class is not thread-safe.
+ */
+public class LoudnessAnalyzer {
+
+	/**
+	 * Loudness of normalized audio in dBFS.
+	 */
+	static final float TARGET_LOUDNESS = -20f;
+	static final float MAX_GAIN = 12f;
+	static final float MIN_GAIN = -12f;
+
+	private static final int BLOCK_MS = 400;
+	private static final int ABSOLUTE_GATE = -70;
+	private static final int RELATIVE_GATE = -10;
+	/**
+	 * Number of histogram bins per dB.
+	 */
+	private static final int HISTOGRAM_RESOLUTION = 10;
+	private static final double FULL_SCALE_SQUARED = 32768.0 * 32768.0;
+	/**
+	 * Timeout for dequeueing buffers of the decoder in microseconds.
+	 */
+	private static final long CODEC_TIMEOUT_US = 10000;
+
+	private final int[] histogram = new int[-ABSOLUTE_GATE * HISTOGRAM_RESOLUTION];
+	private int numBlocks;
+	private int samplesPerBlock;
+	private long blockSum;
+	private int blockSamples;
+	private int peak;
+
+	/**
+	 * @throws java.lang.IllegalArgumentException if sampleRate or numChannels is not positive.
+	 */
+	public LoudnessAnalyzer(int sampleRate, int numChannels) {
+		setFormat(sampleRate, numChannels);
+	}
+
+	/**
+	 * Changes the format of the samples that are written from now on. The current block is discarded.
+	 *
+	 * @throws java.lang.IllegalArgumentException if sampleRate or numChannels is not positive.
+	 */
+	public void setFormat(int sampleRate, int numChannels) {
+		if (sampleRate <= 0)
+			throw new IllegalArgumentException("sampleRate <= 0");
+		if (numChannels <= 0)
+			throw new IllegalArgumentException("numChannels <= 0");
+		samplesPerBlock = sampleRate * BLOCK_MS / 1000 * numChannels;
+		blockSum = 0;
+		blockSamples = 0;
+	}
+
+	/**
+	 * Adds interleaved samples to the measurement.
+	 */
+	public void writeSamples(short[] samples, int numSamples) {
+		for (int i = 0; i < numSamples; i++) {
+			addSample(samples[i]);
+		}
+	}
+
+	/**
+	 * Adds 'numSamples' interleaved samples in native byte order, starting at the current position of 'buffer'. The
+	 * position of 'buffer' is not changed.
+	 */
+	public void writeSamples(ByteBuffer buffer, int numSamples) {
+		final int offset = buffer.position();
+		for (int i = 0; i < numSamples; i++) {
+			addSample(buffer.getShort(offset + 2 * i));
+		}
+	}
+
+	private void addSample(int value) {
+		blockSum += value * value;
+		if (value < 0) {
+			value = -value;
+		}
+		if (value > peak) {
+			peak = value;
+		}
+		if (++blockSamples == samplesPerBlock) {
+			final double level = 10 * Math.log10(blockSum / FULL_SCALE_SQUARED / blockSamples);
+			if (level >= ABSOLUTE_GATE) {
+				histogram[Math.min(histogram.length - 1, (int) ((level - ABSOLUTE_GATE) * HISTOGRAM_RESOLUTION))]++;
+				numBlocks++;
+			}
+			blockSum = 0;
+			blockSamples = 0;
+		}
+	}
+
+	/**
+	 * Returns the loudness in dBFS, or Float.NEGATIVE_INFINITY if no block was louder than ABSOLUTE_GATE.
+	 */
+	public float getLoudness() {
+		if (numBlocks == 0) {
+			return Float.NEGATIVE_INFINITY;
+		}
+		final double relativeGate = meanLevel(0) + RELATIVE_GATE;
+		final int firstBin = Math.max(0, (int) ((relativeGate - ABSOLUTE_GATE) * HISTOGRAM_RESOLUTION));
+		return (float) meanLevel(firstBin);
+	}
+
+	/**
+	 * Returns the level of the mean energy of all blocks in the histogram, starting with bin 'firstBin'.
+	 */
+	private double meanLevel(int firstBin) {
+		double energy = 0;
+		long count = 0;
+		for (int bin = firstBin; bin < histogram.length; bin++) {
+			if (histogram[bin] > 0) {
+				final double level = ABSOLUTE_GATE + (bin + 0.5) / HISTOGRAM_RESOLUTION;
+				energy += histogram[bin] * Math.pow(10, level / 10);
+				count += histogram[bin];
+			}
+		}
+		return 10 * Math.log10(energy / count);
+	}
+
+	/**
+	 * Returns the peak level in dBFS, or Float.NEGATIVE_INFINITY if all samples were 0.
+	 */
+	public float getPeak() {
+		if (peak == 0) {
+			return Float.NEGATIVE_INFINITY;
+		}
+		return (float) (20 * Math.log10(peak / 32768.0));
+	}
+
+	/**
+	 * Returns the gain in dB that brings the audio to TARGET_LOUDNESS. The gain is limited to [MIN_GAIN, MAX_GAIN] and
+	 * doesn't raise the peak above full scale.
+	 */
+	public float getGain() {
+		final float loudness = getLoudness();
+		if (loudness == Float.NEGATIVE_INFINITY) {
+			return 0f;
+		}
+		float gain = Math.max(MIN_GAIN, Math.min(MAX_GAIN, TARGET_LOUDNESS - loudness));
+		final float headroom = -getPeak();
+		if (gain > headroom) {
+			gain = Math.max(0f, headroom);
+		}
+		return gain;
+	}
+
+	/**
+	 * Decodes the first audio track of a file and returns the gain that normalizes its loudness.
+	 * <p/>
+	 * The decoded samples are measured directly in the output buffers of the decoder, so the loop doesn't allocate
+	 * memory for each buffer. Decoding a long episode takes a while, so this method must not be called on the main
+	 * thread.
+	 *
+	 * @param path Path of the file
+	 * @return The gain in dB, see {@link #getGain()}
+	 * @throws IOException if the file doesn't have an audio track or can't be decoded.
+	 */
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	public static float analyze(String path) throws IOException {
+		MediaExtractor extractor = new MediaExtractor();
+		MediaCodec codec = null;
+		try {
+			extractor.setDataSource(path);
+			MediaFormat format = null;
+			for (int i = 0; i < extractor.getTrackCount(); i++) {
+				final MediaFormat trackFormat = extractor.getTrackFormat(i);
+				final String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+				if (mime != null && mime.startsWith("audio/")) {
+					extractor.selectTrack(i);
+					format = trackFormat;
+					break;
+				}
+			}
+			if (format == null) {
+				throw new IOException("Data source has no audio track");
+			}
+			codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+			codec.configure(format, null, null, 0);
+			codec.start();
+
+			LoudnessAnalyzer analyzer = new LoudnessAnalyzer(format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+					format.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+			final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+			ByteBuffer[] inputBuffers = codec.getInputBuffers();
+			ByteBuffer[] outputBuffers = codec.getOutputBuffers();
+			boolean inputDone = false;
+			boolean outputDone = false;
+			while (!outputDone) {
+				if (Thread.interrupted()) {
+					throw new IOException("Analysis has been interrupted");
+				}
+				if (!inputDone) {
+					final int index = codec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+					if (index >= 0) {
+						final int size = extractor.readSampleData(inputBuffers[index], 0);
+						if (size < 0) {
+							codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+							inputDone = true;
+						} else {
+							codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+							extractor.advance();
+						}
+					}
+				}
+				final int index = codec.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+				if (index >= 0) {
+					if (info.size > 0) {
+						ByteBuffer buffer = outputBuffers[index];
+						buffer.order(ByteOrder.nativeOrder());
+						buffer.position(info.offset);
+						analyzer.writeSamples(buffer, info.size / 2);
+						buffer.clear();
+					}
+					codec.releaseOutputBuffer(index, false);
+					if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+						outputDone = true;
+					}
+				} else if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+					outputBuffers = codec.getOutputBuffers();
+				} else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+					final MediaFormat outputFormat = codec.getOutputFormat();
+					analyzer.setFormat(outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+							outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+				}
+			}
+			return analyzer.getGain();
+		} catch (RuntimeException e) {
+			// MediaExtractor and MediaCodec throw unchecked exceptions if the file can't be decoded
+			throw new IOException("Could not analyze file: " + e.getMessage());
+		}
+		finally {
+			if (codec != null) {
+				try {
+					codec.stop();
+				} catch (IllegalStateException e) {
+					e.printStackTrace();
+				}
+				codec.release();
+			}
+			extractor.release();
+		}
+	}
+}
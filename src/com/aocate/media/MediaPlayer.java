@@ -26,6 +26,7 @@ import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.media.AudioManager;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
@@ -151,6 +152,17 @@ public class MediaPlayer {
 		context.startActivity(getPrestoMarketIntent());
 	}
 
+	/**
+	 * Indicates whether the in-process TimeStretchingMediaPlayer can be used
+	 * on this device. It requires MediaCodec, which is available on Jelly
+	 * Bean and above.
+	 * 
+	 * @return True if speed adjustment is possible without the Presto library
+	 */
+	public static boolean isTimeStretchingAvailable() {
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+	}
+
 	private static final String MP_TAG = "AocateReplacementMediaPlayer";
 
 	private static final double PITCH_STEP_CONSTANT = 1.0594630943593;
@@ -176,6 +188,7 @@ public class MediaPlayer {
 	protected boolean pitchAdjustmentAvailable = false;
 	private ServiceBackedMediaPlayer sbmp = null;
 	protected boolean speedAdjustmentAvailable = false;
+	private TimeStretchingMediaPlayer tsmp = null;
 	
 	private Handler mServiceDisconnectedHandler = null;
 
@@ -186,6 +199,9 @@ public class MediaPlayer {
 	String stringDataSource = null;
 	Uri uriDataSource = null;
 	private boolean useService = false;
+	private boolean useTimeStretching = false;
+	private boolean skipSilence = false;
+	private float gain = 0f;
 
 	// Naming Convention for Listeners
 	// Most listeners can both be set by clients and called by MediaPlayImpls
@@ -351,7 +367,7 @@ public class MediaPlayer {
 										try {
 											MediaPlayer.this
 												.switchMediaPlayerImpl(
-													MediaPlayer.this.amp,
+													MediaPlayer.this.mpi,
 													MediaPlayer.this.sbmp);
 											Log.d(MP_TAG, "End onServiceConnected 362");
 										} finally {
@@ -383,17 +399,12 @@ public class MediaPlayer {
 												// clone anything from null
 												lock.lock();
 												try {
-													if (MediaPlayer.this.amp == null) {
-													// This should never be in this state
-														MediaPlayer.this.amp = new AndroidMediaPlayer(
-																MediaPlayer.this,
-																MediaPlayer.this.mContext);
-													}
 													// Use sbmp instead of null in case by some miracle it's 
 													// been restored in the meantime
 													MediaPlayer.this.switchMediaPlayerImpl(
 															MediaPlayer.this.sbmp,
-															MediaPlayer.this.amp);
+															MediaPlayer.this.getLocalMediaPlayerImpl(
+																	MediaPlayer.this.mContext));
 													return true;
 												}
 												finally {
@@ -421,24 +432,42 @@ public class MediaPlayer {
 						}
 					);
 				}
-				switchMediaPlayerImpl(this.amp, this.sbmp);
+				switchMediaPlayerImpl(this.mpi, this.sbmp);
 			} else {
-				if ((this.mpi != null)
-						&& (this.mpi instanceof AndroidMediaPlayer)) {
-					Log.d(MP_TAG, "Already using AndroidMediaPlayer");
+				MediaPlayerImpl local = getLocalMediaPlayerImpl(context);
+				if (this.mpi == local) {
+					Log.d(MP_TAG, "Already using " + local.getClass().getSimpleName());
 					return;
 				}
-				if (this.amp == null) {
-					Log.d(MP_TAG, "Instantiating new AndroidMediaPlayer (this should be impossible)");
-					this.amp = new AndroidMediaPlayer(this, context);
-				}
-				switchMediaPlayerImpl(this.sbmp, this.amp);
+				switchMediaPlayerImpl(this.mpi, local);
 			}
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	/**
+	 * Returns the implementation that is used when the Presto service is not
+	 * used: the TimeStretchingMediaPlayer if the client wants to use it and
+	 * the device supports it, otherwise the AndroidMediaPlayer.
+	 */
+	private MediaPlayerImpl getLocalMediaPlayerImpl(Context context) {
+		if (this.useTimeStretching && isTimeStretchingAvailable()) {
+			if (this.tsmp == null) {
+				Log.d(MP_TAG, "Instantiating new TimeStretchingMediaPlayer");
+				this.tsmp = new TimeStretchingMediaPlayer(this, context);
+				this.tsmp.setSkipSilence(this.skipSilence);
+				this.tsmp.setGain(this.gain);
+			}
+			return this.tsmp;
+		}
+		if (this.amp == null) {
+			Log.d(MP_TAG, "Instantiating new AndroidMediaPlayer (this should be impossible)");
+			this.amp = new AndroidMediaPlayer(this, context);
+		}
+		return this.amp;
+	}
+
 	private void switchMediaPlayerImpl(MediaPlayerImpl from, MediaPlayerImpl to) {
 		lock.lock();
 		try {
@@ -882,6 +911,9 @@ public class MediaPlayer {
 			if (this.sbmp != null) {
 				this.sbmp.release();
 			}
+			if (this.tsmp != null) {
+				this.tsmp.release();
+			}
 
 			this.onBufferingUpdateListener = null;
 			this.onCompletionListener = null;
@@ -1108,6 +1140,82 @@ public class MediaPlayer {
 		}
 	}
 
+	/**
+	 * Sets whether speed adjustment should be done in-process by the
+	 * TimeStretchingMediaPlayer when the Presto service is not used. Has no
+	 * effect if {@link #isTimeStretchingAvailable()} returns false.
+	 * 
+	 * @param useTimeStretching
+	 *            Whether the TimeStretchingMediaPlayer should be used
+	 */
+	public void setUseTimeStretching(boolean useTimeStretching) {
+		lock.lock();
+		try {
+			this.useTimeStretching = useTimeStretching;
+			setupMpi(this.mpi.mContext);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sets whether long silences should be shortened. Only the
+	 * TimeStretchingMediaPlayer supports this, see
+	 * {@link #setUseTimeStretching(boolean)}.
+	 * 
+	 * @param skipSilence
+	 *            Whether long silences should be shortened
+	 */
+	public void setSkipSilence(boolean skipSilence) {
+		lock.lock();
+		try {
+			this.skipSilence = skipSilence;
+			if (this.tsmp != null) {
+				this.tsmp.setSkipSilence(skipSilence);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sets a gain that is applied on top of the volume, e.g. to normalize the
+	 * loudness of the track. Only the TimeStretchingMediaPlayer supports this,
+	 * see {@link #setUseTimeStretching(boolean)}.
+	 * 
+	 * @param gain
+	 *            The gain in dB
+	 */
+	public void setGain(float gain) {
+		lock.lock();
+		try {
+			this.gain = gain;
+			if (this.tsmp != null) {
+				this.tsmp.setGain(gain);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the playback time that has been saved by shortening silences
+	 * since this MediaPlayer has been created.
+	 * 
+	 * @return The saved time in milliseconds
+	 */
+	public long getSkippedSilenceTime() {
+		lock.lock();
+		try {
+			if (this.tsmp != null) {
+				return this.tsmp.getSkippedSilenceTime();
+			}
+			return 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	/**
 	 * Functions identically to android.media.MediaPlayer.setVolume(float
 	 * leftVolume, float rightVolume) Sets the stereo volume
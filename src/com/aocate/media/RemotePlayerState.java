@@ -0,0 +1,143 @@
+package com.aocate.media;
+
+/**
+ * Local snapshot of the state of a media player in the Presto service.
+ * <p/>
+ * ServiceBackedMediaPlayer updates the snapshot whenever it sends a command
+ * to the service or receives a callback from it, so that read-only getters
+ * can be answered in-process instead of with a binder call. Values that are
+ * null are unknown and have to be requested from the service once.
+ * <p/>
+ * The playback position is extrapolated from the last known position, the
+ * time at which it was known and the playback speed. It is requested from
+ * the service again after every seek, after playback has been paused and
+ * after POSITION_RESYNC_INTERVAL, so that the extrapolated position can't
+ * drift away, e.g. while a stream is buffering.
+ * <p/>
+ * All access must be synchronized on the RemotePlayerState object.
+ */
+class RemotePlayerState {
+	/**
+	 * Maximum time in milliseconds for which the position is extrapolated
+	 * while playing.
+	 */
+	static final long POSITION_RESYNC_INTERVAL = 10000;
+
+	Boolean canSetPitch = null;
+	Boolean canSetSpeed = null;
+	Float minSpeedMultiplier = null;
+	Float maxSpeedMultiplier = null;
+	Float pitchStepsAdjustment = null;
+	Boolean looping = null;
+	Integer versionCode = null;
+	String versionName = null;
+	/**
+	 * Only known while the player is prepared.
+	 */
+	Integer duration = null;
+	boolean prepared = false;
+	boolean playing = false;
+
+	private Float speedMultiplier = null;
+	private int anchorPosition = -1;
+	private long anchorTime = 0;
+
+	/**
+	 * Returns the extrapolated position or -1 if the position has to be
+	 * requested from the service.
+	 *
+	 * @param now
+	 *            Current value of SystemClock.elapsedRealtime()
+	 */
+	int getPosition(long now) {
+		if (this.anchorPosition < 0) {
+			return -1;
+		}
+		if (!this.playing) {
+			return this.anchorPosition;
+		}
+		if ((now - this.anchorTime > POSITION_RESYNC_INTERVAL)
+				|| (this.speedMultiplier == null)) {
+			return -1;
+		}
+		int position = this.anchorPosition
+				+ (int) ((now - this.anchorTime) * this.speedMultiplier);
+		if ((this.duration != null) && (this.duration > 0)
+				&& (position > this.duration)) {
+			position = this.duration;
+		}
+		return position;
+	}
+
+	/**
+	 * Sets the position that has been reported by the service or that has
+	 * been requested with a seek.
+	 */
+	void setPosition(int position, long now) {
+		this.anchorPosition = position;
+		this.anchorTime = now;
+	}
+
+	void invalidatePosition() {
+		this.anchorPosition = -1;
+	}
+
+	void setPlaying(boolean playing, long now) {
+		if (this.playing == playing) {
+			return;
+		}
+		if (playing) {
+			// the anchor of a paused player is not extrapolated, so it
+			// only needs a new time
+			this.anchorTime = now;
+		} else {
+			// the service has most likely played a bit further than the
+			// extrapolated position
+			invalidatePosition();
+		}
+		this.playing = playing;
+	}
+
+	Float getSpeedMultiplier() {
+		return this.speedMultiplier;
+	}
+
+	/**
+	 * Changes the speed without changing the extrapolated position.
+	 */
+	void setSpeedMultiplier(float speedMultiplier, long now) {
+		final int position = getPosition(now);
+		if (position >= 0) {
+			setPosition(position, now);
+		} else {
+			invalidatePosition();
+		}
+		this.speedMultiplier = speedMultiplier;
+	}
+
+	/**
+	 * Forgets everything, e.g. when a new session has been started.
+	 */
+	void clear() {
+		reset();
+		this.canSetPitch = null;
+		this.canSetSpeed = null;
+		this.minSpeedMultiplier = null;
+		this.maxSpeedMultiplier = null;
+		this.pitchStepsAdjustment = null;
+		this.looping = null;
+		this.versionCode = null;
+		this.versionName = null;
+		this.speedMultiplier = null;
+	}
+
+	/**
+	 * Forgets everything that depends on the data source.
+	 */
+	void reset() {
+		this.duration = null;
+		this.prepared = false;
+		this.playing = false;
+		invalidatePosition();
+	}
+}
@@ -25,6 +25,7 @@ import android.net.Uri;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.PowerManager.WakeLock;
 import android.util.Log;
 
@@ -67,6 +68,9 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 
 	private WakeLock mWakeLock = null;
 
+	// Answers read-only getters without a binder call where possible
+	private final RemotePlayerState state = new RemotePlayerState();
+
 	// So here's the major problem
 	// Sometimes the service won't exist or won't be connected,
 	// so start with an android.media.MediaPlayer, and when
@@ -107,6 +111,10 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 				ServiceBackedMediaPlayer.this.setOnSeekCompleteCallback(tmpPlayMediaInterface);
 				ServiceBackedMediaPlayer.this.setOnSpeedAdjustmentAvailableChangedCallback(tmpPlayMediaInterface);
 				
+				synchronized (ServiceBackedMediaPlayer.this.state) {
+					ServiceBackedMediaPlayer.this.state.clear();
+				}
+
 				// In order to avoid race conditions from the sessionId or listener not being assigned
 				pmInterface = tmpPlayMediaInterface;
 				
@@ -120,6 +128,10 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 				pmInterface = null;
 				
 				sessionId = 0;
+
+				synchronized (ServiceBackedMediaPlayer.this.state) {
+					ServiceBackedMediaPlayer.this.state.clear();
+				}
 				
 				serviceConnection.onServiceDisconnected(name);
 			}
@@ -161,6 +173,11 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 	@Override
 	public boolean canSetPitch() {
 		Log.d(SBMP_TAG, "canSetPitch() 155");
+		synchronized (this.state) {
+			if (this.state.canSetPitch != null) {
+				return this.state.canSetPitch;
+			}
+		}
 
 		if (pmInterface == null) {
 			if (!ConnectPlayMediaService()) {
@@ -170,7 +187,11 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 		if (pmInterface != null) {
 			// Can't set pitch if the service isn't connected
 			try {
-				return pmInterface.canSetPitch(ServiceBackedMediaPlayer.this.sessionId);
+				boolean canSetPitch = pmInterface.canSetPitch(ServiceBackedMediaPlayer.this.sessionId);
+				synchronized (this.state) {
+					this.state.canSetPitch = canSetPitch;
+				}
+				return canSetPitch;
 			} catch (RemoteException e) {
 				e.printStackTrace();
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -186,6 +207,11 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 	@Override
 	public boolean canSetSpeed() {
 		Log.d(SBMP_TAG, "canSetSpeed() 180");
+		synchronized (this.state) {
+			if (this.state.canSetSpeed != null) {
+				return this.state.canSetSpeed;
+			}
+		}
 		if (pmInterface == null) {
 			if (!ConnectPlayMediaService()) {
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -194,7 +220,11 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 		if (pmInterface != null) {
 			// Can't set speed if the service isn't connected
 			try {
-				return pmInterface.canSetSpeed(ServiceBackedMediaPlayer.this.sessionId);
+				boolean canSetSpeed = pmInterface.canSetSpeed(ServiceBackedMediaPlayer.this.sessionId);
+				synchronized (this.state) {
+					this.state.canSetSpeed = canSetSpeed;
+				}
+				return canSetSpeed;
 			} catch (RemoteException e) {
 				e.printStackTrace();
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -209,6 +239,9 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 		try {
 			if (!this.isErroring) {
 				this.isErroring = true;
+				synchronized (this.state) {
+					this.state.reset();
+				}
 				owningMediaPlayer.state = State.ERROR;
 				if (owningMediaPlayer.onErrorListener != null) {
 					if (owningMediaPlayer.onErrorListener.onError(owningMediaPlayer, what, extra)) {
@@ -246,6 +279,11 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 	@Override
 	public float getCurrentPitchStepsAdjustment() {
 		Log.d(SBMP_TAG, "getCurrentPitchStepsAdjustment() 240");
+		synchronized (this.state) {
+			if (this.state.pitchStepsAdjustment != null) {
+				return this.state.pitchStepsAdjustment;
+			}
+		}
 		if (pmInterface == null) {
 			if (!ConnectPlayMediaService()) {
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -254,8 +292,12 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 		if (pmInterface != null) {
 			// Can't set pitch if the service isn't connected
 			try {
-				return pmInterface.getCurrentPitchStepsAdjustment(
+				float pitchSteps = pmInterface.getCurrentPitchStepsAdjustment(
 					ServiceBackedMediaPlayer.this.sessionId);
+				synchronized (this.state) {
+					this.state.pitchStepsAdjustment = pitchSteps;
+				}
+				return pitchSteps;
 			} catch (RemoteException e) {
 				e.printStackTrace();
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -270,14 +312,25 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 	 */
 	@Override
 	public int getCurrentPosition() {
+		final long now = SystemClock.elapsedRealtime();
+		synchronized (this.state) {
+			int position = this.state.getPosition(now);
+			if (position >= 0) {
+				return position;
+			}
+		}
 		if (pmInterface == null) {
 			if (!ConnectPlayMediaService()) {
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
 			}
 		}
 		try {
-			return pmInterface.getCurrentPosition(
+			int position = pmInterface.getCurrentPosition(
 				ServiceBackedMediaPlayer.this.sessionId);
+			synchronized (this.state) {
+				this.state.setPosition(position, now);
+			}
+			return position;
 		} catch (RemoteException e) {
 			e.printStackTrace();
 			ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -292,6 +345,11 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 	@Override
 	public float getCurrentSpeedMultiplier() {
 		Log.d(SBMP_TAG, "getCurrentSpeedMultiplier() 286");
+		synchronized (this.state) {
+			if (this.state.getSpeedMultiplier() != null) {
+				return this.state.getSpeedMultiplier();
+			}
+		}
 		if (pmInterface == null) {
 			if (!ConnectPlayMediaService()) {
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -300,8 +358,12 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 		if (pmInterface != null) {
 			// Can't set speed if the service isn't connected
 			try {
-				return pmInterface.getCurrentSpeedMultiplier(
+				float speedMultiplier = pmInterface.getCurrentSpeedMultiplier(
 					ServiceBackedMediaPlayer.this.sessionId);
+				synchronized (this.state) {
+					this.state.setSpeedMultiplier(speedMultiplier, SystemClock.elapsedRealtime());
+				}
+				return speedMultiplier;
 			} catch (RemoteException e) {
 				e.printStackTrace();
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -317,13 +379,25 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 	@Override
 	public int getDuration() {
 		Log.d(SBMP_TAG, "getDuration() 311");
+		synchronized (this.state) {
+			if (this.state.duration != null) {
+				return this.state.duration;
+			}
+		}
 		if (pmInterface == null) {
 			if (!ConnectPlayMediaService()) {
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
 			}
 		}
 		try {
-			return pmInterface.getDuration(ServiceBackedMediaPlayer.this.sessionId);
+			int duration = pmInterface.getDuration(ServiceBackedMediaPlayer.this.sessionId);
+			synchronized (this.state) {
+				// The duration is only final once the player has been prepared
+				if (this.state.prepared) {
+					this.state.duration = duration;
+				}
+			}
+			return duration;
 		} catch (RemoteException e) {
 			e.printStackTrace();
 			ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -338,6 +412,11 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 	@Override
 	public float getMaxSpeedMultiplier() {
 		Log.d(SBMP_TAG, "getMaxSpeedMultiplier() 332");
+		synchronized (this.state) {
+			if (this.state.maxSpeedMultiplier != null) {
+				return this.state.maxSpeedMultiplier;
+			}
+		}
 		if (pmInterface == null) {
 			if (!ConnectPlayMediaService()) {
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -346,8 +425,12 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 		if (pmInterface != null) {
 			// Can't set speed if the Service isn't connected
 			try {
-				return pmInterface.getMaxSpeedMultiplier(
+				float maxSpeedMultiplier = pmInterface.getMaxSpeedMultiplier(
 					ServiceBackedMediaPlayer.this.sessionId);
+				synchronized (this.state) {
+					this.state.maxSpeedMultiplier = maxSpeedMultiplier;
+				}
+				return maxSpeedMultiplier;
 			} catch (RemoteException e) {
 				e.printStackTrace();
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -363,6 +446,11 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 	@Override
 	public float getMinSpeedMultiplier() {
 		Log.d(SBMP_TAG, "getMinSpeedMultiplier() 357");
+		synchronized (this.state) {
+			if (this.state.minSpeedMultiplier != null) {
+				return this.state.minSpeedMultiplier;
+			}
+		}
 		if (pmInterface == null) {
 			if (!ConnectPlayMediaService()) {
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -371,8 +459,12 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 		if (pmInterface != null) {
 			// Can't set speed if the Service isn't connected
 			try {
-				return pmInterface.getMinSpeedMultiplier(
+				float minSpeedMultiplier = pmInterface.getMinSpeedMultiplier(
 					ServiceBackedMediaPlayer.this.sessionId);
+				synchronized (this.state) {
+					this.state.minSpeedMultiplier = minSpeedMultiplier;
+				}
+				return minSpeedMultiplier;
 			} catch (RemoteException e) {
 				e.printStackTrace();
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -383,13 +475,22 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 	
 	public int getServiceVersionCode() {
 		Log.d(SBMP_TAG, "getVersionCode");
+		synchronized (this.state) {
+			if (this.state.versionCode != null) {
+				return this.state.versionCode;
+			}
+		}
 		if (pmInterface == null) {
 			if (!ConnectPlayMediaService()) {
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
 			}
 		}
 		try {
-			return pmInterface.getVersionCode();
+			int versionCode = pmInterface.getVersionCode();
+			synchronized (this.state) {
+				this.state.versionCode = versionCode;
+			}
+			return versionCode;
 		} catch (RemoteException e) {
 			e.printStackTrace();
 			ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -399,13 +500,22 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 	
 	public String getServiceVersionName() {
 		Log.d(SBMP_TAG, "getVersionName");
+		synchronized (this.state) {
+			if (this.state.versionName != null) {
+				return this.state.versionName;
+			}
+		}
 		if (pmInterface == null) {
 			if (!ConnectPlayMediaService()) {
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
 			}
 		}
 		try {
-			return pmInterface.getVersionName();
+			String versionName = pmInterface.getVersionName();
+			synchronized (this.state) {
+				this.state.versionName = versionName;
+			}
+			return versionName;
 		} catch (RemoteException e) {
 			e.printStackTrace();
 			ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -424,13 +534,22 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 	@Override
 	public boolean isLooping() {
 		Log.d(SBMP_TAG, "isLooping() 382");
+		synchronized (this.state) {
+			if (this.state.looping != null) {
+				return this.state.looping;
+			}
+		}
 		if (pmInterface == null) {
 			if (!ConnectPlayMediaService()) {
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
 			}
 		}
 		try {
-			return pmInterface.isLooping(ServiceBackedMediaPlayer.this.sessionId);
+			boolean looping = pmInterface.isLooping(ServiceBackedMediaPlayer.this.sessionId);
+			synchronized (this.state) {
+				this.state.looping = looping;
+			}
+			return looping;
 		} catch (RemoteException e) {
 			e.printStackTrace();
 			ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -444,20 +563,11 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 	 */
 	@Override
 	public boolean isPlaying() {
-		if (pmInterface == null) {
-			if (!ConnectPlayMediaService()) {
-				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
-			}
+		// Only start() makes the player play, and every way in which it
+		// stops playing is a command or a callback, so this is always known
+		synchronized (this.state) {
+			return this.state.playing;
 		}
-		if (pmInterface != null) {
-			try {
-				return pmInterface.isPlaying(ServiceBackedMediaPlayer.this.sessionId);
-			} catch (RemoteException e) {
-				e.printStackTrace();
-				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
-			}
-		}
-		return false;
 	}
 	
 	/**
@@ -474,6 +584,9 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 		}
 		try {
 			pmInterface.pause(ServiceBackedMediaPlayer.this.sessionId);
+			synchronized (this.state) {
+				this.state.setPlaying(false, SystemClock.elapsedRealtime());
+			}
 		} catch (RemoteException e) {
 			e.printStackTrace();
 			ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -501,6 +614,10 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 				Log.d(SBMP_TAG, "prepare: Remote invoke pmInterface.prepare(" + ServiceBackedMediaPlayer.this.sessionId + ")");
 				pmInterface.prepare(ServiceBackedMediaPlayer.this.sessionId);
 				Log.d(SBMP_TAG, "prepare: prepared");
+				synchronized (this.state) {
+					this.state.reset();
+					this.state.prepared = true;
+				}
 			} catch (RemoteException e) {
 				Log.d(SBMP_TAG, "prepare: RemoteException");
 				e.printStackTrace();
@@ -523,6 +640,10 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 			}
 		}
 		try {
+			synchronized (this.state) {
+				// prepared is set by the OnPreparedCallback
+				this.state.reset();
+			}
 			pmInterface.prepareAsync(ServiceBackedMediaPlayer.this.sessionId);
 		} catch (RemoteException e) {
 			e.printStackTrace();
@@ -556,6 +677,9 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 			pmInterface = null;
 			this.sessionId = 0;
 		}
+		synchronized (this.state) {
+			this.state.clear();
+		}
 		
 		if ((this.mWakeLock != null) && this.mWakeLock.isHeld()) {
 			Log.d(SBMP_TAG, "Releasing wakelock");
@@ -577,6 +701,10 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 		}
 		try {
 			pmInterface.reset(ServiceBackedMediaPlayer.this.sessionId);
+			synchronized (this.state) {
+				this.state.reset();
+				this.state.looping = null;
+			}
 		} catch (RemoteException e) {
 			e.printStackTrace();
 			ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -597,6 +725,10 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 		}
 		try {
 			pmInterface.seekTo(ServiceBackedMediaPlayer.this.sessionId, msec);
+			synchronized (this.state) {
+				// Replaced by the actual position after onSeekComplete
+				this.state.setPosition(msec, SystemClock.elapsedRealtime());
+			}
 		} catch (RemoteException e) {
 			e.printStackTrace();
 			ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -642,6 +774,9 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 			pmInterface.setDataSourceUri(
 				ServiceBackedMediaPlayer.this.sessionId,
 				uri);
+			synchronized (this.state) {
+				this.state.reset();
+			}
 		} catch (RemoteException e) {
 			e.printStackTrace();
 			ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -668,6 +803,9 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 				pmInterface.setDataSourceString(
 					ServiceBackedMediaPlayer.this.sessionId,
 					path);
+				synchronized (this.state) {
+					this.state.reset();
+				}
 			} catch (RemoteException e) {
 				e.printStackTrace();
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -697,6 +835,10 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 					pmInterface.setEnableSpeedAdjustment(
 						ServiceBackedMediaPlayer.this.sessionId,
 						enableSpeedAdjustment);
+					synchronized (this.state) {
+						this.state.canSetPitch = null;
+						this.state.canSetSpeed = null;
+					}
 				} catch (RemoteException e) {
 					e.printStackTrace();
 					ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -723,6 +865,9 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 		}
 		try {
 			pmInterface.setLooping(ServiceBackedMediaPlayer.this.sessionId, loop);
+			synchronized (this.state) {
+				this.state.looping = loop;
+			}
 		} catch (RemoteException e) {
 			e.printStackTrace();
 			ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -750,6 +895,9 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 				pmInterface.setPitchStepsAdjustment(
 					ServiceBackedMediaPlayer.this.sessionId,
 					pitchSteps);
+				synchronized (this.state) {
+					this.state.pitchStepsAdjustment = pitchSteps;
+				}
 			} catch (RemoteException e) {
 				e.printStackTrace();
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -777,6 +925,9 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 				pmInterface.setPlaybackPitch(
 					ServiceBackedMediaPlayer.this.sessionId,
 					f);
+				synchronized (this.state) {
+					this.state.pitchStepsAdjustment = null;
+				}
 			} catch (RemoteException e) {
 				e.printStackTrace();
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -803,6 +954,17 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 				pmInterface.setPlaybackSpeed(
 					ServiceBackedMediaPlayer.this.sessionId,
 					f);
+				synchronized (this.state) {
+					// The service clamps the speed to its limits
+					float speed = f;
+					if (this.state.minSpeedMultiplier != null) {
+						speed = Math.max(this.state.minSpeedMultiplier, speed);
+					}
+					if (this.state.maxSpeedMultiplier != null) {
+						speed = Math.min(this.state.maxSpeedMultiplier, speed);
+					}
+					this.state.setSpeedMultiplier(speed, SystemClock.elapsedRealtime());
+				}
 			} catch (RemoteException e) {
 				e.printStackTrace();
 				ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -911,6 +1073,13 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 			if (this.mOnCompletionCallback == null) {
 				this.mOnCompletionCallback = new IOnCompletionListenerCallback_0_8.Stub() {
 					public void onCompletion() throws RemoteException {
+						synchronized (ServiceBackedMediaPlayer.this.state) {
+							RemotePlayerState state = ServiceBackedMediaPlayer.this.state;
+							state.setPlaying(false, SystemClock.elapsedRealtime());
+							if (state.duration != null) {
+								state.setPosition(state.duration, SystemClock.elapsedRealtime());
+							}
+						}
 						owningMediaPlayer.lock.lock();
 						Log.d(SBMP_TAG, "onCompletionListener being called");
 						try {
@@ -939,6 +1108,9 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 			if (this.mOnErrorCallback == null) {
 				this.mOnErrorCallback = new IOnErrorListenerCallback_0_8.Stub() {
 					public boolean onError(int what, int extra) throws RemoteException {
+						synchronized (ServiceBackedMediaPlayer.this.state) {
+							ServiceBackedMediaPlayer.this.state.reset();
+						}
 						owningMediaPlayer.lock.lock();
 						try {
 							if (owningMediaPlayer.onErrorListener != null) {
@@ -998,6 +1170,9 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 					public void onPitchAdjustmentAvailableChanged(
 							boolean pitchAdjustmentAvailable)
 							throws RemoteException {
+						synchronized (ServiceBackedMediaPlayer.this.state) {
+							ServiceBackedMediaPlayer.this.state.canSetPitch = pitchAdjustmentAvailable;
+						}
 						owningMediaPlayer.lock.lock();
 						try {
 							if (owningMediaPlayer.onPitchAdjustmentAvailableChangedListener != null) {
@@ -1025,6 +1200,9 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 			if (this.mOnPreparedCallback == null) {
 				this.mOnPreparedCallback = new IOnPreparedListenerCallback_0_8.Stub() {
 					public void onPrepared() throws RemoteException {
+						synchronized (ServiceBackedMediaPlayer.this.state) {
+							ServiceBackedMediaPlayer.this.state.prepared = true;
+						}
 						owningMediaPlayer.lock.lock();
 						Log.d(SBMP_TAG, "setOnPreparedCallback.mOnPreparedCallback.onPrepared 1050");
 						try {
@@ -1068,6 +1246,11 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 				this.mOnSeekCompleteCallback = new IOnSeekCompleteListenerCallback_0_8.Stub() {
 					public void onSeekComplete() throws RemoteException {
 						Log.d(SBMP_TAG, "onSeekComplete() 941");
+						synchronized (ServiceBackedMediaPlayer.this.state) {
+							// The service may not have been able to seek to
+							// the exact position that has been requested
+							ServiceBackedMediaPlayer.this.state.invalidatePosition();
+						}
 						owningMediaPlayer.lock.lock();
 						try {
 							if (ServiceBackedMediaPlayer.this.muteOnSeekCount > 0) {
@@ -1107,6 +1290,9 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 					public void onSpeedAdjustmentAvailableChanged(
 							boolean speedAdjustmentAvailable)
 							throws RemoteException {
+						synchronized (ServiceBackedMediaPlayer.this.state) {
+							ServiceBackedMediaPlayer.this.state.canSetSpeed = speedAdjustmentAvailable;
+						}
 						owningMediaPlayer.lock.lock();
 						try {
 							if (owningMediaPlayer.onSpeedAdjustmentAvailableChangedListener != null) {
@@ -1142,6 +1328,9 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 		}
 		try {
 			pmInterface.start(ServiceBackedMediaPlayer.this.sessionId);
+			synchronized (this.state) {
+				this.state.setPlaying(true, SystemClock.elapsedRealtime());
+			}
 		} catch (RemoteException e) {
 			e.printStackTrace();
 			ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -1162,6 +1351,10 @@ public class ServiceBackedMediaPlayer extends MediaPlayerImpl {
 		}
 		try {
 			pmInterface.stop(ServiceBackedMediaPlayer.this.sessionId);
+			synchronized (this.state) {
+				// prepare() has to be called again after stop()
+				this.state.reset();
+			}
 		} catch (RemoteException e) {
 			e.printStackTrace();
 			ServiceBackedMediaPlayer.this.error(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
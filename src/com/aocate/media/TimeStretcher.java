@@ -0,0 +1,338 @@
+package com.aocate.media;
+
+/**
+ * Changes the speed of 16 bit PCM audio without changing its pitch.
+ * <p/>
+ * This is a Java implementation of the pitch-synchronous overlap-add approach used by the Sonic library: the pitch
+ * period of the input is estimated with the average magnitude difference function (AMDF). To speed up playback, one
+ * pitch period is removed by cross-fading it into the following period; to slow down playback, one pitch period is
+ * repeated in the same way. Because whole pitch periods are removed or inserted, voices keep their pitch and sound
+ * natural, which makes the algorithm well suited for spoken audio.
+ * <p/>
+ * Samples are interleaved if there is more than one channel; all counts in this class are counts of frames, i.e. one
+ * sample of every channel. This class is not thread-safe.
+ */
+public class TimeStretcher {
+
+	/**
+	 * Highest pitch that is detected, in Hz.
+	 */
+	private static final int MAX_PITCH = 400;
+	/**
+	 * Lowest pitch that is detected, in Hz.
+	 */
+	private static final int MIN_PITCH = 65;
+	/**
+	 * Sample rate at which the pitch period is searched first. The input is down-sampled to this rate, which makes
+	 * the search a lot cheaper. The period is then refined at the original sample rate.
+	 */
+	private static final int PITCH_SEARCH_RATE = 4000;
+
+	private final int sampleRate;
+	private final int numChannels;
+	private final int minPeriod;
+	private final int maxPeriod;
+	private final int maxRequired;
+
+	private float speed = 1.0f;
+
+	private short[] inputBuffer;
+	private int numInputFrames;
+	private short[] outputBuffer;
+	private int numOutputFrames;
+	private short[] downSampleBuffer;
+	private int remainingInputToCopy;
+
+	/**
+	 * @throws java.lang.IllegalArgumentException if sampleRate or numChannels is not positive.
+	 */
+	public TimeStretcher(int sampleRate, int numChannels) {
+		if (sampleRate <= 0)
+			throw new IllegalArgumentException("sampleRate <= 0");
+		if (numChannels <= 0)
+			throw new IllegalArgumentException("numChannels <= 0");
+		this.sampleRate = sampleRate;
+		this.numChannels = numChannels;
+		this.minPeriod = sampleRate / MAX_PITCH;
+		this.maxPeriod = sampleRate / MIN_PITCH;
+		this.maxRequired = 2 * maxPeriod;
+		this.inputBuffer = new short[maxRequired * numChannels];
+		this.outputBuffer = new short[maxRequired * numChannels];
+		this.downSampleBuffer = new short[maxRequired];
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	public float getSpeed() {
+		return speed;
+	}
+
+	/**
+	 * Sets the speed of the audio that is written from now on. 1.0 is normal speed, 2.0 is double speed.
+	 *
+	 * @throws java.lang.IllegalArgumentException if speed is not positive.
+	 */
+	public void setSpeed(float speed) {
+		if (speed <= 0)
+			throw new IllegalArgumentException("speed <= 0");
+		if (speed != this.speed) {
+			// the number of frames that are copied unchanged depends on the speed
+			remainingInputToCopy = 0;
+		}
+		this.speed = speed;
+	}
+
+	/**
+	 * Adds frames to the input and processes as much of the input as possible.
+	 *
+	 * @param samples   Interleaved samples.
+	 * @param numFrames Number of frames in 'samples'.
+	 */
+	public void writeSamples(short[] samples, int numFrames) {
+		if (numFrames <= 0) {
+			return;
+		}
+		inputBuffer = ensureCapacity(inputBuffer, numInputFrames + numFrames);
+		System.arraycopy(samples, 0, inputBuffer, numInputFrames * numChannels, numFrames * numChannels);
+		numInputFrames += numFrames;
+		processInput();
+	}
+
+	/**
+	 * Copies processed frames into 'samples'.
+	 *
+	 * @param samples   Buffer for interleaved samples.
+	 * @param maxFrames Maximum number of frames that are copied.
+	 * @return The number of frames that have been copied.
+	 */
+	public int readSamples(short[] samples, int maxFrames) {
+		final int numFrames = Math.min(maxFrames, numOutputFrames);
+		if (numFrames <= 0) {
+			return 0;
+		}
+		System.arraycopy(outputBuffer, 0, samples, 0, numFrames * numChannels);
+		numOutputFrames -= numFrames;
+		System.arraycopy(outputBuffer, numFrames * numChannels, outputBuffer, 0, numOutputFrames * numChannels);
+		return numFrames;
+	}
+
+	/**
+	 * Returns the number of processed frames that can be read.
+	 */
+	public int availableFrames() {
+		return numOutputFrames;
+	}
+
+	/**
+	 * Returns the number of input frames that have not been processed yet.
+	 */
+	public int pendingInputFrames() {
+		return numInputFrames;
+	}
+
+	/**
+	 * Processes the remaining input, e.g. at the end of the stream. Input that is too short for finding a pitch
+	 * period is copied to the output unchanged.
+	 */
+	public void flush() {
+		processInput();
+		if (numInputFrames > 0) {
+			final int numFrames = Math.max(1, Math.round(numInputFrames / speed));
+			outputBuffer = ensureCapacity(outputBuffer, numOutputFrames + numFrames);
+			if (numFrames >= numInputFrames) {
+				System.arraycopy(inputBuffer, 0, outputBuffer, numOutputFrames * numChannels,
+						numInputFrames * numChannels);
+				numOutputFrames += numInputFrames;
+			} else {
+				// the tail is shorter than a pitch period, so dropping frames at the end can't be heard
+				System.arraycopy(inputBuffer, 0, outputBuffer, numOutputFrames * numChannels,
+						numFrames * numChannels);
+				numOutputFrames += numFrames;
+			}
+			numInputFrames = 0;
+		}
+		remainingInputToCopy = 0;
+	}
+
+	/**
+	 * Discards all input and output, e.g. after seeking.
+	 */
+	public void clear() {
+		numInputFrames = 0;
+		numOutputFrames = 0;
+		remainingInputToCopy = 0;
+	}
+
+	private void processInput() {
+		if (isNormalSpeed() && remainingInputToCopy == 0) {
+			copyToOutput(0, numInputFrames);
+			numInputFrames = 0;
+			return;
+		}
+		if (numInputFrames < maxRequired) {
+			return;
+		}
+		int position = 0;
+		do {
+			if (remainingInputToCopy > 0) {
+				final int numFrames = Math.min(remainingInputToCopy, maxRequired);
+				copyToOutput(position, numFrames);
+				remainingInputToCopy -= numFrames;
+				position += numFrames;
+			} else if (isNormalSpeed()) {
+				copyToOutput(position, numInputFrames - position);
+				position = numInputFrames;
+			} else {
+				final int period = findPitchPeriod(position);
+				if (speed > 1.0f) {
+					position += period + skipPitchPeriod(position, period);
+				} else {
+					position += insertPitchPeriod(position, period);
+				}
+			}
+		} while (position + maxRequired <= numInputFrames);
+		removeInputFrames(position);
+	}
+
+	private boolean isNormalSpeed() {
+		return speed > 0.99999f && speed < 1.00001f;
+	}
+
+	/**
+	 * Removes a pitch period by cross-fading it into the next one.
+	 *
+	 * @return The number of frames that have been written to the output.
+	 */
+	private int skipPitchPeriod(int position, int period) {
+		final int numFrames;
+		if (speed >= 2.0f) {
+			numFrames = Math.max(1, (int) (period / (speed - 1.0f)));
+		} else {
+			numFrames = period;
+			remainingInputToCopy = (int) (period * (2.0f - speed) / (speed - 1.0f));
+		}
+		outputBuffer = ensureCapacity(outputBuffer, numOutputFrames + numFrames);
+		overlapAdd(numFrames, numOutputFrames, position, position + period);
+		numOutputFrames += numFrames;
+		return numFrames;
+	}
+
+	/**
+	 * Copies a pitch period and then repeats it by cross-fading it with the following period.
+	 *
+	 * @return The number of input frames that have been consumed.
+	 */
+	private int insertPitchPeriod(int position, int period) {
+		final int numFrames;
+		if (speed < 0.5f) {
+			numFrames = Math.max(1, (int) (period * speed / (1.0f - speed)));
+		} else {
+			numFrames = period;
+			remainingInputToCopy = (int) (period * (2.0f * speed - 1.0f) / (1.0f - speed));
+		}
+		outputBuffer = ensureCapacity(outputBuffer, numOutputFrames + period + numFrames);
+		System.arraycopy(inputBuffer, position * numChannels, outputBuffer, numOutputFrames * numChannels,
+				period * numChannels);
+		overlapAdd(numFrames, numOutputFrames + period, position + period, position);
+		numOutputFrames += period + numFrames;
+		return numFrames;
+	}
+
+	/**
+	 * Writes 'numFrames' frames to the output which fade from the input at 'rampDown' to the input at 'rampUp'.
+	 */
+	private void overlapAdd(int numFrames, int outputPosition, int rampDown, int rampUp) {
+		for (int channel = 0; channel < numChannels; channel++) {
+			int out = outputPosition * numChannels + channel;
+			int down = rampDown * numChannels + channel;
+			int up = rampUp * numChannels + channel;
+			for (int t = 0; t < numFrames; t++) {
+				outputBuffer[out] = (short) ((inputBuffer[down] * (numFrames - t) + inputBuffer[up] * t) / numFrames);
+				out += numChannels;
+				down += numChannels;
+				up += numChannels;
+			}
+		}
+	}
+
+	/**
+	 * Estimates the pitch period of the input at 'position'. The search is done on a down-sampled mono signal first
+	 * and refined at the original sample rate.
+	 */
+	private int findPitchPeriod(int position) {
+		final int skip = sampleRate > PITCH_SEARCH_RATE ? sampleRate / PITCH_SEARCH_RATE : 1;
+		downSample(position, skip);
+		int period = findPitchPeriodInRange(downSampleBuffer, minPeriod / skip, maxPeriod / skip);
+		if (skip == 1) {
+			return period;
+		}
+		period *= skip;
+		final int minRefined = Math.max(minPeriod, period - (skip << 2));
+		final int maxRefined = Math.min(maxPeriod, period + (skip << 2));
+		downSample(position, 1);
+		return findPitchPeriodInRange(downSampleBuffer, minRefined, maxRefined);
+	}
+
+	/**
+	 * Mixes the channels of the input at 'position' and averages every 'skip' frames into downSampleBuffer.
+	 */
+	private void downSample(int position, int skip) {
+		final int numFrames = maxRequired / skip;
+		final int samplesPerValue = numChannels * skip;
+		int in = position * numChannels;
+		for (int i = 0; i < numFrames; i++) {
+			int value = 0;
+			for (int j = 0; j < samplesPerValue; j++) {
+				value += inputBuffer[in++];
+			}
+			downSampleBuffer[i] = (short) (value / samplesPerValue);
+		}
+	}
+
+	/**
+	 * Returns the period in [minPeriod, maxPeriod] with the smallest average magnitude difference.
+	 */
+	private static int findPitchPeriodInRange(short[] samples, int minPeriod, int maxPeriod) {
+		int bestPeriod = 0;
+		long minDiff = 1;
+		for (int period = minPeriod; period <= maxPeriod; period++) {
+			long diff = 0;
+			for (int i = 0; i < period; i++) {
+				diff += Math.abs(samples[i] - samples[i + period]);
+			}
+			// compare diff / period with minDiff / bestPeriod without dividing
+			if (bestPeriod == 0 || diff * bestPeriod < minDiff * period) {
+				minDiff = diff;
+				bestPeriod = period;
+			}
+		}
+		return bestPeriod;
+	}
+
+	private void copyToOutput(int position, int numFrames) {
+		outputBuffer = ensureCapacity(outputBuffer, numOutputFrames + numFrames);
+		System.arraycopy(inputBuffer, position * numChannels, outputBuffer, numOutputFrames * numChannels,
+				numFrames * numChannels);
+		numOutputFrames += numFrames;
+	}
+
+	private void removeInputFrames(int numFrames) {
+		numInputFrames -= numFrames;
+		System.arraycopy(inputBuffer, numFrames * numChannels, inputBuffer, 0, numInputFrames * numChannels);
+	}
+
+	private short[] ensureCapacity(short[] buffer, int numFrames) {
+		if (buffer.length >= numFrames * numChannels) {
+			return buffer;
+		}
+		short[] result = new short[Math.max(numFrames, buffer.length / numChannels * 2) * numChannels];
+		System.arraycopy(buffer, 0, result, 0, buffer.length);
+		return result;
+	}
+}
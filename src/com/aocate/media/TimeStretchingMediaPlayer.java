@@ -0,0 +1,986 @@
+package com.aocate.media;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.PowerManager.WakeLock;
+import android.util.Log;
+
+/**
+ * MediaPlayerImpl that adjusts the playback speed in-process, so that variable speed playback doesn't require the
+ * Presto service.
+ * <p/>
+ * The audio track of the data source is decoded with MediaCodec, the decoded PCM samples are passed through a
+ * {@link com.aocate.media.TimeStretcher} and an {@link com.aocate.media.AudioProcessor}, which can shorten silences and
+ * apply a gain, and written to an AudioTrack. Decoding, time-stretching and writing happen
+ * on a separate playback thread; all other methods only change the state of that thread, so they return quickly and
+ * never cross process boundaries.
+ * <p/>
+ * Like android.media.MediaPlayer, listeners are called on the main thread.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class TimeStretchingMediaPlayer extends MediaPlayerImpl {
+	private final static String TSMP_TAG = "AocateTimeStretchingMediaPlayer";
+
+	private static final float MIN_SPEED_MULTIPLIER = 0.5f;
+	private static final float MAX_SPEED_MULTIPLIER = 3.0f;
+
+	/**
+	 * Timeout for dequeueing buffers of the decoder in microseconds.
+	 */
+	private static final long CODEC_TIMEOUT_US = 10000;
+	/**
+	 * Time to wait between two checks whether the AudioTrack has played all frames at the end of the stream, in
+	 * milliseconds.
+	 */
+	private static final long DRAIN_POLL_INTERVAL = 10;
+	/**
+	 * Maximum time to wait for the playback thread when it is stopped, in milliseconds.
+	 */
+	private static final long THREAD_JOIN_TIMEOUT = 1000;
+
+	private final Handler callbackHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Guards the state that is shared between the playback thread and the other methods. The playback thread must
+	 * never hold this lock while it is blocked, and listeners must never be called while it is held.
+	 */
+	private final Object stateLock = new Object();
+
+	private String stringDataSource;
+	private Uri uriDataSource;
+	private Context uriContext;
+
+	private MediaExtractor extractor;
+	private MediaCodec codec;
+	private AudioTrack track;
+	private TimeStretcher stretcher;
+	private AudioProcessor processor;
+	private PlaybackThread playbackThread;
+
+	private int sampleRate;
+	private int channelCount;
+	private long durationUs = -1;
+
+	private boolean playing;
+	private boolean completed;
+	private long pendingSeekUs = -1;
+	private boolean pendingSeekNotify;
+	/**
+	 * Number of frames that have been written to the AudioTrack since it has been flushed the last time.
+	 */
+	private long framesWritten;
+	/**
+	 * Media time that corresponds to the end of the last frame that has been written to the AudioTrack.
+	 */
+	private double mediaTimeWrittenUs;
+	/**
+	 * Playback time that has been saved by shortening silences, in microseconds.
+	 */
+	private double skippedSilenceUs;
+
+	private volatile float speedMultiplier = 1f;
+	private volatile boolean enableSpeedAdjustment = true;
+	private volatile boolean looping;
+	private volatile boolean skipSilence;
+	private volatile float gain;
+	private int audioStreamType = AudioManager.STREAM_MUSIC;
+	private float leftVolume = 1f;
+	private float rightVolume = 1f;
+	private WakeLock wakeLock;
+
+	public TimeStretchingMediaPlayer(MediaPlayer owningMediaPlayer, Context context) {
+		super(owningMediaPlayer, context);
+	}
+
+	@Override
+	public boolean canSetPitch() {
+		return false;
+	}
+
+	@Override
+	public boolean canSetSpeed() {
+		return true;
+	}
+
+	@Override
+	public float getCurrentPitchStepsAdjustment() {
+		return 0;
+	}
+
+	@Override
+	public int getCurrentPosition() {
+		synchronized (stateLock) {
+			if (pendingSeekUs >= 0) {
+				return (int) (pendingSeekUs / 1000);
+			}
+			double positionUs = mediaTimeWrittenUs;
+			if (track != null && framesWritten > 0) {
+				final long playedFrames = track.getPlaybackHeadPosition() & 0xffffffffL;
+				final long queuedFrames = Math.max(0, framesWritten - playedFrames);
+				positionUs -= queuedFrames * (double) stretcher.getSpeed() * 1000000.0 / sampleRate;
+			}
+			if (durationUs > 0 && positionUs > durationUs) {
+				positionUs = durationUs;
+			}
+			return (int) (Math.max(0, positionUs) / 1000);
+		}
+	}
+
+	@Override
+	public float getCurrentSpeedMultiplier() {
+		return speedMultiplier;
+	}
+
+	@Override
+	public int getDuration() {
+		synchronized (stateLock) {
+			return (durationUs >= 0) ? (int) (durationUs / 1000) : -1;
+		}
+	}
+
+	@Override
+	public float getMaxSpeedMultiplier() {
+		return MAX_SPEED_MULTIPLIER;
+	}
+
+	@Override
+	public float getMinSpeedMultiplier() {
+		return MIN_SPEED_MULTIPLIER;
+	}
+
+	@Override
+	public boolean isLooping() {
+		return looping;
+	}
+
+	@Override
+	public boolean isPlaying() {
+		synchronized (stateLock) {
+			return playing;
+		}
+	}
+
+	@Override
+	public void pause() {
+		owningMediaPlayer.lock.lock();
+		try {
+			synchronized (stateLock) {
+				playing = false;
+				if (track != null) {
+					// makes a blocking write() of the playback thread return
+					track.pause();
+				}
+			}
+			releaseWakeLock();
+		}
+		finally {
+			owningMediaPlayer.lock.unlock();
+		}
+	}
+
+	@Override
+	public void prepare() throws IllegalStateException, IOException {
+		owningMediaPlayer.lock.lock();
+		Log.d(TSMP_TAG, "prepare()");
+		try {
+			synchronized (stateLock) {
+				if (stringDataSource == null && uriDataSource == null) {
+					throw new IllegalStateException("prepare() called without a data source");
+				}
+				if (playbackThread != null) {
+					throw new IllegalStateException("prepare() called twice");
+				}
+			}
+			MediaExtractor newExtractor = new MediaExtractor();
+			MediaCodec newCodec = null;
+			try {
+				if (uriDataSource != null) {
+					newExtractor.setDataSource(uriContext, uriDataSource, null);
+				} else {
+					newExtractor.setDataSource(stringDataSource);
+				}
+				MediaFormat format = null;
+				for (int i = 0; i < newExtractor.getTrackCount(); i++) {
+					final MediaFormat trackFormat = newExtractor.getTrackFormat(i);
+					final String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+					if (mime != null && mime.startsWith("audio/")) {
+						newExtractor.selectTrack(i);
+						format = trackFormat;
+						break;
+					}
+				}
+				if (format == null) {
+					throw new IOException("Data source has no audio track");
+				}
+				newCodec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+				newCodec.configure(format, null, null, 0);
+				newCodec.start();
+
+				synchronized (stateLock) {
+					configureOutput(format);
+					extractor = newExtractor;
+					codec = newCodec;
+					durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : -1;
+					playing = false;
+					completed = false;
+					pendingSeekUs = -1;
+					mediaTimeWrittenUs = 0;
+					playbackThread = new PlaybackThread();
+					playbackThread.start();
+				}
+				Log.d(TSMP_TAG, "Finish prepare()");
+			} catch (RuntimeException e) {
+				// MediaExtractor and MediaCodec throw unchecked exceptions if the data source can't be played
+				releaseQuietly(newExtractor, newCodec);
+				throw new IOException("Could not prepare data source: " + e.getMessage());
+			} catch (IOException e) {
+				releaseQuietly(newExtractor, newCodec);
+				throw e;
+			}
+		}
+		finally {
+			owningMediaPlayer.lock.unlock();
+		}
+	}
+
+	@Override
+	public void prepareAsync() {
+		new Thread(new Runnable() {
+			public void run() {
+				try {
+					prepare();
+					postPrepared();
+				} catch (IOException e) {
+					e.printStackTrace();
+					postError(android.media.MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
+				} catch (IllegalStateException e) {
+					e.printStackTrace();
+					postError(android.media.MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
+				}
+			}
+		}).start();
+	}
+
+	@Override
+	public void release() {
+		owningMediaPlayer.lock.lock();
+		try {
+			Log.d(TSMP_TAG, "release()");
+			reset();
+			callbackHandler.removeCallbacksAndMessages(null);
+		}
+		finally {
+			owningMediaPlayer.lock.unlock();
+		}
+	}
+
+	@Override
+	public void reset() {
+		owningMediaPlayer.lock.lock();
+		try {
+			shutdown();
+			synchronized (stateLock) {
+				stringDataSource = null;
+				uriDataSource = null;
+				uriContext = null;
+				durationUs = -1;
+				mediaTimeWrittenUs = 0;
+			}
+		}
+		finally {
+			owningMediaPlayer.lock.unlock();
+		}
+	}
+
+	@Override
+	public void seekTo(int msec) throws IllegalStateException {
+		owningMediaPlayer.lock.lock();
+		try {
+			synchronized (stateLock) {
+				if (playbackThread == null) {
+					throw new IllegalStateException("seekTo() called before prepare()");
+				}
+				requestSeek(Math.max(0, msec) * 1000L, true);
+			}
+		}
+		finally {
+			owningMediaPlayer.lock.unlock();
+		}
+	}
+
+	@Override
+	public void setAudioStreamType(int streamtype) {
+		synchronized (stateLock) {
+			// applied when the AudioTrack is created
+			audioStreamType = streamtype;
+		}
+	}
+
+	@Override
+	public void setDataSource(Context context, Uri uri)
+			throws IllegalArgumentException, IllegalStateException, IOException {
+		owningMediaPlayer.lock.lock();
+		try {
+			Log.d(TSMP_TAG, "setDataSource(context, " + uri.toString() + ")");
+			synchronized (stateLock) {
+				uriContext = context;
+				uriDataSource = uri;
+				stringDataSource = null;
+			}
+		}
+		finally {
+			owningMediaPlayer.lock.unlock();
+		}
+	}
+
+	@Override
+	public void setDataSource(String path) throws IllegalArgumentException,
+			IllegalStateException, IOException {
+		owningMediaPlayer.lock.lock();
+		try {
+			Log.d(TSMP_TAG, "setDataSource(" + path + ")");
+			synchronized (stateLock) {
+				stringDataSource = path;
+				uriDataSource = null;
+				uriContext = null;
+			}
+		}
+		finally {
+			owningMediaPlayer.lock.unlock();
+		}
+	}
+
+	@Override
+	public void setEnableSpeedAdjustment(boolean enableSpeedAdjustment) {
+		this.enableSpeedAdjustment = enableSpeedAdjustment;
+	}
+
+	@Override
+	public void setLooping(boolean loop) {
+		this.looping = loop;
+	}
+
+	/**
+	 * Returns the playback time that has been saved by shortening silences since this object has been created, in
+	 * milliseconds.
+	 */
+	public long getSkippedSilenceTime() {
+		synchronized (stateLock) {
+			return (long) (skippedSilenceUs / 1000);
+		}
+	}
+
+	/**
+	 * Sets whether long silences should be shortened. Takes effect immediately.
+	 */
+	public void setSkipSilence(boolean skipSilence) {
+		Log.d(TSMP_TAG, "setSkipSilence(" + skipSilence + ")");
+		this.skipSilence = skipSilence;
+	}
+
+	/**
+	 * Sets the gain in dB that is applied to the audio, e.g. to normalize its loudness. Takes effect immediately.
+	 */
+	public void setGain(float gain) {
+		Log.d(TSMP_TAG, "setGain(" + gain + ")");
+		this.gain = gain;
+	}
+
+	@Override
+	public void setPitchStepsAdjustment(float pitchSteps) {
+		// Can't!
+	}
+
+	@Override
+	public void setPlaybackPitch(float f) {
+		// Can't!
+	}
+
+	@Override
+	public void setPlaybackSpeed(float f) {
+		Log.d(TSMP_TAG, "setPlaybackSpeed(" + f + ")");
+		speedMultiplier = Math.max(MIN_SPEED_MULTIPLIER, Math.min(MAX_SPEED_MULTIPLIER, f));
+	}
+
+	@Override
+	public void setSpeedAdjustmentAlgorithm(int algorithm) {
+		// SONIC and WSOLA are both served by the same pitch-synchronous algorithm
+		Log.d(TSMP_TAG, "setSpeedAdjustmentAlgorithm(" + algorithm + ")");
+	}
+
+	@Override
+	public void setVolume(float leftVolume, float rightVolume) {
+		synchronized (stateLock) {
+			this.leftVolume = leftVolume;
+			this.rightVolume = rightVolume;
+			if (track != null) {
+				track.setStereoVolume(leftVolume, rightVolume);
+			}
+		}
+	}
+
+	@Override
+	public void setWakeMode(Context context, int mode) {
+		owningMediaPlayer.lock.lock();
+		try {
+			final boolean held = (wakeLock != null) && wakeLock.isHeld();
+			releaseWakeLock();
+			wakeLock = null;
+			if (mode != 0) {
+				PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+				wakeLock = pm.newWakeLock(mode, this.getClass().getName());
+				wakeLock.setReferenceCounted(false);
+				if (held) {
+					wakeLock.acquire();
+				}
+			}
+		}
+		finally {
+			owningMediaPlayer.lock.unlock();
+		}
+	}
+
+	@Override
+	public void start() {
+		owningMediaPlayer.lock.lock();
+		try {
+			synchronized (stateLock) {
+				if (playbackThread == null) {
+					throw new IllegalStateException("start() called before prepare()");
+				}
+				if (completed) {
+					// restart from the beginning like android.media.MediaPlayer
+					requestSeek(0, false);
+				}
+				playing = true;
+				track.play();
+				stateLock.notifyAll();
+			}
+			if (wakeLock != null) {
+				wakeLock.acquire();
+			}
+		}
+		finally {
+			owningMediaPlayer.lock.unlock();
+		}
+	}
+
+	@Override
+	public void stop() {
+		owningMediaPlayer.lock.lock();
+		try {
+			// like android.media.MediaPlayer, prepare() has to be called before playback can be started again
+			shutdown();
+			synchronized (stateLock) {
+				mediaTimeWrittenUs = 0;
+			}
+		}
+		finally {
+			owningMediaPlayer.lock.unlock();
+		}
+	}
+
+	/**
+	 * Must be called while holding stateLock.
+	 *
+	 * @param notify True if the OnSeekCompleteListener should be called after the seek has been done.
+	 */
+	private void requestSeek(long positionUs, boolean notify) {
+		if (durationUs > 0 && positionUs > durationUs) {
+			positionUs = durationUs;
+		}
+		pendingSeekUs = positionUs;
+		pendingSeekNotify = notify;
+		completed = false;
+		stateLock.notifyAll();
+	}
+
+	/**
+	 * Stops the playback thread and releases the decoder, the extractor and the AudioTrack.
+	 */
+	private void shutdown() {
+		final PlaybackThread thread;
+		synchronized (stateLock) {
+			playing = false;
+			thread = playbackThread;
+			playbackThread = null;
+			if (thread != null) {
+				thread.quit = true;
+			}
+			if (track != null) {
+				track.pause();
+			}
+			stateLock.notifyAll();
+		}
+		if (thread != null) {
+			try {
+				thread.join(THREAD_JOIN_TIMEOUT);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			if (thread.isAlive()) {
+				Log.w(TSMP_TAG, "Playback thread did not finish in time");
+			}
+		}
+		synchronized (stateLock) {
+			releaseQuietly(extractor, codec);
+			extractor = null;
+			codec = null;
+			if (track != null) {
+				track.release();
+				track = null;
+			}
+			stretcher = null;
+			processor = null;
+			framesWritten = 0;
+			pendingSeekUs = -1;
+			completed = false;
+		}
+		releaseWakeLock();
+	}
+
+	private void releaseWakeLock() {
+		if ((wakeLock != null) && wakeLock.isHeld()) {
+			wakeLock.release();
+		}
+	}
+
+	private static void releaseQuietly(MediaExtractor extractor, MediaCodec codec) {
+		if (codec != null) {
+			try {
+				codec.stop();
+			} catch (IllegalStateException e) {
+				e.printStackTrace();
+			}
+			codec.release();
+		}
+		if (extractor != null) {
+			extractor.release();
+		}
+	}
+
+	/**
+	 * Creates the TimeStretcher and the AudioTrack for the given format if the sample rate or the channel count has
+	 * changed. Must be called while holding stateLock.
+	 */
+	private void configureOutput(MediaFormat format) throws IOException {
+		final int newSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+		final int newChannelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+		if (track != null && newSampleRate == sampleRate && newChannelCount == channelCount) {
+			return;
+		}
+		final int channelConfig;
+		if (newChannelCount == 1) {
+			channelConfig = AudioFormat.CHANNEL_OUT_MONO;
+		} else if (newChannelCount == 2) {
+			channelConfig = AudioFormat.CHANNEL_OUT_STEREO;
+		} else {
+			throw new IOException("Unsupported channel count: " + newChannelCount);
+		}
+		final int minBufferSize = AudioTrack.getMinBufferSize(newSampleRate, channelConfig,
+				AudioFormat.ENCODING_PCM_16BIT);
+		if (minBufferSize <= 0) {
+			throw new IOException("Unsupported sample rate: " + newSampleRate);
+		}
+		Log.d(TSMP_TAG, "Configuring output for " + newSampleRate + " Hz, " + newChannelCount + " channel(s)");
+
+		if (track != null) {
+			track.release();
+		}
+		track = new AudioTrack(audioStreamType, newSampleRate, channelConfig, AudioFormat.ENCODING_PCM_16BIT,
+				minBufferSize * 2, AudioTrack.MODE_STREAM);
+		track.setStereoVolume(leftVolume, rightVolume);
+		if (playing) {
+			track.play();
+		}
+		stretcher = new TimeStretcher(newSampleRate, newChannelCount);
+		processor = new AudioProcessor(newSampleRate, newChannelCount);
+		sampleRate = newSampleRate;
+		channelCount = newChannelCount;
+		framesWritten = 0;
+	}
+
+	private void postPrepared() {
+		callbackHandler.post(new Runnable() {
+			public void run() {
+				lockMuteOnPreparedCount.lock();
+				try {
+					if (muteOnPreparedCount > 0) {
+						muteOnPreparedCount--;
+					} else {
+						muteOnPreparedCount = 0;
+						if (owningMediaPlayer.onPreparedListener != null) {
+							owningMediaPlayer.onPreparedListener.onPrepared(owningMediaPlayer);
+						}
+					}
+				}
+				finally {
+					lockMuteOnPreparedCount.unlock();
+				}
+			}
+		});
+	}
+
+	private void postSeekComplete() {
+		callbackHandler.post(new Runnable() {
+			public void run() {
+				owningMediaPlayer.lock.lock();
+				try {
+					lockMuteOnSeekCount.lock();
+					try {
+						if (muteOnSeekCount > 0) {
+							muteOnSeekCount--;
+						} else {
+							muteOnSeekCount = 0;
+							if (owningMediaPlayer.onSeekCompleteListener != null) {
+								owningMediaPlayer.onSeekCompleteListener.onSeekComplete(owningMediaPlayer);
+							}
+						}
+					}
+					finally {
+						lockMuteOnSeekCount.unlock();
+					}
+				}
+				finally {
+					owningMediaPlayer.lock.unlock();
+				}
+			}
+		});
+	}
+
+	private void postCompletion() {
+		callbackHandler.post(new Runnable() {
+			public void run() {
+				Log.d(TSMP_TAG, "onCompletionListener being called");
+				owningMediaPlayer.lock.lock();
+				try {
+					if ((owningMediaPlayer.onCompletionListener != null)
+						&& (owningMediaPlayer.mpi == TimeStretchingMediaPlayer.this)) {
+						owningMediaPlayer.onCompletionListener.onCompletion(owningMediaPlayer);
+					}
+				}
+				finally {
+					owningMediaPlayer.lock.unlock();
+				}
+			}
+		});
+	}
+
+	private void postError(final int what, final int extra) {
+		callbackHandler.post(new Runnable() {
+			public void run() {
+				owningMediaPlayer.lock.lock();
+				try {
+					if (owningMediaPlayer.onErrorListener != null) {
+						owningMediaPlayer.onErrorListener.onError(owningMediaPlayer, what, extra);
+					}
+				}
+				finally {
+					owningMediaPlayer.lock.unlock();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Decodes the selected track, passes the decoded samples through the TimeStretcher and the AudioProcessor and
+	 * writes the result to the AudioTrack. Blocks while playback is paused.
+	 */
+	private class PlaybackThread extends Thread {
+		volatile boolean quit;
+
+		private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+		private short[] decodeBuffer = new short[0];
+		private short[] outputBuffer = new short[0];
+		private int outputOffset;
+		private int outputCount;
+		/**
+		 * Speed of the TimeStretcher when the output buffer has been filled.
+		 */
+		private float outputSpeed = 1f;
+		/**
+		 * First run of frames that the AudioProcessor has dropped from the output buffer whose media time hasn't been
+		 * added to the written media time yet.
+		 */
+		private int nextSkippedRun;
+		private boolean inputDone;
+		private boolean outputDone;
+		private boolean paddingWritten;
+		/**
+		 * Decoded frames before this media time are dropped after a seek, because the extractor seeks to the
+		 * previous sync sample.
+		 */
+		private long skipUntilUs = -1;
+
+		PlaybackThread() {
+			super("TimeStretchingPlaybackThread");
+		}
+
+		@Override
+		public void run() {
+			try {
+				loop();
+			} catch (InterruptedException e) {
+				Log.d(TSMP_TAG, "Playback thread has been interrupted");
+			} catch (Exception e) {
+				// MediaCodec and AudioTrack report errors with unchecked exceptions
+				Log.e(TSMP_TAG, "Playback thread failed");
+				e.printStackTrace();
+				if (!quit) {
+					synchronized (stateLock) {
+						playing = false;
+					}
+					releaseWakeLock();
+					postError(android.media.MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
+				}
+			}
+		}
+
+		private void loop() throws InterruptedException, IOException {
+			ByteBuffer[] inputBuffers = codec.getInputBuffers();
+			ByteBuffer[] outputBuffers = codec.getOutputBuffers();
+			while (true) {
+				long seekUs = -1;
+				boolean seekNotify = false;
+				synchronized (stateLock) {
+					while (!quit && !playing && pendingSeekUs < 0) {
+						stateLock.wait();
+					}
+					if (quit) {
+						return;
+					}
+					if (pendingSeekUs >= 0) {
+						seekUs = pendingSeekUs;
+						seekNotify = pendingSeekNotify;
+					}
+				}
+				if (seekUs >= 0) {
+					seek(seekUs);
+					if (seekNotify) {
+						postSeekComplete();
+					}
+					continue;
+				}
+
+				if (!inputDone) {
+					final int index = codec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+					if (index >= 0) {
+						final int size = extractor.readSampleData(inputBuffers[index], 0);
+						if (size < 0) {
+							codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+							inputDone = true;
+						} else {
+							codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+							extractor.advance();
+						}
+					}
+				}
+				if (!outputDone) {
+					final int index = codec.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+					if (index >= 0) {
+						if (info.size > 0) {
+							stretch(outputBuffers[index]);
+						}
+						codec.releaseOutputBuffer(index, false);
+						if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+							stretcher.flush();
+							outputDone = true;
+						}
+					} else if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+						outputBuffers = codec.getOutputBuffers();
+					} else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+						synchronized (stateLock) {
+							configureOutput(codec.getOutputFormat());
+						}
+						outputOffset = outputCount = 0;
+					}
+				}
+				write();
+
+				if (outputDone && outputCount == 0 && stretcher.availableFrames() == 0) {
+					drain();
+				}
+			}
+		}
+
+		private void seek(long positionUs) {
+			extractor.seekTo(positionUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+			codec.flush();
+			stretcher.clear();
+			processor.clear();
+			outputOffset = outputCount = 0;
+			inputDone = outputDone = paddingWritten = false;
+			skipUntilUs = positionUs;
+			synchronized (stateLock) {
+				track.pause();
+				track.flush();
+				framesWritten = 0;
+				mediaTimeWrittenUs = positionUs;
+				if (pendingSeekUs == positionUs) {
+					pendingSeekUs = -1;
+				}
+				if (playing) {
+					track.play();
+				}
+			}
+		}
+
+		/**
+		 * Passes a decoded buffer to the TimeStretcher.
+		 */
+		private void stretch(ByteBuffer buffer) {
+			buffer.position(info.offset);
+			buffer.limit(info.offset + info.size);
+			final ShortBuffer samples = buffer.order(ByteOrder.nativeOrder()).asShortBuffer();
+			int numFrames = samples.remaining() / channelCount;
+			int skipFrames = 0;
+			if (skipUntilUs >= 0) {
+				if (info.presentationTimeUs < skipUntilUs) {
+					skipFrames = (int) Math.min(numFrames,
+							(skipUntilUs - info.presentationTimeUs) * sampleRate / 1000000L);
+				}
+				if (skipFrames < numFrames) {
+					skipUntilUs = -1;
+				}
+			}
+			numFrames -= skipFrames;
+			if (numFrames > 0) {
+				if (decodeBuffer.length < numFrames * channelCount) {
+					decodeBuffer = new short[numFrames * channelCount];
+				}
+				samples.position(skipFrames * channelCount);
+				samples.get(decodeBuffer, 0, numFrames * channelCount);
+				final float speed = enableSpeedAdjustment ? speedMultiplier : 1f;
+				if (stretcher.getSpeed() != speed) {
+					stretcher.setSpeed(speed);
+				}
+				stretcher.writeSamples(decodeBuffer, numFrames);
+			}
+			buffer.clear();
+		}
+
+		/**
+		 * Writes the output of the TimeStretcher to the AudioTrack after passing it through the AudioProcessor.
+		 * Returns early if playback has been paused.
+		 */
+		private void write() {
+			while (!quit) {
+				if (outputCount == 0) {
+					final int available = stretcher.availableFrames();
+					if (available == 0) {
+						return;
+					}
+					if (outputBuffer.length < available * channelCount) {
+						outputBuffer = new short[available * channelCount];
+					}
+					stretcher.readSamples(outputBuffer, available);
+					outputOffset = 0;
+					outputSpeed = stretcher.getSpeed();
+					outputCount = process(available) * channelCount;
+					if (outputCount == 0) {
+						// every frame has been dropped
+						synchronized (stateLock) {
+							addSkippedTime(0);
+						}
+						continue;
+					}
+				}
+				final int written = track.write(outputBuffer, outputOffset, outputCount);
+				if (written < 0) {
+					throw new IllegalStateException("AudioTrack.write() returned " + written);
+				}
+				outputOffset += written;
+				outputCount -= written;
+				final int frames = written / channelCount;
+				synchronized (stateLock) {
+					framesWritten += frames;
+					mediaTimeWrittenUs += frames * (double) outputSpeed * 1000000.0 / sampleRate;
+					addSkippedTime(outputOffset / channelCount);
+					if (written == 0 || !playing) {
+						return;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Passes the first 'numFrames' frames of the output buffer through the AudioProcessor. The media time of
+		 * frames that are dropped is added by {@link #addSkippedTime(int)} once the frames before them have been
+		 * written.
+		 *
+		 * @return The number of frames that remain in the output buffer.
+		 */
+		private int process(int numFrames) {
+			processor.setSkipSilence(skipSilence);
+			processor.setGain(gain);
+			final int result = processor.process(outputBuffer, numFrames);
+			nextSkippedRun = 0;
+			return result;
+		}
+
+		/**
+		 * Adds the media time of the frames that the AudioProcessor has dropped in front of the first 'outputFrames'
+		 * frames of the output buffer. Must be called while holding stateLock.
+		 */
+		private void addSkippedTime(int outputFrames) {
+			while (nextSkippedRun < processor.getSkippedRunCount()
+					&& processor.getSkippedRunOffset(nextSkippedRun) <= outputFrames) {
+				final int skipped = processor.getSkippedRunLength(nextSkippedRun++);
+				mediaTimeWrittenUs += skipped * (double) outputSpeed * 1000000.0 / sampleRate;
+				skippedSilenceUs += skipped * 1000000.0 / sampleRate;
+			}
+		}
+
+		/**
+		 * Waits until the AudioTrack has played all frames, then completes playback or starts over if looping is
+		 * enabled.
+		 */
+		private void drain() throws InterruptedException {
+			if (!paddingWritten) {
+				// AudioTrack may hold back frames that don't fill a complete buffer; silence pushes them out
+				track.write(new short[sampleRate / 10 * channelCount], 0, sampleRate / 10 * channelCount);
+				paddingWritten = true;
+			}
+			synchronized (stateLock) {
+				final long playedFrames = track.getPlaybackHeadPosition() & 0xffffffffL;
+				if (playedFrames < framesWritten && playing) {
+					stateLock.wait(DRAIN_POLL_INTERVAL);
+					return;
+				}
+				if (!playing || pendingSeekUs >= 0) {
+					return;
+				}
+				if (looping) {
+					requestSeek(0, false);
+					return;
+				}
+				playing = false;
+				completed = true;
+				track.pause();
+				track.flush();
+				framesWritten = 0;
+				if (durationUs > 0) {
+					mediaTimeWrittenUs = durationUs;
+				}
+			}
+			releaseWakeLock();
+			postCompletion();
+		}
+	}
+}
@@ -8,6 +8,7 @@ import de.danoeh.antennapod.feed.EventDistributor;
 import de.danoeh.antennapod.preferences.PlaybackPreferences;
 import de.danoeh.antennapod.preferences.UserPreferences;
 import de.danoeh.antennapod.spa.SPAUtil;
+import de.danoeh.antennapod.storage.DBWriter;
 
 /** Main application class. */
 public class PodcastApp extends Application {
@@ -32,6 +33,8 @@ public class PodcastApp extends Application {
 		UserPreferences.createInstance(this);
 		PlaybackPreferences.createInstance(this);
 		EventDistributor.getInstance();
+		// positions that were journaled before the process was killed
+		DBWriter.compactPositionJournal(this);
 
         SPAUtil.sendSPAppsQueryFeedsIntent(this);
 	}
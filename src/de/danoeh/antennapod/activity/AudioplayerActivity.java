@@ -4,6 +4,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.content.res.TypedArray;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentTransaction;
@@ -21,15 +22,19 @@ import de.danoeh.antennapod.adapter.ChapterListAdapter;
 import de.danoeh.antennapod.asynctask.ImageLoader;
 import de.danoeh.antennapod.dialog.VariableSpeedDialog;
 import de.danoeh.antennapod.feed.Chapter;
+import de.danoeh.antennapod.feed.FeedMedia;
 import de.danoeh.antennapod.feed.MediaType;
 import de.danoeh.antennapod.feed.SimpleChapter;
 import de.danoeh.antennapod.fragment.CoverFragment;
 import de.danoeh.antennapod.fragment.ItemDescriptionFragment;
 import de.danoeh.antennapod.preferences.UserPreferences;
 import de.danoeh.antennapod.service.playback.PlaybackService;
+import de.danoeh.antennapod.storage.DBReader;
 import de.danoeh.antennapod.util.playback.ExternalMedia;
 import de.danoeh.antennapod.util.playback.Playable;
 
+import java.util.List;
+
 /**
  * Activity for playing audio files.
  */
@@ -260,6 +265,14 @@ public class AudioplayerActivity extends MediaplayerActivity {
         if (currentlyShownPosition != pos && controller != null) {
             Playable media = controller.getMedia();
             if (media != null) {
+                if (pos == POS_CHAPTERS && !chaptersLoaded(media)) {
+                    // the chapters are shown as soon as they have been loaded
+                    loadChapters(media, true);
+                    pos = POS_COVER;
+                    if (currentlyShownPosition == pos) {
+                        return;
+                    }
+                }
                 FragmentTransaction ft = getSupportFragmentManager()
                         .beginTransaction();
                 if (currentlyShownFragment != null) {
@@ -492,7 +505,10 @@ public class AudioplayerActivity extends MediaplayerActivity {
         }
         txtvTitle.setText(media.getEpisodeTitle());
         txtvFeed.setText(media.getFeedTitle());
-        if (media.getChapters() != null) {
+        if (!chaptersLoaded(media)) {
+            butNavRight.setVisibility(View.GONE);
+            loadChapters(media, false);
+        } else if (media.getChapters() != null) {
             butNavRight.setVisibility(View.VISIBLE);
         } else {
             butNavRight.setVisibility(View.GONE);
@@ -512,6 +528,49 @@ public class AudioplayerActivity extends MediaplayerActivity {
         return true;
     }
 
+    /**
+     * Returns false if the media has chapters in the database that haven't been loaded yet.
+     */
+    private boolean chaptersLoaded(Playable media) {
+        if (media instanceof FeedMedia) {
+            FeedMedia feedMedia = (FeedMedia) media;
+            return feedMedia.getItem() == null || !feedMedia.getItem().hasChapters()
+                    || feedMedia.getItem().hasLoadedChapters();
+        }
+        return true;
+    }
+
+    /**
+     * Loads the chapters of the media on a background thread and shows the chapter button if the media has chapters.
+     *
+     * @param showChapters true if the chapter list should be shown after the chapters have been loaded.
+     */
+    private void loadChapters(final Playable media, final boolean showChapters) {
+        new AsyncTask<Void, Void, List<Chapter>>() {
+
+            @Override
+            protected List<Chapter> doInBackground(Void... params) {
+                if (!chaptersLoaded(media)) {
+                    DBReader.loadChaptersOfFeedItem(AudioplayerActivity.this, ((FeedMedia) media).getItem());
+                }
+                return media.getChapters();
+            }
+
+            @Override
+            protected void onPostExecute(List<Chapter> chapters) {
+                super.onPostExecute(chapters);
+                if (controller == null || controller.getMedia() != media) {
+                    return;
+                }
+                butNavRight.setVisibility((chapters != null) ? View.VISIBLE : View.GONE);
+                // the fragments are removed when the activity is paused
+                if (showChapters && chapters != null && currentlyShownPosition == POS_COVER) {
+                    switchToFragment(POS_CHAPTERS);
+                }
+            }
+        }.execute();
+    }
+
     public void notifyMediaPositionChanged() {
         if (chapterFragment != null) {
             ArrayAdapter<SimpleChapter> adapter = (ArrayAdapter<SimpleChapter>) chapterFragment
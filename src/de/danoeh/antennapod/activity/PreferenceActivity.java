@@ -28,6 +28,7 @@ import de.danoeh.antennapod.dialog.GpodnetSetHostnameDialog;
 import de.danoeh.antennapod.dialog.VariableSpeedDialog;
 import de.danoeh.antennapod.preferences.GpodnetPreferences;
 import de.danoeh.antennapod.preferences.UserPreferences;
+import de.danoeh.antennapod.util.Converter;
 import de.danoeh.antennapod.util.flattr.FlattrStatus;
 import de.danoeh.antennapod.util.flattr.FlattrUtils;
 import de.danoeh.antennapod.util.flattr.SimpleFlattrThing;
@@ -191,6 +192,16 @@ public class PreferenceActivity extends android.preference.PreferenceActivity {
                                 return true;
                             }
                         });
+        findPreference(UserPreferences.PREF_BUILTIN_VARIABLE_SPEED)
+                .setEnabled(com.aocate.media.MediaPlayer.isTimeStretchingAvailable());
+        findPreference(UserPreferences.PREF_SKIP_SILENCE)
+                .setEnabled(com.aocate.media.MediaPlayer.isTimeStretchingAvailable());
+        findPreference(UserPreferences.PREF_SKIP_SILENCE)
+                .setSummary(getString(R.string.pref_skipSilence_sum,
+                        Converter.getDurationStringLong(
+                                (int) Math.min(Integer.MAX_VALUE, UserPreferences.getSkippedSilenceTime()))));
+        findPreference(UserPreferences.PREF_NORMALIZE_LOUDNESS)
+                .setEnabled(com.aocate.media.MediaPlayer.isTimeStretchingAvailable());
         findPreference(PREF_PLAYBACK_SPEED_LAUNCHER)
                 .setOnPreferenceClickListener(new OnPreferenceClickListener() {
                     @Override
@@ -71,6 +71,7 @@ public class BitmapDecodeWorkerTask extends Thread {
 
     @Override
     public void run() {
+        ImageLoader.getInstance().waitWhileDecodingPaused();
         cBitmap = new CachedBitmap(BitmapDecoder.decodeBitmapFromWorkerTaskResource(
                 PREFERRED_LENGTH, imageResource), PREFERRED_LENGTH);
         if (cBitmap.getBitmap() != null) {
@@ -0,0 +1,215 @@
+package de.danoeh.antennapod.asynctask;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+import de.danoeh.antennapod.BuildConfig;
+import de.danoeh.antennapod.feed.DatabaseEvent;
+import de.danoeh.antennapod.feed.FeedItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Holds the FeedItems of a list that is loaded from the database page by page. The next page is loaded in the
+ * background as soon as one of the last LOAD_AHEAD_COUNT loaded items is accessed, which happens when the list's
+ * adapter creates the views of these items while the user scrolls. This way, the first items of a list can be shown
+ * before the rest of the list has been loaded, and only the part of the list that the user has scrolled to is kept
+ * in memory.
+ * <p/>
+ * All methods of this class must be called on the GUI thread.
+ */
+public abstract class FeedItemPager {
+    private static final String TAG = "FeedItemPager";
+
+    /**
+     * Number of items before the end of the loaded items at which the next page is requested.
+     */
+    public static final int LOAD_AHEAD_COUNT = 10;
+
+    private final Context context;
+    private final int pageSize;
+    private final Callback callback;
+
+    private List<FeedItem> items;
+    private boolean loaded;
+    private boolean complete;
+    private PageLoadTask currentTask;
+
+    /**
+     * @param context  Used for opening a database connection. The pager only keeps a reference to the application
+     *                 context.
+     * @param pageSize Number of FeedItems that are loaded at once.
+     * @param callback Is notified on the GUI thread whenever the loaded items have changed.
+     */
+    public FeedItemPager(Context context, int pageSize, Callback callback) {
+        if (context == null) {
+            throw new IllegalArgumentException("context must not be null");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be > 0");
+        }
+        if (callback == null) {
+            throw new IllegalArgumentException("callback must not be null");
+        }
+        this.context = context.getApplicationContext();
+        this.pageSize = pageSize;
+        this.callback = callback;
+        this.items = Collections.emptyList();
+    }
+
+    /**
+     * Loads a page of FeedItems from the database. This method is executed on a background thread.
+     *
+     * @param context A context that is used for opening a database connection.
+     * @param after   The last FeedItem of the previous page or null if the first page should be loaded.
+     * @param limit   The maximum number of FeedItems on the page.
+     * @return A list with at most 'limit' FeedItems. If the list contains less than 'limit' FeedItems, the pager
+     * assumes that there are no further pages.
+     */
+    protected abstract List<FeedItem> loadPage(Context context, FeedItem after, int limit);
+
+    /**
+     * Returns the number of FeedItems that have been loaded so far.
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Returns the FeedItem at the given position and requests the next page if the position is close to the end of the
+     * loaded items.
+     *
+     * @throws IndexOutOfBoundsException if position < 0 || position >= size()
+     */
+    public FeedItem get(int position) {
+        if (position >= items.size() - LOAD_AHEAD_COUNT) {
+            loadNextPage();
+        }
+        return items.get(position);
+    }
+
+    /**
+     * Returns true if the first page has been loaded.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Returns true if all pages of the list have been loaded.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Returns true if the event might affect one of the loaded FeedItems.
+     */
+    public boolean isAffectedBy(DatabaseEvent event) {
+        if (event.isUnspecific()) {
+            return true;
+        }
+        for (FeedItem item : items) {
+            if (event.affectsItem(item.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Loads the next page in the background. Does nothing if all pages have been loaded or if the pager is already
+     * loading a page.
+     */
+    public void loadNextPage() {
+        if (!loaded || complete || currentTask != null) {
+            return;
+        }
+        final FeedItem after = items.isEmpty() ? null : items.get(items.size() - 1);
+        execute(new PageLoadTask(after, pageSize, false));
+    }
+
+    /**
+     * Loads the list again, e.g. after the database has changed. The pager loads as many FeedItems as it has loaded
+     * before in a single page so that the list doesn't shrink while the user looks at it. The loaded items are
+     * replaced when the new items are available.
+     */
+    public void reload() {
+        cancel();
+        execute(new PageLoadTask(null, Math.max(pageSize, items.size()), true));
+    }
+
+    /**
+     * Cancels the page that is currently loaded.
+     */
+    public void cancel() {
+        if (currentTask != null) {
+            currentTask.cancel(true);
+            currentTask = null;
+        }
+    }
+
+    private void execute(PageLoadTask task) {
+        currentTask = task;
+        task.execute();
+    }
+
+    private void onPageLoaded(PageLoadTask task, List<FeedItem> page) {
+        if (task != currentTask) {
+            return;
+        }
+        currentTask = null;
+        if (task.replace) {
+            items = new ArrayList<FeedItem>(page);
+        } else {
+            List<FeedItem> newItems = new ArrayList<FeedItem>(items.size() + page.size());
+            newItems.addAll(items);
+            newItems.addAll(page);
+            items = newItems;
+        }
+        loaded = true;
+        complete = page.size() < task.limit;
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, "Loaded page with " + page.size() + " items, " + items.size() + " items loaded");
+        callback.onItemsLoaded();
+    }
+
+    private class PageLoadTask extends AsyncTask<Void, Void, List<FeedItem>> {
+        final FeedItem after;
+        final int limit;
+        final boolean replace;
+
+        PageLoadTask(FeedItem after, int limit, boolean replace) {
+            this.after = after;
+            this.limit = limit;
+            this.replace = replace;
+        }
+
+        @Override
+        protected List<FeedItem> doInBackground(Void... voids) {
+            return loadPage(context, after, limit);
+        }
+
+        @Override
+        protected void onPostExecute(List<FeedItem> page) {
+            super.onPostExecute(page);
+            if (page != null) {
+                onPageLoaded(this, page);
+            } else {
+                Log.e(TAG, "Could not load page");
+                if (currentTask == this) {
+                    currentTask = null;
+                }
+            }
+        }
+    }
+
+    public interface Callback {
+        /**
+         * Called on the GUI thread after a page has been loaded.
+         */
+        void onItemsLoaded();
+    }
+}
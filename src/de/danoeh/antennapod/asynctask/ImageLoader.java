@@ -10,10 +10,12 @@ import android.widget.ImageView;
 import de.danoeh.antennapod.BuildConfig;
 import de.danoeh.antennapod.PodcastApp;
 import de.danoeh.antennapod.R;
+import de.danoeh.antennapod.util.BitmapDecoder;
 
 import java.io.InputStream;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 
 /**
@@ -35,6 +37,18 @@ public class ImageLoader {
     private Handler handler;
     private ExecutorService executor;
 
+    /**
+     * Executes prefetch requests. Uses only one thread so that prefetching never competes with
+     * the decoding of visible images for more than one core.
+     */
+    private ExecutorService prefetchExecutor;
+
+    /**
+     * Guards decodingPaused. Decoding threads wait on this object while decoding is paused.
+     */
+    private final Object pauseLock = new Object();
+    private boolean decodingPaused;
+
     /**
      * Stores references to loaded bitmaps. Bitmaps can be accessed by the id of
      * the FeedImage the bitmap belongs to.
@@ -52,6 +66,7 @@ public class ImageLoader {
     private ImageLoader() {
         handler = new Handler();
         executor = createExecutor();
+        prefetchExecutor = createPrefetchExecutor();
 
         coverCache = new LruCache<String, CachedBitmap>(1);
 
@@ -84,6 +99,18 @@ public class ImageLoader {
         });
     }
 
+    private ExecutorService createPrefetchExecutor() {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
     public static synchronized ImageLoader getInstance() {
         if (singleton == null) {
             singleton = new ImageLoader();
@@ -174,11 +201,86 @@ public class ImageLoader {
         }
     }
 
+    /**
+     * Decodes a bitmap into the thumbnail cache without displaying it. The request is executed on a
+     * separate low-priority thread and will be skipped if the thumbnail cache already contains a
+     * bitmap with a sufficient length.
+     *
+     * @return A Future that can be used to cancel the request or null if nothing has to be loaded.
+     */
+    public Future<?> prefetchThumbnailBitmap(final ImageWorkerTaskResource source, final int length) {
+        final String cacheKey;
+        if (source == null || (cacheKey = source.getImageLoaderCacheKey()) == null) {
+            return null;
+        }
+        CachedBitmap cBitmap = getBitmapFromThumbnailCache(cacheKey);
+        if (cBitmap != null && cBitmap.getLength() >= length) {
+            return null;
+        }
+        return prefetchExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                waitWhileDecodingPaused();
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                CachedBitmap cached = getBitmapFromThumbnailCache(cacheKey);
+                if (cached != null && cached.getLength() >= length) {
+                    return;
+                }
+                CachedBitmap result = new CachedBitmap(BitmapDecoder.decodeBitmapFromWorkerTaskResource(
+                        length, source), length);
+                if (result.getBitmap() != null && !Thread.currentThread().isInterrupted()) {
+                    addBitmapToThumbnailCache(cacheKey, result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the decoding of bitmaps until resumeDecoding is called. Requests that have already been
+     * submitted will be executed after decoding has been resumed.
+     */
+    public void pauseDecoding() {
+        synchronized (pauseLock) {
+            decodingPaused = true;
+        }
+    }
+
+    /**
+     * Resumes decoding after a call to pauseDecoding.
+     */
+    public void resumeDecoding() {
+        synchronized (pauseLock) {
+            decodingPaused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks the calling thread while decoding is paused. Returns immediately if the calling
+     * thread is interrupted.
+     */
+    void waitWhileDecodingPaused() {
+        synchronized (pauseLock) {
+            while (decodingPaused) {
+                try {
+                    pauseLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
     public void clearExecutorQueue() {
         executor.shutdownNow();
+        prefetchExecutor.shutdownNow();
         if (BuildConfig.DEBUG)
             Log.d(TAG, "Executor was shut down.");
         executor = createExecutor();
+        prefetchExecutor = createPrefetchExecutor();
 
     }
 
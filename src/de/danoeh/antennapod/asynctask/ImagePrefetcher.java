@@ -0,0 +1,158 @@
+package de.danoeh.antennapod.asynctask;
+
+import android.util.Log;
+import android.widget.AbsListView;
+import de.danoeh.antennapod.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Warms the thumbnail cache of the ImageLoader for rows that are about to become visible in an
+ * AbsListView. The prefetcher has to be registered as the OnScrollListener of the list.
+ * <p/>
+ * Decoding is paused while the list is flinging, prefetch requests are only submitted when the
+ * list has settled or is scrolled by the user. Outstanding prefetch requests are cancelled when the
+ * scroll direction changes.
+ */
+public class ImagePrefetcher implements AbsListView.OnScrollListener {
+    private static final String TAG = "ImagePrefetcher";
+
+    public static final int DEFAULT_PREFETCH_COUNT = 10;
+
+    private static final int DIRECTION_DOWN = 1;
+    private static final int DIRECTION_UP = -1;
+
+    private final ImageResourceAccess resourceAccess;
+    private final int prefetchCount;
+    private final int length;
+
+    private final List<Future<?>> pendingRequests;
+
+    private int direction = DIRECTION_DOWN;
+    private int lastFirstVisibleItem = -1;
+    private int lastVisibleItemCount;
+    private int scrollState = SCROLL_STATE_IDLE;
+
+    /**
+     * @param resourceAccess Provides the image resources of the list's rows.
+     * @param prefetchCount  Number of rows that should be prefetched ahead of the visible rows.
+     * @param length         Length that the thumbnails will be decoded with.
+     */
+    public ImagePrefetcher(ImageResourceAccess resourceAccess, int prefetchCount, int length) {
+        if (resourceAccess == null) {
+            throw new IllegalArgumentException("resourceAccess must not be null");
+        }
+        if (prefetchCount < 0) {
+            throw new IllegalArgumentException("prefetchCount must not be negative");
+        }
+        this.resourceAccess = resourceAccess;
+        this.prefetchCount = prefetchCount;
+        this.length = length;
+        this.pendingRequests = new ArrayList<Future<?>>();
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        this.scrollState = scrollState;
+        ImageLoader imageLoader = ImageLoader.getInstance();
+        if (scrollState == SCROLL_STATE_FLING) {
+            imageLoader.pauseDecoding();
+        } else {
+            imageLoader.resumeDecoding();
+            if (lastFirstVisibleItem != -1) {
+                prefetch(lastFirstVisibleItem, lastVisibleItemCount);
+            }
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (lastFirstVisibleItem != -1 && firstVisibleItem != lastFirstVisibleItem) {
+            int newDirection = (firstVisibleItem > lastFirstVisibleItem) ? DIRECTION_DOWN : DIRECTION_UP;
+            if (newDirection != direction) {
+                if (BuildConfig.DEBUG) Log.d(TAG, "Scroll direction changed, cancelling prefetch requests");
+                cancel();
+                direction = newDirection;
+            }
+        }
+        boolean positionChanged = firstVisibleItem != lastFirstVisibleItem
+                || visibleItemCount != lastVisibleItemCount;
+        lastFirstVisibleItem = firstVisibleItem;
+        lastVisibleItemCount = visibleItemCount;
+        if (positionChanged && scrollState != SCROLL_STATE_FLING) {
+            prefetch(firstVisibleItem, visibleItemCount);
+        }
+    }
+
+    /**
+     * Cancels all outstanding prefetch requests.
+     */
+    public void cancel() {
+        for (Future<?> request : pendingRequests) {
+            request.cancel(true);
+        }
+        pendingRequests.clear();
+    }
+
+    /**
+     * Cancels all outstanding requests and makes sure that the ImageLoader is not left in a paused
+     * state. Should be called when the list is no longer visible.
+     */
+    public void release() {
+        cancel();
+        ImageLoader.getInstance().resumeDecoding();
+    }
+
+    private void prefetch(int firstVisibleItem, int visibleItemCount) {
+        removeFinishedRequests();
+        final int count = resourceAccess.getCount();
+        final int start;
+        final int end;
+        if (direction == DIRECTION_DOWN) {
+            start = firstVisibleItem + visibleItemCount;
+            end = Math.min(count, start + prefetchCount);
+        } else {
+            end = firstVisibleItem;
+            start = Math.max(0, end - prefetchCount);
+        }
+        ImageLoader imageLoader = ImageLoader.getInstance();
+        if (direction == DIRECTION_DOWN) {
+            for (int i = start; i < end; i++) {
+                addRequest(imageLoader.prefetchThumbnailBitmap(resourceAccess.getImageResource(i), length));
+            }
+        } else {
+            for (int i = end - 1; i >= start; i--) {
+                addRequest(imageLoader.prefetchThumbnailBitmap(resourceAccess.getImageResource(i), length));
+            }
+        }
+    }
+
+    private void addRequest(Future<?> request) {
+        if (request != null) {
+            pendingRequests.add(request);
+        }
+    }
+
+    private void removeFinishedRequests() {
+        for (int i = pendingRequests.size() - 1; i >= 0; i--) {
+            if (pendingRequests.get(i).isDone()) {
+                pendingRequests.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Provides the image resources of an AbsListView's rows by their position in the list.
+     */
+    public interface ImageResourceAccess {
+        int getCount();
+
+        /**
+         * Returns the image resource of the row at the given position or null if the row
+         * doesn't have an image.
+         */
+        ImageLoader.ImageWorkerTaskResource getImageResource(int position);
+    }
+}
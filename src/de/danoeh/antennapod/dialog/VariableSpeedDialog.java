@@ -17,7 +17,9 @@ public class VariableSpeedDialog {
 	}
 
 	public static void showDialog(final Context context) {
-		if (com.aocate.media.MediaPlayer.isPrestoLibraryInstalled(context)) {
+		if (com.aocate.media.MediaPlayer.isPrestoLibraryInstalled(context)
+				|| (com.aocate.media.MediaPlayer.isTimeStretchingAvailable()
+				&& UserPreferences.useBuiltinVariableSpeed())) {
 			showSpeedSelectorDialog(context);
 		} else {
 			showGetPluginDialog(context);
@@ -0,0 +1,187 @@
+package de.danoeh.antennapod.feed;
+
+import java.util.Arrays;
+
+/**
+ * An event of the {@link EventDistributor} that describes which feeds and
+ * items have been affected by a change of the database. The type of an event
+ * is one of the EventDistributor's event constants (e.g.
+ * EventDistributor.UNREAD_ITEMS_UPDATE).
+ *
+ * An event without IDs is unspecific, which means that the receiver has to
+ * assume that everything might have changed. Events that are sent with the
+ * old send*Broadcast methods are always unspecific.
+ *
+ * Events of type QUEUE_UPDATE contain the IDs of the items that were added,
+ * removed or moved. Their new positions can be looked up in the
+ * {@link de.danoeh.antennapod.storage.QueueIndex}. Events of type
+ * PLAYBACK_HISTORY_UPDATE contain the IDs of the items that have been added
+ * to the playback history.
+ */
+public class DatabaseEvent {
+	private static final long[] NO_IDS = new long[0];
+
+	private final int type;
+	private final boolean unspecific;
+	private final long[] feedIds;
+	private final long[] itemIds;
+
+	/**
+	 * Creates an unspecific event.
+	 */
+	public DatabaseEvent(int type) {
+		this(type, true, NO_IDS, NO_IDS);
+	}
+
+	/**
+	 * Creates an event that only affects the given feeds and items. The arrays
+	 * must not be modified afterwards.
+	 *
+	 * @param feedIds
+	 *            IDs of the affected feeds or null if only items were affected.
+	 * @param itemIds
+	 *            IDs of the affected items or null if only feeds were affected.
+	 */
+	public DatabaseEvent(int type, long[] feedIds, long[] itemIds) {
+		this(type, false, (feedIds != null) ? feedIds : NO_IDS,
+				(itemIds != null) ? itemIds : NO_IDS);
+	}
+
+	private DatabaseEvent(int type, boolean unspecific, long[] feedIds,
+			long[] itemIds) {
+		if (Integer.bitCount(type) != 1) {
+			throw new IllegalArgumentException(
+					"type must be a single event constant: " + type);
+		}
+		this.type = type;
+		this.unspecific = unspecific;
+		this.feedIds = feedIds;
+		this.itemIds = itemIds;
+	}
+
+	public static DatabaseEvent forFeeds(int type, long... feedIds) {
+		return new DatabaseEvent(type, feedIds, null);
+	}
+
+	public static DatabaseEvent forItems(int type, long... itemIds) {
+		return new DatabaseEvent(type, null, itemIds);
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Returns true if the event doesn't say which feeds or items were
+	 * affected.
+	 */
+	public boolean isUnspecific() {
+		return unspecific;
+	}
+
+	/**
+	 * Returns the IDs of the affected feeds. The returned array must not be
+	 * modified.
+	 */
+	public long[] getFeedIds() {
+		return feedIds;
+	}
+
+	/**
+	 * Returns the IDs of the affected items. The returned array must not be
+	 * modified.
+	 */
+	public long[] getItemIds() {
+		return itemIds;
+	}
+
+	/**
+	 * Returns true if the event is unspecific or contains the given feed ID.
+	 */
+	public boolean affectsFeed(long feedId) {
+		return unspecific || contains(feedIds, feedId);
+	}
+
+	/**
+	 * Returns true if the event is unspecific or contains the given item ID.
+	 */
+	public boolean affectsItem(long itemId) {
+		return unspecific || contains(itemIds, itemId);
+	}
+
+	/**
+	 * Returns true if the event is unspecific, contains the ID of the feed or
+	 * contains the ID of one of the feed's items.
+	 *
+	 * @param feed
+	 *            A feed whose items have been loaded.
+	 */
+	public boolean affects(Feed feed) {
+		if (affectsFeed(feed.getId())) {
+			return true;
+		}
+		if (itemIds.length > 0 && feed.getItems() != null) {
+			for (FeedItem item : feed.getItems()) {
+				if (contains(itemIds, item.getId())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Combines this event with another event of the same type. The result
+	 * affects all feeds and items of both events.
+	 */
+	public DatabaseEvent merge(DatabaseEvent other) {
+		if (other.type != type) {
+			throw new IllegalArgumentException("Can't merge events of type "
+					+ type + " and " + other.type);
+		}
+		if (unspecific) {
+			return this;
+		}
+		if (other.unspecific) {
+			return other;
+		}
+		return new DatabaseEvent(type, false, union(feedIds, other.feedIds),
+				union(itemIds, other.itemIds));
+	}
+
+	private static boolean contains(long[] ids, long id) {
+		for (long current : ids) {
+			if (current == id) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static long[] union(long[] a, long[] b) {
+		if (b.length == 0) {
+			return a;
+		}
+		if (a.length == 0) {
+			return b;
+		}
+		long[] result = new long[a.length + b.length];
+		System.arraycopy(a, 0, result, 0, a.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		Arrays.sort(result);
+		int size = 1;
+		for (int i = 1; i < result.length; i++) {
+			if (result[i] != result[size - 1]) {
+				result[size++] = result[i];
+			}
+		}
+		return (size == result.length) ? result : Arrays.copyOf(result, size);
+	}
+
+	@Override
+	public String toString() {
+		return "DatabaseEvent [type=" + type + ", unspecific=" + unspecific
+				+ ", feedIds=" + feedIds.length + ", itemIds=" + itemIds.length
+				+ "]";
+	}
+}
@@ -1,13 +1,17 @@
 package de.danoeh.antennapod.feed;
 
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 import de.danoeh.antennapod.BuildConfig;
 
 import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Notifies its observers about changes in the feed database. Observers can
@@ -17,6 +21,14 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * be notified once if the event queue contains multiple elements.
  * 
  * Events can be sent with the send* methods.
+ * 
+ * Listeners that want to know which feeds and items were affected by a change
+ * can register a TypedEventListener instead. TypedEventListeners receive
+ * {@link DatabaseEvent}s that carry the IDs of the affected feeds and items,
+ * can choose if they want to be notified on the main thread or on a background
+ * thread and coalesce all events that arrive within a time window. Every event
+ * is also delivered to the old EventListeners as a bitmask, so both kinds of
+ * listeners can be used at the same time.
  */
 public class EventDistributor extends Observable {
 	private static final String TAG = "EventDistributor";
@@ -29,14 +41,21 @@ public class EventDistributor extends Observable {
 	public static final int DOWNLOAD_QUEUED = 32;
 	public static final int DOWNLOAD_HANDLED = 64;
 
+	/** Number of event constants. */
+	private static final int NUM_EVENT_TYPES = 7;
+
 	private Handler handler;
 	private AbstractQueue<Integer> events;
 
+	private final CopyOnWriteArrayList<TypedEventListener> typedListeners;
+	private Handler backgroundHandler;
+
 	private static EventDistributor instance;
 
 	private EventDistributor() {
 		this.handler = new Handler();
 		events = new ConcurrentLinkedQueue<Integer>();
+		typedListeners = new CopyOnWriteArrayList<TypedEventListener>();
 	}
 
 	public static synchronized EventDistributor getInstance() {
@@ -54,7 +73,62 @@ public class EventDistributor extends Observable {
 		deleteObserver(el);
 	}
 
+	/**
+	 * Registers a TypedEventListener. Like an EventListener, a listener that
+	 * is already registered is not added a second time.
+	 */
+	public void register(TypedEventListener listener) {
+		if (listener.getDeliveryThread() == TypedEventListener.THREAD_BACKGROUND) {
+			listener.handler = getBackgroundHandler();
+		} else {
+			listener.handler = handler;
+		}
+		typedListeners.addIfAbsent(listener);
+	}
+
+	public void unregister(TypedEventListener listener) {
+		typedListeners.remove(listener);
+		listener.clearPendingEvents();
+	}
+
+	private synchronized Handler getBackgroundHandler() {
+		if (backgroundHandler == null) {
+			HandlerThread thread = new HandlerThread(TAG);
+			thread.start();
+			backgroundHandler = new Handler(thread.getLooper());
+		}
+		return backgroundHandler;
+	}
+
+	/**
+	 * Sends an unspecific event for every bit of the given bitmask.
+	 */
 	public void addEvent(Integer i) {
+		for (int type = 1; type != 0 && type <= i; type <<= 1) {
+			if ((i & type) != 0) {
+				dispatchTyped(new DatabaseEvent(type));
+			}
+		}
+		addLegacyEvent(i);
+	}
+
+	/**
+	 * Sends an event to the TypedEventListeners and the old EventListeners.
+	 */
+	public void sendEvent(DatabaseEvent event) {
+		dispatchTyped(event);
+		addLegacyEvent(event.getType());
+	}
+
+	private void dispatchTyped(DatabaseEvent event) {
+		for (TypedEventListener listener : typedListeners) {
+			if ((listener.getEventMask() & event.getType()) != 0) {
+				listener.addPendingEvent(event);
+			}
+		}
+	}
+
+	private void addLegacyEvent(Integer i) {
 		events.offer(i);
 		handler.post(new Runnable() {
 
@@ -124,6 +198,137 @@ public class EventDistributor extends Observable {
 		addEvent(DOWNLOAD_HANDLED);
 	}
 
+	public void sendUnreadItemsUpdateBroadcast(long[] feedIds, long[] itemIds) {
+		sendEvent(new DatabaseEvent(UNREAD_ITEMS_UPDATE, feedIds, itemIds));
+	}
+
+	public void sendQueueUpdateBroadcast(long... itemIds) {
+		sendEvent(DatabaseEvent.forItems(QUEUE_UPDATE, itemIds));
+	}
+
+	public void sendFeedUpdateBroadcast(long... feedIds) {
+		sendEvent(DatabaseEvent.forFeeds(FEED_LIST_UPDATE, feedIds));
+	}
+
+	public void sendPlaybackHistoryUpdateBroadcast(long... itemIds) {
+		sendEvent(DatabaseEvent.forItems(PLAYBACK_HISTORY_UPDATE, itemIds));
+	}
+
+	/**
+	 * Listener that receives {@link DatabaseEvent}s. All events that arrive
+	 * within the coalescing window are merged, the listener then receives at
+	 * most one event per type.
+	 */
+	public static abstract class TypedEventListener {
+		public static final int THREAD_MAIN = 0;
+		public static final int THREAD_BACKGROUND = 1;
+
+		private final int eventMask;
+		private final int deliveryThread;
+		private final long coalescingWindow;
+
+		private final DatabaseEvent[] pendingEvents = new DatabaseEvent[NUM_EVENT_TYPES];
+		private boolean deliveryScheduled;
+		private Handler handler;
+
+		private final Runnable deliverEvents = new Runnable() {
+			@Override
+			public void run() {
+				List<DatabaseEvent> result = new ArrayList<DatabaseEvent>();
+				synchronized (TypedEventListener.this) {
+					deliveryScheduled = false;
+					for (int i = 0; i < pendingEvents.length; i++) {
+						if (pendingEvents[i] != null) {
+							result.add(pendingEvents[i]);
+							pendingEvents[i] = null;
+						}
+					}
+				}
+				if (!result.isEmpty()) {
+					if (BuildConfig.DEBUG)
+						Log.d(TAG, "Delivering " + result.size()
+								+ " coalesced events");
+					onEvents(result);
+				}
+			}
+		};
+
+		/**
+		 * @param eventMask
+		 *            Bitmask of the event types this listener is interested
+		 *            in.
+		 * @param deliveryThread
+		 *            THREAD_MAIN or THREAD_BACKGROUND. Background listeners
+		 *            share a single thread.
+		 * @param coalescingWindow
+		 *            Time in milliseconds for which events are collected
+		 *            before they are delivered.
+		 */
+		public TypedEventListener(int eventMask, int deliveryThread,
+				long coalescingWindow) {
+			this.eventMask = eventMask;
+			this.deliveryThread = deliveryThread;
+			this.coalescingWindow = coalescingWindow;
+		}
+
+		public int getEventMask() {
+			return eventMask;
+		}
+
+		public int getDeliveryThread() {
+			return deliveryThread;
+		}
+
+		public long getCoalescingWindow() {
+			return coalescingWindow;
+		}
+
+		private synchronized void addPendingEvent(DatabaseEvent event) {
+			final int index = Integer.numberOfTrailingZeros(event.getType());
+			if (pendingEvents[index] == null) {
+				pendingEvents[index] = event;
+			} else {
+				pendingEvents[index] = pendingEvents[index].merge(event);
+			}
+			if (!deliveryScheduled && handler != null) {
+				deliveryScheduled = true;
+				handler.postDelayed(deliverEvents, coalescingWindow);
+			}
+		}
+
+		private synchronized void clearPendingEvents() {
+			if (handler != null) {
+				handler.removeCallbacks(deliverEvents);
+			}
+			deliveryScheduled = false;
+			for (int i = 0; i < pendingEvents.length; i++) {
+				pendingEvents[i] = null;
+			}
+		}
+
+		/**
+		 * Called on the listener's delivery thread.
+		 *
+		 * @param events
+		 *            The coalesced events, at most one per type.
+		 */
+		public abstract void onEvents(List<DatabaseEvent> events);
+
+		/**
+		 * Returns the event of the given type or null if the list doesn't
+		 * contain such an event.
+		 */
+		public static DatabaseEvent getEvent(List<DatabaseEvent> events,
+				int type) {
+			for (DatabaseEvent event : events) {
+				if (event.getType() == type) {
+					return event;
+				}
+			}
+			return null;
+		}
+	}
+
 	public static abstract class EventListener implements Observer {
 
 		@Override
@@ -45,6 +45,10 @@ public class FeedItem extends FeedComponent implements
     private String paymentLink;
     private FlattrStatus flattrStatus;
     private List<Chapter> chapters;
+    /**
+     * True if the item has chapters, which might not have been loaded yet.
+     */
+    private boolean hasChapters;
     private FeedImage image;
 
     public FeedItem() {
@@ -94,7 +98,7 @@ public class FeedItem extends FeedComponent implements
             paymentLink = other.paymentLink;
         }
         if (other.chapters != null) {
-            if (chapters == null) {
+            if (!hasChapters()) {
                 chapters = other.chapters;
             }
         }
@@ -219,12 +223,40 @@ public class FeedItem extends FeedComponent implements
         this.paymentLink = paymentLink;
     }
 
+    /**
+     * Returns the chapters of this item or null if the item doesn't have any chapters or if they haven't been loaded
+     * yet. Chapters are not loaded by this method: they have to be loaded with
+     * {@link DBReader#loadChaptersOfFeedItem(android.content.Context, FeedItem)} on a background thread if
+     * {@link #hasChapters()} is true and {@link #hasLoadedChapters()} is false.
+     */
     public List<Chapter> getChapters() {
         return chapters;
     }
 
     public void setChapters(List<Chapter> chapters) {
         this.chapters = chapters;
+        this.hasChapters = chapters != null;
+    }
+
+    /**
+     * Returns true if this item has chapters, regardless of whether they have been loaded or not.
+     */
+    public boolean hasChapters() {
+        return chapters != null || hasChapters;
+    }
+
+    /**
+     * Sets whether the item has chapters in the database.
+     */
+    public void setHasChapters(boolean hasChapters) {
+        this.hasChapters = hasChapters;
+    }
+
+    /**
+     * Returns true if the chapters of this item have been loaded or set.
+     */
+    public boolean hasLoadedChapters() {
+        return chapters != null;
     }
 
     public String getItemIdentifier() {
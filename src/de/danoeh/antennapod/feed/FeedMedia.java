@@ -9,6 +9,7 @@ import de.danoeh.antennapod.preferences.PlaybackPreferences;
 import de.danoeh.antennapod.storage.DBReader;
 import de.danoeh.antennapod.storage.DBWriter;
 import de.danoeh.antennapod.util.ChapterUtils;
+import de.danoeh.antennapod.util.playback.ChapterTimeline;
 import de.danoeh.antennapod.util.playback.Playable;
 
 import java.io.FileInputStream;
@@ -33,9 +34,13 @@ public class FeedMedia extends FeedFile implements Playable {
     private String mime_type;
     private volatile FeedItem item;
     private Date playbackCompletionDate;
+    private float loudnessGain; // Gain in dB that normalizes the loudness of the downloaded file
+    private volatile ChapterTimeline chapterTimeline;
 
     /* Used for loading item when restoring from parcel. */
     private long itemID;
+    /* True if 'item' has been restored from a PlaybackSnapshot and is not complete. */
+    private volatile boolean itemIsPlaceholder;
 
     public FeedMedia(FeedItem i, String download_url, long size,
                      String mime_type) {
@@ -188,6 +193,47 @@ public class FeedMedia extends FeedFile implements Playable {
         }
     }
 
+    /**
+     * Sets an item that only contains the attributes needed for starting playback, e.g. after this object has been
+     * restored from a PlaybackSnapshot. The placeholder must not be written to the database; it is replaced with the
+     * complete item by replacePlaceholderItem().
+     */
+    public void setPlaceholderItem(FeedItem item) {
+        setItem(item);
+        this.itemID = item.getId();
+        this.itemIsPlaceholder = true;
+    }
+
+    public boolean hasPlaceholderItem() {
+        return itemIsPlaceholder;
+    }
+
+    /**
+     * Loads the complete item from the database if this object only has a placeholder item. This method should not
+     * be called on the main thread.
+     */
+    public void replacePlaceholderItem() {
+        if (itemIsPlaceholder) {
+            FeedItem completeItem = DBReader.getFeedItem(PodcastApp.getInstance(), itemID);
+            if (completeItem != null) {
+                setItem(completeItem);
+                itemIsPlaceholder = false;
+            }
+        }
+    }
+
+    /**
+     * Returns the gain in dB that normalizes the loudness of the downloaded file, or 0 if the file hasn't been
+     * analyzed.
+     */
+    public float getLoudnessGain() {
+        return loudnessGain;
+    }
+
+    public void setLoudnessGain(float loudnessGain) {
+        this.loudnessGain = loudnessGain;
+    }
+
     public Date getPlaybackCompletionDate() {
         return playbackCompletionDate == null
                 ? null : (Date) playbackCompletionDate.clone();
@@ -228,6 +274,7 @@ public class FeedMedia extends FeedFile implements Playable {
         dest.writeByte((byte) ((downloaded) ? 1 : 0));
         dest.writeLong((playbackCompletionDate != null) ? playbackCompletionDate.getTime() : 0);
         dest.writeInt(played_duration);
+        dest.writeFloat(loudnessGain);
     }
 
     @Override
@@ -241,13 +288,15 @@ public class FeedMedia extends FeedFile implements Playable {
         if (item == null && itemID != 0) {
             item = DBReader.getFeedItem(PodcastApp.getInstance(), itemID);
         }
+        loadChaptersFromDatabase();
     }
 
     @Override
     public void loadChapterMarks() {
+        loadChaptersFromDatabase();
         if (getChapters() == null && !localFileAvailable()) {
             ChapterUtils.loadChaptersFromStreamUrl(this);
-            if (getChapters() != null && item != null) {
+            if (getChapters() != null && item != null && !itemIsPlaceholder) {
                 DBWriter.setFeedItem(PodcastApp.getInstance(),
                         item);
             }
@@ -255,6 +304,16 @@ public class FeedMedia extends FeedFile implements Playable {
 
     }
 
+    /**
+     * Loads the chapters of the item if the database contains chapters that haven't been loaded yet.
+     */
+    private void loadChaptersFromDatabase() {
+        final FeedItem item = this.item;
+        if (item != null && !itemIsPlaceholder && item.hasChapters() && !item.hasLoadedChapters()) {
+            DBReader.loadChaptersOfFeedItem(PodcastApp.getInstance(), item);
+        }
+    }
+
     @Override
     public String getEpisodeTitle() {
         if (item == null) {
@@ -275,6 +334,20 @@ public class FeedMedia extends FeedFile implements Playable {
         return getItem().getChapters();
     }
 
+    @Override
+    public ChapterTimeline getChapterTimeline() {
+        final List<Chapter> chapters = getChapters();
+        if (chapters == null) {
+            return null;
+        }
+        ChapterTimeline timeline = chapterTimeline;
+        if (timeline == null || !timeline.isFor(chapters)) {
+            timeline = new ChapterTimeline(chapters);
+            chapterTimeline = timeline;
+        }
+        return timeline;
+    }
+
     @Override
     public String getWebsiteLink() {
         if (item == null) {
@@ -373,6 +446,7 @@ public class FeedMedia extends FeedFile implements Playable {
             FeedMedia result = new FeedMedia(id, null, in.readInt(), in.readInt(), in.readLong(), in.readString(), in.readString(),
                     in.readString(), in.readByte() != 0, new Date(in.readLong()), in.readInt());
             result.itemID = itemID;
+            result.loudnessGain = in.readFloat();
             return result;
         }
 
@@ -16,7 +16,11 @@ import de.danoeh.antennapod.activity.ItemviewActivity;
 import de.danoeh.antennapod.activity.OrganizeQueueActivity;
 import de.danoeh.antennapod.adapter.ActionButtonCallback;
 import de.danoeh.antennapod.adapter.ExternalEpisodesListAdapter;
+import de.danoeh.antennapod.asynctask.FeedItemPager;
+import de.danoeh.antennapod.asynctask.ImageLoader;
+import de.danoeh.antennapod.asynctask.ImagePrefetcher;
 import de.danoeh.antennapod.dialog.DownloadRequestErrorDialogCreator;
+import de.danoeh.antennapod.feed.DatabaseEvent;
 import de.danoeh.antennapod.feed.EventDistributor;
 import de.danoeh.antennapod.feed.FeedItem;
 import de.danoeh.antennapod.storage.DBReader;
@@ -26,6 +30,7 @@ import de.danoeh.antennapod.storage.DownloadRequestException;
 import de.danoeh.antennapod.util.QueueAccess;
 import de.danoeh.antennapod.util.menuhandler.FeedItemMenuHandler;
 
+import java.util.Arrays;
 import java.util.List;
 
 public class EpisodesFragment extends Fragment {
@@ -37,11 +42,26 @@ public class EpisodesFragment extends Fragment {
 			| EventDistributor.DOWNLOAD_HANDLED
 			| EventDistributor.DOWNLOAD_QUEUED;
 
+	/**
+	 * Time in milliseconds for which database events are collected before the lists are updated.
+	 */
+	private static final long EVENT_COALESCING_WINDOW = 100;
+
 	private ExpandableListView listView;
 	private ExternalEpisodesListAdapter adapter;
+	private ImagePrefetcher imagePrefetcher;
 
     private List<FeedItem> queue;
-    private List<FeedItem> unreadItems;
+    private FeedItemPager unreadItems;
+
+    /**
+     * True while the queue is loaded in the background.
+     */
+    private boolean queueLoading;
+    /**
+     * Changes of the queue that have been received while the queue was loaded. Null if there are none.
+     */
+    private DatabaseEvent pendingQueueEvent;
 
 	protected FeedItem selectedItem = null;
 	protected long selectedGroupId = -1;
@@ -51,6 +71,9 @@ public class EpisodesFragment extends Fragment {
 	public void onDestroy() {
 		super.onDestroy();
 		EventDistributor.getInstance().unregister(contentUpdate);
+		if (unreadItems != null) {
+			unreadItems.cancel();
+		}
 	}
 
 	@Override
@@ -63,6 +86,14 @@ public class EpisodesFragment extends Fragment {
 		}
 	}
 
+	@Override
+	public void onPause() {
+		super.onPause();
+		if (imagePrefetcher != null) {
+			imagePrefetcher.release();
+		}
+	}
+
 	@Override
 	public View onCreateView(LayoutInflater inflater, ViewGroup container,
 			Bundle savedInstanceState) {
@@ -97,6 +128,9 @@ public class EpisodesFragment extends Fragment {
 		adapter = new ExternalEpisodesListAdapter(getActivity(),
 				adapterCallback, groupActionCallback, itemAccess);
 		listView.setAdapter(adapter);
+		imagePrefetcher = new ImagePrefetcher(imageResourceAccess, ImagePrefetcher.DEFAULT_PREFETCH_COUNT,
+				(int) getResources().getDimension(R.dimen.thumbnail_length));
+		listView.setOnScrollListener(imagePrefetcher);
 		listView.expandGroup(ExternalEpisodesListAdapter.GROUP_POS_QUEUE);
 		listView.expandGroup(ExternalEpisodesListAdapter.GROUP_POS_UNREAD);
 		listView.setOnChildClickListener(new OnChildClickListener() {
@@ -148,18 +182,59 @@ public class EpisodesFragment extends Fragment {
         }
     };
 
+    private ImagePrefetcher.ImageResourceAccess imageResourceAccess = new ImagePrefetcher.ImageResourceAccess() {
+
+        @Override
+        public int getCount() {
+            return (listView != null) ? listView.getCount() : 0;
+        }
+
+        @Override
+        public ImageLoader.ImageWorkerTaskResource getImageResource(int position) {
+            if (listView == null || adapter == null) {
+                return null;
+            }
+            // positions of the prefetcher are flat list positions, group headers don't have an image
+            long packedPosition = listView.getExpandableListPosition(position);
+            if (ExpandableListView.getPackedPositionType(packedPosition) != ExpandableListView.PACKED_POSITION_TYPE_CHILD) {
+                return null;
+            }
+            return adapter.getChild(ExpandableListView.getPackedPositionGroup(packedPosition),
+                    ExpandableListView.getPackedPositionChild(packedPosition));
+        }
+    };
+
     private void loadData() {
+        loadQueue(null);
+        reloadUnreadItems();
+    }
+
+    /**
+     * Loads the queue in the background. If 'event' is not null, only the FeedItems that are affected by the event
+     * are loaded again, see {@link DBReader#getQueue(Context, List, DatabaseEvent)}. Calls are serialized so that an
+     * update is always applied to the result of the previous one.
+     */
+    private void loadQueue(DatabaseEvent event) {
+        if (queueLoading) {
+            if (event == null) {
+                event = unspecificQueueEvent();
+            }
+            pendingQueueEvent = (pendingQueueEvent != null) ? pendingQueueEvent.merge(event) : event;
+            return;
+        }
+        final List<FeedItem> previous = queue;
+        final DatabaseEvent update = (previous != null) ? event : null;
+        queueLoading = true;
         AsyncTask<Void, Void, Void> loadTask = new AsyncTask<Void, Void, Void>() {
             private volatile List<FeedItem> queueRef;
-            private volatile List<FeedItem> unreadItemsRef;
 
             @Override
             protected Void doInBackground(Void... voids) {
                 if (BuildConfig.DEBUG) Log.d(TAG, "Starting to load list data");
                 Context context = EpisodesFragment.this.getActivity();
                 if (context != null) {
-                    queueRef = DBReader.getQueue(context);
-                    unreadItemsRef = DBReader.getUnreadItemsList(context);
+                    queueRef = (update != null) ? DBReader.getQueue(context, previous, update)
+                            : DBReader.getQueue(context);
                 }
                 return null;
             }
@@ -167,38 +242,111 @@ public class EpisodesFragment extends Fragment {
             @Override
             protected void onPostExecute(Void aVoid) {
                 super.onPostExecute(aVoid);
-                if (queueRef != null && unreadItemsRef != null) {
-                    if (BuildConfig.DEBUG) Log.d(TAG, "Done loading list data");
+                queueLoading = false;
+                if (queueRef != null) {
+                    if (BuildConfig.DEBUG) Log.d(TAG, "Done loading queue");
                     queue = queueRef;
-                    unreadItems = unreadItemsRef;
                     if (adapter != null) {
                         adapter.notifyDataSetChanged();
                     }
                 } else {
-                    if (queueRef == null) {
-                        Log.e(TAG, "Could not load queue");
-                    }
-                    if (unreadItemsRef == null) {
-                        Log.e(TAG, "Could not load unread items");
-                    }
+                    Log.e(TAG, "Could not load queue");
+                }
+                if (pendingQueueEvent != null) {
+                    final DatabaseEvent pending = pendingQueueEvent;
+                    pendingQueueEvent = null;
+                    loadQueue(pending);
                 }
             }
         };
         loadTask.execute();
     }
 
-	private EventDistributor.EventListener contentUpdate = new EventDistributor.EventListener() {
+    private static DatabaseEvent unspecificQueueEvent() {
+        return new DatabaseEvent(EventDistributor.QUEUE_UPDATE);
+    }
+
+    private void reloadUnreadItems() {
+        // the unread items list can be much longer than the queue, it is loaded page by page
+        if (unreadItems == null) {
+            unreadItems = new FeedItemPager(getActivity(), DBReader.ITEM_PAGE_SIZE, new FeedItemPager.Callback() {
+                @Override
+                public void onItemsLoaded() {
+                    if (adapter != null) {
+                        adapter.notifyDataSetChanged();
+                    }
+                }
+            }) {
+                @Override
+                protected List<FeedItem> loadPage(Context context, FeedItem after, int limit) {
+                    return DBReader.getUnreadItemsPage(context, after, limit);
+                }
+            };
+        }
+        unreadItems.reload();
+    }
+
+	private EventDistributor.TypedEventListener contentUpdate = new EventDistributor.TypedEventListener(
+			EVENTS, EventDistributor.TypedEventListener.THREAD_MAIN, EVENT_COALESCING_WINDOW) {
 
 		@Override
-		public void update(EventDistributor eventDistributor, Integer arg) {
-			if ((EVENTS & arg) != 0) {
-				if (BuildConfig.DEBUG)
-					Log.d(TAG, "Received contentUpdate Intent.");
+		public void onEvents(List<DatabaseEvent> events) {
+			if (BuildConfig.DEBUG)
+				Log.d(TAG, "Received contentUpdate Intent.");
+			if (getEvent(events, EventDistributor.DOWNLOAD_HANDLED) != null) {
+				// the event doesn't say which items have been downloaded
 				loadData();
+				return;
+			}
+			final DatabaseEvent unreadItemsUpdate = getEvent(events, EventDistributor.UNREAD_ITEMS_UPDATE);
+			final DatabaseEvent feedListUpdate = getEvent(events, EventDistributor.FEED_LIST_UPDATE);
+			DatabaseEvent queueUpdate = getEvent(events, EventDistributor.QUEUE_UPDATE);
+			queueUpdate = mergeQueueEvent(queueUpdate, unreadItemsUpdate);
+			queueUpdate = mergeQueueEvent(queueUpdate, feedListUpdate);
+			if (queueUpdate != null) {
+				loadQueue(queueUpdate);
+			}
+			if (unreadItemsUpdate != null || feedListUpdate != null) {
+				// items can become unread or read, so the pages have to be loaded again
+				reloadUnreadItems();
+			}
+			if (queueUpdate == null && unreadItemsUpdate == null && feedListUpdate == null && adapter != null) {
+				adapter.notifyDataSetChanged();
 			}
 		}
 	};
 
+	/**
+	 * Adds the items of the queue that are affected by an event of another type to a QUEUE_UPDATE event.
+	 *
+	 * @param queueUpdate A QUEUE_UPDATE event or null.
+	 * @param other       An event of another type or null.
+	 * @return The merged QUEUE_UPDATE event or null if both events are null or no item of the queue is affected.
+	 */
+	private DatabaseEvent mergeQueueEvent(DatabaseEvent queueUpdate, DatabaseEvent other) {
+		if (other == null) {
+			return queueUpdate;
+		}
+		DatabaseEvent derived;
+		if (other.isUnspecific() || queue == null) {
+			derived = unspecificQueueEvent();
+		} else {
+			long[] itemIds = new long[queue.size()];
+			int numAffected = 0;
+			for (FeedItem item : queue) {
+				if (other.affectsItem(item.getId())
+						|| (item.getFeed() != null && other.affectsFeed(item.getFeed().getId()))) {
+					itemIds[numAffected++] = item.getId();
+				}
+			}
+			if (numAffected == 0) {
+				return queueUpdate;
+			}
+			derived = DatabaseEvent.forItems(EventDistributor.QUEUE_UPDATE, Arrays.copyOf(itemIds, numAffected));
+		}
+		return (queueUpdate != null) ? queueUpdate.merge(derived) : derived;
+	}
+
 	@Override
 	public void onCreateContextMenu(final ContextMenu menu, View v,
 			ContextMenuInfo menuInfo) {
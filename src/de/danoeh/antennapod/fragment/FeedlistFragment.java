@@ -9,6 +9,7 @@ import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v7.app.ActionBarActivity;
 import android.support.v7.view.ActionMode;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.*;
 import android.widget.*;
@@ -17,8 +18,11 @@ import de.danoeh.antennapod.R;
 import de.danoeh.antennapod.activity.FeedItemlistActivity;
 import de.danoeh.antennapod.adapter.FeedlistAdapter;
 import de.danoeh.antennapod.asynctask.FeedRemover;
+import de.danoeh.antennapod.asynctask.ImageLoader;
+import de.danoeh.antennapod.asynctask.ImagePrefetcher;
 import de.danoeh.antennapod.dialog.ConfirmationDialog;
 import de.danoeh.antennapod.dialog.DownloadRequestErrorDialogCreator;
+import de.danoeh.antennapod.feed.DatabaseEvent;
 import de.danoeh.antennapod.feed.EventDistributor;
 import de.danoeh.antennapod.feed.Feed;
 import de.danoeh.antennapod.storage.DBReader;
@@ -26,7 +30,10 @@ import de.danoeh.antennapod.storage.DownloadRequestException;
 import de.danoeh.antennapod.storage.FeedItemStatistics;
 import de.danoeh.antennapod.util.menuhandler.FeedMenuHandler;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class FeedlistFragment extends Fragment implements
         ActionMode.Callback, AdapterView.OnItemClickListener,
@@ -38,11 +45,19 @@ public class FeedlistFragment extends Fragment implements
             | EventDistributor.FEED_LIST_UPDATE
             | EventDistributor.UNREAD_ITEMS_UPDATE;
 
+    /**
+     * Time in milliseconds for which database events are collected before the list is updated.
+     */
+    private static final long EVENT_COALESCING_WINDOW = 100;
+
     public static final String EXTRA_SELECTED_FEED = "extra.de.danoeh.antennapod.activity.selected_feed";
 
     private FeedlistAdapter fla;
     private List<Feed> feeds;
-    private List<FeedItemStatistics> feedItemStatistics;
+    /**
+     * Statistics by the ID of their feed.
+     */
+    private Map<Long, FeedItemStatistics> feedItemStatistics;
 
     private Feed selectedFeed;
     private ActionMode mActionMode;
@@ -50,6 +65,7 @@ public class FeedlistFragment extends Fragment implements
     private GridView gridView;
     private ListView listView;
     private TextView emptyView;
+    private ImagePrefetcher imagePrefetcher;
 
     private FeedlistAdapter.ItemAccess itemAccess = new FeedlistAdapter.ItemAccess() {
 
@@ -64,8 +80,8 @@ public class FeedlistFragment extends Fragment implements
 
         @Override
         public FeedItemStatistics getFeedItemStatistics(int position) {
-            if (feedItemStatistics != null && position < feedItemStatistics.size()) {
-                return feedItemStatistics.get(position);
+            if (feeds != null && feedItemStatistics != null && position < feeds.size()) {
+                return feedItemStatistics.get(feeds.get(position).getId());
             } else {
                 return null;
             }
@@ -81,6 +97,20 @@ public class FeedlistFragment extends Fragment implements
         }
     };
 
+    private ImagePrefetcher.ImageResourceAccess imageResourceAccess = new ImagePrefetcher.ImageResourceAccess() {
+
+        @Override
+        public int getCount() {
+            return itemAccess.getCount();
+        }
+
+        @Override
+        public ImageLoader.ImageWorkerTaskResource getImageResource(int position) {
+            Feed feed = itemAccess.getItem(position);
+            return (feed != null) ? feed.getImage() : null;
+        }
+    };
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -109,7 +139,7 @@ public class FeedlistFragment extends Fragment implements
                 super.onPostExecute(result);
                 if (result != null) {
                     feeds = result[0];
-                    feedItemStatistics = result[1];
+                    feedItemStatistics = toMap(result[1]);
                     setEmptyViewIfListIsEmpty();
                     if (fla != null) {
                         fla.notifyDataSetChanged();
@@ -122,6 +152,113 @@ public class FeedlistFragment extends Fragment implements
         loadTask.execute();
     }
 
+    /**
+     * Loads only the given feeds and the statistics again. The whole list is loaded if one of the feeds is not in the
+     * list yet or if its title has changed, because the list is sorted by title.
+     */
+    private void updateFeeds(final long[] feedIds) {
+        if (feeds == null) {
+            loadFeeds();
+            return;
+        }
+        for (long feedId : feedIds) {
+            if (indexOfFeed(feeds, feedId) < 0) {
+                loadFeeds();
+                return;
+            }
+        }
+        AsyncTask<Void, Void, Feed[]> loadTask = new AsyncTask<Void, Void, Feed[]>() {
+            private volatile List<FeedItemStatistics> statisticsRef;
+
+            @Override
+            protected Feed[] doInBackground(Void... params) {
+                Context context = getActivity();
+                if (context == null) {
+                    return null;
+                }
+                Feed[] result = new Feed[feedIds.length];
+                for (int i = 0; i < feedIds.length; i++) {
+                    result[i] = DBReader.getFeed(context, feedIds[i], false);
+                }
+                statisticsRef = DBReader.getFeedStatisticsList(context);
+                return result;
+            }
+
+            @Override
+            protected void onPostExecute(Feed[] result) {
+                super.onPostExecute(result);
+                if (result == null || feeds == null) {
+                    return;
+                }
+                List<Feed> updatedFeeds = new ArrayList<Feed>(feeds);
+                for (int i = 0; i < feedIds.length; i++) {
+                    final int index = indexOfFeed(updatedFeeds, feedIds[i]);
+                    if (index < 0) {
+                        continue;
+                    }
+                    if (result[i] == null) {
+                        // the feed has been deleted
+                        updatedFeeds.remove(index);
+                    } else if (TextUtils.equals(result[i].getTitle(), updatedFeeds.get(index).getTitle())) {
+                        updatedFeeds.set(index, result[i]);
+                    } else {
+                        loadFeeds();
+                        return;
+                    }
+                }
+                feeds = updatedFeeds;
+                feedItemStatistics = toMap(statisticsRef);
+                setEmptyViewIfListIsEmpty();
+                if (fla != null) {
+                    fla.notifyDataSetChanged();
+                }
+            }
+        };
+        loadTask.execute();
+    }
+
+    /**
+     * Loads only the statistics again, e.g. after items have been marked as read.
+     */
+    private void loadStatistics() {
+        AsyncTask<Void, Void, List<FeedItemStatistics>> loadTask = new AsyncTask<Void, Void, List<FeedItemStatistics>>() {
+            @Override
+            protected List<FeedItemStatistics> doInBackground(Void... params) {
+                Context context = getActivity();
+                return (context != null) ? DBReader.getFeedStatisticsList(context) : null;
+            }
+
+            @Override
+            protected void onPostExecute(List<FeedItemStatistics> result) {
+                super.onPostExecute(result);
+                if (result != null) {
+                    feedItemStatistics = toMap(result);
+                    if (fla != null) {
+                        fla.notifyDataSetChanged();
+                    }
+                }
+            }
+        };
+        loadTask.execute();
+    }
+
+    private static int indexOfFeed(List<Feed> feedList, long feedId) {
+        for (int i = 0; i < feedList.size(); i++) {
+            if (feedList.get(i).getId() == feedId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Map<Long, FeedItemStatistics> toMap(List<FeedItemStatistics> statistics) {
+        Map<Long, FeedItemStatistics> result = new HashMap<Long, FeedItemStatistics>(statistics.size());
+        for (FeedItemStatistics s : statistics) {
+            result.put(s.getFeedID(), s);
+        }
+        return result;
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -137,6 +274,9 @@ public class FeedlistFragment extends Fragment implements
     @Override
     public void onViewCreated(View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
+        imagePrefetcher = new ImagePrefetcher(imageResourceAccess, ImagePrefetcher.DEFAULT_PREFETCH_COUNT,
+                (int) getResources().getDimension(R.dimen.thumbnail_length));
+        getMainView().setOnScrollListener(imagePrefetcher);
         if (listView != null) {
             listView.setOnItemClickListener(this);
             listView.setOnItemLongClickListener(this);
@@ -175,16 +315,30 @@ public class FeedlistFragment extends Fragment implements
         if (mActionMode != null) {
             mActionMode.finish();
         }
+        if (imagePrefetcher != null) {
+            imagePrefetcher.release();
+        }
     }
 
-    private EventDistributor.EventListener contentUpdate = new EventDistributor.EventListener() {
+    private EventDistributor.TypedEventListener contentUpdate = new EventDistributor.TypedEventListener(
+            EVENTS, EventDistributor.TypedEventListener.THREAD_MAIN, EVENT_COALESCING_WINDOW) {
 
         @Override
-        public void update(EventDistributor eventDistributor, Integer arg) {
-            if ((EVENTS & arg) != 0) {
-                if (BuildConfig.DEBUG)
-                    Log.d(TAG, "Received contentUpdate Intent.");
+        public void onEvents(List<DatabaseEvent> events) {
+            if (BuildConfig.DEBUG)
+                Log.d(TAG, "Received contentUpdate Intent.");
+            DatabaseEvent feedListUpdate = getEvent(events, EventDistributor.FEED_LIST_UPDATE);
+            if (getEvent(events, EventDistributor.DOWNLOAD_HANDLED) != null
+                    || (feedListUpdate != null && feedListUpdate.isUnspecific())) {
+                // the event doesn't say which feed has changed, e.g. after an image has been downloaded
                 loadFeeds();
+            } else if (feedListUpdate != null) {
+                updateFeeds(feedListUpdate.getFeedIds());
+            } else if (getEvent(events, EventDistributor.UNREAD_ITEMS_UPDATE) != null) {
+                // the feeds themselves don't change when items are marked as read
+                loadStatistics();
+            } else if (fla != null) {
+                fla.notifyDataSetChanged();
             }
         }
     };
@@ -17,14 +17,18 @@ import de.danoeh.antennapod.R;
 import de.danoeh.antennapod.activity.ItemviewActivity;
 import de.danoeh.antennapod.adapter.ActionButtonCallback;
 import de.danoeh.antennapod.adapter.InternalFeedItemlistAdapter;
+import de.danoeh.antennapod.asynctask.FeedItemPager;
 import de.danoeh.antennapod.dialog.DownloadRequestErrorDialogCreator;
+import de.danoeh.antennapod.feed.DatabaseEvent;
 import de.danoeh.antennapod.feed.EventDistributor;
 import de.danoeh.antennapod.feed.Feed;
 import de.danoeh.antennapod.feed.FeedItem;
+import de.danoeh.antennapod.preferences.UserPreferences;
 import de.danoeh.antennapod.service.download.DownloadService;
 import de.danoeh.antennapod.storage.DBReader;
 import de.danoeh.antennapod.storage.DownloadRequestException;
 import de.danoeh.antennapod.storage.DownloadRequester;
+import de.danoeh.antennapod.storage.QueueIndex;
 import de.danoeh.antennapod.util.QueueAccess;
 import de.danoeh.antennapod.util.menuhandler.FeedItemMenuHandler;
 
@@ -40,12 +44,16 @@ public class ItemlistFragment extends ListFragment {
 			| EventDistributor.QUEUE_UPDATE
 			| EventDistributor.UNREAD_ITEMS_UPDATE;
 
+	/** Time in milliseconds for which database events are collected before the list is updated. */
+	private static final long EVENT_COALESCING_WINDOW = 100;
+
 	public static final String EXTRA_SELECTED_FEEDITEM = "extra.de.danoeh.antennapod.activity.selected_feeditem";
 	public static final String ARGUMENT_FEED_ID = "argument.de.danoeh.antennapod.feed_id";
 	protected InternalFeedItemlistAdapter fila;
 
 	private Feed feed;
-    protected List<Long> queue;
+    private FeedItemPager items;
+    protected QueueIndex queue;
 
 	protected FeedItem selectedItem = null;
 	protected boolean contextMenuClosed = true;
@@ -87,12 +95,12 @@ public class ItemlistFragment extends ListFragment {
 
                 @Override
                 public FeedItem getItem(int position) {
-                    return (feed != null) ? feed.getItemAtIndex(true, position) : null;
+                    return (items != null) ? items.get(position) : null;
                 }
 
                 @Override
                 public int getCount() {
-                    return (feed != null) ? feed.getNumOfItems(true) : 0;
+                    return (items != null) ? items.size() : 0;
                 }
 
                 @Override
@@ -124,29 +132,33 @@ public class ItemlistFragment extends ListFragment {
         if (currentLoadTask != null) {
             currentLoadTask.cancel(true);
         }
+        if (items != null) {
+            items.cancel();
+        }
     }
 
     protected synchronized void loadData() {
-        final long feedId;
-        if (feed == null) {
-            feedId = getArguments().getLong(ARGUMENT_FEED_ID);
-        } else {
-            feedId = feed.getId();
+        if (feed != null && items != null) {
+            // the feed's attributes are not displayed by this fragment, only the items have to be loaded again
+            items.reload();
+            return;
         }
+        final long feedId = getArguments().getLong(ARGUMENT_FEED_ID);
         if (currentLoadTask != null) {
             currentLoadTask.cancel(true);
         }
         AsyncTask<Long, Void, Feed> loadTask = new AsyncTask<Long, Void, Feed>(){
-            private volatile List<Long> queueRef;
+            private volatile QueueIndex queueRef;
 
             @Override
             protected Feed doInBackground(Long... longs) {
                 Context context = ItemlistFragment.this.getActivity();
                 if (context != null) {
-                    Feed result = DBReader.getFeed(context, longs[0]);
+                    Feed result = DBReader.getFeed(context, longs[0], false);
                     if (result != null) {
-                        result.setItems(DBReader.getFeedItemList(context, result));
-                        queueRef = DBReader.getQueueIDList(context);
+                        QueueIndex queueIndex = QueueIndex.getInstance(context);
+                        queueIndex.load();
+                        queueRef = queueIndex;
                         return result;
                     }
                 }
@@ -156,23 +168,17 @@ public class ItemlistFragment extends ListFragment {
             @Override
             protected void onPostExecute(Feed result) {
                 super.onPostExecute(result);
-                if (result != null && result.getItems() != null) {
+                if (result != null) {
                     feed = result;
                     if (queueRef != null) {
                         queue = queueRef;
                     } else {
                         Log.e(TAG, "Could not load queue");
                     }
-                    setEmptyViewIfListIsEmpty();
-                    if (fila != null) {
-                        fila.notifyDataSetChanged();
-                    }
+                    items = createFeedItemPager(result);
+                    items.reload();
                 } else {
-                    if (result == null) {
-                        Log.e(TAG, "Could not load feed with id " + feedId);
-                    } else if (result.getItems() == null) {
-                        Log.e(TAG, "Could not load feed items");
-                    }
+                    Log.e(TAG, "Could not load feed with id " + feedId);
                 }
             }
         };
@@ -180,9 +186,29 @@ public class ItemlistFragment extends ListFragment {
         loadTask.execute(feedId);
     }
 
+    private FeedItemPager createFeedItemPager(final Feed feed) {
+        return new FeedItemPager(getActivity(), DBReader.ITEM_PAGE_SIZE, new FeedItemPager.Callback() {
+            @Override
+            public void onItemsLoaded() {
+                if (getActivity() == null) {
+                    return;
+                }
+                setEmptyViewIfListIsEmpty();
+                if (fila != null) {
+                    fila.notifyDataSetChanged();
+                }
+            }
+        }) {
+            @Override
+            protected List<FeedItem> loadPage(Context context, FeedItem after, int limit) {
+                return DBReader.getFeedItemPage(context, feed, UserPreferences.isDisplayOnlyEpisodes(), after, limit);
+            }
+        };
+    }
+
     private void setEmptyViewIfListIsEmpty() {
-        if (getListView() != null && feed != null && feed.getItems() != null) {
-            if (feed.getItems().isEmpty()) {
+        if (getListView() != null && items != null && items.isComplete()) {
+            if (items.size() == 0) {
                 ((TextView) getActivity().findViewById(android.R.id.empty)).setText(R.string.no_items_label);
             }
         }
@@ -217,21 +243,28 @@ public class ItemlistFragment extends ListFragment {
 		startActivity(showItem);
 	}
 
-	private EventDistributor.EventListener contentUpdate = new EventDistributor.EventListener() {
+	private EventDistributor.TypedEventListener contentUpdate = new EventDistributor.TypedEventListener(
+			EVENTS, EventDistributor.TypedEventListener.THREAD_MAIN, EVENT_COALESCING_WINDOW) {
 
 		@Override
-		public void update(EventDistributor eventDistributor, Integer arg) {
-			if ((EVENTS & arg) != 0) {
-				if (BuildConfig.DEBUG)
-					Log.d(TAG, "Received contentUpdate Intent.");
-				if ((EventDistributor.DOWNLOAD_QUEUED & arg) != 0) {
-					updateProgressBarVisibility();
-				} else {
-                    if (feed != null) {
+		public void onEvents(List<DatabaseEvent> events) {
+			if (BuildConfig.DEBUG)
+				Log.d(TAG, "Received contentUpdate Intent.");
+			if (getEvent(events, EventDistributor.DOWNLOAD_QUEUED) != null) {
+				updateProgressBarVisibility();
+			} else {
+                if (feed != null && items != null) {
+                    DatabaseEvent unreadItemsUpdate = getEvent(events, EventDistributor.UNREAD_ITEMS_UPDATE);
+                    if (getEvent(events, EventDistributor.DOWNLOAD_HANDLED) != null
+                            || (unreadItemsUpdate != null && (unreadItemsUpdate.affectsFeed(feed.getId())
+                            || items.isAffectedBy(unreadItemsUpdate)))) {
                         loadData();
+                    } else if (getEvent(events, EventDistributor.QUEUE_UPDATE) != null && fila != null) {
+                        // the queue state of the items is read from the QueueIndex, which is already up to date
+                        fila.notifyDataSetChanged();
                     }
-					updateProgressBarVisibility();
-				}
+                }
+				updateProgressBarVisibility();
 			}
 		}
 	};
@@ -291,7 +324,7 @@ public class ItemlistFragment extends ListFragment {
                         public void setItemVisibility(int id, boolean visible) {
                             menu.findItem(id).setVisible(visible);
                         }
-                    }, selectedItem, false, QueueAccess.IDListAccess(queue));
+                    }, selectedItem, false, (queue != null) ? QueueAccess.IndexAccess(getActivity(), queue) : QueueAccess.NotInQueueAccess());
 
 		}
 	}
@@ -6,15 +6,27 @@ import android.os.Bundle;
 import android.util.Log;
 import de.danoeh.antennapod.BuildConfig;
 import de.danoeh.antennapod.adapter.InternalFeedItemlistAdapter;
+import de.danoeh.antennapod.feed.DatabaseEvent;
 import de.danoeh.antennapod.feed.EventDistributor;
 import de.danoeh.antennapod.feed.FeedItem;
 import de.danoeh.antennapod.storage.DBReader;
+import de.danoeh.antennapod.storage.QueueIndex;
+import de.danoeh.antennapod.util.comparator.PlaybackCompletionDateComparator;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 public class PlaybackHistoryFragment extends ItemlistFragment {
 	private static final String TAG = "PlaybackHistoryFragment";
 
+	private static final int EVENTS = EventDistributor.PLAYBACK_HISTORY_UPDATE
+			| EventDistributor.QUEUE_UPDATE;
+
+	/** Time in milliseconds for which database events are collected before the list is updated. */
+	private static final long EVENT_COALESCING_WINDOW = 100;
+
     private List<FeedItem> playbackHistory;
 
 	public PlaybackHistoryFragment() {
@@ -58,30 +70,85 @@ public class PlaybackHistoryFragment extends ItemlistFragment {
 		EventDistributor.getInstance().unregister(historyUpdate);
 	}
 
-	private EventDistributor.EventListener historyUpdate = new EventDistributor.EventListener() {
+	private EventDistributor.TypedEventListener historyUpdate = new EventDistributor.TypedEventListener(
+			EVENTS, EventDistributor.TypedEventListener.THREAD_MAIN, EVENT_COALESCING_WINDOW) {
 
 		@Override
-		public void update(EventDistributor eventDistributor, Integer arg) {
-			if ((EventDistributor.PLAYBACK_HISTORY_UPDATE & arg) != 0) {
-				if (BuildConfig.DEBUG)
-					Log.d(TAG, "Received content update");
-				loadData();
+		public void onEvents(List<DatabaseEvent> events) {
+			if (BuildConfig.DEBUG)
+				Log.d(TAG, "Received content update");
+			DatabaseEvent update = getEvent(events, EventDistributor.PLAYBACK_HISTORY_UPDATE);
+			if (update != null) {
+				if (update.isUnspecific() || playbackHistory == null) {
+					loadData();
+				} else {
+					addItems(update.getItemIds());
+				}
+			} else if (fila != null) {
+				// the queue state of the items is read from the QueueIndex, which is already up to date
+				fila.notifyDataSetChanged();
 			}
-
 		}
 	};
 
+    /**
+     * Loads the FeedItems that have been added to the playback history and puts them at the right position of the
+     * list instead of loading the whole history again.
+     */
+    private void addItems(final long[] itemIds) {
+        AsyncTask<Void, Void, List<FeedItem>> loadTask = new AsyncTask<Void, Void, List<FeedItem>>() {
+            @Override
+            protected List<FeedItem> doInBackground(Void... voids) {
+                Context context = PlaybackHistoryFragment.this.getActivity();
+                if (context != null) {
+                    return DBReader.getFeedItems(context, itemIds);
+                }
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(List<FeedItem> result) {
+                super.onPostExecute(result);
+                if (result == null || playbackHistory == null) {
+                    return;
+                }
+                List<FeedItem> history = new ArrayList<FeedItem>(playbackHistory);
+                for (Iterator<FeedItem> it = history.iterator(); it.hasNext(); ) {
+                    final long id = it.next().getId();
+                    for (long itemId : itemIds) {
+                        if (id == itemId) {
+                            it.remove();
+                            break;
+                        }
+                    }
+                }
+                history.addAll(result);
+                Collections.sort(history, new PlaybackCompletionDateComparator());
+                if (history.size() > DBReader.PLAYBACK_HISTORY_SIZE) {
+                    history = history.subList(0, DBReader.PLAYBACK_HISTORY_SIZE);
+                }
+                playbackHistory = history;
+                if (fila != null) {
+                    fila.notifyDataSetChanged();
+                }
+            }
+        };
+        loadTask.execute();
+    }
+
     @Override
     protected void loadData() {
         AsyncTask<Void, Void, Void> loadTask = new AsyncTask<Void, Void, Void>() {
             private volatile List<FeedItem> phRef;
-            private volatile List<Long> queueRef;
+            private volatile QueueIndex queueRef;
 
             @Override
             protected Void doInBackground(Void... voids) {
                 Context context = PlaybackHistoryFragment.this.getActivity();
                 if (context != null) {
-                    queueRef = DBReader.getQueueIDList(context);
+                    QueueIndex queueIndex = QueueIndex.getInstance(context);
+                    queueIndex.load();
+                    queueRef = queueIndex;
                     phRef = DBReader.getPlaybackHistory(context);
                 }
                 return null;
@@ -48,6 +48,12 @@ public class UserPreferences implements
 	private static final String PREF_PLAYBACK_SPEED = "prefPlaybackSpeed";
 	private static final String PREF_PLAYBACK_SPEED_ARRAY = "prefPlaybackSpeedArray";
 	public static final String PREF_PAUSE_PLAYBACK_FOR_FOCUS_LOSS = "prefPauseForFocusLoss";
+	public static final String PREF_SLEEP_TIMER_FADE_OUT = "prefSleepTimerFadeOut";
+	public static final String PREF_SLEEP_TIMER_SHAKE_TO_EXTEND = "prefSleepTimerShakeToExtend";
+	public static final String PREF_BUILTIN_VARIABLE_SPEED = "prefBuiltinVariableSpeed";
+	public static final String PREF_SKIP_SILENCE = "prefSkipSilence";
+	public static final String PREF_NORMALIZE_LOUDNESS = "prefNormalizeLoudness";
+	private static final String PREF_SKIPPED_SILENCE_TIME = "prefSkippedSilenceTime";
 
     // TODO: Make this value configurable
     private static final double PLAYED_DURATION_AUTOFLATTR_THRESHOLD = 0.8;
@@ -74,6 +80,11 @@ public class UserPreferences implements
 	private String playbackSpeed;
 	private String[] playbackSpeedArray;
 	private boolean pauseForFocusLoss;
+	private boolean sleepTimerFadeOut;
+	private boolean sleepTimerShakeToExtend;
+	private boolean builtinVariableSpeed;
+	private boolean skipSilence;
+	private boolean normalizeLoudness;
 
 	private UserPreferences(Context context) {
 		this.context = context;
@@ -128,6 +139,11 @@ public class UserPreferences implements
 		playbackSpeedArray = readPlaybackSpeedArray(sp.getString(
 				PREF_PLAYBACK_SPEED_ARRAY, null));
 		pauseForFocusLoss = sp.getBoolean(PREF_PAUSE_PLAYBACK_FOR_FOCUS_LOSS, false);
+		sleepTimerFadeOut = sp.getBoolean(PREF_SLEEP_TIMER_FADE_OUT, true);
+		sleepTimerShakeToExtend = sp.getBoolean(PREF_SLEEP_TIMER_SHAKE_TO_EXTEND, false);
+		builtinVariableSpeed = sp.getBoolean(PREF_BUILTIN_VARIABLE_SPEED, false);
+		skipSilence = sp.getBoolean(PREF_SKIP_SILENCE, false);
+		normalizeLoudness = sp.getBoolean(PREF_NORMALIZE_LOUDNESS, false);
 	}
 
 	private int readThemeValue(String valueFromPrefs) {
@@ -282,6 +298,79 @@ public class UserPreferences implements
 		return instance.pauseForFocusLoss;
 	}
 
+	/**
+	 * Returns true if the volume should be lowered gradually before the sleep timer pauses playback.
+	 */
+	public static boolean isSleepTimerFadeOut() {
+		instanceAvailable();
+		return instance.sleepTimerFadeOut;
+	}
+
+	/**
+	 * Returns true if shaking the device should extend a sleep timer that is about to expire.
+	 */
+	public static boolean isSleepTimerShakeToExtend() {
+		instanceAvailable();
+		return instance.sleepTimerShakeToExtend;
+	}
+
+	/**
+	 * Returns true if variable speed playback should be done by the built-in time-stretching engine when the Presto
+	 * plugin is not installed.
+	 */
+	public static boolean useBuiltinVariableSpeed() {
+		instanceAvailable();
+		return instance.builtinVariableSpeed;
+	}
+
+	/**
+	 * Returns true if long silences should be shortened during playback.
+	 */
+	public static boolean isSkipSilence() {
+		instanceAvailable();
+		return instance.skipSilence;
+	}
+
+	/**
+	 * Returns true if the loudness of downloaded episodes should be measured and normalized during playback.
+	 */
+	public static boolean isNormalizeLoudness() {
+		instanceAvailable();
+		return instance.normalizeLoudness;
+	}
+
+	/**
+	 * Returns true if the in-process media player should be used, i.e. if one of its features has been enabled.
+	 */
+	public static boolean useInProcessPlayer() {
+		instanceAvailable();
+		return instance.builtinVariableSpeed || instance.skipSilence || instance.normalizeLoudness;
+	}
+
+	/**
+	 * Returns the playback time in milliseconds that has been saved by shortening silences so far.
+	 */
+	public static long getSkippedSilenceTime() {
+		instanceAvailable();
+		return PreferenceManager.getDefaultSharedPreferences(instance.context)
+				.getLong(PREF_SKIPPED_SILENCE_TIME, 0);
+	}
+
+	/**
+	 * Adds the given playback time in milliseconds to the time that has been saved by shortening silences.
+	 */
+	public static void addSkippedSilenceTime(long time) {
+		instanceAvailable();
+		if (time <= 0) {
+			return;
+		}
+		synchronized (instance) {
+			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(instance.context);
+			prefs.edit().putLong(PREF_SKIPPED_SILENCE_TIME,
+					prefs.getLong(PREF_SKIPPED_SILENCE_TIME, 0) + time).apply();
+		}
+	}
+
 	@Override
 	public void onSharedPreferenceChanged(SharedPreferences sp, String key) {
 		if (BuildConfig.DEBUG)
@@ -332,6 +421,16 @@ public class UserPreferences implements
 			pauseForFocusLoss = sp.getBoolean(PREF_PAUSE_PLAYBACK_FOR_FOCUS_LOSS, false);
 		} else if (key.equals(PREF_PAUSE_ON_HEADSET_DISCONNECT)) {
             pauseOnHeadsetDisconnect = sp.getBoolean(PREF_PAUSE_ON_HEADSET_DISCONNECT, true);
+        } else if (key.equals(PREF_SLEEP_TIMER_FADE_OUT)) {
+            sleepTimerFadeOut = sp.getBoolean(PREF_SLEEP_TIMER_FADE_OUT, true);
+        } else if (key.equals(PREF_SLEEP_TIMER_SHAKE_TO_EXTEND)) {
+            sleepTimerShakeToExtend = sp.getBoolean(PREF_SLEEP_TIMER_SHAKE_TO_EXTEND, false);
+        } else if (key.equals(PREF_BUILTIN_VARIABLE_SPEED)) {
+            builtinVariableSpeed = sp.getBoolean(PREF_BUILTIN_VARIABLE_SPEED, false);
+        } else if (key.equals(PREF_SKIP_SILENCE)) {
+            skipSilence = sp.getBoolean(PREF_SKIP_SILENCE, false);
+        } else if (key.equals(PREF_NORMALIZE_LOUDNESS)) {
+            normalizeLoudness = sp.getBoolean(PREF_NORMALIZE_LOUDNESS, false);
         }
 	}
 
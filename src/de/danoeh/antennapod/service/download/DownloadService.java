@@ -18,12 +18,14 @@ import android.os.IBinder;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 import android.webkit.URLUtil;
+import com.aocate.media.LoudnessAnalyzer;
 import de.danoeh.antennapod.BuildConfig;
 import de.danoeh.antennapod.R;
 import de.danoeh.antennapod.activity.DownloadActivity;
 import de.danoeh.antennapod.activity.DownloadAuthenticationActivity;
 import de.danoeh.antennapod.activity.DownloadLogActivity;
 import de.danoeh.antennapod.feed.*;
+import de.danoeh.antennapod.preferences.UserPreferences;
 import de.danoeh.antennapod.storage.*;
 import de.danoeh.antennapod.syndication.handler.FeedHandler;
 import de.danoeh.antennapod.syndication.handler.UnsupportedFeedtypeException;
@@ -47,6 +49,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  * Manages the download of feedfiles in the app. Downloads can be enqueued viathe startService intent.
  * The argument of the intent is an instance of DownloadRequest in the EXTRA_REQUEST field of
  * the intent.
+ * Files that have been written by other components can be handed over with the EXTRA_COMPLETED_REQUEST field instead.
  * After the downloads have finished, the downloaded object will be passed on to a specific handler, depending on the
  * type of the feedfile.
  */
@@ -80,6 +83,12 @@ public class DownloadService extends Service {
      */
     public static final String EXTRA_REQUEST = "request";
 
+    /**
+     * Extra for a DownloadRequest whose file has already been written to its destination, e.g. by the StreamProxy after
+     * an episode has been cached completely. The file is handled like the file of a completed download.
+     */
+    public static final String EXTRA_COMPLETED_REQUEST = "completedRequest";
+
     /**
      * Stores DownloadStatus objects of completed downloads for creating a report at the end of the lifecylce.
      */
@@ -183,6 +192,8 @@ public class DownloadService extends Service {
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent.getParcelableExtra(EXTRA_REQUEST) != null) {
             onDownloadQueued(intent);
+        } else if (intent.getParcelableExtra(EXTRA_COMPLETED_REQUEST) != null) {
+            onCompletedDownloadReceived(intent);
         } else if (numberOfDownloads.get() == 0) {
             stopSelf();
         }
@@ -414,6 +425,18 @@ public class DownloadService extends Service {
         queryDownloads();
     }
 
+    private void onCompletedDownloadReceived(Intent intent) {
+        DownloadRequest request = intent.getParcelableExtra(EXTRA_COMPLETED_REQUEST);
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, "Received completed request for " + request.getDestination());
+        if (request.getFeedfileType() != FeedMedia.FEEDFILETYPE_FEEDMEDIA) {
+            throw new IllegalArgumentException("EXTRA_COMPLETED_REQUEST must refer to a FeedMedia object");
+        }
+        numberOfDownloads.incrementAndGet();
+        handleCompletedFeedMediaDownload(new DownloadStatus(request, null, true, false, null), request);
+        queryDownloads();
+    }
+
     private Downloader getDownloader(DownloadRequest request) {
         if (URLUtil.isHttpUrl(request.getSource())
                 || URLUtil.isHttpsUrl(request.getSource())) {
@@ -905,7 +928,19 @@ public class DownloadService extends Service {
                 }
             }
 
-            if (media.getItem().getChapters() == null) {
+            // Measure loudness; this decodes the whole file, so only do it if the result is going to be used
+            if (UserPreferences.isNormalizeLoudness() && com.aocate.media.MediaPlayer.isTimeStretchingAvailable()
+                    && media.getMediaType() == MediaType.AUDIO) {
+                try {
+                    media.setLoudnessGain(LoudnessAnalyzer.analyze(media.getFile_url()));
+                    if (BuildConfig.DEBUG)
+                        Log.d(TAG, "Loudness gain of file is " + media.getLoudnessGain() + " dB");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            if (!media.getItem().hasChapters()) {
                 ChapterUtils.loadChaptersFromFileUrl(media);
                 if (media.getItem().getChapters() != null) {
                     chaptersRead = true;
@@ -917,6 +952,8 @@ public class DownloadService extends Service {
                     DBWriter.setFeedItem(DownloadService.this, media.getItem()).get();
                 }
                 DBWriter.setFeedMedia(DownloadService.this, media).get();
+                // a snapshot of a streamed episode doesn't know about its file
+                PlaybackSnapshot.getInstance(DownloadService.this).invalidateMedia(media.getId());
                 if (!DBTasks.isInQueue(DownloadService.this, media.getItem().getId())) {
                     DBWriter.addQueueItem(DownloadService.this, media.getItem().getId()).get();
                 }
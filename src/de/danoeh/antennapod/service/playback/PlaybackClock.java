@@ -0,0 +1,247 @@
+package de.danoeh.antennapod.service.playback;
+
+import android.os.SystemClock;
+import android.util.Log;
+import de.danoeh.antennapod.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the playback position to subscribers at the rate that each subscriber has chosen.
+ * <p/>
+ * The clock only runs while it has subscribers. All subscribers that are due at the same time share a single query of
+ * the position, and the clock is woken up only once for them. Subscribers can extrapolate the position between two
+ * ticks with {@link Tick#getExtrapolatedPosition()}, so they don't have to query the PlaybackService themselves.
+ * <p/>
+ * Subscribers are notified on the thread of the executor that has been passed to the constructor.
+ */
+public class PlaybackClock {
+    private static final String TAG = "PlaybackClock";
+
+    /**
+     * Subscribers that are due within this number of milliseconds after a tick are notified together with the
+     * subscribers that are due at the tick.
+     */
+    private static final long TICK_TOLERANCE = 50;
+
+    private final ScheduledExecutorService executor;
+    private final PositionSource positionSource;
+
+    private final Map<Subscriber, Subscription> subscriptions;
+    private ScheduledFuture nextTickFuture;
+    private long nextTickTime;
+
+    /**
+     * @param executor       Executor on which the subscribers are notified.
+     * @param positionSource Provides the position of the PlaybackService. If positionSource is null, the position of
+     *                       the ticks is always PlaybackService.INVALID_TIME.
+     */
+    public PlaybackClock(ScheduledExecutorService executor, PositionSource positionSource) {
+        if (executor == null)
+            throw new IllegalArgumentException("executor = null");
+        this.executor = executor;
+        this.positionSource = positionSource;
+        this.subscriptions = new HashMap<Subscriber, Subscription>();
+    }
+
+    /**
+     * Notifies the subscriber every 'interval' milliseconds, starting 'interval' milliseconds from now. If the subscriber
+     * has already been subscribed, its interval is changed.
+     *
+     * @throws java.lang.IllegalArgumentException if interval <= 0
+     */
+    public synchronized void subscribe(Subscriber subscriber, long interval) {
+        if (subscriber == null)
+            throw new IllegalArgumentException("subscriber = null");
+        if (interval <= 0)
+            throw new IllegalArgumentException("interval <= 0");
+        subscriptions.put(subscriber, new Subscription(interval, SystemClock.elapsedRealtime() + interval));
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, "Added subscriber with interval " + interval + ", " + subscriptions.size() + " subscribers");
+        scheduleNextTick();
+    }
+
+    /**
+     * Stops notifying the subscriber. If the subscriber is not subscribed, nothing will happen.
+     */
+    public synchronized void unsubscribe(Subscriber subscriber) {
+        if (subscriptions.remove(subscriber) != null) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Removed subscriber, " + subscriptions.size() + " subscribers");
+            scheduleNextTick();
+        }
+    }
+
+    public synchronized boolean isSubscribed(Subscriber subscriber) {
+        return subscriptions.containsKey(subscriber);
+    }
+
+    /**
+     * Removes all subscribers. The clock stops until a new subscriber is added.
+     */
+    public synchronized void unsubscribeAll() {
+        subscriptions.clear();
+        scheduleNextTick();
+    }
+
+    /**
+     * Schedules the next tick at the time at which the next subscriber is due or stops the clock if there are no
+     * subscribers.
+     */
+    private void scheduleNextTick() {
+        long next = Long.MAX_VALUE;
+        for (Subscription subscription : subscriptions.values()) {
+            next = Math.min(next, subscription.nextTick);
+        }
+        if (nextTickFuture != null && !nextTickFuture.isDone()) {
+            if (next == nextTickTime) {
+                return;
+            }
+            nextTickFuture.cancel(false);
+        }
+        nextTickFuture = null;
+        if (next == Long.MAX_VALUE || executor.isShutdown()) {
+            return;
+        }
+        nextTickTime = next;
+        final long delay = Math.max(0, next - SystemClock.elapsedRealtime());
+        nextTickFuture = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        final List<Subscriber> due = new ArrayList<Subscriber>();
+        synchronized (this) {
+            final long now = SystemClock.elapsedRealtime();
+            for (Map.Entry<Subscriber, Subscription> entry : subscriptions.entrySet()) {
+                Subscription subscription = entry.getValue();
+                if (subscription.nextTick <= now + TICK_TOLERANCE) {
+                    due.add(entry.getKey());
+                    // skip ticks that have been missed instead of delivering them all at once
+                    subscription.nextTick = Math.max(subscription.nextTick + subscription.interval,
+                            now + subscription.interval / 2);
+                }
+            }
+            nextTickFuture = null;
+            scheduleNextTick();
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+        final Tick tick;
+        if (positionSource != null) {
+            tick = new Tick(positionSource.getPosition(), positionSource.getDuration(),
+                    positionSource.getSpeed(), positionSource.isPlaying(), SystemClock.elapsedRealtime());
+        } else {
+            tick = new Tick(PlaybackService.INVALID_TIME, PlaybackService.INVALID_TIME, 1.0f, false,
+                    SystemClock.elapsedRealtime());
+        }
+        for (Subscriber subscriber : due) {
+            if (isSubscribed(subscriber)) {
+                subscriber.onTick(tick);
+            }
+        }
+    }
+
+    private static class Subscription {
+        final long interval;
+        long nextTick;
+
+        Subscription(long interval, long nextTick) {
+            this.interval = interval;
+            this.nextTick = nextTick;
+        }
+    }
+
+    /**
+     * Playback position at a specific point in time.
+     */
+    public static class Tick {
+        private final int position;
+        private final int duration;
+        private final float speed;
+        private final boolean playing;
+        private final long timestamp;
+
+        Tick(int position, int duration, float speed, boolean playing, long timestamp) {
+            this.position = position;
+            this.duration = duration;
+            this.speed = speed;
+            this.playing = playing;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * Returns the position at the time of the tick or PlaybackService.INVALID_TIME.
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        /**
+         * Returns the duration of the playing media or PlaybackService.INVALID_TIME.
+         */
+        public int getDuration() {
+            return duration;
+        }
+
+        public float getSpeed() {
+            return speed;
+        }
+
+        public boolean isPlaying() {
+            return playing;
+        }
+
+        /**
+         * Returns the time of the tick, measured with SystemClock.elapsedRealtime().
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Returns the position at the current time, assuming that playback has continued at the same speed since the
+         * tick. The result never exceeds the duration.
+         */
+        public int getExtrapolatedPosition() {
+            if (position == PlaybackService.INVALID_TIME || !playing) {
+                return position;
+            }
+            long extrapolated = position + (long) ((SystemClock.elapsedRealtime() - timestamp) * speed);
+            if (duration != PlaybackService.INVALID_TIME) {
+                extrapolated = Math.min(extrapolated, duration);
+            }
+            return (int) extrapolated;
+        }
+    }
+
+    public interface Subscriber {
+        /**
+         * Called on the clock's executor whenever the subscriber is due.
+         */
+        void onTick(Tick tick);
+    }
+
+    /**
+     * Provides the current playback position to the clock.
+     */
+    public interface PositionSource {
+        int getPosition();
+
+        int getDuration();
+
+        float getSpeed();
+
+        boolean isPlaying();
+    }
+}
@@ -16,6 +16,8 @@ import android.os.AsyncTask;
 import android.os.Binder;
 import android.os.Build;
 import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
@@ -37,12 +39,15 @@ import de.danoeh.antennapod.receiver.MediaButtonReceiver;
 import de.danoeh.antennapod.receiver.PlayerWidget;
 import de.danoeh.antennapod.storage.DBTasks;
 import de.danoeh.antennapod.storage.DBWriter;
+import de.danoeh.antennapod.storage.PlaybackSnapshot;
+import de.danoeh.antennapod.storage.PositionJournal;
+import de.danoeh.antennapod.storage.QueueIndex;
 import de.danoeh.antennapod.util.BitmapDecoder;
-import de.danoeh.antennapod.util.QueueAccess;
 import de.danoeh.antennapod.util.flattr.FlattrUtils;
 import de.danoeh.antennapod.util.playback.Playable;
 import de.danoeh.antennapod.util.playback.PlaybackController;
 
+import java.io.File;
 import java.util.List;
 
 /**
@@ -70,6 +75,11 @@ public class PlaybackService extends Service {
 
     public static final String EXTRA_PREPARE_IMMEDIATELY = "extra.de.danoeh.antennapod.service.prepareImmediately";
 
+    /**
+     * True if the last played media should be restored from the PlaybackSnapshot instead of EXTRA_PLAYABLE.
+     */
+    public static final String EXTRA_RESTORE_SNAPSHOT = "extra.de.danoeh.antennapod.service.restoreSnapshot";
+
     public static final String ACTION_PLAYER_STATUS_CHANGED = "action.de.danoeh.antennapod.service.playerStatusChanged";
     private static final String AVRCP_ACTION_PLAYER_STATUS_CHANGED = "com.android.music.playstatechanged";
     private static final String AVRCP_ACTION_META_CHANGED = "com.android.music.metachanged";
@@ -137,9 +147,29 @@ public class PlaybackService extends Service {
 
     private static final int NOTIFICATION_ID = 1;
 
+    /**
+     * Remaining playback time in milliseconds at which the next episode in the queue is preloaded.
+     */
+    private static final int PRELOAD_THRESHOLD = 30000;
+
+    /**
+     * Length of the fade-out at the end of the sleep timer in milliseconds.
+     */
+    private static final long SLEEP_TIMER_FADE_DURATION = 30000;
+    /**
+     * Time in milliseconds by which the sleep timer is extended when the device is shaken during the fade-out.
+     */
+    private static final long SLEEP_TIMER_SHAKE_EXTENSION = 5 * 60 * 1000;
+
     private RemoteControlClient remoteControlClient;
     private PlaybackServiceMediaPlayer mediaPlayer;
     private PlaybackServiceTaskManager taskManager;
+    private ShakeListener shakeListener;
+
+    /**
+     * Time at which the last played media has been restored from the PlaybackSnapshot. Only used for logging.
+     */
+    private long snapshotRestoreTime;
 
     private static volatile MediaType currentMediaType = MediaType.UNKNOWN;
 
@@ -208,9 +238,13 @@ public class PlaybackService extends Service {
                 AudioManager.ACTION_AUDIO_BECOMING_NOISY));
         registerReceiver(skipCurrentEpisodeReceiver, new IntentFilter(
                 ACTION_SKIP_CURRENT_EPISODE));
+        IntentFilter screenFilter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        screenFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(screenStateReceiver, screenFilter);
         remoteControlClient = setupRemoteControlClient();
-        taskManager = new PlaybackServiceTaskManager(this, taskManagerCallback);
+        taskManager = new PlaybackServiceTaskManager(this, taskManagerCallback, positionSource);
         mediaPlayer = new PlaybackServiceMediaPlayer(this, mediaPlayerCallback);
+        shakeListener = new ShakeListener(this, shakeCallback);
 
     }
 
@@ -228,8 +262,11 @@ public class PlaybackService extends Service {
         unregisterReceiver(shutdownReceiver);
         unregisterReceiver(audioBecomingNoisy);
         unregisterReceiver(skipCurrentEpisodeReceiver);
+        unregisterReceiver(screenStateReceiver);
+        shakeListener.unregister();
         mediaPlayer.shutdown();
         taskManager.shutdown();
+        DBWriter.compactPositionJournal(this);
     }
 
     @Override
@@ -247,7 +284,8 @@ public class PlaybackService extends Service {
             Log.d(TAG, "OnStartCommand called");
         final int keycode = intent.getIntExtra(MediaButtonReceiver.EXTRA_KEYCODE, -1);
         final Playable playable = intent.getParcelableExtra(EXTRA_PLAYABLE);
-        if (keycode == -1 && playable == null) {
+        final boolean restoreSnapshot = intent.getBooleanExtra(EXTRA_RESTORE_SNAPSHOT, false);
+        if (keycode == -1 && playable == null && !restoreSnapshot) {
             Log.e(TAG, "PlaybackService was started with no arguments");
             stopSelf();
         }
@@ -261,6 +299,13 @@ public class PlaybackService extends Service {
                 if (BuildConfig.DEBUG)
                     Log.d(TAG, "Received media button event");
                 handleKeycode(keycode);
+            } else if (playable == null) {
+                boolean startWhenPrepared = intent.getBooleanExtra(EXTRA_START_WHEN_PREPARED, false);
+                boolean prepareImmediately = intent.getBooleanExtra(EXTRA_PREPARE_IMMEDIATELY, false);
+                if (!playSnapshot(startWhenPrepared, prepareImmediately)) {
+                    Log.e(TAG, "PlaybackService was started with no snapshot");
+                    stopSelf();
+                }
             } else {
                 started = true;
                 boolean stream = intent.getBooleanExtra(EXTRA_SHOULD_STREAM,
@@ -275,6 +320,34 @@ public class PlaybackService extends Service {
         return Service.START_REDELIVER_INTENT;
     }
 
+    /**
+     * Restores the last played media from the PlaybackSnapshot and starts the media player with it. The media is not
+     * loaded from the database, its item is loaded by the chapter loader after the media has been prepared.
+     *
+     * @return false if the PlaybackSnapshot doesn't contain the last played media.
+     */
+    private boolean playSnapshot(boolean startWhenPrepared, boolean prepareImmediately) {
+        final long start = SystemClock.elapsedRealtime();
+        final PlaybackSnapshot.Entry snapshot = PlaybackSnapshot.getInstance(this).restore();
+        if (snapshot == null
+                || PlaybackPreferences.getCurrentlyPlayingMedia() != FeedMedia.PLAYABLE_TYPE_FEEDMEDIA
+                || PlaybackPreferences.getCurrentlyPlayingFeedMediaId() != snapshot.media.getId()) {
+            return false;
+        }
+        final FeedMedia media = snapshot.media;
+        final boolean fileExists = media.localFileAvailable() && new File(media.getLocalMediaUrl()).exists();
+        if (!fileExists && !snapshot.stream) {
+            DBTasks.notifyMissingFeedMediaFile(this, media);
+        }
+        started = true;
+        snapshotRestoreTime = start;
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, "Restored snapshot in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        sendNotificationBroadcast(NOTIFICATION_TYPE_RELOAD, 0);
+        mediaPlayer.playMediaObject(media, snapshot.stream || !fileExists, startWhenPrepared, prepareImmediately);
+        return true;
+    }
+
     /**
      * Handles media button events
      */
@@ -295,6 +368,9 @@ public class PlaybackService extends Service {
                 } else if (status == PlayerStatus.INITIALIZED) {
                     mediaPlayer.setStartWhenPrepared(true);
                     mediaPlayer.prepare();
+                } else if (status == PlayerStatus.STOPPED && !started) {
+                    // service has been started by a media button, e.g. on the widget
+                    playSnapshot(true, true);
                 }
                 break;
             case KeyEvent.KEYCODE_MEDIA_PLAY:
@@ -303,6 +379,8 @@ public class PlaybackService extends Service {
                 } else if (status == PlayerStatus.INITIALIZED) {
                     mediaPlayer.setStartWhenPrepared(true);
                     mediaPlayer.prepare();
+                } else if (status == PlayerStatus.STOPPED && !started) {
+                    playSnapshot(true, true);
                 }
                 break;
             case KeyEvent.KEYCODE_MEDIA_PAUSE:
@@ -318,6 +396,12 @@ public class PlaybackService extends Service {
                 mediaPlayer.seekDelta(-PlaybackController.DEFAULT_SEEK_DELTA);
                 break;
             }
+            case KeyEvent.KEYCODE_MEDIA_NEXT:
+                mediaPlayer.seekToNextChapter();
+                break;
+            case KeyEvent.KEYCODE_MEDIA_PREVIOUS:
+                mediaPlayer.seekToPreviousChapter();
+                break;
         }
     }
 
@@ -348,14 +432,28 @@ public class PlaybackService extends Service {
         @Override
         public void positionSaverTick() {
             saveCurrentPosition(true, PlaybackServiceTaskManager.POSITION_SAVER_WAITING_INTERVAL);
+            preloadNextEpisode();
         }
 
         @Override
         public void onSleepTimerExpired() {
+            shakeListener.unregister();
             mediaPlayer.pause(true, true);
+            mediaPlayer.setVolume(1.0f);
             sendNotificationBroadcast(NOTIFICATION_TYPE_SLEEPTIMER_UPDATE, 0);
         }
 
+        @Override
+        public void onSleepTimerFading(float volume) {
+            if (UserPreferences.isSleepTimerFadeOut()) {
+                mediaPlayer.setVolume(volume);
+            }
+            if (volume < 1.0f && UserPreferences.isSleepTimerShakeToExtend()) {
+                shakeListener.register();
+            } else {
+                shakeListener.unregister();
+            }
+        }
 
         @Override
         public void onWidgetUpdaterTick() {
@@ -364,10 +462,42 @@ public class PlaybackService extends Service {
 
         @Override
         public void onChapterLoaded(Playable media) {
+            refreshRemoteControlClientFlags(media);
             sendNotificationBroadcast(NOTIFICATION_TYPE_RELOAD, 0);
         }
     };
 
+    private final ShakeListener.Callback shakeCallback = new ShakeListener.Callback() {
+        @Override
+        public void onShake() {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Extending sleep timer after shake");
+            taskManager.extendSleepTimer(SLEEP_TIMER_SHAKE_EXTENSION);
+            sendNotificationBroadcast(NOTIFICATION_TYPE_SLEEPTIMER_UPDATE, 0);
+        }
+    };
+
+    private final PlaybackClock.PositionSource positionSource = new PlaybackClock.PositionSource() {
+        @Override
+        public int getPosition() {
+            return mediaPlayer.getPosition();
+        }
+
+        @Override
+        public int getDuration() {
+            return mediaPlayer.getDuration();
+        }
+
+        @Override
+        public float getSpeed() {
+            return mediaPlayer.getPlaybackSpeed();
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return getStatus() == PlayerStatus.PLAYING;
+        }
+    };
+
     private final PlaybackServiceMediaPlayer.PSMPCallback mediaPlayerCallback = new PlaybackServiceMediaPlayer.PSMPCallback() {
         @Override
         public void statusChanged(PlaybackServiceMediaPlayer.PSMPInfo newInfo) {
@@ -384,6 +514,8 @@ public class PlaybackService extends Service {
                 case PAUSED:
                     taskManager.cancelPositionSaver();
                     saveCurrentPosition(false, 0);
+                    saveSnapshot();
+                    DBWriter.compactPositionJournal(PlaybackService.this);
                     taskManager.cancelWidgetUpdater();
                     stopForeground(true);
                     break;
@@ -398,9 +530,17 @@ public class PlaybackService extends Service {
                         Log.d(TAG, "Audiofocus successfully requested");
                     if (BuildConfig.DEBUG)
                         Log.d(TAG, "Resuming/Starting playback");
+                    if (snapshotRestoreTime != 0) {
+                        if (BuildConfig.DEBUG)
+                            Log.d(TAG, "Started playback " + (SystemClock.elapsedRealtime() - snapshotRestoreTime)
+                                    + " ms after restoring snapshot");
+                        snapshotRestoreTime = 0;
+                    }
 
                     taskManager.startPositionSaver();
-                    taskManager.startWidgetUpdater();
+                    if (isScreenOn()) {
+                        taskManager.startWidgetUpdater();
+                    }
                     setupNotification(newInfo);
                     break;
                 case ERROR:
@@ -482,6 +622,7 @@ public class PlaybackService extends Service {
         }
 
         taskManager.cancelPositionSaver();
+        DBWriter.compactPositionJournal(PlaybackService.this);
 
         boolean isInQueue = false;
         FeedItem nextItem = null;
@@ -490,13 +631,9 @@ public class PlaybackService extends Service {
             FeedItem item = ((FeedMedia) media).getItem();
             DBWriter.markItemRead(PlaybackService.this, item, true, true);
 
-            try {
-                final List<FeedItem> queue = taskManager.getQueue();
-                isInQueue = QueueAccess.ItemListAccess(queue).contains(((FeedMedia) media).getItem().getId());
-                nextItem = DBTasks.getQueueSuccessorOfItem(this, item.getId(), queue);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                // isInQueue remains false
+            isInQueue = QueueIndex.getInstance(this).contains(item.getId());
+            if (isInQueue) {
+                nextItem = DBTasks.getQueueSuccessorOfItem(this, item.getId(), null);
             }
             if (isInQueue) {
                 DBWriter.removeQueueItem(PlaybackService.this, item.getId(), true);
@@ -535,7 +672,7 @@ public class PlaybackService extends Service {
 
         writePlaybackPreferencesNoMediaPlaying();
         if (nextMedia != null) {
-            stream = !media.localFileAvailable();
+            stream = !nextMedia.localFileAvailable();
             mediaPlayer.playMediaObject(nextMedia, stream, startWhenPrepared, prepareImmediately);
             sendNotificationBroadcast(NOTIFICATION_TYPE_RELOAD,
                     (nextMedia.getMediaType() == MediaType.VIDEO) ? EXTRA_CODE_VIDEO : EXTRA_CODE_AUDIO);
@@ -545,16 +682,47 @@ public class PlaybackService extends Service {
         }
     }
 
+    /**
+     * Lets the media player prepare the next episode in the queue if the current episode is about to end and playback
+     * is going to continue with the next episode. This method is called by the position saver, so it doesn't run on
+     * the main thread.
+     */
+    private void preloadNextEpisode() {
+        if (!UserPreferences.isFollowQueue()) {
+            return;
+        }
+        final PlaybackServiceMediaPlayer.PSMPInfo info = mediaPlayer.getPSMPInfo();
+        if (info.playerStatus != PlayerStatus.PLAYING || !(info.playable instanceof FeedMedia)) {
+            return;
+        }
+        final int position = getCurrentPosition();
+        final int duration = getDuration();
+        if (position == INVALID_TIME || duration == INVALID_TIME || duration - position > PRELOAD_THRESHOLD) {
+            return;
+        }
+        final FeedItem item = ((FeedMedia) info.playable).getItem();
+        if (!QueueIndex.getInstance(this).contains(item.getId())) {
+            return;
+        }
+        final FeedItem nextItem = DBTasks.getQueueSuccessorOfItem(this, item.getId(), null);
+        if (nextItem != null && nextItem.getMedia() != null) {
+            final FeedMedia nextMedia = nextItem.getMedia();
+            mediaPlayer.preloadMediaObject(nextMedia, !nextMedia.localFileAvailable());
+        }
+    }
+
     public void setSleepTimer(long waitingTime) {
         if (BuildConfig.DEBUG)
             Log.d(TAG, "Setting sleep timer to " + Long.toString(waitingTime)
                     + " milliseconds");
-        taskManager.setSleepTimer(waitingTime);
+        final boolean fade = UserPreferences.isSleepTimerFadeOut() || UserPreferences.isSleepTimerShakeToExtend();
+        taskManager.setSleepTimer(waitingTime, fade ? Math.min(SLEEP_TIMER_FADE_DURATION, waitingTime) : 0);
         sendNotificationBroadcast(NOTIFICATION_TYPE_SLEEPTIMER_UPDATE, 0);
     }
 
     public void disableSleepTimer() {
         taskManager.disableSleepTimer();
+        shakeListener.unregister();
         sendNotificationBroadcast(NOTIFICATION_TYPE_SLEEPTIMER_UPDATE, 0);
     }
 
@@ -569,6 +737,7 @@ public class PlaybackService extends Service {
                 PlaybackPreferences.PREF_CURRENTLY_PLAYING_FEEDMEDIA_ID,
                 PlaybackPreferences.NO_MEDIA_PLAYING);
         editor.commit();
+        PlaybackSnapshot.getInstance(this).clear();
     }
 
 
@@ -619,6 +788,20 @@ public class PlaybackService extends Service {
         }
 
         editor.commit();
+        saveSnapshot();
+    }
+
+    /**
+     * Saves the current media in the PlaybackSnapshot, so that it can be restored quickly after the PlaybackService
+     * has been restarted.
+     */
+    private void saveSnapshot() {
+        final Playable playable = mediaPlayer.getPSMPInfo().playable;
+        if (playable instanceof FeedMedia) {
+            PlaybackSnapshot.getInstance(this).save((FeedMedia) playable, mediaPlayer.isStreaming());
+        } else {
+            PlaybackSnapshot.getInstance(this).clear();
+        }
     }
 
     /**
@@ -761,9 +944,18 @@ public class PlaybackService extends Service {
                     DBWriter.setFeedItemFlattrStatus(PodcastApp.getInstance(), item, false);
                 }
             }
-            playable.saveCurrentPosition(PreferenceManager
-                    .getDefaultSharedPreferences(getApplicationContext()),
-                    position);
+            if (playable instanceof FeedMedia && ((FeedMedia) playable).getId() != 0) {
+                // the journal is compacted into the database when playback is paused or stopped
+                FeedMedia m = (FeedMedia) playable;
+                m.setPosition(position);
+                if (!PositionJournal.getInstance(this).record(m.getId(), position, duration, m.getPlayedDuration())) {
+                    DBWriter.setFeedMediaPlaybackInformation(this, m);
+                }
+            } else {
+                playable.saveCurrentPosition(PreferenceManager
+                        .getDefaultSharedPreferences(getApplicationContext()),
+                        position);
+            }
         }
     }
 
@@ -797,17 +989,31 @@ public class PlaybackService extends Service {
         PendingIntent mediaPendingIntent = PendingIntent.getBroadcast(
                 getApplicationContext(), 0, mediaButtonIntent, 0);
         remoteControlClient = new RemoteControlClient(mediaPendingIntent);
-        int controlFlags;
-        if (android.os.Build.VERSION.SDK_INT < 16) {
-            controlFlags = RemoteControlClient.FLAG_KEY_MEDIA_PLAY_PAUSE
-                    | RemoteControlClient.FLAG_KEY_MEDIA_NEXT;
-        } else {
-            controlFlags = RemoteControlClient.FLAG_KEY_MEDIA_PLAY_PAUSE;
-        }
-        remoteControlClient.setTransportControlFlags(controlFlags);
+        refreshRemoteControlClientFlags(null);
         return remoteControlClient;
     }
 
+    /**
+     * Sets the transport control flags of the RemoteControlClient. The previous button is only advertised if the
+     * media has chapters, since next and previous seek to the adjacent chapters.
+     */
+    @SuppressLint("NewApi")
+    private void refreshRemoteControlClientFlags(Playable media) {
+        if (android.os.Build.VERSION.SDK_INT >= 14 && remoteControlClient != null) {
+            int controlFlags;
+            if (android.os.Build.VERSION.SDK_INT < 16) {
+                controlFlags = RemoteControlClient.FLAG_KEY_MEDIA_PLAY_PAUSE
+                        | RemoteControlClient.FLAG_KEY_MEDIA_NEXT;
+                if (media != null && media.getChapterTimeline() != null) {
+                    controlFlags |= RemoteControlClient.FLAG_KEY_MEDIA_PREVIOUS;
+                }
+            } else {
+                controlFlags = RemoteControlClient.FLAG_KEY_MEDIA_PLAY_PAUSE;
+            }
+            remoteControlClient.setTransportControlFlags(controlFlags);
+        }
+    }
+
     /**
      * Refresh player status and metadata.
      */
@@ -837,6 +1043,7 @@ public class PlaybackService extends Service {
                         remoteControlClient
                                 .setPlaybackState(RemoteControlClient.PLAYSTATE_BUFFERING);
                 }
+                refreshRemoteControlClientFlags(info.playable);
                 if (info.playable != null) {
                     MetadataEditor editor = remoteControlClient
                             .editMetadata(false);
@@ -939,6 +1146,29 @@ public class PlaybackService extends Service {
 
     };
 
+    /**
+     * Stops updating the widget while the screen is off.
+     */
+    private BroadcastReceiver screenStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+                if (BuildConfig.DEBUG) Log.d(TAG, "Screen is off, pausing widget updater");
+                taskManager.cancelWidgetUpdater();
+            } else if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+                updateWidget();
+                if (getStatus() == PlayerStatus.PLAYING) {
+                    taskManager.startWidgetUpdater();
+                }
+            }
+        }
+    };
+
+    private boolean isScreenOn() {
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        return powerManager.isScreenOn();
+    }
+
     private BroadcastReceiver skipCurrentEpisodeReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -1036,6 +1266,20 @@ public class PlaybackService extends Service {
         return mediaPlayer.getPosition();
     }
 
+    /**
+     * Notifies the subscriber about the playback position every 'interval' milliseconds. Subscribers should
+     * extrapolate the position between two ticks instead of calling getCurrentPosition().
+     *
+     * @see de.danoeh.antennapod.service.playback.PlaybackClock#subscribe(PlaybackClock.Subscriber, long)
+     */
+    public void subscribeToPositionTicks(PlaybackClock.Subscriber subscriber, long interval) {
+        taskManager.getClock().subscribe(subscriber, interval);
+    }
+
+    public void unsubscribeFromPositionTicks(PlaybackClock.Subscriber subscriber) {
+        taskManager.getClock().unsubscribe(subscriber);
+    }
+
     public boolean isStreaming() {
         return mediaPlayer.isStreaming();
     }
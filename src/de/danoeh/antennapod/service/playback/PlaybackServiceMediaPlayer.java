@@ -9,10 +9,12 @@ import android.util.Pair;
 import android.view.SurfaceHolder;
 import de.danoeh.antennapod.BuildConfig;
 import de.danoeh.antennapod.feed.Chapter;
+import de.danoeh.antennapod.feed.FeedMedia;
 import de.danoeh.antennapod.feed.MediaType;
 import de.danoeh.antennapod.preferences.UserPreferences;
 import de.danoeh.antennapod.receiver.MediaButtonReceiver;
 import de.danoeh.antennapod.util.playback.AudioPlayer;
+import de.danoeh.antennapod.util.playback.ChapterTimeline;
 import de.danoeh.antennapod.util.playback.IPlayer;
 import de.danoeh.antennapod.util.playback.Playable;
 import de.danoeh.antennapod.util.playback.VideoPlayer;
@@ -36,6 +38,12 @@ public class PlaybackServiceMediaPlayer {
      */
     public static final int INVALID_TIME = -1;
 
+    /**
+     * If less than this many milliseconds of the current chapter have been played, seekToPreviousChapter goes back to
+     * the previous chapter instead of the start of the current one.
+     */
+    private static final int PREVIOUS_CHAPTER_THRESHOLD = 3000;
+
     private final AudioManager audioManager;
 
     private volatile PlayerStatus playerStatus;
@@ -60,6 +68,23 @@ public class PlaybackServiceMediaPlayer {
 
     private final ThreadPoolExecutor executor;
 
+    /**
+     * Prepares the next episode in the background. Preparing a stream can take several seconds, so this is not done
+     * on the executor that handles all other calls.
+     */
+    private final ThreadPoolExecutor preloadExecutor;
+
+    /**
+     * A player that has been prepared for the next episode or null. Access is synchronized on the preloadLock.
+     */
+    private PreloadedPlayer preloadedPlayer;
+    private final Object preloadLock = new Object();
+
+    /**
+     * Caches streamed episodes and reads ahead of the media player.
+     */
+    private final StreamProxy streamProxy;
+
     public PlaybackServiceMediaPlayer(Context context, PSMPCallback callback) {
         if (context == null)
             throw new IllegalArgumentException("context = null");
@@ -71,6 +96,7 @@ public class PlaybackServiceMediaPlayer {
         this.audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
         this.playerLock = new ReentrantLock();
         this.startWhenPrepared = new AtomicBoolean(false);
+        this.streamProxy = new StreamProxy(context);
         executor = new ThreadPoolExecutor(1, 1, 5, TimeUnit.MINUTES, new LinkedBlockingDeque<Runnable>(),
                 new RejectedExecutionHandler() {
                     @Override
@@ -78,6 +104,13 @@ public class PlaybackServiceMediaPlayer {
                         if (BuildConfig.DEBUG) Log.d(TAG, "Rejected execution of runnable");
                     }
                 });
+        preloadExecutor = new ThreadPoolExecutor(1, 1, 5, TimeUnit.MINUTES, new LinkedBlockingDeque<Runnable>(),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        if (BuildConfig.DEBUG) Log.d(TAG, "Rejected execution of preload runnable");
+                    }
+                });
 
         mediaPlayer = null;
         statusBeforeSeeking = null;
@@ -164,15 +197,28 @@ public class PlaybackServiceMediaPlayer {
         this.stream = stream;
         this.mediaType = media.getMediaType();
         this.videoSize = null;
-        createMediaPlayer();
+        // a preloaded player has already been prepared, it can only be used if the episode should be prepared now
+        final IPlayer preloaded = takePreloadedPlayer(playable, stream, prepareImmediately);
+        if (preloaded != null) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Using preloaded media player");
+            if (mediaPlayer != null) {
+                mediaPlayer.release();
+            }
+            mediaPlayer = setMediaPlayerListeners(preloaded);
+        } else {
+            createMediaPlayer();
+        }
         PlaybackServiceMediaPlayer.this.startWhenPrepared.set(startWhenPrepared);
         setPlayerStatus(PlayerStatus.INITIALIZING, media);
         try {
             media.loadMetadata();
-            if (stream) {
-                mediaPlayer.setDataSource(media.getStreamUrl());
-            } else {
-                mediaPlayer.setDataSource(media.getLocalMediaUrl());
+            if (preloaded == null) {
+                if (stream) {
+                    mediaPlayer.setDataSource(getStreamUrl(media));
+                } else {
+                    mediaPlayer.setDataSource(media.getLocalMediaUrl());
+                }
+                setLoudnessGain(mediaPlayer, media);
             }
             setPlayerStatus(PlayerStatus.INITIALIZED, media);
 
@@ -183,7 +229,9 @@ public class PlaybackServiceMediaPlayer {
 
             if (prepareImmediately) {
                 setPlayerStatus(PlayerStatus.PREPARING, media);
-                mediaPlayer.prepare();
+                if (preloaded == null) {
+                    mediaPlayer.prepare();
+                }
                 onPrepared(startWhenPrepared);
             }
 
@@ -200,6 +248,107 @@ public class PlaybackServiceMediaPlayer {
     }
 
 
+    /**
+     * Prepares a second media player for the given Playable object in the background, so that a later call of
+     * playMediaObject with the same Playable object and 'prepareImmediately' set to true can start playback without
+     * loading and buffering the episode first. This should be called shortly before the current episode ends.
+     * <p/>
+     * Only one Playable object can be preloaded at a time, a previously preloaded player is released. Video episodes
+     * are not preloaded because their player needs the video surface.
+     * <p/>
+     * This method is executed on an internal executor service.
+     *
+     * @param playable The Playable object that will probably be played next. This parameter must not be null.
+     * @param stream   The type of playback. See playMediaObject for more details.
+     */
+    public void preloadMediaObject(final Playable playable, final boolean stream) {
+        if (playable == null)
+            throw new IllegalArgumentException("playable = null");
+        preloadExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (preloadLock) {
+                    if (preloadedPlayer != null && preloadedPlayer.isFor(playable, stream)) {
+                        return;
+                    }
+                    releasePreloadedPlayer();
+                }
+                if (playable.getMediaType() != MediaType.AUDIO) {
+                    return;
+                }
+                if (BuildConfig.DEBUG) Log.d(TAG, "Preloading media object");
+                AudioPlayer player = new AudioPlayer(context);
+                player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+                try {
+                    playable.loadMetadata();
+                    if (stream) {
+                        player.setDataSource(getStreamUrl(playable));
+                    } else {
+                        player.setDataSource(playable.getLocalMediaUrl());
+                    }
+                    setLoudnessGain(player, playable);
+                    player.prepare();
+                } catch (Playable.PlayableException e) {
+                    e.printStackTrace();
+                    player.release();
+                    return;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    player.release();
+                    return;
+                } catch (IllegalStateException e) {
+                    e.printStackTrace();
+                    player.release();
+                    return;
+                }
+                synchronized (preloadLock) {
+                    releasePreloadedPlayer();
+                    if (preloadExecutor.isShutdown()) {
+                        player.release();
+                        return;
+                    }
+                    preloadedPlayer = new PreloadedPlayer(playable.getIdentifier(), stream, player);
+                }
+                if (BuildConfig.DEBUG) Log.d(TAG, "Preloaded media object");
+            }
+        });
+    }
+
+    /**
+     * Returns true if a media player has been prepared for the given Playable object.
+     */
+    public boolean isPreloaded(Playable playable, boolean stream) {
+        synchronized (preloadLock) {
+            return preloadedPlayer != null && preloadedPlayer.isFor(playable, stream);
+        }
+    }
+
+    /**
+     * Returns the preloaded player if it has been prepared for the given Playable object and 'prepareImmediately' is
+     * true. Any other preloaded player is released because it won't be needed anymore.
+     */
+    private IPlayer takePreloadedPlayer(Playable playable, boolean stream, boolean prepareImmediately) {
+        synchronized (preloadLock) {
+            IPlayer result = null;
+            if (preloadedPlayer != null && prepareImmediately && preloadedPlayer.isFor(playable, stream)) {
+                result = preloadedPlayer.player;
+                preloadedPlayer = null;
+            } else {
+                releasePreloadedPlayer();
+            }
+            return result;
+        }
+    }
+
+    private void releasePreloadedPlayer() {
+        synchronized (preloadLock) {
+            if (preloadedPlayer != null) {
+                preloadedPlayer.player.release();
+                preloadedPlayer = null;
+            }
+        }
+    }
+
     /**
      * Resumes playback if the PSMP object is in PREPARED or PAUSED state. If the PSMP object is in an invalid state.
      * nothing will happen.
@@ -458,6 +607,54 @@ public class PlaybackServiceMediaPlayer {
         seekTo((int) c.getStart());
     }
 
+    /**
+     * Seeks to the start of the chapter after the current position. Nothing happens if the current media object has
+     * no chapters or if the current chapter is the last one.
+     * <p/>
+     * This method is executed on an internal executor service.
+     */
+    public void seekToNextChapter() {
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                playerLock.lock();
+                int currentPosition = getPosition();
+                ChapterTimeline timeline = (media != null) ? media.getChapterTimeline() : null;
+                if (currentPosition != INVALID_TIME && timeline != null) {
+                    Chapter next = timeline.getNextChapter(currentPosition);
+                    if (next != null) {
+                        seekToSync((int) next.getStart());
+                    }
+                }
+                playerLock.unlock();
+            }
+        });
+    }
+
+    /**
+     * Seeks to the start of the current chapter, or to the start of the previous chapter if the current one has only
+     * just begun. Nothing happens if the current media object has no chapters.
+     * <p/>
+     * This method is executed on an internal executor service.
+     */
+    public void seekToPreviousChapter() {
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                playerLock.lock();
+                int currentPosition = getPosition();
+                ChapterTimeline timeline = (media != null) ? media.getChapterTimeline() : null;
+                if (currentPosition != INVALID_TIME && timeline != null) {
+                    Chapter previous = timeline.getPreviousChapter(currentPosition, PREVIOUS_CHAPTER_THRESHOLD);
+                    if (previous != null) {
+                        seekToSync((int) previous.getStart());
+                    }
+                }
+                playerLock.unlock();
+            }
+        });
+    }
+
     /**
      * Returns the duration of the current media object or INVALID_TIME if the duration could not be retrieved.
      */
@@ -573,6 +770,26 @@ public class PlaybackServiceMediaPlayer {
         return retVal;
     }
 
+    /**
+     * Sets the volume of the media player, e.g. for fading out playback. The volume is not kept when a new media
+     * player is created.
+     * This method is executed on an internal executor service.
+     *
+     * @param volume Volume between 0 and 1.
+     */
+    public void setVolume(final float volume) {
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                playerLock.lock();
+                if (mediaPlayer != null) {
+                    mediaPlayer.setVolume(volume, volume);
+                }
+                playerLock.unlock();
+            }
+        });
+    }
+
     public MediaType getCurrentMediaType() {
         return mediaType;
     }
@@ -587,9 +804,28 @@ public class PlaybackServiceMediaPlayer {
      */
     public void shutdown() {
         executor.shutdown();
+        synchronized (preloadLock) {
+            preloadExecutor.shutdownNow();
+            releasePreloadedPlayer();
+        }
         if (mediaPlayer != null) {
             mediaPlayer.release();
         }
+        streamProxy.stop();
+    }
+
+    /**
+     * Returns the URL from which the media player should stream the given Playable. Episodes are streamed through the
+     * StreamProxy if possible.
+     */
+    private String getStreamUrl(Playable playable) {
+        if (playable instanceof FeedMedia) {
+            String url = streamProxy.getUrl((FeedMedia) playable);
+            if (url != null) {
+                return url;
+            }
+        }
+        return playable.getStreamUrl();
     }
 
     public void setVideoSurface(final SurfaceHolder surface) {
@@ -672,6 +908,20 @@ public class PlaybackServiceMediaPlayer {
         callback.statusChanged(new PSMPInfo(playerStatus, media));
     }
 
+    /**
+     * Sets the gain that normalizes the loudness of the given Playable object if the player is an audio player and
+     * loudness normalization has been enabled.
+     */
+    private void setLoudnessGain(IPlayer player, Playable playable) {
+        if (player instanceof AudioPlayer) {
+            float gain = 0f;
+            if (UserPreferences.isNormalizeLoudness() && playable instanceof FeedMedia) {
+                gain = ((FeedMedia) playable).getLoudnessGain();
+            }
+            ((AudioPlayer) player).setGain(gain);
+        }
+    }
+
     private IPlayer createMediaPlayer() {
         if (mediaPlayer != null) {
             mediaPlayer.release();
@@ -776,6 +1026,25 @@ public class PlaybackServiceMediaPlayer {
         }
     }
 
+    /**
+     * A media player that has been prepared for a Playable object in the background.
+     */
+    private static class PreloadedPlayer {
+        final Object identifier;
+        final boolean stream;
+        final IPlayer player;
+
+        PreloadedPlayer(Object identifier, boolean stream, IPlayer player) {
+            this.identifier = identifier;
+            this.stream = stream;
+            this.player = player;
+        }
+
+        boolean isFor(Playable playable, boolean stream) {
+            return this.stream == stream && identifier.equals(playable.getIdentifier());
+        }
+    }
+
     public static interface PSMPCallback {
         public void statusChanged(PSMPInfo newInfo);
 
@@ -1,11 +1,15 @@
 package de.danoeh.antennapod.service.playback;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 import de.danoeh.antennapod.BuildConfig;
+import de.danoeh.antennapod.feed.DatabaseEvent;
 import de.danoeh.antennapod.feed.EventDistributor;
 import de.danoeh.antennapod.feed.FeedItem;
+import de.danoeh.antennapod.feed.FeedMedia;
 import de.danoeh.antennapod.storage.DBReader;
+import de.danoeh.antennapod.storage.QueueIndex;
 import de.danoeh.antennapod.util.playback.Playable;
 
 import java.util.List;
@@ -16,6 +20,9 @@ import java.util.concurrent.*;
  * the sleep timer, the position saver, the widget updater and
  * the queue loader.
  * <p/>
+ * The position saver and the widget updater are subscribers of the PSTM's PlaybackClock, which also
+ * publishes the playback position to other subscribers like the GUI.
+ * <p/>
  * The PlaybackServiceTaskManager(PSTM) uses a callback object (PSTMCallback)
  * to notify the PlaybackService about updates from the running tasks.
  */
@@ -30,13 +37,19 @@ public class PlaybackServiceTaskManager {
      * Notification interval of widget updater in milliseconds.
      */
     public static final int WIDGET_UPDATER_NOTIFICATION_INTERVAL = 1500;
+    /**
+     * Interval of the volume changes while the sleep timer fades out in milliseconds.
+     */
+    public static final long SLEEP_TIMER_FADE_STEP_INTERVAL = 500;
+    /**
+     * Time in milliseconds for which queue updates are collected before the queue is updated.
+     */
+    private static final long QUEUE_UPDATE_COALESCING_WINDOW = 250;
 
     private static final int SCHED_EX_POOL_SIZE = 2;
     private final ScheduledThreadPoolExecutor schedExecutor;
 
-    private ScheduledFuture positionSaverFuture;
-    private ScheduledFuture widgetUpdaterFuture;
-    private ScheduledFuture sleepTimerFuture;
+    private final PlaybackClock clock;
     private volatile Future<List<FeedItem>> queueFuture;
     private volatile Future chapterLoaderFuture;
 
@@ -45,13 +58,25 @@ public class PlaybackServiceTaskManager {
     private final Context context;
     private final PSTMCallback callback;
 
+    /**
+     * Sets up a new PSTM without a position source. The ticks of the PSTM's clock don't contain a valid position.
+     *
+     * @see #PlaybackServiceTaskManager(android.content.Context, PlaybackServiceTaskManager.PSTMCallback,
+     * PlaybackClock.PositionSource)
+     */
+    public PlaybackServiceTaskManager(Context context, PSTMCallback callback) {
+        this(context, callback, null);
+    }
+
     /**
      * Sets up a new PSTM. This method will also start the queue loader task.
      *
      * @param context
-     * @param callback A PSTMCallback object for notifying the user about updates. Must not be null.
+     * @param callback       A PSTMCallback object for notifying the user about updates. Must not be null.
+     * @param positionSource Provides the playback position for the ticks of the PSTM's clock.
      */
-    public PlaybackServiceTaskManager(Context context, PSTMCallback callback) {
+    public PlaybackServiceTaskManager(Context context, PSTMCallback callback,
+                                      PlaybackClock.PositionSource positionSource) {
         if (context == null)
             throw new IllegalArgumentException("context must not be null");
         if (callback == null)
@@ -67,16 +92,19 @@ public class PlaybackServiceTaskManager {
                 return t;
             }
         });
+        clock = new PlaybackClock(schedExecutor, positionSource);
         loadQueue();
         EventDistributor.getInstance().register(eventDistributorListener);
     }
 
-    private final EventDistributor.EventListener eventDistributorListener = new EventDistributor.EventListener() {
+    private final EventDistributor.TypedEventListener eventDistributorListener = new EventDistributor.TypedEventListener(
+            EventDistributor.QUEUE_UPDATE, EventDistributor.TypedEventListener.THREAD_BACKGROUND,
+            QUEUE_UPDATE_COALESCING_WINDOW) {
         @Override
-        public void update(EventDistributor eventDistributor, Integer arg) {
-            if ((EventDistributor.QUEUE_UPDATE & arg) != 0) {
-                cancelQueueLoader();
-                loadQueue();
+        public void onEvents(List<DatabaseEvent> events) {
+            final DatabaseEvent queueUpdate = getEvent(events, EventDistributor.QUEUE_UPDATE);
+            if (queueUpdate != null) {
+                updateQueue(queueUpdate);
             }
         }
     };
@@ -102,6 +130,31 @@ public class PlaybackServiceTaskManager {
         }
     }
 
+    /**
+     * Updates the loaded queue after a QUEUE_UPDATE event. Only the FeedItems that have been added or changed are
+     * loaded from the database. If the queue hasn't been loaded yet or the event is unspecific, the whole queue is
+     * loaded again.
+     */
+    private synchronized void updateQueue(final DatabaseEvent event) {
+        if (schedExecutor.isShutdown()) {
+            // the event has been delivered while the PSTM was shutting down
+            return;
+        }
+        final List<FeedItem> previous = getQueueIfLoaded();
+        if (previous == null || event.isUnspecific()) {
+            cancelQueueLoader();
+            loadQueue();
+            return;
+        }
+        if (BuildConfig.DEBUG) Log.d(TAG, "Updating queue: " + event);
+        queueFuture = schedExecutor.submit(new Callable<List<FeedItem>>() {
+            @Override
+            public List<FeedItem> call() throws Exception {
+                return DBReader.getQueue(context, previous, event);
+            }
+        });
+    }
+
     /**
      * Returns the queue if it is already loaded or null if it hasn't been loaded yet.
      * In order to wait until the queue has been loaded, use getQueue()
@@ -130,20 +183,33 @@ public class PlaybackServiceTaskManager {
         }
     }
 
+    /**
+     * Returns the clock that publishes the playback position. The clock only runs while it has subscribers.
+     */
+    public PlaybackClock getClock() {
+        return clock;
+    }
+
+    private final PlaybackClock.Subscriber positionSaver = new PlaybackClock.Subscriber() {
+        @Override
+        public void onTick(PlaybackClock.Tick tick) {
+            callback.positionSaverTick();
+        }
+    };
+
+    private final PlaybackClock.Subscriber widgetUpdater = new PlaybackClock.Subscriber() {
+        @Override
+        public void onTick(PlaybackClock.Tick tick) {
+            callback.onWidgetUpdaterTick();
+        }
+    };
+
     /**
      * Starts the position saver task. If the position saver is already active, nothing will happen.
      */
     public synchronized void startPositionSaver() {
         if (!isPositionSaverActive()) {
-            Runnable positionSaver = new Runnable() {
-                @Override
-                public void run() {
-                    callback.positionSaverTick();
-                }
-            };
-            positionSaverFuture = schedExecutor.scheduleWithFixedDelay(positionSaver, POSITION_SAVER_WAITING_INTERVAL,
-                    POSITION_SAVER_WAITING_INTERVAL, TimeUnit.MILLISECONDS);
-
+            clock.subscribe(positionSaver, POSITION_SAVER_WAITING_INTERVAL);
             if (BuildConfig.DEBUG) Log.d(TAG, "Started PositionSaver");
         } else {
             if (BuildConfig.DEBUG) Log.d(TAG, "Call to startPositionSaver was ignored.");
@@ -154,7 +220,7 @@ public class PlaybackServiceTaskManager {
      * Returns true if the position saver is currently running.
      */
     public synchronized boolean isPositionSaverActive() {
-        return positionSaverFuture != null && !positionSaverFuture.isCancelled() && !positionSaverFuture.isDone();
+        return clock.isSubscribed(positionSaver);
     }
 
     /**
@@ -162,7 +228,7 @@ public class PlaybackServiceTaskManager {
      */
     public synchronized void cancelPositionSaver() {
         if (isPositionSaverActive()) {
-            positionSaverFuture.cancel(false);
+            clock.unsubscribe(positionSaver);
             if (BuildConfig.DEBUG) Log.d(TAG, "Cancelled PositionSaver");
         }
     }
@@ -172,15 +238,7 @@ public class PlaybackServiceTaskManager {
      */
     public synchronized void startWidgetUpdater() {
         if (!isWidgetUpdaterActive()) {
-            Runnable widgetUpdater = new Runnable() {
-                @Override
-                public void run() {
-                    callback.onWidgetUpdaterTick();
-                }
-            };
-            widgetUpdaterFuture = schedExecutor.scheduleWithFixedDelay(widgetUpdater, WIDGET_UPDATER_NOTIFICATION_INTERVAL,
-                    WIDGET_UPDATER_NOTIFICATION_INTERVAL, TimeUnit.MILLISECONDS);
-
+            clock.subscribe(widgetUpdater, WIDGET_UPDATER_NOTIFICATION_INTERVAL);
             if (BuildConfig.DEBUG) Log.d(TAG, "Started WidgetUpdater");
         } else {
             if (BuildConfig.DEBUG) Log.d(TAG, "Call to startWidgetUpdater was ignored.");
@@ -195,35 +253,92 @@ public class PlaybackServiceTaskManager {
      * @throws java.lang.IllegalArgumentException if waitingTime <= 0
      */
     public synchronized void setSleepTimer(long waitingTime) {
+        setSleepTimer(waitingTime, 0);
+    }
+
+    /**
+     * Starts a new sleep timer with the given waiting time. If another sleep timer is already active, it will be
+     * cancelled first.
+     * During the last fadeDuration milliseconds, onSleepTimerFading() is called every SLEEP_TIMER_FADE_STEP_INTERVAL
+     * milliseconds. After waitingTime has elapsed, onSleepTimerExpired() will be called.
+     *
+     * @param fadeDuration Length of the fade-out in milliseconds or 0 if the volume should not be faded out.
+     * @throws java.lang.IllegalArgumentException if waitingTime <= 0 or fadeDuration < 0
+     */
+    public void setSleepTimer(long waitingTime, long fadeDuration) {
         if (waitingTime <= 0)
             throw new IllegalArgumentException("waitingTime <= 0");
+        if (fadeDuration < 0)
+            throw new IllegalArgumentException("fadeDuration < 0");
 
         if (BuildConfig.DEBUG)
             Log.d(TAG, "Setting sleep timer to " + Long.toString(waitingTime)
                     + " milliseconds");
-        if (isSleepTimerActive()) {
-            sleepTimerFuture.cancel(true);
+        boolean restoreVolume = false;
+        synchronized (this) {
+            if (sleepTimer != null) {
+                restoreVolume = sleepTimer.cancel();
+            }
+            sleepTimer = new SleepTimer(SystemClock.elapsedRealtime() + waitingTime, fadeDuration);
+            sleepTimer.schedule();
+        }
+        if (restoreVolume) {
+            callback.onSleepTimerFading(1.0f);
+        }
+    }
+
+    /**
+     * Moves the expiration of the active sleep timer 'extraTime' milliseconds into the future. If the sleep timer was
+     * fading out, onSleepTimerFading(1.0f) is called. If the sleep timer is not active, nothing will happen.
+     */
+    public void extendSleepTimer(long extraTime) {
+        boolean restoreVolume = false;
+        synchronized (this) {
+            if (isSleepTimerActive()) {
+                if (BuildConfig.DEBUG)
+                    Log.d(TAG, "Extending sleep timer by " + extraTime + " milliseconds");
+                restoreVolume = sleepTimer.extend(extraTime);
+            }
+        }
+        if (restoreVolume) {
+            callback.onSleepTimerFading(1.0f);
         }
-        sleepTimer = new SleepTimer(waitingTime);
-        sleepTimerFuture = schedExecutor.schedule(sleepTimer, 0, TimeUnit.MILLISECONDS);
     }
 
     /**
      * Returns true if the sleep timer is currently active.
      */
     public synchronized boolean isSleepTimerActive() {
-        return sleepTimer != null && sleepTimerFuture != null && !sleepTimerFuture.isCancelled() && !sleepTimerFuture.isDone() && sleepTimer.isWaiting;
+        return sleepTimer != null && sleepTimer.isWaiting();
     }
 
     /**
-     * Disables the sleep timer. If the sleep timer is not active, nothing will happen.
+     * Disables the sleep timer. If the sleep timer was fading out, onSleepTimerFading(1.0f) is called. If the sleep
+     * timer is not active, nothing will happen.
      */
-    public synchronized void disableSleepTimer() {
+    public void disableSleepTimer() {
+        boolean restoreVolume;
+        synchronized (this) {
+            restoreVolume = cancelSleepTimer();
+        }
+        if (restoreVolume) {
+            callback.onSleepTimerFading(1.0f);
+        }
+    }
+
+    /**
+     * Cancels the sleep timer. The callback is not called by this method because the caller holds the lock of the
+     * task manager.
+     *
+     * @return true if the sleep timer was fading out and the volume has to be restored.
+     */
+    private boolean cancelSleepTimer() {
         if (isSleepTimerActive()) {
             if (BuildConfig.DEBUG)
                 Log.d(TAG, "Disabling sleep timer");
-            sleepTimerFuture.cancel(true);
+            return sleepTimer.cancel();
         }
+        return false;
     }
 
     /**
@@ -242,7 +357,7 @@ public class PlaybackServiceTaskManager {
      * Returns true if the widget updater is currently running.
      */
     public synchronized boolean isWidgetUpdaterActive() {
-        return widgetUpdaterFuture != null && !widgetUpdaterFuture.isCancelled() && !widgetUpdaterFuture.isDone();
+        return clock.isSubscribed(widgetUpdater);
     }
 
     /**
@@ -250,7 +365,7 @@ public class PlaybackServiceTaskManager {
      */
     public synchronized void cancelWidgetUpdater() {
         if (isWidgetUpdaterActive()) {
-            widgetUpdaterFuture.cancel(false);
+            clock.unsubscribe(widgetUpdater);
             if (BuildConfig.DEBUG) Log.d(TAG, "Cancelled WidgetUpdater");
         }
     }
@@ -267,7 +382,8 @@ public class PlaybackServiceTaskManager {
 
     /**
      * Starts a new thread that loads the chapter marks from a playable object. If another chapter loader is already active,
-     * it will be cancelled first.
+     * it will be cancelled first. If the playable object has been restored from a PlaybackSnapshot, its complete item
+     * is loaded from the database first.
      * On completion, the callback's onChapterLoaded method will be called.
      */
     public synchronized void startChapterLoader(final Playable media) {
@@ -283,12 +399,19 @@ public class PlaybackServiceTaskManager {
             public void run() {
                 if (BuildConfig.DEBUG)
                     Log.d(TAG, "Chapter loader started");
+                if (media instanceof FeedMedia && ((FeedMedia) media).hasPlaceholderItem()) {
+                    // media has been restored from a PlaybackSnapshot
+                    ((FeedMedia) media).replacePlaceholderItem();
+                }
                 if (media.getChapters() == null) {
                     media.loadChapterMarks();
                     if (!Thread.currentThread().isInterrupted() && media.getChapters() != null) {
                         callback.onChapterLoaded(media);
                     }
                 }
+                if (!Thread.currentThread().isInterrupted() && media instanceof FeedMedia) {
+                    prefetchExtraInformation((FeedMedia) media);
+                }
                 if (BuildConfig.DEBUG)
                     Log.d(TAG, "Chapter loader stopped");
             }
@@ -297,74 +420,172 @@ public class PlaybackServiceTaskManager {
     }
 
 
+    /**
+     * Loads the shownotes and chapters of the playing episode and of the next episode in the queue into DBReader's
+     * cache so that they can be displayed without delay.
+     */
+    private void prefetchExtraInformation(FeedMedia media) {
+        FeedItem item = media.getItem();
+        if (item == null) {
+            return;
+        }
+        final long nextItemId = QueueIndex.getInstance(context).getSuccessor(item.getId());
+        if (nextItemId != QueueIndex.NO_ITEM) {
+            DBReader.prefetchExtraInformation(context, item.getId(), nextItemId);
+        } else {
+            DBReader.prefetchExtraInformation(context, item.getId());
+        }
+    }
+
     /**
      * Cancels all tasks. The PSTM will be in the initial state after execution of this method.
      */
-    public synchronized void cancelAllTasks() {
-        cancelPositionSaver();
-        cancelWidgetUpdater();
-        disableSleepTimer();
-        cancelQueueLoader();
-        cancelChapterLoader();
+    public void cancelAllTasks() {
+        boolean restoreVolume;
+        synchronized (this) {
+            cancelPositionSaver();
+            cancelWidgetUpdater();
+            clock.unsubscribeAll();
+            restoreVolume = cancelSleepTimer();
+            cancelQueueLoader();
+            cancelChapterLoader();
+        }
+        if (restoreVolume) {
+            callback.onSleepTimerFading(1.0f);
+        }
     }
 
     /**
      * Cancels all tasks and shuts down the internal executor service of the PSTM. The object should not be used after
      * execution of this method.
      */
-    public synchronized void shutdown() {
+    public void shutdown() {
         EventDistributor.getInstance().unregister(eventDistributorListener);
         cancelAllTasks();
-        schedExecutor.shutdown();
+        synchronized (this) {
+            schedExecutor.shutdown();
+        }
     }
 
     /**
-     * Sleeps for a given time and then pauses playback.
+     * Pauses playback at a deadline. The timer doesn't run between its events: it is scheduled once for the start of
+     * the fade-out and once for every fade step, or only once for the deadline if the volume is not faded out. The
+     * remaining time is computed from the deadline whenever it is requested.
+     * <p/>
+     * All methods must be called while holding the lock of the PSTM.
      */
     private class SleepTimer implements Runnable {
         private static final String TAG = "SleepTimer";
-        private static final long UPDATE_INTERVALL = 1000L;
-        private volatile long waitingTime;
-        private volatile boolean isWaiting;
 
-        public SleepTimer(long waitingTime) {
-            super();
-            this.waitingTime = waitingTime;
-            isWaiting = true;
+        /**
+         * Time of expiration, measured with SystemClock.elapsedRealtime().
+         */
+        private long deadline;
+        private final long fadeDuration;
+        private boolean isWaiting;
+        private boolean isFading;
+        private ScheduledFuture future;
+
+        public SleepTimer(long deadline, long fadeDuration) {
+            this.deadline = deadline;
+            this.fadeDuration = fadeDuration;
+            this.isWaiting = true;
+        }
+
+        /**
+         * Schedules the next event of the timer, i.e. the start of the fade-out, the next fade step or the expiration.
+         */
+        void schedule() {
+            final long now = SystemClock.elapsedRealtime();
+            final long fadeStart = deadline - fadeDuration;
+            final long next;
+            if (now < fadeStart) {
+                next = fadeStart;
+            } else if (fadeDuration > 0) {
+                next = Math.min(deadline, now + SLEEP_TIMER_FADE_STEP_INTERVAL);
+            } else {
+                next = deadline;
+            }
+            future = schedExecutor.schedule(this, Math.max(0, next - now), TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * @return true if the volume has to be restored, see {@link #stopFading()}.
+         */
+        boolean extend(long extraTime) {
+            future.cancel(false);
+            deadline += extraTime;
+            final boolean restoreVolume = stopFading();
+            schedule();
+            return restoreVolume;
+        }
+
+        /**
+         * @return true if the volume has to be restored, see {@link #stopFading()}.
+         */
+        boolean cancel() {
+            future.cancel(false);
+            isWaiting = false;
+            return stopFading();
+        }
+
+        /**
+         * Stops the fade-out if the timer has been cancelled or extended beyond the fade-out.
+         *
+         * @return true if the timer was fading out, in which case the caller has to restore the volume after it has
+         * released the lock of the task manager.
+         */
+        private boolean stopFading() {
+            if (isFading && (!isWaiting || deadline - SystemClock.elapsedRealtime() > fadeDuration)) {
+                isFading = false;
+                return true;
+            }
+            return false;
         }
 
         @Override
         public void run() {
-            if (BuildConfig.DEBUG)
-                Log.d(TAG, "Starting");
-            while (waitingTime > 0) {
-                try {
-                    Thread.sleep(UPDATE_INTERVALL);
-                    waitingTime -= UPDATE_INTERVALL;
-
-                    if (waitingTime <= 0) {
-                        if (BuildConfig.DEBUG)
-                            Log.d(TAG, "Waiting completed");
-                        postExecute();
-                        if (!Thread.currentThread().isInterrupted()) {
-                            callback.onSleepTimerExpired();
-                        }
-
+            final boolean expired;
+            float volume = -1;
+            synchronized (PlaybackServiceTaskManager.this) {
+                if (!isWaiting || sleepTimer != this) {
+                    return;
+                }
+                final long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0) {
+                    if (BuildConfig.DEBUG)
+                        Log.d(TAG, "Waiting completed");
+                    isWaiting = false;
+                    isFading = false;
+                    expired = true;
+                } else {
+                    expired = false;
+                    if (remaining <= fadeDuration) {
+                        isFading = true;
+                        volume = (float) remaining / fadeDuration;
                     }
-                } catch (InterruptedException e) {
-                    Log.d(TAG, "Thread was interrupted while waiting");
-                    break;
+                    schedule();
+                }
+            }
+            // the callbacks call into the PlaybackService, which calls back into the task manager, so they must not
+            // be called while holding the lock
+            if (expired) {
+                callback.onSleepTimerExpired();
+            } else if (volume >= 0) {
+                callback.onSleepTimerFading(volume);
+                final boolean stoppedFading;
+                synchronized (PlaybackServiceTaskManager.this) {
+                    stoppedFading = !isFading;
+                }
+                if (stoppedFading) {
+                    // the volume might have been restored before this step's volume was set
+                    callback.onSleepTimerFading(1.0f);
                 }
             }
-            postExecute();
-        }
-
-        protected void postExecute() {
-            isWaiting = false;
         }
 
         public long getWaitingTime() {
-            return waitingTime;
+            return Math.max(0, deadline - SystemClock.elapsedRealtime());
         }
 
         public boolean isWaiting() {
@@ -378,6 +599,15 @@ public class PlaybackServiceTaskManager {
 
         void onSleepTimerExpired();
 
+        /**
+         * Called during the fade-out of the sleep timer.
+         *
+         * @param volume The volume that playback should have at the moment, between 1 at the beginning and 0 at the
+         *               end of the fade-out. If the sleep timer has been extended or disabled while fading out, this
+         *               method is called with 1.
+         */
+        void onSleepTimerFading(float volume);
+
         void onWidgetUpdaterTick();
 
         void onChapterLoaded(Playable media);
@@ -0,0 +1,90 @@
+package de.danoeh.antennapod.service.playback;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.SystemClock;
+import android.util.Log;
+import de.danoeh.antennapod.BuildConfig;
+
+/**
+ * Detects when the device is shaken. The accelerometer is only used between register() and unregister(), so that
+ * the listener doesn't drain the battery while it is not needed.
+ */
+class ShakeListener implements SensorEventListener {
+    private static final String TAG = "ShakeListener";
+
+    /**
+     * Acceleration in multiples of the gravity of earth that is recognized as a shake.
+     */
+    private static final float SHAKE_THRESHOLD = 2.5f;
+    /**
+     * Minimum time between two shakes in milliseconds.
+     */
+    private static final long MIN_SHAKE_INTERVAL = 2000;
+
+    private final SensorManager sensorManager;
+    private final Callback callback;
+    private boolean registered;
+    private long lastShake;
+
+    public ShakeListener(Context context, Callback callback) {
+        this.sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        this.callback = callback;
+    }
+
+    /**
+     * Starts listening to the accelerometer. If the listener has already been registered, nothing will happen.
+     */
+    public synchronized void register() {
+        if (registered) {
+            return;
+        }
+        Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        if (accelerometer == null) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Device has no accelerometer");
+            return;
+        }
+        registered = sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_UI);
+        if (BuildConfig.DEBUG) Log.d(TAG, "Registered listener: " + registered);
+    }
+
+    /**
+     * Stops listening to the accelerometer. If the listener has not been registered, nothing will happen.
+     */
+    public synchronized void unregister() {
+        if (registered) {
+            sensorManager.unregisterListener(this);
+            registered = false;
+            if (BuildConfig.DEBUG) Log.d(TAG, "Unregistered listener");
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        final float x = event.values[0] / SensorManager.GRAVITY_EARTH;
+        final float y = event.values[1] / SensorManager.GRAVITY_EARTH;
+        final float z = event.values[2] / SensorManager.GRAVITY_EARTH;
+        if (x * x + y * y + z * z < SHAKE_THRESHOLD * SHAKE_THRESHOLD) {
+            return;
+        }
+        final long now = SystemClock.elapsedRealtime();
+        if (now - lastShake < MIN_SHAKE_INTERVAL) {
+            return;
+        }
+        lastShake = now;
+        if (BuildConfig.DEBUG) Log.d(TAG, "Device has been shaken");
+        callback.onShake();
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+    }
+
+    interface Callback {
+        void onShake();
+    }
+}
@@ -0,0 +1,345 @@
+package de.danoeh.antennapod.service.playback;
+
+import android.util.Log;
+import de.danoeh.antennapod.BuildConfig;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * Stores the parts of a streamed episode that have already been loaded. The data is written to a sparse file at the
+ * position where it belongs, a bitmap keeps track of the chunks of CHUNK_SIZE bytes that have been completely loaded.
+ * The bitmap is saved in a second file so that the cached data can be used again when the episode is streamed later.
+ * <p/>
+ * The cache is filled by a single writer that loads the episode sequentially from a position. Readers can also read
+ * the bytes of the chunk that is currently being loaded. Readers wait on the cache object, they are notified
+ * whenever new data is available or the writer has failed.
+ * <p/>
+ * All methods of this class are thread-safe.
+ */
+class StreamCache {
+    private static final String TAG = "StreamCache";
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int RANGES_FILE_VERSION = 1;
+    private static final String RANGES_FILE_EXTENSION = ".ranges";
+
+    private final File dataFile;
+    private final File rangesFile;
+    private final String downloadUrl;
+    private final RandomAccessFile file;
+
+    /**
+     * Length of the episode in bytes or -1 if the length is not known yet.
+     */
+    private long length;
+    /**
+     * True if the length is known or if the server has responded without specifying the length.
+     */
+    private boolean lengthDetermined;
+    private final BitSet chunks;
+
+    /**
+     * The bytes from writeStart (inclusive) to writePosition (exclusive) have been written by the current writer.
+     */
+    private long writeStart;
+    private long writePosition;
+
+    /**
+     * Position at which the last reader has read.
+     */
+    private long readPosition;
+
+    private boolean failed;
+    private boolean closed;
+
+    /**
+     * Opens the cache of an episode. Data that has been cached for a different download URL is discarded.
+     *
+     * @param dataFile    The file that contains the cached data.
+     * @param downloadUrl The URL from which the episode is loaded.
+     */
+    StreamCache(File dataFile, String downloadUrl) throws IOException {
+        this.dataFile = dataFile;
+        this.rangesFile = new File(dataFile.getPath() + RANGES_FILE_EXTENSION);
+        this.downloadUrl = downloadUrl;
+        this.length = -1;
+        this.chunks = new BitSet();
+        if (!readRanges()) {
+            dataFile.delete();
+            rangesFile.delete();
+        }
+        this.lengthDetermined = length >= 0;
+        this.file = new RandomAccessFile(dataFile, "rw");
+    }
+
+    static boolean isRangesFile(File file) {
+        return file.getName().endsWith(RANGES_FILE_EXTENSION);
+    }
+
+    File getDataFile() {
+        return dataFile;
+    }
+
+    /**
+     * Returns the length of the episode in bytes or -1 if the length is not known yet.
+     */
+    synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * Sets the length of the episode.
+     *
+     * @param length The length in bytes or -1 if the server hasn't specified the length.
+     */
+    synchronized void setLength(long length) {
+        this.length = length;
+        this.lengthDetermined = true;
+        markWrittenChunks();
+        notifyAll();
+    }
+
+    /**
+     * Returns true if every byte of the episode has been cached.
+     */
+    synchronized boolean isComplete() {
+        return length >= 0 && chunks.nextClearBit(0) >= getNumberOfChunks();
+    }
+
+    /**
+     * Returns the start of the first chunk that hasn't been cached yet, beginning with the chunk that contains the
+     * given position. Returns -1 if all bytes from the given position to the end of the episode have been cached.
+     */
+    synchronized long getFirstMissingChunk(long position) {
+        final int missing = chunks.nextClearBit(chunk(position));
+        if (length >= 0 && missing >= getNumberOfChunks()) {
+            return -1;
+        }
+        return (long) missing * CHUNK_SIZE;
+    }
+
+    synchronized boolean isCached(long position) {
+        return chunks.get(chunk(position));
+    }
+
+    /**
+     * Starts writing a range. Bytes must be written without gaps from the given position on.
+     */
+    synchronized void startWriting(long position) {
+        writeStart = writePosition = position;
+        failed = false;
+    }
+
+    synchronized void write(byte[] buffer, int count) throws IOException {
+        if (closed) {
+            throw new IOException("Cache has been closed");
+        }
+        file.seek(writePosition);
+        file.write(buffer, 0, count);
+        writePosition += count;
+        markWrittenChunks();
+        notifyAll();
+    }
+
+    /**
+     * Stops writing a range. If the writer has failed, waiting readers are notified about the failure.
+     */
+    synchronized void stopWriting(boolean failed) {
+        writeStart = writePosition = 0;
+        this.failed = failed;
+        notifyAll();
+    }
+
+    /**
+     * Returns the position at which the last reader has read.
+     */
+    synchronized long getReadPosition() {
+        return readPosition;
+    }
+
+    /**
+     * Reads data at the given position. Blocks until data is available.
+     *
+     * @return The number of bytes that have been read or -1 if the position is at the end of the episode.
+     * @throws IOException if the cache has been closed, the writer failed or the timeout expired.
+     */
+    synchronized int read(long position, byte[] buffer, long timeout) throws IOException, InterruptedException {
+        if (readPosition != position) {
+            readPosition = position;
+            notifyAll();
+        }
+        final long deadline = System.currentTimeMillis() + timeout;
+        int available;
+        while ((available = getAvailableBytes(position)) == 0) {
+            if (length >= 0 && position >= length) {
+                return -1;
+            }
+            if (closed || failed) {
+                throw new IOException("Stream is not available");
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new IOException("Timeout while waiting for data");
+            }
+            wait(remaining);
+        }
+        file.seek(position);
+        return file.read(buffer, 0, Math.min(available, buffer.length));
+    }
+
+    /**
+     * Waits until the length of the episode is known.
+     *
+     * @return The length or -1 if the length couldn't be determined.
+     */
+    synchronized long waitForLength(long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        while (!lengthDetermined && !closed && !failed) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        return length;
+    }
+
+    /**
+     * Waits until a reader has read at a different position, the cache has been closed or the timeout has expired.
+     */
+    synchronized void waitForReader(long readPosition, long timeout) throws InterruptedException {
+        if (!closed && this.readPosition == readPosition) {
+            wait(timeout);
+        }
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Saves the bitmap and closes the cache. Waiting readers fail.
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        notifyAll();
+        IOUtils.closeQuietly(file);
+        if (dataFile.exists()) {
+            writeRanges();
+        }
+    }
+
+    /**
+     * Deletes the file that contains the bitmap. This method should be called when the data file has become a
+     * normal episode file.
+     */
+    synchronized void deleteRanges() {
+        rangesFile.delete();
+    }
+
+    /**
+     * Marks every chunk that lies completely within the written range as available.
+     */
+    private void markWrittenChunks() {
+        if (writePosition <= writeStart) {
+            return;
+        }
+        final int first = chunk(writeStart + CHUNK_SIZE - 1);
+        int end = chunk(writePosition);
+        if (length >= 0 && writePosition >= length) {
+            end = getNumberOfChunks();
+        }
+        if (first < end) {
+            chunks.set(first, end);
+        }
+    }
+
+    /**
+     * Returns the number of bytes from the given position that can be read without waiting.
+     */
+    private int getAvailableBytes(long position) {
+        final long end;
+        if (chunks.get(chunk(position))) {
+            int next = chunks.nextClearBit(chunk(position));
+            end = (long) next * CHUNK_SIZE;
+        } else if (position >= writeStart && position < writePosition) {
+            end = writePosition;
+        } else {
+            return 0;
+        }
+        long available = end - position;
+        if (length >= 0) {
+            available = Math.min(available, length - position);
+        }
+        return (int) Math.max(0, Math.min(available, Integer.MAX_VALUE));
+    }
+
+    private int getNumberOfChunks() {
+        return (int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    private static int chunk(long position) {
+        return (int) (position / CHUNK_SIZE);
+    }
+
+    /**
+     * Reads the bitmap from the ranges file.
+     *
+     * @return false if the cached data can't be used.
+     */
+    private boolean readRanges() {
+        if (!dataFile.exists() || !rangesFile.exists()) {
+            return false;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(rangesFile)));
+            if (in.readInt() != RANGES_FILE_VERSION || !in.readUTF().equals(downloadUrl)) {
+                return false;
+            }
+            length = in.readLong();
+            final int numberOfChunks = in.readInt();
+            for (int i = 0; i < numberOfChunks; i++) {
+                if (in.readBoolean()) {
+                    chunks.set(i);
+                }
+            }
+            if (BuildConfig.DEBUG)
+                Log.d(TAG, "Found " + chunks.cardinality() + " cached chunks of " + dataFile.getName());
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            length = -1;
+            chunks.clear();
+            return false;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void writeRanges() {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(rangesFile)));
+            out.writeInt(RANGES_FILE_VERSION);
+            out.writeUTF(downloadUrl);
+            out.writeLong(length);
+            final int numberOfChunks = chunks.length();
+            out.writeInt(numberOfChunks);
+            for (int i = 0; i < numberOfChunks; i++) {
+                out.writeBoolean(chunks.get(i));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            rangesFile.delete();
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+}
@@ -0,0 +1,612 @@
+package de.danoeh.antennapod.service.playback;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+import de.danoeh.antennapod.BuildConfig;
+import de.danoeh.antennapod.feed.FeedMedia;
+import de.danoeh.antennapod.preferences.UserPreferences;
+import de.danoeh.antennapod.service.download.AntennapodHttpClient;
+import de.danoeh.antennapod.service.download.DownloadRequest;
+import de.danoeh.antennapod.service.download.DownloadService;
+import de.danoeh.antennapod.storage.DownloadRequestException;
+import de.danoeh.antennapod.storage.DownloadRequester;
+import de.danoeh.antennapod.util.NetworkUtils;
+import de.danoeh.antennapod.util.URIUtil;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.auth.BasicScheme;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local HTTP server through which the media player streams episodes. The proxy loads an episode in the background,
+ * stores the loaded parts in a {@link StreamCache} and serves the requests of the media player from the cache. This
+ * way, seeking back or playing an episode again doesn't load the data again, and the proxy can read further ahead than
+ * the media player's own buffer.
+ * <p/>
+ * On Wi-Fi, the proxy loads the whole episode. On other networks, it only reads MOBILE_READ_AHEAD bytes ahead of the
+ * media player. When every part of an episode has been cached, the cache file becomes the episode's downloaded file.
+ * <p/>
+ * The proxy only accepts connections from the loopback interface. Other apps can connect to it as well, so the URL of
+ * each stream contains a random token, and requests without the token of their stream are rejected.
+ */
+public class StreamProxy {
+    private static final String TAG = "StreamProxy";
+
+    /**
+     * Folder of the cached streams, relative to the data folder.
+     */
+    public static final String CACHE_DOWNLOADPATH = DownloadRequester.MEDIA_DOWNLOADPATH + "streams/";
+
+    /**
+     * Maximum number of episodes that are streamed at the same time, e.g. the current episode and a preloaded one.
+     */
+    private static final int MAX_ACTIVE_STREAMS = 2;
+    /**
+     * Maximum number of partially cached episodes that are kept on disk.
+     */
+    private static final int MAX_CACHED_STREAMS = 3;
+
+    private static final long MOBILE_READ_AHEAD = 4 * 1024 * 1024;
+    /**
+     * If the media player reads further ahead than this number of bytes, the current request is aborted and the episode
+     * is loaded from the new position.
+     */
+    private static final long SEEK_THRESHOLD = 512 * 1024;
+    private static final long READ_TIMEOUT = 30000;
+    private static final long IDLE_TIMEOUT = 10000;
+    private static final long RETRY_DELAY = 2000;
+    private static final int MAX_RETRIES = 3;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int TOKEN_LENGTH = 16;
+
+    private static final Pattern RANGE_HEADER = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final Pattern CONTENT_RANGE_HEADER = Pattern.compile("bytes (\\d+)-\\d+/(\\d+|\\*)");
+
+    private final Context context;
+    private final SecureRandom random = new SecureRandom();
+
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+
+    /**
+     * Streams by the ID of their FeedMedia object, in the order in which they have been requested.
+     */
+    private final LinkedHashMap<Long, Stream> streams;
+
+    public StreamProxy(Context context) {
+        if (context == null)
+            throw new IllegalArgumentException("context = null");
+        this.context = context.getApplicationContext();
+        this.streams = new LinkedHashMap<Long, Stream>(MAX_ACTIVE_STREAMS + 1, 0.75f, true);
+    }
+
+    /**
+     * Returns the URL through which the media player can stream the given FeedMedia object. The proxy starts loading the
+     * episode immediately.
+     *
+     * @return The URL or null if the episode can't be streamed through the proxy. The media player should use the
+     * episode's download URL in this case.
+     */
+    public synchronized String getUrl(FeedMedia media) {
+        if (media == null)
+            throw new IllegalArgumentException("media = null");
+        if (media.getId() == 0 || media.getDownload_url() == null) {
+            return null;
+        }
+        if (!startServer()) {
+            return null;
+        }
+        Stream stream = streams.get(media.getId());
+        if (stream == null || !stream.downloadUrl.equals(media.getDownload_url())) {
+            if (stream != null) {
+                stream.close();
+            }
+            File cacheDir = UserPreferences.getDataFolder(context, CACHE_DOWNLOADPATH);
+            if (cacheDir == null) {
+                Log.w(TAG, "Cache folder is not available");
+                return null;
+            }
+            deleteOldCaches(cacheDir);
+            try {
+                stream = new Stream(media, new File(cacheDir, "media-" + media.getId()));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            streams.put(media.getId(), stream);
+            stream.start();
+            Iterator<Stream> it = streams.values().iterator();
+            while (streams.size() > MAX_ACTIVE_STREAMS && it.hasNext()) {
+                Stream eldest = it.next();
+                it.remove();
+                eldest.close();
+            }
+        }
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/" + media.getId() + "/" + stream.token;
+    }
+
+    /**
+     * Stops the server and all streams. Cached parts of the episodes are kept on disk.
+     */
+    public synchronized void stop() {
+        if (serverSocket != null) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Stopping stream proxy");
+            IOUtils.closeQuietly(serverSocket);
+            serverSocket = null;
+            executor.shutdownNow();
+            executor = null;
+        }
+        for (Stream stream : streams.values()) {
+            stream.close();
+        }
+        streams.clear();
+    }
+
+    private boolean startServer() {
+        if (serverSocket != null) {
+            return true;
+        }
+        try {
+            serverSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        if (BuildConfig.DEBUG) Log.d(TAG, "Started stream proxy on port " + serverSocket.getLocalPort());
+        executor = Executors.newCachedThreadPool();
+        final ServerSocket socket = serverSocket;
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections(socket);
+            }
+        });
+        return true;
+    }
+
+    private synchronized Stream getStream(long mediaId) {
+        return streams.get(mediaId);
+    }
+
+    private String createToken() {
+        byte[] bytes = new byte[TOKEN_LENGTH];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(2 * TOKEN_LENGTH);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return token.toString();
+    }
+
+    /**
+     * Deletes the oldest partially cached episodes that are not streamed at the moment.
+     */
+    private void deleteOldCaches(File cacheDir) {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> dataFiles = new ArrayList<File>();
+        for (File file : files) {
+            if (!StreamCache.isRangesFile(file)) {
+                dataFiles.add(file);
+            }
+        }
+        for (Stream stream : streams.values()) {
+            dataFiles.remove(stream.cache.getDataFile());
+        }
+        // the new stream also needs a place
+        final int maxOldCaches = MAX_CACHED_STREAMS - streams.size() - 1;
+        if (dataFiles.size() <= maxOldCaches) {
+            return;
+        }
+        Collections.sort(dataFiles, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return (l < r) ? -1 : ((l == r) ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < dataFiles.size() - Math.max(0, maxOldCaches); i++) {
+            File dataFile = dataFiles.get(i);
+            if (BuildConfig.DEBUG) Log.d(TAG, "Deleting cached stream " + dataFile.getName());
+            dataFile.delete();
+            new File(dataFile.getPath() + ".ranges").delete();
+        }
+    }
+
+    private void acceptConnections(ServerSocket socket) {
+        while (!socket.isClosed()) {
+            try {
+                final Socket client = socket.accept();
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleConnection(client);
+                    }
+                });
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    e.printStackTrace();
+                }
+            } catch (RuntimeException e) {
+                // executor has been shut down
+                return;
+            }
+        }
+    }
+
+    private void handleConnection(Socket client) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "US-ASCII"));
+            OutputStream out = new BufferedOutputStream(client.getOutputStream(), BUFFER_SIZE);
+            String requestLine = in.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            String[] parts = requestLine.split(" ");
+            long rangeStart = 0;
+            long rangeEnd = -1;
+            boolean hasRange = false;
+            String line;
+            while ((line = in.readLine()) != null && line.length() > 0) {
+                int separator = line.indexOf(':');
+                if (separator > 0 && line.substring(0, separator).trim().equalsIgnoreCase("Range")) {
+                    Matcher matcher = RANGE_HEADER.matcher(line.substring(separator + 1).trim());
+                    if (matcher.matches()) {
+                        hasRange = true;
+                        rangeStart = Long.parseLong(matcher.group(1));
+                        rangeEnd = (matcher.group(2).length() > 0) ? Long.parseLong(matcher.group(2)) : -1;
+                    }
+                }
+            }
+
+            // the path is /<media ID>/<token>
+            String[] path = (parts.length >= 2) ? parts[1].split("/", -1) : new String[0];
+            Stream stream = null;
+            if (path.length >= 2 && path[0].length() == 0) {
+                try {
+                    stream = getStream(Long.parseLong(path[1]));
+                } catch (NumberFormatException e) {
+                    stream = null;
+                }
+            }
+            if (stream == null) {
+                writeHeader(out, "404 Not Found", null);
+                out.flush();
+                return;
+            }
+            if (path.length != 3 || !stream.hasToken(path[2])) {
+                Log.w(TAG, "Rejected request without valid token for stream " + stream.media.getId());
+                writeHeader(out, "403 Forbidden", null);
+                out.flush();
+                return;
+            }
+            stream.serve(out, parts[0].equals("HEAD"), hasRange, rangeStart, rangeEnd);
+        } catch (IOException e) {
+            // the media player closes the connection whenever it seeks
+            if (BuildConfig.DEBUG) Log.d(TAG, "Connection closed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Connection was interrupted");
+        } finally {
+            IOUtils.closeQuietly(client);
+        }
+    }
+
+    private static void writeHeader(OutputStream out, String status, String headers) throws IOException {
+        StringBuilder header = new StringBuilder();
+        header.append("HTTP/1.1 ").append(status).append("\r\n");
+        if (headers != null) {
+            header.append(headers);
+        }
+        header.append("Accept-Ranges: bytes\r\n");
+        header.append("Connection: close\r\n");
+        header.append("\r\n");
+        out.write(header.toString().getBytes("US-ASCII"));
+    }
+
+    /**
+     * Turns the cached episode into a downloaded episode. The file is handed over to the DownloadService, which handles
+     * it like the file of a completed download, e.g. it reads the duration and the chapters of the episode.
+     */
+    private void onStreamCached(Stream stream) {
+        final FeedMedia media = stream.media;
+        final DownloadRequester requester = DownloadRequester.getInstance();
+        if (media.isDownloaded() || requester.isDownloadingFile(media)
+                || media.getItem() == null || media.getItem().getFeed() == null) {
+            return;
+        }
+        try {
+            File destination = new File(requester.getMediafilePath(context, media),
+                    requester.getMediafilename(media));
+            if (destination.exists()) {
+                Log.w(TAG, "Cached stream can't be moved, file already exists");
+                return;
+            }
+            // open file handles of the cache remain valid
+            if (!stream.cache.getDataFile().renameTo(destination)) {
+                Log.w(TAG, "Could not move cached stream to " + destination);
+                return;
+            }
+            stream.cache.deleteRanges();
+            if (BuildConfig.DEBUG) Log.d(TAG, "Cached stream has been saved as " + destination);
+            DownloadRequest request = new DownloadRequest(destination.toString(), stream.downloadUrl,
+                    media.getHumanReadableIdentifier(), media.getId(), media.getTypeAsInt());
+            Intent launchIntent = new Intent(context, DownloadService.class);
+            launchIntent.putExtra(DownloadService.EXTRA_COMPLETED_REQUEST, request);
+            context.startService(launchIntent);
+        } catch (DownloadRequestException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * An episode that is streamed through the proxy.
+     */
+    private class Stream implements Runnable {
+        final FeedMedia media;
+        final String downloadUrl;
+        /**
+         * Secret part of the stream's URL.
+         */
+        final String token;
+        final StreamCache cache;
+        final Thread fetcher;
+        private volatile HttpGet currentRequest;
+
+        Stream(FeedMedia media, File dataFile) throws IOException {
+            this.media = media;
+            this.downloadUrl = media.getDownload_url();
+            this.token = createToken();
+            this.cache = new StreamCache(dataFile, downloadUrl);
+            this.fetcher = new Thread(this, "StreamProxy fetcher " + media.getId());
+            fetcher.setPriority(Thread.MIN_PRIORITY);
+        }
+
+        void start() {
+            fetcher.start();
+        }
+
+        /**
+         * Compares the given token with the token of this stream in constant time.
+         */
+        boolean hasToken(String candidate) {
+            try {
+                return MessageDigest.isEqual(token.getBytes("US-ASCII"), candidate.getBytes("US-ASCII"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void close() {
+            cache.close();
+            HttpGet request = currentRequest;
+            if (request != null) {
+                request.abort();
+            }
+            fetcher.interrupt();
+        }
+
+        /**
+         * Writes the requested range of the episode to the output stream.
+         */
+        void serve(OutputStream out, boolean headOnly, boolean hasRange, long start, long end)
+                throws IOException, InterruptedException {
+            final long length = cache.waitForLength(READ_TIMEOUT);
+            StringBuilder headers = new StringBuilder();
+            if (media.getMime_type() != null) {
+                headers.append("Content-Type: ").append(media.getMime_type()).append("\r\n");
+            }
+            final String status;
+            if (length >= 0) {
+                if (start >= length) {
+                    headers.append("Content-Range: bytes */").append(length).append("\r\n");
+                    writeHeader(out, "416 Requested Range Not Satisfiable", headers.toString());
+                    out.flush();
+                    return;
+                }
+                if (end < 0 || end >= length) {
+                    end = length - 1;
+                }
+                headers.append("Content-Length: ").append(end - start + 1).append("\r\n");
+                if (hasRange) {
+                    headers.append("Content-Range: bytes ").append(start).append("-").append(end)
+                            .append("/").append(length).append("\r\n");
+                    status = "206 Partial Content";
+                } else {
+                    status = "200 OK";
+                }
+            } else if (start == 0) {
+                // length is unknown, the episode is served until the server closes the connection
+                end = -1;
+                status = "200 OK";
+            } else {
+                writeHeader(out, "416 Requested Range Not Satisfiable", headers.toString());
+                out.flush();
+                return;
+            }
+            writeHeader(out, status, headers.toString());
+            if (headOnly) {
+                out.flush();
+                return;
+            }
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long position = start;
+            while (end < 0 || position <= end) {
+                int count = cache.read(position, buffer, READ_TIMEOUT);
+                if (count < 0) {
+                    break;
+                }
+                if (end >= 0) {
+                    count = (int) Math.min(count, end - position + 1);
+                }
+                out.write(buffer, 0, count);
+                position += count;
+            }
+            out.flush();
+        }
+
+        /**
+         * Loads the parts of the episode that haven't been cached yet.
+         */
+        @Override
+        public void run() {
+            int failures = 0;
+            try {
+                while (!cache.isClosed()) {
+                    final long readPosition = cache.getReadPosition();
+                    final boolean readAhead = NetworkUtils.connectedToWifi(context);
+                    long start = cache.getFirstMissingChunk(readPosition);
+                    if (start < 0 && readAhead) {
+                        // fill the gaps before the current position
+                        start = cache.getFirstMissingChunk(0);
+                    }
+                    if (start < 0) {
+                        if (cache.isComplete()) {
+                            onStreamCached(this);
+                            return;
+                        }
+                        cache.waitForReader(readPosition, IDLE_TIMEOUT);
+                    } else if (!readAhead && start - readPosition > MOBILE_READ_AHEAD) {
+                        cache.waitForReader(readPosition, IDLE_TIMEOUT);
+                    } else if (fetch(start)) {
+                        failures = 0;
+                    } else if (++failures < MAX_RETRIES) {
+                        Thread.sleep(RETRY_DELAY);
+                    } else {
+                        Log.w(TAG, "Could not load " + downloadUrl);
+                        cache.stopWriting(true);
+                        // try again when the media player requests data again
+                        cache.waitForReader(readPosition, IDLE_TIMEOUT);
+                        failures = 0;
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (BuildConfig.DEBUG) Log.d(TAG, "Fetcher was interrupted");
+            }
+        }
+
+        /**
+         * Loads the episode from the given position until a part is reached that has already been cached, the media
+         * player has moved to a different position or the read-ahead limit is reached.
+         *
+         * @return false if the episode couldn't be loaded.
+         */
+        private boolean fetch(final long start) throws InterruptedException {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Loading " + downloadUrl + " from position " + start);
+            HttpGet request;
+            try {
+                request = new HttpGet(URIUtil.getURIFromRequestUrl(downloadUrl));
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace();
+                return false;
+            }
+            String userInfo = request.getURI().getUserInfo();
+            if (userInfo != null) {
+                String[] parts = userInfo.split(":");
+                if (parts.length == 2) {
+                    request.addHeader(BasicScheme.authenticate(
+                            new UsernamePasswordCredentials(parts[0], parts[1]), "UTF-8", false));
+                }
+            }
+            request.addHeader("Range", "bytes=" + start + "-");
+            currentRequest = request;
+            InputStream in = null;
+            try {
+                if (cache.isClosed()) {
+                    return true;
+                }
+                HttpResponse response = AntennapodHttpClient.getHttpClient().execute(request);
+                HttpEntity entity = response.getEntity();
+                int responseCode = response.getStatusLine().getStatusCode();
+                if (entity == null || (responseCode != 200 && responseCode != 206)) {
+                    Log.w(TAG, "Unexpected response code " + responseCode);
+                    return false;
+                }
+                in = entity.getContent();
+                long position = start;
+                Header contentRange = response.getFirstHeader("Content-Range");
+                Matcher matcher = (contentRange != null) ? CONTENT_RANGE_HEADER.matcher(contentRange.getValue()) : null;
+                if (responseCode == 206 && matcher != null && matcher.matches()) {
+                    position = Long.parseLong(matcher.group(1));
+                    cache.setLength(matcher.group(2).equals("*") ? -1 : Long.parseLong(matcher.group(2)));
+                } else if (responseCode == 200) {
+                    // the server doesn't support ranges
+                    cache.setLength(entity.getContentLength());
+                    IOUtils.skipFully(in, start);
+                } else {
+                    Log.w(TAG, "Invalid Content-Range header");
+                    return false;
+                }
+
+                cache.startWriting(position);
+                long nextNetworkCheck = position + StreamCache.CHUNK_SIZE;
+                boolean readAhead = NetworkUtils.connectedToWifi(context);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    cache.write(buffer, count);
+                    position += count;
+                    if (position >= nextNetworkCheck) {
+                        readAhead = NetworkUtils.connectedToWifi(context);
+                        nextNetworkCheck = position + StreamCache.CHUNK_SIZE;
+                    }
+                    if (cache.isCached(position)) {
+                        // the rest of this part doesn't have to be loaded again
+                        break;
+                    }
+                    final long readPosition = cache.getReadPosition();
+                    if ((readPosition < start || readPosition > position + SEEK_THRESHOLD)
+                            && !cache.isCached(readPosition)) {
+                        if (BuildConfig.DEBUG) Log.d(TAG, "Media player has moved to position " + readPosition);
+                        break;
+                    }
+                    if (!readAhead && position - readPosition > MOBILE_READ_AHEAD) {
+                        break;
+                    }
+                }
+                if (count == -1) {
+                    final long length = cache.getLength();
+                    if (length < 0) {
+                        cache.setLength(position);
+                    } else if (position < length) {
+                        Log.w(TAG, "Connection was closed at position " + position + " of " + length);
+                        cache.stopWriting(false);
+                        return false;
+                    }
+                }
+                cache.stopWriting(false);
+                return true;
+            } catch (IOException e) {
+                if (!cache.isClosed()) {
+                    e.printStackTrace();
+                }
+                cache.stopWriting(false);
+                return cache.isClosed();
+            } finally {
+                // aborting is necessary because closing the stream would read the rest of the response
+                request.abort();
+                IOUtils.closeQuietly(in);
+                currentRequest = null;
+            }
+        }
+    }
+}
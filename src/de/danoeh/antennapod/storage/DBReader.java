@@ -9,15 +9,18 @@ import de.danoeh.antennapod.feed.*;
 import de.danoeh.antennapod.service.download.DownloadStatus;
 import de.danoeh.antennapod.util.DownloadError;
 import de.danoeh.antennapod.util.comparator.DownloadStatusComparator;
-import de.danoeh.antennapod.util.comparator.FeedItemPubdateComparator;
 import de.danoeh.antennapod.util.comparator.PlaybackCompletionDateComparator;
 import de.danoeh.antennapod.util.flattr.FlattrStatus;
 import de.danoeh.antennapod.util.flattr.FlattrThing;
+import org.apache.commons.lang3.StringUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Provides methods for reading data from the AntennaPod database.
@@ -38,6 +41,12 @@ public final class DBReader {
      */
     public static final int DOWNLOAD_LOG_SIZE = 200;
 
+    /**
+     * Default number of FeedItems on a page of the paged item lists, e.g.
+     * {@link #getFeedItemPage(android.content.Context, de.danoeh.antennapod.feed.Feed, boolean, de.danoeh.antennapod.feed.FeedItem, int)}.
+     */
+    public static final int ITEM_PAGE_SIZE = 30;
+
 
     private DBReader() {
     }
@@ -168,8 +177,6 @@ public final class DBReader {
                 itemlistCursor);
         itemlistCursor.close();
 
-        Collections.sort(items, new FeedItemPubdateComparator());
-
         adapter.close();
 
         for (FeedItem item : items) {
@@ -179,6 +186,37 @@ public final class DBReader {
         return items;
     }
 
+    /**
+     * Loads a page of the FeedItems of a Feed. Pages are sorted by the pubDate of the FeedItems in descending order,
+     * so the first page contains the newest FeedItems. Callers that display a feed should prefer this method over
+     * {@link #getFeedItemList(android.content.Context, de.danoeh.antennapod.feed.Feed)} and load further pages on demand.
+     *
+     * @param context      A context that is used for opening a database connection.
+     * @param feed         The Feed whose items should be loaded.
+     * @param onlyEpisodes true if FeedItems without a FeedMedia should be skipped.
+     * @param after        The last FeedItem of the previous page or null if the first page should be loaded.
+     * @param limit        The maximum number of FeedItems on the page, e.g. {@link #ITEM_PAGE_SIZE}.
+     * @return A list with at most 'limit' FeedItems. If the list contains less than 'limit' FeedItems, there are no
+     * further pages. The Feed-attribute of the FeedItems will already be set correctly.
+     */
+    public static List<FeedItem> getFeedItemPage(Context context, final Feed feed, boolean onlyEpisodes,
+                                                 FeedItem after, int limit) {
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, "Extracting page of Feeditems of feed " + feed.getTitle());
+
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        Cursor itemlistCursor = adapter.getItemsOfFeedPageCursor(feed.getId(), onlyEpisodes, after, limit);
+        List<FeedItem> items = extractItemlistFromCursor(adapter, itemlistCursor);
+        itemlistCursor.close();
+        adapter.close();
+
+        for (FeedItem item : items) {
+            item.setFeed(feed);
+        }
+        return items;
+    }
+
     static List<FeedItem> extractItemlistFromCursor(Context context, Cursor itemlistCursor) {
         PodDBAdapter adapter = new PodDBAdapter(context);
         adapter.open();
@@ -222,48 +260,9 @@ public final class DBReader {
                     item.setImage(getFeedImage(adapter, imageIndex));
                 }
 
-                // extract chapters
-                boolean hasSimpleChapters = itemlistCursor
-                        .getInt(PodDBAdapter.IDX_FI_SMALL_HAS_CHAPTERS) > 0;
-                if (hasSimpleChapters) {
-                    Cursor chapterCursor = adapter
-                            .getSimpleChaptersOfFeedItemCursor(item);
-                    if (chapterCursor.moveToFirst()) {
-                        item.setChapters(new ArrayList<Chapter>());
-                        do {
-                            int chapterType = chapterCursor
-                                    .getInt(PodDBAdapter.KEY_CHAPTER_TYPE_INDEX);
-                            Chapter chapter = null;
-                            long start = chapterCursor
-                                    .getLong(PodDBAdapter.KEY_CHAPTER_START_INDEX);
-                            String title = chapterCursor
-                                    .getString(PodDBAdapter.KEY_TITLE_INDEX);
-                            String link = chapterCursor
-                                    .getString(PodDBAdapter.KEY_CHAPTER_LINK_INDEX);
-
-                            switch (chapterType) {
-                                case SimpleChapter.CHAPTERTYPE_SIMPLECHAPTER:
-                                    chapter = new SimpleChapter(start, title, item,
-                                            link);
-                                    break;
-                                case ID3Chapter.CHAPTERTYPE_ID3CHAPTER:
-                                    chapter = new ID3Chapter(start, title, item,
-                                            link);
-                                    break;
-                                case VorbisCommentChapter.CHAPTERTYPE_VORBISCOMMENT_CHAPTER:
-                                    chapter = new VorbisCommentChapter(start,
-                                            title, item, link);
-                                    break;
-                            }
-                            if (chapter != null) {
-                                chapter.setId(chapterCursor
-                                        .getLong(PodDBAdapter.KEY_ID_INDEX));
-                                item.getChapters().add(chapter);
-                            }
-                        } while (chapterCursor.moveToNext());
-                    }
-                    chapterCursor.close();
-                }
+                // chapters are loaded when they are accessed for the first time
+                item.setHasChapters(itemlistCursor
+                        .getInt(PodDBAdapter.IDX_FI_SMALL_HAS_CHAPTERS) > 0);
                 items.add(item);
             } while (itemlistCursor.moveToNext());
         }
@@ -272,6 +271,56 @@ public final class DBReader {
         return items;
     }
 
+    /**
+     * Reads the chapters of a FeedItem from the SimpleChapters table.
+     *
+     * @return The chapters or null if the item doesn't have any chapters.
+     */
+    private static List<Chapter> extractChaptersOfItem(PodDBAdapter adapter, long itemId) {
+        List<Chapter> chapters = null;
+        Cursor chapterCursor = adapter.getSimpleChaptersOfFeedItemCursor(itemId);
+        if (chapterCursor.moveToFirst()) {
+            chapters = new ArrayList<Chapter>(chapterCursor.getCount());
+            do {
+                Chapter chapter = extractChapterFromCursor(chapterCursor, null);
+                if (chapter != null) {
+                    chapter.setId(chapterCursor
+                            .getLong(PodDBAdapter.KEY_ID_INDEX));
+                    chapters.add(chapter);
+                }
+            } while (chapterCursor.moveToNext());
+        }
+        chapterCursor.close();
+        return chapters;
+    }
+
+    /**
+     * Creates a chapter from the current row of a cursor with the layout of the SimpleChapters table.
+     *
+     * @return The chapter or null if the chapter type is unknown.
+     */
+    private static Chapter extractChapterFromCursor(Cursor chapterCursor, FeedItem item) {
+        int chapterType = chapterCursor
+                .getInt(PodDBAdapter.KEY_CHAPTER_TYPE_INDEX);
+        long start = chapterCursor
+                .getLong(PodDBAdapter.KEY_CHAPTER_START_INDEX);
+        String title = chapterCursor
+                .getString(PodDBAdapter.KEY_TITLE_INDEX);
+        String link = chapterCursor
+                .getString(PodDBAdapter.KEY_CHAPTER_LINK_INDEX);
+
+        switch (chapterType) {
+            case SimpleChapter.CHAPTERTYPE_SIMPLECHAPTER:
+                return new SimpleChapter(start, title, item, link);
+            case ID3Chapter.CHAPTERTYPE_ID3CHAPTER:
+                return new ID3Chapter(start, title, item, link);
+            case VorbisCommentChapter.CHAPTERTYPE_VORBISCOMMENT_CHAPTER:
+                return new VorbisCommentChapter(start, title, item, link);
+            default:
+                return null;
+        }
+    }
+
     private static void extractMediafromItemlist(PodDBAdapter adapter,
                                                  List<FeedItem> items, ArrayList<String> itemIds) {
 
@@ -302,7 +351,7 @@ public final class DBReader {
                     playbackCompletionTime);
         }
 
-        return new FeedMedia(
+        FeedMedia media = new FeedMedia(
                 mediaId,
                 null,
                 cursor.getInt(PodDBAdapter.KEY_DURATION_INDEX),
@@ -314,6 +363,8 @@ public final class DBReader {
                 cursor.getInt(PodDBAdapter.KEY_DOWNLOADED_INDEX) > 0,
                 playbackCompletionDate,
                 cursor.getInt(PodDBAdapter.KEY_PLAYED_DURATION_INDEX));
+        media.setLoudnessGain(cursor.getFloat(PodDBAdapter.KEY_LOUDNESS_GAIN_INDEX));
+        return media;
     }
 
     private static Feed extractFeedFromCursorRow(PodDBAdapter adapter,
@@ -381,20 +432,22 @@ public final class DBReader {
     }
 
     /**
-     * Loads the IDs of the FeedItems in the queue. This method should be preferred over
+     * Returns the IDs of the FeedItems in the queue. This method should be preferred over
      * {@link #getQueue(android.content.Context)} if the FeedItems of the queue are not needed.
+     * The IDs are copied from the {@link de.danoeh.antennapod.storage.QueueIndex}, the database is only accessed if the
+     * index hasn't been loaded yet. Callers that only need to check if an item is in the queue should use the
+     * QueueIndex directly.
      *
      * @param context A context that is used for opening a database connection.
      * @return A list of IDs sorted by the same order as the queue. The caller can wrap the returned
      * list in a {@link de.danoeh.antennapod.util.QueueAccess} object for easier access to the queue's properties.
      */
     public static List<Long> getQueueIDList(Context context) {
-        PodDBAdapter adapter = new PodDBAdapter(context);
-
-        adapter.open();
-        List<Long> result = getQueueIDList(adapter);
-        adapter.close();
-
+        final long[] ids = QueueIndex.getInstance(context).toArray();
+        List<Long> result = new ArrayList<Long>(ids.length);
+        for (long id : ids) {
+            result.add(id);
+        }
         return result;
     }
 
@@ -431,6 +484,80 @@ public final class DBReader {
         return items;
     }
 
+    /**
+     * Updates a list of the FeedItems in the queue after the queue has changed. FeedItems of the previous list are
+     * reused, only FeedItems that have been added to the queue or that are affected by the given event are loaded from
+     * the database. The order of the queue is taken from the {@link QueueIndex}.
+     *
+     * @param context  A context that is used for opening a database connection.
+     * @param previous A list that has been returned by getQueue() before. The list is not modified.
+     * @param event    Describes which FeedItems have changed since 'previous' has been loaded. If the event is
+     *                 unspecific, the whole queue is loaded again.
+     * @return A list of FeedItems sorted by the same order as the queue.
+     */
+    public static List<FeedItem> getQueue(Context context, List<FeedItem> previous, DatabaseEvent event) {
+        if (event.isUnspecific()) {
+            return getQueue(context);
+        }
+        final QueueIndex queueIndex = QueueIndex.getInstance(context);
+        queueIndex.load();
+        final long[] queueIds = queueIndex.toArray();
+        Map<Long, FeedItem> items = new HashMap<Long, FeedItem>(queueIds.length);
+        for (FeedItem item : previous) {
+            items.put(item.getId(), item);
+        }
+        long[] missingIds = new long[queueIds.length];
+        int numMissing = 0;
+        for (long id : queueIds) {
+            if (!items.containsKey(id) || event.affectsItem(id)) {
+                missingIds[numMissing++] = id;
+            }
+        }
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, "Updating queue, loading " + numMissing + " of " + queueIds.length + " items");
+        if (numMissing > 0) {
+            for (FeedItem item : getFeedItems(context, Arrays.copyOf(missingIds, numMissing))) {
+                items.put(item.getId(), item);
+            }
+        }
+        List<FeedItem> result = new ArrayList<FeedItem>(queueIds.length);
+        for (long id : queueIds) {
+            final FeedItem item = items.get(id);
+            if (item != null) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Loads the FeedItems with the given IDs.
+     *
+     * @param context A context that is used for opening a database connection.
+     * @param itemIds IDs of the FeedItems. IDs of FeedItems that don't exist are ignored.
+     * @return The FeedItems in no particular order.
+     */
+    public static List<FeedItem> getFeedItems(final Context context, final long... itemIds) {
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, "Loading " + itemIds.length + " feeditems");
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        List<FeedItem> items = new ArrayList<FeedItem>(itemIds.length);
+        for (int start = 0; start < itemIds.length; start += PodDBAdapter.IN_OPERATOR_MAXIMUM) {
+            final int end = Math.min(itemIds.length, start + PodDBAdapter.IN_OPERATOR_MAXIMUM);
+            String[] ids = new String[end - start];
+            for (int i = start; i < end; i++) {
+                ids[i - start] = Long.toString(itemIds[i]);
+            }
+            Cursor itemCursor = adapter.getFeedItemCursor(ids);
+            items.addAll(extractItemlistFromCursor(adapter, itemCursor));
+            itemCursor.close();
+        }
+        loadFeedDataOfFeedItemlist(context, items);
+        adapter.close();
+        return items;
+    }
+
     /**
      * Loads a list of FeedItems whose episode has been downloaded.
      *
@@ -449,13 +576,37 @@ public final class DBReader {
                 itemlistCursor);
         itemlistCursor.close();
         loadFeedDataOfFeedItemlist(context, items);
-        Collections.sort(items, new FeedItemPubdateComparator());
 
         adapter.close();
         return items;
 
     }
 
+    /**
+     * Loads a page of the FeedItems whose episode has been downloaded. The pages are sorted like the pages of
+     * {@link #getFeedItemPage(android.content.Context, de.danoeh.antennapod.feed.Feed, boolean, de.danoeh.antennapod.feed.FeedItem, int)}.
+     *
+     * @param context A context that is used for opening a database connection.
+     * @param after   The last FeedItem of the previous page or null if the first page should be loaded.
+     * @param limit   The maximum number of FeedItems on the page.
+     * @return A list with at most 'limit' FeedItems. If the list contains less than 'limit' FeedItems, there are no
+     * further pages.
+     */
+    public static List<FeedItem> getDownloadedItemsPage(Context context, FeedItem after, int limit) {
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, "Extracting page of downloaded items");
+
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        Cursor itemlistCursor = adapter.getDownloadedItemsPageCursor(after, limit);
+        List<FeedItem> items = extractItemlistFromCursor(adapter, itemlistCursor);
+        itemlistCursor.close();
+        adapter.close();
+
+        loadFeedDataOfFeedItemlist(context, items);
+        return items;
+    }
+
     /**
      * Loads a list of FeedItems whose 'read'-attribute is set to false.
      *
@@ -482,6 +633,31 @@ public final class DBReader {
         return items;
     }
 
+    /**
+     * Loads a page of the FeedItems whose 'read'-attribute is set to false. The pages are sorted like the pages of
+     * {@link #getFeedItemPage(android.content.Context, de.danoeh.antennapod.feed.Feed, boolean, de.danoeh.antennapod.feed.FeedItem, int)}.
+     *
+     * @param context A context that is used for opening a database connection.
+     * @param after   The last FeedItem of the previous page or null if the first page should be loaded.
+     * @param limit   The maximum number of FeedItems on the page.
+     * @return A list with at most 'limit' FeedItems. If the list contains less than 'limit' FeedItems, there are no
+     * further pages.
+     */
+    public static List<FeedItem> getUnreadItemsPage(Context context, FeedItem after, int limit) {
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, "Extracting page of unread items");
+
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        Cursor itemlistCursor = adapter.getUnreadItemsPageCursor(after, limit);
+        List<FeedItem> items = extractItemlistFromCursor(adapter, itemlistCursor);
+        itemlistCursor.close();
+        adapter.close();
+
+        loadFeedDataOfFeedItemlist(context, items);
+        return items;
+    }
+
     /**
      * Loads the IDs of the FeedItems whose 'read'-attribute is set to false.
      *
@@ -582,6 +758,66 @@ public final class DBReader {
         return downloadLog;
     }
 
+    /**
+     * Loads the cached chapters of a media file. The cache entry is only used if the size, the modification date and
+     * the validator of the media file are still the same as when the entry was written.
+     *
+     * @param context      A context that is used for opening a database connection.
+     * @param source       Absolute path or download URL of the media file.
+     * @param size         Size of the media file or -1 if unknown.
+     * @param lastModified Modification date of a local file or 0.
+     * @param validator    ETag or Last-Modified header of a remote file or null.
+     * @return The cached chapters, an empty list if the media file is known to contain no chapters or null if there
+     * is no valid cache entry for the media file.
+     */
+    public static List<Chapter> getCachedChapters(final Context context, final String source, final long size,
+                                                  final long lastModified, final String validator) {
+        return getCachedChapters(context, source, true, size, lastModified, validator);
+    }
+
+    /**
+     * Loads the cached chapters of a media file without checking whether the media file has changed since the
+     * entry was written. Callers should revalidate the entry with
+     * {@link #getCachedChapters(android.content.Context, String, long, long, String)} at some point.
+     *
+     * @param context A context that is used for opening a database connection.
+     * @param source  Absolute path or download URL of the media file.
+     * @return The cached chapters, an empty list if the media file is known to contain no chapters or null if there
+     * is no cache entry for the media file.
+     */
+    public static List<Chapter> getCachedChapters(final Context context, final String source) {
+        return getCachedChapters(context, source, false, 0, 0, null);
+    }
+
+    private static List<Chapter> getCachedChapters(final Context context, final String source,
+                                                   final boolean checkVersion, final long size,
+                                                   final long lastModified, final String validator) {
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        List<Chapter> chapters = null;
+        Cursor entryCursor = adapter.getChapterCacheEntryCursor(source);
+        if (entryCursor.moveToFirst()
+                && (!checkVersion
+                || (entryCursor.getLong(PodDBAdapter.KEY_CHAPTER_CACHE_SIZE_INDEX) == size
+                && entryCursor.getLong(PodDBAdapter.KEY_CHAPTER_CACHE_LAST_MODIFIED_INDEX) == lastModified
+                && StringUtils.equals(entryCursor.getString(PodDBAdapter.KEY_CHAPTER_CACHE_VALIDATOR_INDEX), validator)))) {
+            Cursor chapterCursor = adapter.getCachedChaptersCursor(entryCursor.getLong(PodDBAdapter.KEY_ID_INDEX));
+            chapters = new ArrayList<Chapter>(chapterCursor.getCount());
+            if (chapterCursor.moveToFirst()) {
+                do {
+                    Chapter chapter = extractChapterFromCursor(chapterCursor, null);
+                    if (chapter != null) {
+                        chapters.add(chapter);
+                    }
+                } while (chapterCursor.moveToNext());
+            }
+            chapterCursor.close();
+        }
+        entryCursor.close();
+        adapter.close();
+        return chapters;
+    }
+
     /**
      * Loads the FeedItemStatistics objects of all Feeds in the database. This method should be preferred over
      * {@link #getFeedItemList(android.content.Context, de.danoeh.antennapod.feed.Feed)} if only metadata about
@@ -619,6 +855,20 @@ public final class DBReader {
      * database and the items-attribute will be set correctly.
      */
     public static Feed getFeed(final Context context, final long feedId) {
+        return getFeed(context, feedId, true);
+    }
+
+    /**
+     * Loads a specific Feed from the database.
+     *
+     * @param context   A context that is used for opening a database connection.
+     * @param feedId    The ID of the Feed
+     * @param loadItems true if the Feed's FeedItems should also be loaded. If false, the items-attribute of the Feed
+     *                  will not be set and the items can be loaded page by page with
+     *                  {@link #getFeedItemPage(android.content.Context, de.danoeh.antennapod.feed.Feed, boolean, de.danoeh.antennapod.feed.FeedItem, int)}.
+     * @return The Feed or null if the Feed could not be found.
+     */
+    public static Feed getFeed(final Context context, final long feedId, final boolean loadItems) {
         if (BuildConfig.DEBUG)
             Log.d(TAG, "Loading feed with id " + feedId);
         Feed feed = null;
@@ -628,7 +878,9 @@ public final class DBReader {
         Cursor feedCursor = adapter.getFeedCursor(feedId);
         if (feedCursor.moveToFirst()) {
             feed = extractFeedFromCursorRow(adapter, feedCursor);
-            feed.setItems(getFeedItemList(context, feed));
+            if (loadItems) {
+                feed.setItems(getFeedItemList(context, feed));
+            }
         } else {
             Log.e(TAG, "getFeed could not find feed with id " + feedId);
         }
@@ -681,18 +933,99 @@ public final class DBReader {
      * @param item    The FeedItem
      */
     public static void loadExtraInformationOfFeedItem(final Context context, final FeedItem item) {
-        PodDBAdapter adapter = new PodDBAdapter(context);
-        adapter.open();
-        Cursor extraCursor = adapter.getExtraInformationOfItem(item);
+        FeedItemExtrasCache cache = FeedItemExtrasCache.getInstance();
+        FeedItemExtrasCache.Entry entry = cache.get(item.getId());
+        if (entry == null || !entry.shownotesLoaded) {
+            PodDBAdapter adapter = new PodDBAdapter(context);
+            adapter.open();
+            entry = loadShownotes(adapter, cache, item.getId());
+            adapter.close();
+        }
+        if (entry != null) {
+            item.setDescription(entry.description);
+            item.setContentEncoded(entry.contentEncoded);
+        }
+    }
+
+    /**
+     * Loads the chapters of a FeedItem and sets the chapters-attribute of the item. This method should NOT be executed
+     * on the GUI thread.
+     *
+     * @param context A context that is used for opening a database connection.
+     * @param item    The FeedItem
+     */
+    public static void loadChaptersOfFeedItem(final Context context, final FeedItem item) {
+        FeedItemExtrasCache cache = FeedItemExtrasCache.getInstance();
+        FeedItemExtrasCache.Entry entry = cache.get(item.getId());
+        final List<Chapter> chapters;
+        if (entry != null && entry.chaptersLoaded) {
+            chapters = entry.chapters;
+        } else {
+            PodDBAdapter adapter = new PodDBAdapter(context);
+            adapter.open();
+            chapters = loadChapters(adapter, cache, item.getId());
+            adapter.close();
+        }
+        item.setChapters((chapters != null) ? new ArrayList<Chapter>(chapters) : null);
+    }
+
+    /**
+     * Loads the shownotes and chapters of FeedItems into the cache that is used by
+     * {@link #loadExtraInformationOfFeedItem(android.content.Context, de.danoeh.antennapod.feed.FeedItem)} and
+     * {@link #loadChaptersOfFeedItem(android.content.Context, de.danoeh.antennapod.feed.FeedItem)}, e.g. for items that
+     * will probably be opened soon. This method should NOT be executed on the GUI thread.
+     *
+     * @param context A context that is used for opening a database connection.
+     * @param itemIds The IDs of the FeedItems.
+     */
+    public static void prefetchExtraInformation(final Context context, final long... itemIds) {
+        FeedItemExtrasCache cache = FeedItemExtrasCache.getInstance();
+        PodDBAdapter adapter = null;
+        for (long itemId : itemIds) {
+            FeedItemExtrasCache.Entry entry = cache.get(itemId);
+            if (entry != null && entry.shownotesLoaded && entry.chaptersLoaded) {
+                continue;
+            }
+            if (adapter == null) {
+                adapter = new PodDBAdapter(context);
+                adapter.open();
+            }
+            if (BuildConfig.DEBUG)
+                Log.d(TAG, "Prefetching shownotes and chapters of item " + itemId);
+            if (entry == null || !entry.shownotesLoaded) {
+                loadShownotes(adapter, cache, itemId);
+            }
+            if (entry == null || !entry.chaptersLoaded) {
+                loadChapters(adapter, cache, itemId);
+            }
+        }
+        if (adapter != null) {
+            adapter.close();
+        }
+    }
+
+    private static FeedItemExtrasCache.Entry loadShownotes(PodDBAdapter adapter, FeedItemExtrasCache cache,
+                                                           long itemId) {
+        final int generation = cache.getGeneration();
+        FeedItemExtrasCache.Entry entry = null;
+        Cursor extraCursor = adapter.getExtraInformationOfItem(itemId);
         if (extraCursor.moveToFirst()) {
             String description = extraCursor
                     .getString(PodDBAdapter.IDX_FI_EXTRA_DESCRIPTION);
             String contentEncoded = extraCursor
                     .getString(PodDBAdapter.IDX_FI_EXTRA_CONTENT_ENCODED);
-            item.setDescription(description);
-            item.setContentEncoded(contentEncoded);
+            cache.putShownotes(generation, itemId, description, contentEncoded);
+            entry = new FeedItemExtrasCache.Entry(true, description, contentEncoded, false, null);
         }
-        adapter.close();
+        extraCursor.close();
+        return entry;
+    }
+
+    private static List<Chapter> loadChapters(PodDBAdapter adapter, FeedItemExtrasCache cache, long itemId) {
+        final int generation = cache.getGeneration();
+        List<Chapter> chapters = extractChaptersOfItem(adapter, itemId);
+        cache.putChapters(generation, itemId, chapters);
+        return chapters;
     }
 
     /**
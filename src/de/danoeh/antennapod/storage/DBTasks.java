@@ -14,7 +14,6 @@ import de.danoeh.antennapod.service.download.DownloadStatus;
 import de.danoeh.antennapod.service.playback.PlaybackService;
 import de.danoeh.antennapod.util.DownloadError;
 import de.danoeh.antennapod.util.NetworkUtils;
-import de.danoeh.antennapod.util.QueueAccess;
 import de.danoeh.antennapod.util.comparator.FeedItemPubdateComparator;
 import de.danoeh.antennapod.util.exception.MediaFileNotFoundException;
 import de.danoeh.antennapod.util.flattr.FlattrUtils;
@@ -493,7 +492,7 @@ public final class DBTasks {
                                           final int episodeNumber) {
         List<FeedItem> candidates = new ArrayList<FeedItem>();
         List<FeedItem> downloadedItems = DBReader.getDownloadedItems(context);
-        QueueAccess queue = QueueAccess.IDListAccess(DBReader.getQueueIDList(context));
+        QueueIndex queue = QueueIndex.getInstance(context);
         List<FeedItem> delete;
         for (FeedItem item : downloadedItems) {
             if (item.hasMedia() && item.getMedia().isDownloaded()
@@ -558,17 +557,19 @@ public final class DBTasks {
      *
      * @param context Used for accessing the DB.
      * @param itemId  ID of the FeedItem
-     * @param queue   Used for determining the successor of the item. If this parameter is null, the method will load
-     *                the queue from the database in the same thread.
+     * @param queue   Used for determining the successor of the item. If this parameter is null, the successor is
+     *                looked up in the {@link QueueIndex} and only the successor itself is loaded from the database.
      * @return Successor of the FeedItem or null if the FeedItem is not in the queue or has no successor.
      */
     public static FeedItem getQueueSuccessorOfItem(Context context,
                                                    final long itemId, List<FeedItem> queue) {
         FeedItem result = null;
         if (queue == null) {
-            queue = DBReader.getQueue(context);
-        }
-        if (queue != null) {
+            final long successorId = QueueIndex.getInstance(context).getSuccessor(itemId);
+            if (successorId != QueueIndex.NO_ITEM) {
+                result = DBReader.getFeedItem(context, successorId);
+            }
+        } else {
             Iterator<FeedItem> iterator = queue.iterator();
             while (iterator.hasNext()) {
                 FeedItem item = iterator.next();
@@ -584,15 +585,15 @@ public final class DBTasks {
     }
 
     /**
-     * Loads the queue from the database and checks if the specified FeedItem is in the queue.
+     * Checks if the specified FeedItem is in the queue. The check uses the {@link QueueIndex}, which only
+     * accesses the database if it hasn't been loaded yet.
      * This method should NOT be executed in the GUI thread.
      *
      * @param context    Used for accessing the DB.
      * @param feedItemId ID of the FeedItem
      */
     public static boolean isInQueue(Context context, final long feedItemId) {
-        List<Long> queue = DBReader.getQueueIDList(context);
-        return QueueAccess.IDListAccess(queue).contains(feedItemId);
+        return QueueIndex.getInstance(context).contains(feedItemId);
     }
 
     private static Feed searchFeedByIdentifyingValue(Context context,
@@ -13,7 +13,6 @@ import de.danoeh.antennapod.preferences.GpodnetPreferences;
 import de.danoeh.antennapod.preferences.PlaybackPreferences;
 import de.danoeh.antennapod.service.download.DownloadStatus;
 import de.danoeh.antennapod.service.playback.PlaybackService;
-import de.danoeh.antennapod.util.QueueAccess;
 import de.danoeh.antennapod.util.flattr.FlattrStatus;
 import de.danoeh.antennapod.util.flattr.FlattrThing;
 import de.danoeh.antennapod.util.flattr.SimpleFlattrThing;
@@ -23,13 +22,17 @@ import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides methods for writing data to AntennaPod's database.
@@ -38,22 +41,94 @@ import java.util.concurrent.ThreadFactory;
  * will NOT contain any results.
  * The caller can also use the {@link EventDistributor} in order to be notified about the method's completion asynchronously.
  * This class will use the {@link EventDistributor} to notify listeners about changes in the database.
+ * Small write operations like marking items as read or saving playback positions are committed in groups, see
+ * {@link GroupCommitExecutor}.
  */
 public class DBWriter {
     private static final String TAG = "DBWriter";
 
+    /**
+     * Maximum number of media files whose chapters are kept in the chapter cache.
+     */
+    private static final int CHAPTER_CACHE_SIZE = 500;
+
+    /**
+     * Time in milliseconds without write operations after which the write-ahead log is checkpointed.
+     */
+    private static final long WAL_CHECKPOINT_IDLE_DELAY = 30 * 1000;
+
     private static final ExecutorService dbExec;
 
+    /**
+     * Executes small write operations in groups on dbExec, see {@link GroupCommitExecutor}.
+     */
+    private static final GroupCommitExecutor groupCommitExecutor;
+
     static {
-        dbExec = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        dbExec = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                }) {
+            @Override
+            public void execute(Runnable command) {
+                // grouped writes that are submitted after this task must not be executed before it
+                synchronized (groupCommitExecutor) {
+                    groupCommitExecutor.seal(command);
+                    super.execute(command);
+                }
+            }
 
             @Override
-            public Thread newThread(Runnable r) {
-                Thread t = new Thread(r);
-                t.setPriority(Thread.MIN_PRIORITY);
-                return t;
+            protected void afterExecute(Runnable r, Throwable t) {
+                super.afterExecute(r, t);
+                if (r != walCheckpoint && getQueue().isEmpty()) {
+                    scheduleWalCheckpoint();
+                }
             }
-        });
+        };
+        groupCommitExecutor = new GroupCommitExecutor(dbExec);
+    }
+
+    private static final ScheduledExecutorService idleScheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+
+    private static ScheduledFuture<?> walCheckpointFuture;
+
+    private static final Runnable walCheckpoint = new Runnable() {
+        @Override
+        public void run() {
+            PodDBAdapter.checkpointWriteAheadLog();
+        }
+    };
+
+    /**
+     * Checkpoints the write-ahead log on dbExec once no write operation has been executed for
+     * WAL_CHECKPOINT_IDLE_DELAY milliseconds.
+     */
+    private static synchronized void scheduleWalCheckpoint() {
+        if (walCheckpointFuture != null) {
+            walCheckpointFuture.cancel(false);
+        }
+        walCheckpointFuture = idleScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                dbExec.execute(walCheckpoint);
+            }
+        }, WAL_CHECKPOINT_IDLE_DELAY, TimeUnit.MILLISECONDS);
     }
 
     private DBWriter() {
@@ -88,6 +163,7 @@ public class DBWriter {
                         adapter.open();
                         adapter.setMedia(media);
                         adapter.close();
+                        PlaybackSnapshot.getInstance(context).invalidateMedia(media.getId());
 
                         // If media is currently being played, change playback
                         // type to 'stream' and shutdown playback service
@@ -112,8 +188,14 @@ public class DBWriter {
                     }
                     if (BuildConfig.DEBUG)
                         Log.d(TAG, "Deleting File. Result: " + result);
-                    EventDistributor.getInstance().sendQueueUpdateBroadcast();
-                    EventDistributor.getInstance().sendUnreadItemsUpdateBroadcast();
+                    if (media.getItem() != null) {
+                        final long itemId = media.getItem().getId();
+                        EventDistributor.getInstance().sendQueueUpdateBroadcast(itemId);
+                        EventDistributor.getInstance().sendUnreadItemsUpdateBroadcast(null, new long[]{itemId});
+                    } else {
+                        EventDistributor.getInstance().sendQueueUpdateBroadcast();
+                        EventDistributor.getInstance().sendUnreadItemsUpdateBroadcast();
+                    }
                 }
             }
         });
@@ -133,11 +215,16 @@ public class DBWriter {
                 SharedPreferences prefs = PreferenceManager
                         .getDefaultSharedPreferences(context
                                 .getApplicationContext());
-                final Feed feed = DBReader.getFeed(context, feedId);
-                if (feed != null) {
+                PodDBAdapter adapter = new PodDBAdapter(context);
+                adapter.open();
+                Cursor feedCursor = adapter.getFeedCursor(feedId);
+                final boolean feedExists = feedCursor.moveToFirst();
+                final String downloadUrl = (feedExists) ? feedCursor
+                        .getString(PodDBAdapter.IDX_FEED_SEL_STD_DOWNLOAD_URL) : null;
+                feedCursor.close();
+                if (feedExists) {
                     if (PlaybackPreferences.getCurrentlyPlayingMedia() == FeedMedia.PLAYABLE_TYPE_FEEDMEDIA
-                            && PlaybackPreferences.getLastPlayedFeedId() == feed
-                            .getId()) {
+                            && PlaybackPreferences.getLastPlayedFeedId() == feedId) {
                         context.sendBroadcast(new Intent(
                                 PlaybackService.ACTION_SHUTDOWN_PLAYBACK_SERVICE));
                         SharedPreferences.Editor editor = prefs.edit();
@@ -147,56 +234,34 @@ public class DBWriter {
                         editor.commit();
                     }
 
-                    // delete image file
-                    if (feed.getImage() != null) {
-                        if (feed.getImage().isDownloaded()
-                                && feed.getImage().getFile_url() != null) {
-                            File imageFile = new File(feed.getImage()
-                                    .getFile_url());
-                            imageFile.delete();
-                        } else if (requester.isDownloadingFile(feed.getImage())) {
-                            requester.cancelDownload(context, feed.getImage());
-                        }
-                    }
-                    // delete stored media files and mark them as read
-                    List<FeedItem> queue = DBReader.getQueue(context);
-                    boolean queueWasModified = false;
-                    if (feed.getItems() == null) {
-                        DBReader.getFeedItemList(context, feed);
-                    }
-
-                    for (FeedItem item : feed.getItems()) {
-                        queueWasModified |= queue.remove(item);
-                        if (item.getMedia() != null
-                                && item.getMedia().isDownloaded()) {
-                            File mediaFile = new File(item.getMedia()
-                                    .getFile_url());
-                            mediaFile.delete();
-                        } else if (item.getMedia() != null
-                                && requester.isDownloadingFile(item.getMedia())) {
-                            requester.cancelDownload(context, item.getMedia());
-                        }
-
-                        if (item.hasItemImage()) {
-                            FeedImage image = item.getImage();
-                            if (image.isDownloaded() && image.getFile_url() != null) {
-                                File imgFile = new File(image.getFile_url());
-                                imgFile.delete();
-                            } else if (requester.isDownloadingFile(image)) {
-                                requester.cancelDownload(context, item.getImage());
+                    // delete downloaded image and media files, cancel running downloads
+                    final boolean cancelDownloads = !requester.hasNoDownloads();
+                    Cursor fileCursor = adapter.getFeedFilesCursor(feedId, !cancelDownloads);
+                    if (fileCursor.moveToFirst()) {
+                        do {
+                            final String fileUrl = fileCursor.getString(PodDBAdapter.IDX_FEED_FILES_FILE_URL);
+                            final boolean downloaded = fileCursor.getInt(PodDBAdapter.IDX_FEED_FILES_DOWNLOADED) > 0;
+                            if (downloaded && fileUrl != null) {
+                                File file = new File(fileUrl);
+                                file.delete();
+                            } else if (cancelDownloads) {
+                                final String fileDownloadUrl = fileCursor.getString(PodDBAdapter.IDX_FEED_FILES_DOWNLOAD_URL);
+                                if (fileDownloadUrl != null && requester.isDownloadingFile(fileDownloadUrl)) {
+                                    requester.cancelDownload(context, fileDownloadUrl);
+                                }
                             }
-                        }
+                        } while (fileCursor.moveToNext());
                     }
-                    PodDBAdapter adapter = new PodDBAdapter(context);
-                    adapter.open();
-                    if (queueWasModified) {
-                        adapter.setQueue(queue);
-                    }
-                    adapter.removeFeed(feed);
+                    fileCursor.close();
+
+                    adapter.removeFeed(feedId);
                     adapter.close();
+                    PlaybackSnapshot.getInstance(context).invalidateFeed(feedId);
 
-                    GpodnetPreferences.addRemovedFeed(feed.getDownload_url());
-                    EventDistributor.getInstance().sendFeedUpdateBroadcast();
+                    GpodnetPreferences.addRemovedFeed(downloadUrl);
+                    EventDistributor.getInstance().sendFeedUpdateBroadcast(feedId);
+                } else {
+                    adapter.close();
                 }
             }
         });
@@ -245,7 +310,11 @@ public class DBWriter {
                 adapter.open();
                 adapter.setFeedMediaPlaybackCompletionDate(media);
                 adapter.close();
-                EventDistributor.getInstance().sendPlaybackHistoryUpdateBroadcast();
+                if (media.getItem() != null) {
+                    EventDistributor.getInstance().sendPlaybackHistoryUpdateBroadcast(media.getItem().getId());
+                } else {
+                    EventDistributor.getInstance().sendPlaybackHistoryUpdateBroadcast();
+                }
 
             }
         });
@@ -268,19 +337,64 @@ public class DBWriter {
      */
     public static Future<?> addDownloadStatus(final Context context,
                                               final DownloadStatus status) {
+        return groupCommitExecutor.submit(context, new GroupCommitExecutor.WriteOperation() {
+            @Override
+            public void execute(PodDBAdapter adapter, List<DatabaseEvent> events) {
+                adapter.setDownloadStatus(status);
+                events.add(new DatabaseEvent(EventDistributor.DOWNLOADLOG_UPDATE));
+            }
+        });
+
+    }
+
+    /**
+     * Stores the chapters of a media file in the chapter cache. An existing cache entry of the media file
+     * will be replaced. See {@link DBReader#getCachedChapters(android.content.Context, String, long, long, String)}
+     * for a description of the parameters.
+     *
+     * @param chapters The chapters of the media file. May be null or empty if the file doesn't contain any chapters.
+     */
+    public static Future<?> setCachedChapters(final Context context, final String source, final long size,
+                                              final long lastModified, final String validator,
+                                              final List<Chapter> chapters) {
         return dbExec.submit(new Runnable() {
 
             @Override
             public void run() {
+                PodDBAdapter adapter = new PodDBAdapter(context);
+                adapter.open();
+                adapter.setChapterCacheEntry(source, size, lastModified, validator, chapters);
+                cleanupChapterCache(adapter);
+                adapter.close();
+            }
+        });
+    }
+
+    /**
+     * Removes the chapter cache entry of a media file, e.g. because the file has changed since the entry was written.
+     *
+     * @param source Absolute path or download URL of the media file.
+     */
+    public static Future<?> removeCachedChapters(final Context context, final String source) {
+        return dbExec.submit(new Runnable() {
 
+            @Override
+            public void run() {
                 PodDBAdapter adapter = new PodDBAdapter(context);
                 adapter.open();
-                adapter.setDownloadStatus(status);
+                adapter.removeChapterCacheEntry(source);
                 adapter.close();
-                EventDistributor.getInstance().sendDownloadLogUpdateBroadcast();
             }
         });
+    }
 
+    private static void cleanupChapterCache(final PodDBAdapter adapter) {
+        final long cacheSize = adapter.getChapterCacheSize();
+        if (cacheSize > CHAPTER_CACHE_SIZE) {
+            if (BuildConfig.DEBUG)
+                Log.d(TAG, "Cleaning up chapter cache");
+            adapter.removeChapterCacheEntries(cacheSize - CHAPTER_CACHE_SIZE);
+        }
     }
 
     /**
@@ -301,34 +415,12 @@ public class DBWriter {
             public void run() {
                 final PodDBAdapter adapter = new PodDBAdapter(context);
                 adapter.open();
-                final List<FeedItem> queue = DBReader
-                        .getQueue(context, adapter);
-                FeedItem item = null;
-
-                if (queue != null) {
-                    boolean queueModified = false;
-                    boolean unreadItemsModified = false;
-
-                    if (!itemListContains(queue, itemId)) {
-                        item = DBReader.getFeedItem(context, itemId);
-                        if (item != null) {
-                            queue.add(index, item);
-                            queueModified = true;
-                            if (!item.isRead()) {
-                                item.setRead(true);
-                                unreadItemsModified = true;
-                            }
-                        }
-                    }
-                    if (queueModified) {
-                        adapter.setQueue(queue);
-                        EventDistributor.getInstance()
-                                .sendQueueUpdateBroadcast();
-                    }
-                    if (unreadItemsModified && item != null) {
-                        adapter.setSingleFeedItem(item);
+                if (adapter.addQueueItemAt(itemId, index)) {
+                    EventDistributor.getInstance()
+                            .sendQueueUpdateBroadcast(itemId);
+                    if (adapter.markFeedItemsRead(itemId) > 0) {
                         EventDistributor.getInstance()
-                                .sendUnreadItemsUpdateBroadcast();
+                                .sendUnreadItemsUpdateBroadcast(null, new long[]{itemId});
                     }
                 }
                 adapter.close();
@@ -357,38 +449,13 @@ public class DBWriter {
                 if (itemIds.length > 0) {
                     final PodDBAdapter adapter = new PodDBAdapter(context);
                     adapter.open();
-                    final List<FeedItem> queue = DBReader.getQueue(context,
-                            adapter);
-
-                    if (queue != null) {
-                        boolean queueModified = false;
-                        boolean unreadItemsModified = false;
-                        List<FeedItem> itemsToSave = new LinkedList<FeedItem>();
-                        for (int i = 0; i < itemIds.length; i++) {
-                            if (!itemListContains(queue, itemIds[i])) {
-                                final FeedItem item = DBReader.getFeedItem(
-                                        context, itemIds[i]);
-
-                                if (item != null) {
-                                    queue.add(item);
-                                    queueModified = true;
-                                    if (!item.isRead()) {
-                                        item.setRead(true);
-                                        itemsToSave.add(item);
-                                        unreadItemsModified = true;
-                                    }
-                                }
-                            }
-                        }
-                        if (queueModified) {
-                            adapter.setQueue(queue);
-                            EventDistributor.getInstance()
-                                    .sendQueueUpdateBroadcast();
-                        }
-                        if (unreadItemsModified) {
-                            adapter.setFeedItemlist(itemsToSave);
+                    final long[] addedIds = adapter.addQueueItems(itemIds);
+                    if (addedIds.length > 0) {
+                        EventDistributor.getInstance()
+                                .sendQueueUpdateBroadcast(addedIds);
+                        if (adapter.markFeedItemsRead(addedIds) > 0) {
                             EventDistributor.getInstance()
-                                    .sendUnreadItemsUpdateBroadcast();
+                                    .sendUnreadItemsUpdateBroadcast(null, addedIds);
                         }
                     }
                     adapter.close();
@@ -434,28 +501,11 @@ public class DBWriter {
             public void run() {
                 final PodDBAdapter adapter = new PodDBAdapter(context);
                 adapter.open();
-                final List<FeedItem> queue = DBReader
-                        .getQueue(context, adapter);
-                FeedItem item = null;
-
-                if (queue != null) {
-                    boolean queueModified = false;
-                    QueueAccess queueAccess = QueueAccess.ItemListAccess(queue);
-                    if (queueAccess.contains(itemId)) {
-                        item = DBReader.getFeedItem(context, itemId);
-                        if (item != null) {
-                            queueModified = queueAccess.remove(itemId);
-                        }
-                    }
-                    if (queueModified) {
-                        adapter.setQueue(queue);
-                        EventDistributor.getInstance()
-                                .sendQueueUpdateBroadcast();
-                    } else {
-                        Log.w(TAG, "Queue was not modified by call to removeQueueItem");
-                    }
+                if (adapter.removeQueueItem(itemId)) {
+                    EventDistributor.getInstance()
+                            .sendQueueUpdateBroadcast(itemId);
                 } else {
-                    Log.e(TAG, "removeQueueItem: Could not load queue");
+                    Log.w(TAG, "Queue was not modified by call to removeQueueItem");
                 }
                 adapter.close();
                 if (performAutoDownload) {
@@ -478,16 +528,9 @@ public class DBWriter {
         return dbExec.submit(new Runnable() {
             @Override
             public void run() {
-                List<Long> queueIdList = DBReader.getQueueIDList(context);
-                int currentLocation = 0;
-                for (long id : queueIdList) {
-                    if (id == itemId) {
-                        moveQueueItemHelper(context, currentLocation, 0, broadcastUpdate);
-                        return;
-                    }
-                    currentLocation++;
+                if (!moveQueueItemByIdHelper(context, itemId, 0, broadcastUpdate)) {
+                    Log.e(TAG, "moveQueueItemToTop: item not found");
                 }
-                Log.e(TAG, "moveQueueItemToTop: item not found");
             }
         });
     }
@@ -505,21 +548,52 @@ public class DBWriter {
         return dbExec.submit(new Runnable() {
             @Override
             public void run() {
-                List<Long> queueIdList = DBReader.getQueueIDList(context);
-                int currentLocation = 0;
-                for (long id : queueIdList) {
-                    if (id == itemId) {
-                        moveQueueItemHelper(context, currentLocation, queueIdList.size() - 1,
-                                broadcastUpdate);
-                        return;
-                    }
-                    currentLocation++;
+                if (!moveQueueItemByIdHelper(context, itemId, -1, broadcastUpdate)) {
+                    Log.e(TAG, "moveQueueItemToBottom: item not found");
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves a FeedItem to a new position in the queue. Only the moved item's queue entry is written.
+     *
+     * @param context         A context that is used for opening a database connection.
+     * @param itemId          ID of the FeedItem that should be moved.
+     * @param to              Destination index. Must be in range 0..queue.size()-1.
+     * @param broadcastUpdate true if this operation should trigger a QueueUpdateBroadcast. This option should be set to
+     *                        false if the caller wants to avoid unexpected updates of the GUI.
+     */
+    public static Future<?> moveQueueItemById(final Context context, final long itemId, final int to,
+                                              final boolean broadcastUpdate) {
+        return dbExec.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (!moveQueueItemByIdHelper(context, itemId, to, broadcastUpdate)) {
+                    Log.e(TAG, "moveQueueItemById: item not found or index out of range");
                 }
-                Log.e(TAG, "moveQueueItemToBottom: item not found");
             }
         });
     }
 
+    /**
+     * This function must be run using the ExecutorService (dbExec).
+     *
+     * @param to Destination index or -1 for the end of the queue.
+     * @return false if the item is not in the queue or the index is out of range.
+     */
+    private static boolean moveQueueItemByIdHelper(final Context context, final long itemId, final int to,
+                                                   final boolean broadcastUpdate) {
+        final PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        final boolean moved = adapter.moveQueueItemById(itemId, to);
+        adapter.close();
+        if (moved && broadcastUpdate) {
+            EventDistributor.getInstance().sendQueueUpdateBroadcast(itemId);
+        }
+        return moved;
+    }
+
     /**
      * Changes the position of a FeedItem in the queue.
      *
@@ -557,25 +631,13 @@ public class DBWriter {
                                             final int to, final boolean broadcastUpdate) {
         final PodDBAdapter adapter = new PodDBAdapter(context);
         adapter.open();
-        final List<FeedItem> queue = DBReader
-                .getQueue(context, adapter);
-
-        if (queue != null) {
-            if (from >= 0 && from < queue.size() && to >= 0
-                    && to < queue.size()) {
-
-                final FeedItem item = queue.remove(from);
-                queue.add(to, item);
-
-                adapter.setQueue(queue);
-                if (broadcastUpdate) {
-                    EventDistributor.getInstance()
-                            .sendQueueUpdateBroadcast();
-                }
-
+        if (adapter.moveQueueItem(from, to)) {
+            if (broadcastUpdate) {
+                EventDistributor.getInstance()
+                        .sendQueueUpdateBroadcast();
             }
         } else {
-            Log.e(TAG, "moveQueueItemHelper: Could not load queue");
+            Log.e(TAG, "moveQueueItemHelper: Index out of range");
         }
         adapter.close();
     }
@@ -609,17 +671,15 @@ public class DBWriter {
     private static Future<?> markItemRead(final Context context, final long itemId,
                                           final boolean read, final long mediaId,
                                           final boolean resetMediaPosition) {
-        return dbExec.submit(new Runnable() {
-
+        return groupCommitExecutor.submit(context, new GroupCommitExecutor.WriteOperation() {
             @Override
-            public void run() {
-                final PodDBAdapter adapter = new PodDBAdapter(context);
-                adapter.open();
+            public void execute(PodDBAdapter adapter, List<DatabaseEvent> events) {
                 adapter.setFeedItemRead(read, itemId, mediaId,
                         resetMediaPosition);
-                adapter.close();
-
-                EventDistributor.getInstance().sendUnreadItemsUpdateBroadcast();
+                if (resetMediaPosition && mediaId != 0) {
+                    PlaybackSnapshot.getInstance(context).invalidateMedia(mediaId);
+                }
+                events.add(DatabaseEvent.forItems(EventDistributor.UNREAD_ITEMS_UPDATE, itemId));
             }
         });
     }
@@ -648,7 +708,7 @@ public class DBWriter {
                 adapter.setFeedItemRead(true, itemIds);
                 adapter.close();
 
-                EventDistributor.getInstance().sendUnreadItemsUpdateBroadcast();
+                EventDistributor.getInstance().sendUnreadItemsUpdateBroadcast(new long[]{feedId}, itemIds);
             }
         });
 
@@ -677,7 +737,7 @@ public class DBWriter {
                 adapter.setFeedItemRead(true, itemIds);
                 adapter.close();
 
-                EventDistributor.getInstance().sendUnreadItemsUpdateBroadcast();
+                EventDistributor.getInstance().sendUnreadItemsUpdateBroadcast(null, itemIds);
             }
         });
 
@@ -694,7 +754,7 @@ public class DBWriter {
                 adapter.close();
 
                 GpodnetPreferences.addAddedFeed(feed.getDownload_url());
-                EventDistributor.getInstance().sendFeedUpdateBroadcast();
+                EventDistributor.getInstance().sendFeedUpdateBroadcast(feed.getId());
             }
         });
     }
@@ -709,7 +769,7 @@ public class DBWriter {
                 adapter.setCompleteFeed(feed);
                 adapter.close();
 
-                EventDistributor.getInstance().sendFeedUpdateBroadcast();
+                EventDistributor.getInstance().sendFeedUpdateBroadcast(feed.getId());
             }
         });
 
@@ -724,14 +784,10 @@ public class DBWriter {
      */
     public static Future<?> setFeedMedia(final Context context,
                                          final FeedMedia media) {
-        return dbExec.submit(new Runnable() {
-
+        return groupCommitExecutor.submit(context, new GroupCommitExecutor.WriteOperation() {
             @Override
-            public void run() {
-                PodDBAdapter adapter = new PodDBAdapter(context);
-                adapter.open();
+            public void execute(PodDBAdapter adapter, List<DatabaseEvent> events) {
                 adapter.setMedia(media);
-                adapter.close();
             }
         });
     }
@@ -743,13 +799,47 @@ public class DBWriter {
      * @param media   The FeedMedia object.
      */
     public static Future<?> setFeedMediaPlaybackInformation(final Context context, final FeedMedia media) {
+        return groupCommitExecutor.submit(context, new GroupCommitExecutor.WriteOperation() {
+            @Override
+            public void execute(PodDBAdapter adapter, List<DatabaseEvent> events) {
+                adapter.setFeedMediaPlaybackInformation(media);
+            }
+        });
+    }
+
+    /**
+     * Writes the latest positions of the {@link PositionJournal} to the FeedMedia table and removes the written
+     * records from the journal. Records that are appended while this method is executed remain in the journal. The
+     * positions are also applied to the {@link PlaybackSnapshot}.
+     *
+     * @param context A context that is used for opening a database connection.
+     */
+    public static Future<?> compactPositionJournal(final Context context) {
         return dbExec.submit(new Runnable() {
             @Override
             public void run() {
+                final PositionJournal journal = PositionJournal.getInstance(context);
+                if (journal.getRecordCount() == 0) {
+                    return;
+                }
+                // the journal can be compacted in place while the entries are written, which reorders its records
+                final int lastSequence = journal.getLastSequence();
+                List<PositionJournal.Entry> entries = journal.getLatestEntries(lastSequence);
                 PodDBAdapter adapter = new PodDBAdapter(context);
                 adapter.open();
-                adapter.setFeedMediaPlaybackInformation(media);
+                adapter.beginTransaction();
+                for (PositionJournal.Entry entry : entries) {
+                    adapter.setFeedMediaPlaybackInformation(entry.mediaId, entry.position, entry.duration,
+                            entry.playedDuration);
+                }
+                adapter.setTransactionSuccessful();
+                adapter.endTransaction();
                 adapter.close();
+                PlaybackSnapshot.getInstance(context).updatePlaybackInformation(entries);
+                journal.removeRecords(lastSequence);
+                if (BuildConfig.DEBUG)
+                    Log.d(TAG, "Compacted journal records up to " + lastSequence + " into " + entries.size()
+                            + " positions");
             }
         });
     }
@@ -763,14 +853,10 @@ public class DBWriter {
      */
     public static Future<?> setFeedItem(final Context context,
                                         final FeedItem item) {
-        return dbExec.submit(new Runnable() {
-
+        return groupCommitExecutor.submit(context, new GroupCommitExecutor.WriteOperation() {
             @Override
-            public void run() {
-                PodDBAdapter adapter = new PodDBAdapter(context);
-                adapter.open();
+            public void execute(PodDBAdapter adapter, List<DatabaseEvent> events) {
                 adapter.setSingleFeedItem(item);
-                adapter.close();
             }
         });
     }
@@ -784,14 +870,10 @@ public class DBWriter {
      */
     public static Future<?> setFeedImage(final Context context,
                                          final FeedImage image) {
-        return dbExec.submit(new Runnable() {
-
+        return groupCommitExecutor.submit(context, new GroupCommitExecutor.WriteOperation() {
             @Override
-            public void run() {
-                PodDBAdapter adapter = new PodDBAdapter(context);
-                adapter.open();
+            public void execute(PodDBAdapter adapter, List<DatabaseEvent> events) {
                 adapter.setImage(image);
-                adapter.close();
             }
         });
     }
@@ -823,26 +905,14 @@ public class DBWriter {
      * @param preferences The FeedPreferences object.
      */
     public static Future<?> setFeedPreferences(final Context context, final FeedPreferences preferences) {
-        return dbExec.submit(new Runnable() {
+        return groupCommitExecutor.submit(context, new GroupCommitExecutor.WriteOperation() {
             @Override
-            public void run() {
-                PodDBAdapter adapter = new PodDBAdapter(context);
-                adapter.open();
+            public void execute(PodDBAdapter adapter, List<DatabaseEvent> events) {
                 adapter.setFeedPreferences(preferences);
-                adapter.close();
             }
         });
     }
 
-    private static boolean itemListContains(List<FeedItem> items, long itemId) {
-        for (FeedItem item : items) {
-            if (item.getId() == itemId) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     /**
      * Saves the FlattrStatus of a FeedItem object in the database.
      *
@@ -0,0 +1,242 @@
+package de.danoeh.antennapod.storage;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import de.danoeh.antennapod.feed.Chapter;
+import de.danoeh.antennapod.feed.FeedImage;
+import de.danoeh.antennapod.feed.FeedItem;
+import de.danoeh.antennapod.feed.FeedMedia;
+
+import static de.danoeh.antennapod.storage.PodDBAdapter.*;
+
+/**
+ * Writes FeedItems together with their media, chapters and images. In contrast to
+ * PodDBAdapter's ContentValues-based methods, every statement is only compiled once per
+ * instance and then reused for all items.
+ * <p/>
+ * An instance should be used for writing a list of items within a single transaction and has to
+ * be closed afterwards. Instances are not thread-safe.
+ */
+class FeedItemBulkWriter {
+
+    private static final String SQL_INSERT_ITEM = "INSERT INTO " + TABLE_NAME_FEED_ITEMS + " ("
+            + KEY_TITLE + "," + KEY_LINK + "," + KEY_DESCRIPTION + "," + KEY_CONTENT_ENCODED + ","
+            + KEY_PUBDATE + "," + KEY_PAYMENT_LINK + "," + KEY_FEED + "," + KEY_READ + ","
+            + KEY_HAS_CHAPTERS + "," + KEY_ITEM_IDENTIFIER + "," + KEY_FLATTR_STATUS + "," + KEY_IMAGE
+            + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?)";
+
+    /**
+     * Description, content-encoded and image are only overwritten if the new value is not null.
+     */
+    private static final String SQL_UPDATE_ITEM = "UPDATE " + TABLE_NAME_FEED_ITEMS + " SET "
+            + KEY_TITLE + "=?," + KEY_LINK + "=?,"
+            + KEY_DESCRIPTION + "=COALESCE(?," + KEY_DESCRIPTION + "),"
+            + KEY_CONTENT_ENCODED + "=COALESCE(?," + KEY_CONTENT_ENCODED + "),"
+            + KEY_PUBDATE + "=?," + KEY_PAYMENT_LINK + "=?," + KEY_FEED + "=?," + KEY_READ + "=?,"
+            + KEY_HAS_CHAPTERS + "=?," + KEY_ITEM_IDENTIFIER + "=?," + KEY_FLATTR_STATUS + "=?,"
+            + KEY_IMAGE + "=COALESCE(?," + KEY_IMAGE + ")"
+            + " WHERE " + KEY_ID + "=?";
+
+    private static final String SQL_INSERT_MEDIA = "INSERT INTO " + TABLE_NAME_FEED_MEDIA + " ("
+            + KEY_DURATION + "," + KEY_POSITION + "," + KEY_SIZE + "," + KEY_MIME_TYPE + ","
+            + KEY_DOWNLOAD_URL + "," + KEY_DOWNLOADED + "," + KEY_FILE_URL + ","
+            + KEY_PLAYBACK_COMPLETION_DATE + "," + KEY_FEEDITEM
+            + ") VALUES (?,?,?,?,?,?,?,?,?)";
+
+    private static final String SQL_UPDATE_MEDIA = "UPDATE " + TABLE_NAME_FEED_MEDIA + " SET "
+            + KEY_DURATION + "=?," + KEY_POSITION + "=?," + KEY_SIZE + "=?," + KEY_MIME_TYPE + "=?,"
+            + KEY_DOWNLOAD_URL + "=?," + KEY_DOWNLOADED + "=?," + KEY_FILE_URL + "=?,"
+            + KEY_PLAYBACK_COMPLETION_DATE + "=?,"
+            + KEY_FEEDITEM + "=COALESCE(?," + KEY_FEEDITEM + ")"
+            + " WHERE " + KEY_ID + "=?";
+
+    private static final String SQL_INSERT_CHAPTER = "INSERT INTO " + TABLE_NAME_SIMPLECHAPTERS + " ("
+            + KEY_TITLE + "," + KEY_START + "," + KEY_FEEDITEM + "," + KEY_LINK + "," + KEY_CHAPTER_TYPE
+            + ") VALUES (?,?,?,?,?)";
+
+    private static final String SQL_UPDATE_CHAPTER = "UPDATE " + TABLE_NAME_SIMPLECHAPTERS + " SET "
+            + KEY_TITLE + "=?," + KEY_START + "=?," + KEY_FEEDITEM + "=?," + KEY_LINK + "=?,"
+            + KEY_CHAPTER_TYPE + "=?"
+            + " WHERE " + KEY_ID + "=?";
+
+    private static final String SQL_INSERT_IMAGE = "INSERT INTO " + TABLE_NAME_FEED_IMAGES + " ("
+            + KEY_TITLE + "," + KEY_DOWNLOAD_URL + "," + KEY_DOWNLOADED + "," + KEY_FILE_URL
+            + ") VALUES (?,?,?,?)";
+
+    private final SQLiteDatabase db;
+
+    // statements are compiled on first use
+    private SQLiteStatement insertItem;
+    private SQLiteStatement updateItem;
+    private SQLiteStatement insertMedia;
+    private SQLiteStatement updateMedia;
+    private SQLiteStatement insertChapter;
+    private SQLiteStatement updateChapter;
+    private SQLiteStatement insertImage;
+
+    FeedItemBulkWriter(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Inserts or updates a FeedItem, its image, media and chapters. The Feed of the item must
+     * already have an ID.
+     *
+     * @return the id of the entry
+     */
+    long writeItem(FeedItem item) {
+        Long imageId = null;
+        if (item.hasItemImage()) {
+            if (item.getImage().getId() == 0) {
+                writeImage(item.getImage());
+            }
+            imageId = item.getImage().getId();
+        }
+
+        SQLiteStatement statement;
+        if (item.getId() == 0) {
+            if (insertItem == null) {
+                insertItem = db.compileStatement(SQL_INSERT_ITEM);
+            }
+            statement = insertItem;
+        } else {
+            if (updateItem == null) {
+                updateItem = db.compileStatement(SQL_UPDATE_ITEM);
+            }
+            statement = updateItem;
+        }
+        statement.clearBindings();
+        bindString(statement, 1, item.getTitle());
+        bindString(statement, 2, item.getLink());
+        bindString(statement, 3, item.getDescription());
+        bindString(statement, 4, item.getContentEncoded());
+        statement.bindLong(5, item.getPubDate().getTime());
+        bindString(statement, 6, item.getPaymentLink());
+        statement.bindLong(7, item.getFeed().getId());
+        bindBoolean(statement, 8, item.isRead());
+        bindBoolean(statement, 9, item.hasChapters());
+        bindString(statement, 10, item.getItemIdentifier());
+        statement.bindLong(11, item.getFlattrStatus().toLong());
+        if (imageId != null) {
+            statement.bindLong(12, imageId);
+        }
+        if (item.getId() == 0) {
+            item.setId(statement.executeInsert());
+        } else {
+            statement.bindLong(13, item.getId());
+            statement.execute();
+        }
+
+        if (item.getMedia() != null) {
+            writeMedia(item.getMedia());
+        }
+        if (item.hasLoadedChapters()) {
+            for (Chapter chapter : item.getChapters()) {
+                writeChapter(item, chapter);
+            }
+        }
+        FeedItemExtrasCache.getInstance().remove(db, item.getId());
+        return item.getId();
+    }
+
+    private void writeMedia(FeedMedia media) {
+        SQLiteStatement statement;
+        if (media.getId() == 0) {
+            if (insertMedia == null) {
+                insertMedia = db.compileStatement(SQL_INSERT_MEDIA);
+            }
+            statement = insertMedia;
+        } else {
+            if (updateMedia == null) {
+                updateMedia = db.compileStatement(SQL_UPDATE_MEDIA);
+            }
+            statement = updateMedia;
+        }
+        statement.clearBindings();
+        statement.bindLong(1, media.getDuration());
+        statement.bindLong(2, media.getPosition());
+        statement.bindLong(3, media.getSize());
+        bindString(statement, 4, media.getMime_type());
+        bindString(statement, 5, media.getDownload_url());
+        bindBoolean(statement, 6, media.isDownloaded());
+        bindString(statement, 7, media.getFile_url());
+        if (media.getPlaybackCompletionDate() != null) {
+            statement.bindLong(8, media.getPlaybackCompletionDate().getTime());
+        } else {
+            statement.bindLong(8, 0);
+        }
+        if (media.getItem() != null) {
+            statement.bindLong(9, media.getItem().getId());
+        }
+        if (media.getId() == 0) {
+            media.setId(statement.executeInsert());
+        } else {
+            statement.bindLong(10, media.getId());
+            statement.execute();
+        }
+    }
+
+    private void writeChapter(FeedItem item, Chapter chapter) {
+        SQLiteStatement statement;
+        if (chapter.getId() == 0) {
+            if (insertChapter == null) {
+                insertChapter = db.compileStatement(SQL_INSERT_CHAPTER);
+            }
+            statement = insertChapter;
+        } else {
+            if (updateChapter == null) {
+                updateChapter = db.compileStatement(SQL_UPDATE_CHAPTER);
+            }
+            statement = updateChapter;
+        }
+        statement.clearBindings();
+        bindString(statement, 1, chapter.getTitle());
+        statement.bindLong(2, chapter.getStart());
+        statement.bindLong(3, item.getId());
+        bindString(statement, 4, chapter.getLink());
+        statement.bindLong(5, chapter.getChapterType());
+        if (chapter.getId() == 0) {
+            chapter.setId(statement.executeInsert());
+        } else {
+            statement.bindLong(6, chapter.getId());
+            statement.execute();
+        }
+    }
+
+    private void writeImage(FeedImage image) {
+        if (insertImage == null) {
+            insertImage = db.compileStatement(SQL_INSERT_IMAGE);
+        }
+        insertImage.clearBindings();
+        bindString(insertImage, 1, image.getTitle());
+        bindString(insertImage, 2, image.getDownload_url());
+        bindBoolean(insertImage, 3, image.isDownloaded());
+        bindString(insertImage, 4, image.getFile_url());
+        image.setId(insertImage.executeInsert());
+    }
+
+    /**
+     * Releases all compiled statements.
+     */
+    void close() {
+        SQLiteStatement[] statements = {insertItem, updateItem, insertMedia, updateMedia,
+                insertChapter, updateChapter, insertImage};
+        for (SQLiteStatement statement : statements) {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    private static void bindBoolean(SQLiteStatement statement, int index, boolean value) {
+        statement.bindLong(index, value ? 1 : 0);
+    }
+}
@@ -0,0 +1,201 @@
+package de.danoeh.antennapod.storage;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.v4.util.LruCache;
+import de.danoeh.antennapod.feed.Chapter;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bounded LRU cache for the shownotes and chapters of recently viewed FeedItems. The size of the cache is limited by
+ * the approximate memory that the cached strings occupy, so a few items with very long shownotes can't push the
+ * memory usage beyond the limit.
+ * <p/>
+ * The cache is filled by DBReader and invalidated by PodDBAdapter whenever a FeedItem or its chapters are written.
+ * Entries that are invalidated within a transaction are only removed after the outermost transaction of the writing
+ * thread has ended. Until then, a reader still sees the old values in the database and could put them back into the
+ * cache. The cached chapter lists are never handed out directly, FeedItems get a copy of them.
+ * <p/>
+ * Values that have been read from the database are only added if no entry has been invalidated in the meantime, so a
+ * reader that was slower than a concurrent writer can't put outdated values into the cache.
+ */
+class FeedItemExtrasCache {
+
+    /**
+     * Maximum size of the cache in bytes.
+     */
+    static final int MAX_SIZE = 512 * 1024;
+
+    /**
+     * Approximate size of the objects of an entry or a chapter without their strings.
+     */
+    private static final int OBJECT_OVERHEAD = 64;
+
+    private static FeedItemExtrasCache instance;
+
+    private final LruCache<Long, Entry> cache;
+
+    /**
+     * Incremented whenever an entry is invalidated.
+     */
+    private int generation;
+
+    /**
+     * Invalidations that have been requested within the current transaction of a thread.
+     */
+    private final ThreadLocal<PendingInvalidations> pendingInvalidations = new ThreadLocal<PendingInvalidations>() {
+        @Override
+        protected PendingInvalidations initialValue() {
+            return new PendingInvalidations();
+        }
+    };
+
+    private FeedItemExtrasCache() {
+        cache = new LruCache<Long, Entry>(MAX_SIZE) {
+            @Override
+            protected int sizeOf(Long key, Entry value) {
+                return value.size;
+            }
+        };
+    }
+
+    static synchronized FeedItemExtrasCache getInstance() {
+        if (instance == null) {
+            instance = new FeedItemExtrasCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the entry of the FeedItem with the given ID or null if the cache doesn't contain the item.
+     */
+    Entry get(long itemId) {
+        return cache.get(itemId);
+    }
+
+    /**
+     * Returns the current generation of the cache. Has to be called before the values that should be added to the cache
+     * are read from the database.
+     */
+    synchronized int getGeneration() {
+        return generation;
+    }
+
+    synchronized void putShownotes(int expectedGeneration, long itemId, String description, String contentEncoded) {
+        if (expectedGeneration != generation) {
+            return;
+        }
+        Entry old = cache.get(itemId);
+        if (old != null && old.chaptersLoaded) {
+            cache.put(itemId, new Entry(true, description, contentEncoded, true, old.chapters));
+        } else {
+            cache.put(itemId, new Entry(true, description, contentEncoded, false, null));
+        }
+    }
+
+    /**
+     * @param chapters The chapters of the item or null if the item doesn't have any chapters.
+     */
+    synchronized void putChapters(int expectedGeneration, long itemId, List<Chapter> chapters) {
+        if (expectedGeneration != generation) {
+            return;
+        }
+        Entry old = cache.get(itemId);
+        if (old != null && old.shownotesLoaded) {
+            cache.put(itemId, new Entry(true, old.description, old.contentEncoded, true, chapters));
+        } else {
+            cache.put(itemId, new Entry(false, null, null, true, chapters));
+        }
+    }
+
+    synchronized void remove(long itemId) {
+        generation++;
+        cache.remove(itemId);
+    }
+
+    synchronized void clear() {
+        generation++;
+        cache.evictAll();
+    }
+
+    /**
+     * Invalidates the entry of a FeedItem that is written on 'db'. If the calling thread is in a transaction, the entry
+     * is removed by {@link #transactionEnded(android.database.sqlite.SQLiteDatabase)}.
+     */
+    void remove(SQLiteDatabase db, long itemId) {
+        if (db.inTransaction()) {
+            pendingInvalidations.get().itemIds.add(itemId);
+        } else {
+            remove(itemId);
+        }
+    }
+
+    /**
+     * Invalidates all entries because FeedItems are written on 'db'. If the calling thread is in a transaction, the
+     * entries are removed by {@link #transactionEnded(android.database.sqlite.SQLiteDatabase)}.
+     */
+    void clear(SQLiteDatabase db) {
+        if (db.inTransaction()) {
+            pendingInvalidations.get().clear = true;
+        } else {
+            clear();
+        }
+    }
+
+    /**
+     * Must be called whenever a transaction on 'db' has ended, whether it has been committed or not. Performs the
+     * invalidations of the calling thread once its outermost transaction has ended.
+     */
+    void transactionEnded(SQLiteDatabase db) {
+        if (db.inTransaction()) {
+            return;
+        }
+        PendingInvalidations pending = pendingInvalidations.get();
+        if (pending.clear) {
+            clear();
+        } else {
+            for (long itemId : pending.itemIds) {
+                remove(itemId);
+            }
+        }
+        pending.clear = false;
+        pending.itemIds.clear();
+    }
+
+    private static class PendingInvalidations {
+        final Set<Long> itemIds = new HashSet<Long>();
+        boolean clear;
+    }
+
+    static class Entry {
+        final boolean shownotesLoaded;
+        final String description;
+        final String contentEncoded;
+        final boolean chaptersLoaded;
+        final List<Chapter> chapters;
+        final int size;
+
+        Entry(boolean shownotesLoaded, String description, String contentEncoded, boolean chaptersLoaded,
+              List<Chapter> chapters) {
+            this.shownotesLoaded = shownotesLoaded;
+            this.description = description;
+            this.contentEncoded = contentEncoded;
+            this.chaptersLoaded = chaptersLoaded;
+            this.chapters = chapters;
+
+            int size = OBJECT_OVERHEAD + sizeOf(description) + sizeOf(contentEncoded);
+            if (chapters != null) {
+                for (Chapter chapter : chapters) {
+                    size += OBJECT_OVERHEAD + sizeOf(chapter.getTitle()) + sizeOf(chapter.getLink());
+                }
+            }
+            this.size = size;
+        }
+
+        private static int sizeOf(String s) {
+            return (s != null) ? 2 * s.length() : 0;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package de.danoeh.antennapod.storage;
+
+import android.content.Context;
+import android.util.Log;
+import de.danoeh.antennapod.BuildConfig;
+import de.danoeh.antennapod.feed.DatabaseEvent;
+import de.danoeh.antennapod.feed.EventDistributor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Executes small write operations of DBWriter in groups. Operations that are submitted while the executor is busy are
+ * collected and then written in a single transaction, which avoids a separate commit for every operation.
+ * <p/>
+ * Groups are executed on DBWriter's ExecutorService. The executor has to call {@link #seal(Runnable)} before it queues
+ * any other task, which closes the open group, so that a group only contains operations that have been submitted before
+ * that task and operations submitted after it are executed after it. This keeps every operation in order relative to
+ * all other DBWriter-methods. A group contains at most MAX_GROUP_SIZE operations per transaction and is committed after
+ * MAX_GROUP_DURATION_MILLIS at the latest. The Future of an operation completes after its group has been committed. The
+ * events of all operations of a group are merged and sent once after the commit.
+ * <p/>
+ * If an operation fails, the group is rolled back and its operations are executed again one by one, so that only the
+ * Future of the failed operation reports the error.
+ */
+class GroupCommitExecutor {
+    private static final String TAG = "GroupCommitExecutor";
+
+    static final int MAX_GROUP_SIZE = 200;
+    static final long MAX_GROUP_DURATION_MILLIS = 200;
+
+    /**
+     * A write operation that can be executed as part of a group.
+     */
+    interface WriteOperation {
+        /**
+         * Executes the operation within the group's transaction.
+         *
+         * @param events Events that should be sent after the group has been committed can be added to this list.
+         */
+        void execute(PodDBAdapter adapter, List<DatabaseEvent> events);
+    }
+
+    private final ExecutorService executor;
+
+    /**
+     * Operations that have been submitted since the last group was closed. A DrainTask for them has already been
+     * queued. Guarded by this object's lock.
+     */
+    private List<PendingWrite> openGroup;
+
+    GroupCommitExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    synchronized Future<?> submit(Context context, WriteOperation operation) {
+        PendingWrite write = new PendingWrite(context, operation);
+        if (openGroup == null) {
+            List<PendingWrite> group = new ArrayList<PendingWrite>();
+            executor.execute(new DrainTask(group));
+            openGroup = group;
+        }
+        openGroup.add(write);
+        return write.future;
+    }
+
+    /**
+     * Closes the open group unless 'task' is one of the tasks that execute the groups. The executor must call this
+     * method while holding this object's lock, and keep holding it until 'task' has been queued, so that no operation
+     * can be added to a group whose DrainTask is queued before 'task' after this method has returned.
+     */
+    synchronized void seal(Runnable task) {
+        if (!(task instanceof DrainTask)) {
+            openGroup = null;
+        }
+    }
+
+    private class DrainTask implements Runnable {
+        private final List<PendingWrite> writes;
+
+        DrainTask(List<PendingWrite> writes) {
+            this.writes = writes;
+        }
+
+        @Override
+        public void run() {
+            drain(writes);
+        }
+    }
+
+    /**
+     * Executes the operations of a group. The group is closed first, operations that are submitted while this method
+     * runs are executed by the next DrainTask.
+     */
+    private void drain(List<PendingWrite> writes) {
+        synchronized (this) {
+            if (openGroup == writes) {
+                openGroup = null;
+            }
+        }
+        int next = 0;
+        while (next < writes.size()) {
+            List<PendingWrite> group = new ArrayList<PendingWrite>(Math.min(writes.size() - next, MAX_GROUP_SIZE));
+            final long start = System.currentTimeMillis();
+            PodDBAdapter adapter = null;
+            List<DatabaseEvent> events = new ArrayList<DatabaseEvent>();
+            boolean failed = false;
+            try {
+                while (next < writes.size() && group.size() < MAX_GROUP_SIZE
+                        && System.currentTimeMillis() - start < MAX_GROUP_DURATION_MILLIS) {
+                    PendingWrite write = writes.get(next++);
+                    if (write.future.isCancelled()) {
+                        continue;
+                    }
+                    if (adapter == null) {
+                        adapter = new PodDBAdapter(write.context);
+                        adapter.open();
+                        adapter.beginTransaction();
+                    }
+                    group.add(write);
+                    write.operation.execute(adapter, events);
+                }
+                if (adapter != null) {
+                    adapter.setTransactionSuccessful();
+                    adapter.endTransaction();
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Write operation failed, executing group of " + group.size() + " operations one by one");
+                if (adapter != null) {
+                    adapter.rollbackTransactions();
+                }
+                failed = true;
+            }
+            if (adapter != null) {
+                adapter.close();
+            }
+            if (failed) {
+                executeSeparately(group);
+            } else if (!group.isEmpty()) {
+                if (BuildConfig.DEBUG)
+                    Log.d(TAG, "Committed group of " + group.size() + " write operations in "
+                            + (System.currentTimeMillis() - start) + " ms");
+                for (PendingWrite write : group) {
+                    write.future.complete();
+                }
+                sendEvents(events);
+            }
+        }
+    }
+
+    private void executeSeparately(List<PendingWrite> group) {
+        for (PendingWrite write : group) {
+            List<DatabaseEvent> events = new ArrayList<DatabaseEvent>();
+            PodDBAdapter adapter = new PodDBAdapter(write.context);
+            adapter.open();
+            try {
+                adapter.beginTransaction();
+                write.operation.execute(adapter, events);
+                adapter.setTransactionSuccessful();
+                adapter.endTransaction();
+                write.future.complete();
+                sendEvents(events);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Write operation failed");
+                e.printStackTrace();
+                adapter.rollbackTransactions();
+                write.future.fail(e);
+            } finally {
+                adapter.close();
+            }
+        }
+    }
+
+    /**
+     * Merges the events by type and sends them.
+     */
+    private void sendEvents(List<DatabaseEvent> events) {
+        List<DatabaseEvent> merged = new ArrayList<DatabaseEvent>();
+        for (DatabaseEvent event : events) {
+            boolean found = false;
+            for (int i = 0; i < merged.size(); i++) {
+                if (merged.get(i).getType() == event.getType()) {
+                    merged.set(i, merged.get(i).merge(event));
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                merged.add(event);
+            }
+        }
+        EventDistributor eventDistributor = EventDistributor.getInstance();
+        for (DatabaseEvent event : merged) {
+            eventDistributor.sendEvent(event);
+        }
+    }
+
+    private static class PendingWrite {
+        final Context context;
+        final WriteOperation operation;
+        final WriteFuture future;
+
+        PendingWrite(Context context, WriteOperation operation) {
+            this.context = context;
+            this.operation = operation;
+            this.future = new WriteFuture();
+        }
+    }
+
+    /**
+     * Future that is completed by the executor after the operation's group has been committed.
+     */
+    private static class WriteFuture extends FutureTask<Void> {
+        private static final Runnable NO_OP = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        WriteFuture() {
+            super(NO_OP, null);
+        }
+
+        void complete() {
+            set(null);
+        }
+
+        void fail(Throwable t) {
+            setException(t);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package de.danoeh.antennapod.storage;
+
+import android.content.Context;
+import android.util.Log;
+import de.danoeh.antennapod.BuildConfig;
+import de.danoeh.antennapod.feed.*;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Compact snapshot of the FeedMedia object that has been played last. After the PlaybackService has been restarted,
+ * it restores the last played episode from the snapshot instead of loading the FeedMedia object, its item and its feed
+ * from the database before the media player can be prepared.
+ * <p/>
+ * The snapshot contains the attributes of the FeedMedia object, whether it has been streamed, and a placeholder item
+ * with the title, the feed and the chapters of the episode. The complete item is loaded later via
+ * {@link de.danoeh.antennapod.feed.FeedMedia#replacePlaceholderItem()}.
+ * <p/>
+ * Positions that have been recorded in the PositionJournal after the snapshot has been saved are applied when the
+ * snapshot is restored or when the journal is compacted. Other changes of the episode's database rows, e.g. a deleted
+ * file or a reset position, aren't applied; DBWriter deletes the snapshot instead.
+ */
+public class PlaybackSnapshot {
+    private static final String TAG = "PlaybackSnapshot";
+
+    private static final String FILENAME = "playback-snapshot";
+
+    private static final int MAGIC = 0x41505331;
+    private static final int VERSION = 2;
+
+    private static PlaybackSnapshot instance;
+
+    private final Context context;
+    private final File file;
+
+    private PlaybackSnapshot(Context context, File file) {
+        this.context = context;
+        this.file = file;
+    }
+
+    public static synchronized PlaybackSnapshot getInstance(Context context) {
+        if (instance == null) {
+            final Context appContext = context.getApplicationContext();
+            instance = new PlaybackSnapshot(appContext, new File(appContext.getFilesDir(), FILENAME));
+        }
+        return instance;
+    }
+
+    /**
+     * Replaces the snapshot with a snapshot of the given FeedMedia object. The FeedMedia object must have an item
+     * with a feed.
+     *
+     * @param stream True if the FeedMedia object is being streamed.
+     */
+    public synchronized void save(FeedMedia media, boolean stream) {
+        if (media.getId() == 0 || media.getItem() == null || media.getItem().getFeed() == null) {
+            clear();
+            return;
+        }
+        write(new Entry(media, stream, System.currentTimeMillis()));
+    }
+
+    /**
+     * Deletes the snapshot, e.g. after playback has been completed.
+     */
+    public synchronized void clear() {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete snapshot");
+        }
+    }
+
+    /**
+     * Deletes the snapshot if it has been saved for the given FeedMedia object, e.g. because the media's file has been
+     * downloaded or deleted since.
+     */
+    public synchronized void invalidateMedia(long mediaId) {
+        Entry entry = read();
+        if (entry != null && entry.media.getId() == mediaId) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Media " + mediaId + " has changed, deleting snapshot");
+            clear();
+        }
+    }
+
+    /**
+     * Deletes the snapshot if it has been saved for an episode of the given feed, e.g. because the feed has been
+     * deleted.
+     */
+    public synchronized void invalidateFeed(long feedId) {
+        Entry entry = read();
+        if (entry != null && entry.media.getItem().getFeed().getId() == feedId) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Feed " + feedId + " has changed, deleting snapshot");
+            clear();
+        }
+    }
+
+    /**
+     * Restores the FeedMedia object from the snapshot. Each call returns a new FeedMedia object with a placeholder
+     * item. If the snapshot says that the episode has been downloaded but its file doesn't exist anymore, the restored
+     * object is marked as not downloaded.
+     *
+     * @return The restored snapshot or null if no snapshot has been saved or the snapshot couldn't be read.
+     */
+    public synchronized Entry restore() {
+        Entry entry = read();
+        if (entry == null) {
+            return null;
+        }
+        final FeedMedia media = entry.media;
+        if (media.isDownloaded() && (media.getFile_url() == null || !new File(media.getFile_url()).exists())) {
+            Log.w(TAG, "File of media " + media.getId() + " doesn't exist anymore");
+            media.setDownloaded(false);
+            media.setFile_url(null);
+        }
+        final PositionJournal journal = PositionJournal.getInstance(context);
+        applyJournalEntries(entry, journal.getLatestEntries(journal.getLastSequence()));
+        if (BuildConfig.DEBUG) Log.d(TAG, "Restored snapshot of media " + entry.media.getId());
+        return entry;
+    }
+
+    /**
+     * Returns the ID of the FeedMedia object in the snapshot without restoring it. Only the header of the snapshot is
+     * read, which contains the ID right after the format and the timestamp.
+     *
+     * @return The ID or 0 if no snapshot has been saved or the snapshot couldn't be read.
+     */
+    public synchronized long getMediaId() {
+        if (!file.exists()) {
+            return 0;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return 0;
+            }
+            in.readLong(); // timestamp
+            in.readBoolean(); // stream
+            return in.readLong();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Applies positions that have been recorded in the PositionJournal to the snapshot. This method is called before
+     * the records are removed from the journal.
+     */
+    synchronized void updatePlaybackInformation(List<PositionJournal.Entry> journalEntries) {
+        if (!file.exists()) {
+            return;
+        }
+        Entry entry = read();
+        if (entry != null && applyJournalEntries(entry, journalEntries)) {
+            write(entry);
+        }
+    }
+
+    /**
+     * @return true if a journal entry is newer than the snapshot and has been applied.
+     */
+    private boolean applyJournalEntries(Entry entry, List<PositionJournal.Entry> journalEntries) {
+        for (PositionJournal.Entry journalEntry : journalEntries) {
+            if (journalEntry.mediaId == entry.media.getId() && journalEntry.timestamp > entry.timestamp) {
+                entry.media.setPosition(journalEntry.position);
+                entry.media.setDuration(journalEntry.duration);
+                entry.media.setPlayedDuration(journalEntry.playedDuration);
+                entry.timestamp = journalEntry.timestamp;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the snapshot into a temporary file first, so that a snapshot is never written partially.
+     */
+    private void write(Entry entry) {
+        final File tmp = new File(file.getParentFile(), FILENAME + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            final FeedMedia media = entry.media;
+            final FeedItem item = media.getItem();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(entry.timestamp);
+            out.writeBoolean(entry.stream);
+
+            out.writeLong(media.getId());
+            out.writeInt(media.getDuration());
+            out.writeInt(media.getPosition());
+            out.writeInt(media.getPlayedDuration());
+            out.writeLong(media.getSize());
+            writeString(out, media.getMime_type());
+            writeString(out, media.getFile_url());
+            writeString(out, media.getDownload_url());
+            out.writeBoolean(media.isDownloaded());
+            out.writeLong(media.getPlaybackCompletionDate() != null ? media.getPlaybackCompletionDate().getTime() : 0);
+            out.writeFloat(media.getLoudnessGain());
+
+            out.writeLong(item.getId());
+            writeString(out, item.getTitle());
+            out.writeLong(item.getFeed().getId());
+            writeString(out, item.getFeed().getTitle());
+            final List<Chapter> chapters = item.getChapters();
+            if (chapters != null) {
+                out.writeInt(chapters.size());
+                for (Chapter chapter : chapters) {
+                    out.writeInt(chapter.getChapterType());
+                    out.writeLong(chapter.getStart());
+                    writeString(out, chapter.getTitle());
+                    writeString(out, chapter.getLink());
+                }
+            } else {
+                out.writeInt(-1);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                Log.e(TAG, "Could not replace snapshot");
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    private Entry read() {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Ignoring snapshot with unknown format");
+                return null;
+            }
+            final long timestamp = in.readLong();
+            final boolean stream = in.readBoolean();
+
+            final long mediaId = in.readLong();
+            final int duration = in.readInt();
+            final int position = in.readInt();
+            final int playedDuration = in.readInt();
+            final long size = in.readLong();
+            final String mimeType = readString(in);
+            final String fileUrl = readString(in);
+            final String downloadUrl = readString(in);
+            final boolean downloaded = in.readBoolean();
+            final long completionDate = in.readLong();
+            final float loudnessGain = in.readFloat();
+
+            final long itemId = in.readLong();
+            final String itemTitle = readString(in);
+            final long feedId = in.readLong();
+            final String feedTitle = readString(in);
+            Feed feed = new Feed(feedId, null, feedTitle, null, null, null, null, null, null, null, null, null, null,
+                    false);
+            FeedItem item = new FeedItem(itemId, itemTitle, null, null, null, true, feed);
+            final int chapterCount = in.readInt();
+            if (chapterCount >= 0) {
+                List<Chapter> chapters = new ArrayList<Chapter>(chapterCount);
+                for (int i = 0; i < chapterCount; i++) {
+                    Chapter chapter = createChapter(in.readInt(), in.readLong(), readString(in), readString(in),
+                            item);
+                    if (chapter != null) {
+                        chapters.add(chapter);
+                    }
+                }
+                item.setChapters(chapters);
+            }
+
+            FeedMedia media = new FeedMedia(mediaId, null, duration, position, size, mimeType, fileUrl, downloadUrl,
+                    downloaded, completionDate != 0 ? new Date(completionDate) : null, playedDuration);
+            media.setLoudnessGain(loudnessGain);
+            media.setPlaceholderItem(item);
+            return new Entry(media, stream, timestamp);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private static Chapter createChapter(int chapterType, long start, String title, String link, FeedItem item) {
+        switch (chapterType) {
+            case SimpleChapter.CHAPTERTYPE_SIMPLECHAPTER:
+                return new SimpleChapter(start, title, item, link);
+            case ID3Chapter.CHAPTERTYPE_ID3CHAPTER:
+                return new ID3Chapter(start, title, item, link);
+            case VorbisCommentChapter.CHAPTERTYPE_VORBISCOMMENT_CHAPTER:
+                return new VorbisCommentChapter(start, title, item, link);
+            default:
+                return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * A restored snapshot.
+     */
+    public static class Entry {
+        /**
+         * The restored FeedMedia object. Its item is a placeholder.
+         */
+        public final FeedMedia media;
+        /**
+         * True if the FeedMedia object has been streamed.
+         */
+        public final boolean stream;
+        private long timestamp;
+
+        private Entry(FeedMedia media, boolean stream, long timestamp) {
+            this.media = media;
+            this.stream = stream;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package de.danoeh.antennapod.storage;
 
+import android.app.ActivityManager;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -9,6 +10,7 @@ import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.util.Log;
 import de.danoeh.antennapod.BuildConfig;
 import de.danoeh.antennapod.feed.*;
@@ -16,7 +18,10 @@ import de.danoeh.antennapod.service.download.DownloadStatus;
 import de.danoeh.antennapod.util.flattr.FlattrStatus;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 // TODO Remove media column from feeditem table
 
@@ -25,7 +30,7 @@ import java.util.List;
  */
 public class PodDBAdapter {
     private static final String TAG = "PodDBAdapter";
-    private static final int DATABASE_VERSION = 12;
+    private static final int DATABASE_VERSION = 18;
     public static final String DATABASE_NAME = "Antennapod.db";
 
     /**
@@ -38,6 +43,13 @@ public class PodDBAdapter {
      */
     public static final int SEARCH_LIMIT = 30;
 
+    /**
+     * Distance between the positions of two neighbouring queue entries after the queue has been written
+     * or renumbered. Entries can be inserted between two neighbours without changing other entries until
+     * the gap is used up.
+     */
+    public static final long QUEUE_POSITION_GAP = 1 << 16;
+
     // ----------- Column indices
     // ----------- General indices
     public static final int KEY_ID_INDEX = 0;
@@ -75,6 +87,7 @@ public class PodDBAdapter {
     public static final int KEY_PLAYBACK_COMPLETION_DATE_INDEX = 8;
     public static final int KEY_MEDIA_FEEDITEM_INDEX = 9;
     public static final int KEY_PLAYED_DURATION_INDEX = 10;
+    public static final int KEY_LOUDNESS_GAIN_INDEX = 11;
     // --------- Download log indices
     public static final int KEY_FEEDFILE_INDEX = 1;
     public static final int KEY_FEEDFILETYPE_INDEX = 2;
@@ -91,6 +104,11 @@ public class PodDBAdapter {
     public static final int KEY_CHAPTER_FEEDITEM_INDEX = 3;
     public static final int KEY_CHAPTER_LINK_INDEX = 4;
     public static final int KEY_CHAPTER_TYPE_INDEX = 5;
+    // --------- Chapter cache indices
+    public static final int KEY_CHAPTER_CACHE_SOURCE_INDEX = 1;
+    public static final int KEY_CHAPTER_CACHE_SIZE_INDEX = 2;
+    public static final int KEY_CHAPTER_CACHE_LAST_MODIFIED_INDEX = 3;
+    public static final int KEY_CHAPTER_CACHE_VALIDATOR_INDEX = 4;
 
     // Key-constants
     public static final String KEY_ID = "id";
@@ -133,8 +151,17 @@ public class PodDBAdapter {
     public static final String KEY_PLAYBACK_COMPLETION_DATE = "playback_completion_date";
     public static final String KEY_AUTO_DOWNLOAD = "auto_download";
     public static final String KEY_PLAYED_DURATION = "played_duration";
+    public static final String KEY_LOUDNESS_GAIN = "loudness_gain";
     public static final String KEY_USERNAME = "username";
     public static final String KEY_PASSWORD = "password";
+    public static final String KEY_SOURCE = "source";
+    public static final String KEY_VALIDATOR = "validator";
+    public static final String KEY_CHAPTER_CACHE = "chapter_cache";
+    public static final String KEY_NUM_ITEMS = "num_items";
+    public static final String KEY_NEW_ITEMS = "new_items";
+    public static final String KEY_LATEST_EPISODE = "latest_episode";
+    public static final String KEY_IN_PROGRESS = "in_progress";
+    public static final String KEY_EPISODES_DOWNLOADED = "episodes_downloaded";
 
     // Table names
     public static final String TABLE_NAME_FEEDS = "Feeds";
@@ -144,6 +171,9 @@ public class PodDBAdapter {
     public static final String TABLE_NAME_DOWNLOAD_LOG = "DownloadLog";
     public static final String TABLE_NAME_QUEUE = "Queue";
     public static final String TABLE_NAME_SIMPLECHAPTERS = "SimpleChapters";
+    public static final String TABLE_NAME_CHAPTER_CACHE = "ChapterCache";
+    public static final String TABLE_NAME_CACHED_CHAPTERS = "CachedChapters";
+    public static final String TABLE_NAME_FEED_STATISTICS = "FeedStatistics";
 
     // SQL Statements for creating new tables
     private static final String TABLE_PRIMARY_KEY = KEY_ID
@@ -183,7 +213,8 @@ public class PodDBAdapter {
             + " INTEGER," + KEY_SIZE + " INTEGER," + KEY_MIME_TYPE + " TEXT,"
             + KEY_PLAYBACK_COMPLETION_DATE + " INTEGER,"
             + KEY_FEEDITEM + " INTEGER,"
-            + KEY_PLAYED_DURATION + " INTEGER)";
+            + KEY_PLAYED_DURATION + " INTEGER,"
+            + KEY_LOUDNESS_GAIN + " REAL)";
 
     private static final String CREATE_TABLE_DOWNLOAD_LOG = "CREATE TABLE "
             + TABLE_NAME_DOWNLOAD_LOG + " (" + TABLE_PRIMARY_KEY + KEY_FEEDFILE
@@ -201,6 +232,135 @@ public class PodDBAdapter {
             + " TEXT," + KEY_START + " INTEGER," + KEY_FEEDITEM + " INTEGER,"
             + KEY_LINK + " TEXT," + KEY_CHAPTER_TYPE + " INTEGER)";
 
+    private static final String CREATE_TABLE_CHAPTER_CACHE = "CREATE TABLE "
+            + TABLE_NAME_CHAPTER_CACHE + " (" + TABLE_PRIMARY_KEY + KEY_SOURCE
+            + " TEXT," + KEY_SIZE + " INTEGER," + KEY_LASTUPDATE + " INTEGER,"
+            + KEY_VALIDATOR + " TEXT)";
+
+    /**
+     * Has the same layout as the SimpleChapters table, the feeditem column is
+     * replaced by the id of the chapter cache entry.
+     */
+    private static final String CREATE_TABLE_CACHED_CHAPTERS = "CREATE TABLE "
+            + TABLE_NAME_CACHED_CHAPTERS + " (" + TABLE_PRIMARY_KEY + KEY_TITLE
+            + " TEXT," + KEY_START + " INTEGER," + KEY_CHAPTER_CACHE + " INTEGER,"
+            + KEY_LINK + " TEXT," + KEY_CHAPTER_TYPE + " INTEGER)";
+
+    private static final String CREATE_INDEX_CHAPTER_CACHE_SOURCE = "CREATE INDEX "
+            + TABLE_NAME_CHAPTER_CACHE + "_" + KEY_SOURCE + " ON "
+            + TABLE_NAME_CHAPTER_CACHE + " (" + KEY_SOURCE + ")";
+
+    private static final String CREATE_INDEX_CACHED_CHAPTERS_ENTRY = "CREATE INDEX "
+            + TABLE_NAME_CACHED_CHAPTERS + "_" + KEY_CHAPTER_CACHE + " ON "
+            + TABLE_NAME_CACHED_CHAPTERS + " (" + KEY_CHAPTER_CACHE + ")";
+
+    /**
+     * Covers the feed's items in the order of their pubDate, the ID is part of every index.
+     */
+    private static final String CREATE_INDEX_FEEDITEMS_FEED_PUBDATE = "CREATE INDEX "
+            + TABLE_NAME_FEED_ITEMS + "_" + KEY_FEED + "_" + KEY_PUBDATE + " ON "
+            + TABLE_NAME_FEED_ITEMS + " (" + KEY_FEED + "," + KEY_PUBDATE + ")";
+
+    private static final String CREATE_INDEX_FEEDITEMS_READ_PUBDATE = "CREATE INDEX "
+            + TABLE_NAME_FEED_ITEMS + "_" + KEY_READ + "_" + KEY_PUBDATE + " ON "
+            + TABLE_NAME_FEED_ITEMS + " (" + KEY_READ + "," + KEY_PUBDATE + ")";
+
+    private static final String CREATE_INDEX_FEEDMEDIA_FEEDITEM = "CREATE INDEX "
+            + TABLE_NAME_FEED_MEDIA + "_" + KEY_FEEDITEM + " ON "
+            + TABLE_NAME_FEED_MEDIA + " (" + KEY_FEEDITEM + ")";
+
+    private static final String CREATE_INDEX_SIMPLECHAPTERS_FEEDITEM = "CREATE INDEX "
+            + TABLE_NAME_SIMPLECHAPTERS + "_" + KEY_FEEDITEM + " ON "
+            + TABLE_NAME_SIMPLECHAPTERS + " (" + KEY_FEEDITEM + ")";
+
+    /**
+     * Contains the statistics of every feed. The table is kept up to date by the triggers below, so the statistics
+     * don't have to be computed from all FeedItems and FeedMedia entries whenever the feed list is loaded.
+     * See {@link #rebuildFeedStatistics()}.
+     */
+    private static final String CREATE_TABLE_FEED_STATISTICS = "CREATE TABLE "
+            + TABLE_NAME_FEED_STATISTICS + " (" + KEY_FEED + " INTEGER PRIMARY KEY,"
+            + KEY_NUM_ITEMS + " INTEGER DEFAULT 0," + KEY_NEW_ITEMS + " INTEGER DEFAULT 0,"
+            + KEY_LATEST_EPISODE + " INTEGER," + KEY_IN_PROGRESS + " INTEGER DEFAULT 0,"
+            + KEY_EPISODES_DOWNLOADED + " INTEGER DEFAULT 0)";
+
+    private static final String UPDATE_FEED_STATISTICS = "UPDATE " + TABLE_NAME_FEED_STATISTICS + " SET ";
+
+    private static final String FEED_OF_NEW_MEDIA = "(SELECT " + KEY_FEED + " FROM " + TABLE_NAME_FEED_ITEMS
+            + " WHERE " + KEY_ID + "=NEW." + KEY_FEEDITEM + ")";
+
+    private static final String FEED_OF_OLD_MEDIA = "(SELECT " + KEY_FEED + " FROM " + TABLE_NAME_FEED_ITEMS
+            + " WHERE " + KEY_ID + "=OLD." + KEY_FEEDITEM + ")";
+
+    private static final String[] CREATE_TRIGGERS_FEED_STATISTICS = {
+            "CREATE TRIGGER " + TABLE_NAME_FEEDS + "_insert_statistics AFTER INSERT ON " + TABLE_NAME_FEEDS
+                    + " BEGIN INSERT OR IGNORE INTO " + TABLE_NAME_FEED_STATISTICS + " (" + KEY_FEED
+                    + ") VALUES (NEW." + KEY_ID + "); END",
+            "CREATE TRIGGER " + TABLE_NAME_FEEDS + "_delete_statistics AFTER DELETE ON " + TABLE_NAME_FEEDS
+                    + " BEGIN DELETE FROM " + TABLE_NAME_FEED_STATISTICS + " WHERE " + KEY_FEED + "=OLD." + KEY_ID
+                    + "; END",
+
+            "CREATE TRIGGER " + TABLE_NAME_FEED_ITEMS + "_insert_statistics AFTER INSERT ON " + TABLE_NAME_FEED_ITEMS
+                    + " BEGIN " + UPDATE_FEED_STATISTICS
+                    + KEY_NUM_ITEMS + "=" + KEY_NUM_ITEMS + "+1,"
+                    + KEY_NEW_ITEMS + "=" + KEY_NEW_ITEMS + "+" + countIf("NEW." + KEY_READ + "=0") + ","
+                    + KEY_LATEST_EPISODE + "=MAX(IFNULL(" + KEY_LATEST_EPISODE + ",0),IFNULL(NEW." + KEY_PUBDATE + ",0))"
+                    + " WHERE " + KEY_FEED + "=NEW." + KEY_FEED + "; END",
+            "CREATE TRIGGER " + TABLE_NAME_FEED_ITEMS + "_update_statistics AFTER UPDATE OF "
+                    + KEY_READ + "," + KEY_PUBDATE + "," + KEY_FEED + " ON " + TABLE_NAME_FEED_ITEMS
+                    + " BEGIN " + UPDATE_FEED_STATISTICS
+                    + KEY_NUM_ITEMS + "=" + KEY_NUM_ITEMS + "-1,"
+                    + KEY_NEW_ITEMS + "=" + KEY_NEW_ITEMS + "-" + countIf("OLD." + KEY_READ + "=0")
+                    + " WHERE " + KEY_FEED + "=OLD." + KEY_FEED + "; "
+                    + UPDATE_FEED_STATISTICS
+                    + KEY_NUM_ITEMS + "=" + KEY_NUM_ITEMS + "+1,"
+                    + KEY_NEW_ITEMS + "=" + KEY_NEW_ITEMS + "+" + countIf("NEW." + KEY_READ + "=0")
+                    + " WHERE " + KEY_FEED + "=NEW." + KEY_FEED + "; "
+                    // the latest episode only has to be looked up again if it might have changed
+                    + UPDATE_FEED_STATISTICS + KEY_LATEST_EPISODE + "=" + latestEpisodeOf(TABLE_NAME_FEED_STATISTICS + "." + KEY_FEED)
+                    + " WHERE " + KEY_FEED + " IN (OLD." + KEY_FEED + ",NEW." + KEY_FEED + ")"
+                    + " AND (OLD." + KEY_PUBDATE + " IS NOT NEW." + KEY_PUBDATE
+                    + " OR OLD." + KEY_FEED + " IS NOT NEW." + KEY_FEED + "); END",
+            "CREATE TRIGGER " + TABLE_NAME_FEED_ITEMS + "_delete_statistics AFTER DELETE ON " + TABLE_NAME_FEED_ITEMS
+                    + " BEGIN " + UPDATE_FEED_STATISTICS
+                    + KEY_NUM_ITEMS + "=" + KEY_NUM_ITEMS + "-1,"
+                    + KEY_NEW_ITEMS + "=" + KEY_NEW_ITEMS + "-" + countIf("OLD." + KEY_READ + "=0") + ","
+                    + KEY_LATEST_EPISODE + "=" + latestEpisodeOf("OLD." + KEY_FEED)
+                    + " WHERE " + KEY_FEED + "=OLD." + KEY_FEED + "; END",
+
+            "CREATE TRIGGER " + TABLE_NAME_FEED_MEDIA + "_insert_statistics AFTER INSERT ON " + TABLE_NAME_FEED_MEDIA
+                    + " BEGIN " + UPDATE_FEED_STATISTICS
+                    + KEY_IN_PROGRESS + "=" + KEY_IN_PROGRESS + "+" + countIf("NEW." + KEY_POSITION + ">0") + ","
+                    + KEY_EPISODES_DOWNLOADED + "=" + KEY_EPISODES_DOWNLOADED + "+" + countIf("NEW." + KEY_DOWNLOADED + "=1")
+                    + " WHERE " + KEY_FEED + "=" + FEED_OF_NEW_MEDIA + "; END",
+            "CREATE TRIGGER " + TABLE_NAME_FEED_MEDIA + "_update_statistics AFTER UPDATE OF "
+                    + KEY_POSITION + "," + KEY_DOWNLOADED + "," + KEY_FEEDITEM + " ON " + TABLE_NAME_FEED_MEDIA
+                    + " BEGIN " + UPDATE_FEED_STATISTICS
+                    + KEY_IN_PROGRESS + "=" + KEY_IN_PROGRESS + "-" + countIf("OLD." + KEY_POSITION + ">0") + ","
+                    + KEY_EPISODES_DOWNLOADED + "=" + KEY_EPISODES_DOWNLOADED + "-" + countIf("OLD." + KEY_DOWNLOADED + "=1")
+                    + " WHERE " + KEY_FEED + "=" + FEED_OF_OLD_MEDIA + "; "
+                    + UPDATE_FEED_STATISTICS
+                    + KEY_IN_PROGRESS + "=" + KEY_IN_PROGRESS + "+" + countIf("NEW." + KEY_POSITION + ">0") + ","
+                    + KEY_EPISODES_DOWNLOADED + "=" + KEY_EPISODES_DOWNLOADED + "+" + countIf("NEW." + KEY_DOWNLOADED + "=1")
+                    + " WHERE " + KEY_FEED + "=" + FEED_OF_NEW_MEDIA + "; END",
+            "CREATE TRIGGER " + TABLE_NAME_FEED_MEDIA + "_delete_statistics AFTER DELETE ON " + TABLE_NAME_FEED_MEDIA
+                    + " BEGIN " + UPDATE_FEED_STATISTICS
+                    + KEY_IN_PROGRESS + "=" + KEY_IN_PROGRESS + "-" + countIf("OLD." + KEY_POSITION + ">0") + ","
+                    + KEY_EPISODES_DOWNLOADED + "=" + KEY_EPISODES_DOWNLOADED + "-" + countIf("OLD." + KEY_DOWNLOADED + "=1")
+                    + " WHERE " + KEY_FEED + "=" + FEED_OF_OLD_MEDIA + "; END"
+    };
+
+    /**
+     * Returns an expression that is 1 if the condition is true and 0 otherwise, even if the condition is NULL.
+     */
+    private static String countIf(String condition) {
+        return "(CASE WHEN " + condition + " THEN 1 ELSE 0 END)";
+    }
+
+    private static String latestEpisodeOf(String feedId) {
+        return "(SELECT MAX(" + KEY_PUBDATE + ") FROM " + TABLE_NAME_FEED_ITEMS + " WHERE " + KEY_FEED + "=" + feedId + ")";
+    }
+
     private SQLiteDatabase db;
     private final Context context;
     private PodDBHelper helper;
@@ -339,10 +499,64 @@ public class PodDBAdapter {
         //db.close();
     }
 
+    void beginTransaction() {
+        db.beginTransaction();
+    }
+
+    void setTransactionSuccessful() {
+        db.setTransactionSuccessful();
+    }
+
+    /**
+     * Ends a transaction. Cache entries that have been invalidated within the transaction are removed once the
+     * outermost transaction of the current thread has ended.
+     */
+    void endTransaction() {
+        try {
+            db.endTransaction();
+        } finally {
+            FeedItemExtrasCache.getInstance().transactionEnded(db);
+        }
+    }
+
+    /**
+     * Ends all transactions of the current thread without committing them. Methods that have failed within a
+     * transaction might not have ended their own nested transactions.
+     */
+    void rollbackTransactions() {
+        try {
+            while (db.inTransaction()) {
+                db.endTransaction();
+            }
+        } finally {
+            FeedItemExtrasCache.getInstance().transactionEnded(db);
+        }
+    }
+
+    /**
+     * Copies the content of the write-ahead log back into the database file without waiting for readers. SQLite
+     * also checkpoints automatically, but only as part of a commit, which slows down the write that reaches the
+     * threshold. This method should therefore be called when the database is idle.
+     */
+    static void checkpointWriteAheadLog() {
+        final PodDBHelper helper = dbHelperSingleton;
+        if (helper == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        // has no effect if the database doesn't use write-ahead logging
+        Cursor c = helper.getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        c.moveToFirst();
+        c.close();
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, "Checkpointed write-ahead log");
+    }
+
     public static boolean deleteDatabase(Context context) {
         Log.w(TAG, "Deleting database");
         dbHelperSingleton.close();
         dbHelperSingleton = null;
+        QueueIndex.getInstance(context).invalidate();
+        FeedItemExtrasCache.getInstance().clear();
         return context.deleteDatabase(DATABASE_NAME);
     }
 
@@ -429,7 +643,7 @@ public class PodDBAdapter {
             }
         }
         db.setTransactionSuccessful();
-        db.endTransaction();
+        endTransaction();
         return image.getId();
     }
 
@@ -447,6 +661,7 @@ public class PodDBAdapter {
         values.put(KEY_DOWNLOAD_URL, media.getDownload_url());
         values.put(KEY_DOWNLOADED, media.isDownloaded());
         values.put(KEY_FILE_URL, media.getFile_url());
+        values.put(KEY_LOUDNESS_GAIN, media.getLoudnessGain());
 
         if (media.getPlaybackCompletionDate() != null) {
             values.put(KEY_PLAYBACK_COMPLETION_DATE, media
@@ -479,6 +694,18 @@ public class PodDBAdapter {
         }
     }
 
+    /**
+     * Saves the position, the duration and the played duration of the FeedMedia object with the given ID.
+     */
+    public void setFeedMediaPlaybackInformation(long mediaId, int position, int duration, int playedDuration) {
+        ContentValues values = new ContentValues();
+        values.put(KEY_POSITION, position);
+        values.put(KEY_DURATION, duration);
+        values.put(KEY_PLAYED_DURATION, playedDuration);
+        db.update(TABLE_NAME_FEED_MEDIA, values, KEY_ID + "=?",
+                new String[]{String.valueOf(mediaId)});
+    }
+
     public void setFeedMediaPlaybackCompletionDate(FeedMedia media) {
         if (media.getId() != 0) {
             ContentValues values = new ContentValues();
@@ -493,21 +720,26 @@ public class PodDBAdapter {
 
     /**
      * Insert all FeedItems of a feed and the feed object itself in a single
-     * transaction
+     * transaction. The items are written with precompiled statements.
      */
     public void setCompleteFeed(Feed feed) {
         db.beginTransaction();
         setFeed(feed);
         if (feed.getItems() != null) {
-            for (FeedItem item : feed.getItems()) {
-                setFeedItem(item, false);
+            FeedItemBulkWriter writer = new FeedItemBulkWriter(db);
+            try {
+                for (FeedItem item : feed.getItems()) {
+                    writer.writeItem(item);
+                }
+            } finally {
+                writer.close();
             }
         }
         if (feed.getPreferences() != null) {
             setFeedPreferences(feed.getPreferences());
         }
         db.setTransactionSuccessful();
-        db.endTransaction();
+        endTransaction();
     }
 
     /**
@@ -569,20 +801,33 @@ public class PodDBAdapter {
         db.update(TABLE_NAME_FEEDS, values, KEY_DOWNLOAD_URL + "=?", new String[]{original});
     }
 
+    /**
+     * Inserts or updates a list of FeedItems in a single transaction. The Feed of every item is
+     * saved once before its first item is written.
+     */
     public void setFeedItemlist(List<FeedItem> items) {
         db.beginTransaction();
-        for (FeedItem item : items) {
-            setFeedItem(item, true);
+        Set<Feed> savedFeeds = Collections.newSetFromMap(new IdentityHashMap<Feed, Boolean>());
+        FeedItemBulkWriter writer = new FeedItemBulkWriter(db);
+        try {
+            for (FeedItem item : items) {
+                if (item.getFeed() != null && savedFeeds.add(item.getFeed())) {
+                    setFeed(item.getFeed());
+                }
+                writer.writeItem(item);
+            }
+        } finally {
+            writer.close();
         }
         db.setTransactionSuccessful();
-        db.endTransaction();
+        endTransaction();
     }
 
     public long setSingleFeedItem(FeedItem item) {
         db.beginTransaction();
         long result = setFeedItem(item, true);
         db.setTransactionSuccessful();
-        db.endTransaction();
+        endTransaction();
         return result;
     }
 
@@ -666,7 +911,7 @@ public class PodDBAdapter {
         }
         values.put(KEY_FEED, item.getFeed().getId());
         values.put(KEY_READ, item.isRead());
-        values.put(KEY_HAS_CHAPTERS, item.getChapters() != null);
+        values.put(KEY_HAS_CHAPTERS, item.hasChapters());
         values.put(KEY_ITEM_IDENTIFIER, item.getItemIdentifier());
         values.put(KEY_FLATTR_STATUS, item.getFlattrStatus().toLong());
         if (item.hasItemImage()) {
@@ -685,9 +930,11 @@ public class PodDBAdapter {
         if (item.getMedia() != null) {
             setMedia(item.getMedia());
         }
-        if (item.getChapters() != null) {
+        // chapters that haven't been loaded haven't been changed either
+        if (item.hasLoadedChapters()) {
             setChapters(item);
         }
+        FeedItemExtrasCache.getInstance().remove(db, item.getId());
         return item.getId();
     }
 
@@ -706,7 +953,7 @@ public class PodDBAdapter {
         }
 
         db.setTransactionSuccessful();
-        db.endTransaction();
+        endTransaction();
     }
 
     public void setFeedItemRead(boolean read, long... itemIds) {
@@ -718,7 +965,7 @@ public class PodDBAdapter {
             db.update(TABLE_NAME_FEED_ITEMS, values, KEY_ID + "=?", new String[]{String.valueOf(id)});
         }
         db.setTransactionSuccessful();
-        db.endTransaction();
+        endTransaction();
     }
 
     public void setChapters(FeedItem item) {
@@ -737,6 +984,76 @@ public class PodDBAdapter {
                         new String[]{String.valueOf(chapter.getId())});
             }
         }
+        FeedItemExtrasCache.getInstance().remove(db, item.getId());
+    }
+
+    /**
+     * Replaces the chapter cache entry of a media file.
+     *
+     * @param source       Absolute path or download URL of the media file.
+     * @param size         Size of the media file or -1 if unknown.
+     * @param lastModified Modification date of a local file or 0.
+     * @param validator    ETag or Last-Modified header of a remote file or null.
+     * @param chapters     The chapters of the media file. May be null or empty if the file doesn't contain any chapters.
+     */
+    public void setChapterCacheEntry(String source, long size, long lastModified, String validator,
+                                     List<Chapter> chapters) {
+        db.beginTransaction();
+        removeChapterCacheEntry(source);
+        ContentValues values = new ContentValues();
+        values.put(KEY_SOURCE, source);
+        values.put(KEY_SIZE, size);
+        values.put(KEY_LASTUPDATE, lastModified);
+        values.put(KEY_VALIDATOR, validator);
+        long entryId = db.insert(TABLE_NAME_CHAPTER_CACHE, null, values);
+        if (chapters != null) {
+            for (Chapter chapter : chapters) {
+                values.clear();
+                values.put(KEY_TITLE, chapter.getTitle());
+                values.put(KEY_START, chapter.getStart());
+                values.put(KEY_CHAPTER_CACHE, entryId);
+                values.put(KEY_LINK, chapter.getLink());
+                values.put(KEY_CHAPTER_TYPE, chapter.getChapterType());
+                db.insert(TABLE_NAME_CACHED_CHAPTERS, null, values);
+            }
+        }
+        db.setTransactionSuccessful();
+        endTransaction();
+    }
+
+    public void removeChapterCacheEntry(String source) {
+        final String[] args = new String[]{source};
+        db.delete(TABLE_NAME_CACHED_CHAPTERS, KEY_CHAPTER_CACHE + " IN (SELECT " + KEY_ID + " FROM "
+                + TABLE_NAME_CHAPTER_CACHE + " WHERE " + KEY_SOURCE + "=?)", args);
+        db.delete(TABLE_NAME_CHAPTER_CACHE, KEY_SOURCE + "=?", args);
+    }
+
+    public long getChapterCacheSize() {
+        final String query = String.format("SELECT COUNT(%s) FROM %s", KEY_ID, TABLE_NAME_CHAPTER_CACHE);
+        Cursor result = db.rawQuery(query, null);
+        long count = 0;
+        if (result.moveToFirst()) {
+            count = result.getLong(0);
+        }
+        result.close();
+        return count;
+    }
+
+    /**
+     * Removes the given number of chapter cache entries, starting with the oldest one.
+     */
+    public void removeChapterCacheEntries(long count) {
+        if (count > 0) {
+            final String oldest = String.format("SELECT %s FROM %s ORDER BY %s ASC LIMIT %d",
+                    KEY_ID, TABLE_NAME_CHAPTER_CACHE, KEY_ID, count);
+            db.beginTransaction();
+            db.execSQL(String.format("DELETE FROM %s WHERE %s IN (%s)",
+                    TABLE_NAME_CACHED_CHAPTERS, KEY_CHAPTER_CACHE, oldest));
+            db.execSQL(String.format("DELETE FROM %s WHERE %s IN (%s)",
+                    TABLE_NAME_CHAPTER_CACHE, KEY_ID, oldest));
+            db.setTransactionSuccessful();
+            endTransaction();
+        }
     }
 
     /**
@@ -779,24 +1096,354 @@ public class PodDBAdapter {
         }
     }
 
+    /**
+     * Replaces the whole queue. The positions of the items are spread by QUEUE_POSITION_GAP.
+     */
     public void setQueue(List<FeedItem> queue) {
         ContentValues values = new ContentValues();
         db.beginTransaction();
+        QueueIndex.Update update = QueueIndex.getInstance(context).beginUpdate();
+        try {
+            db.delete(TABLE_NAME_QUEUE, null, null);
+            for (int i = 0; i < queue.size(); i++) {
+                FeedItem item = queue.get(i);
+                values.put(KEY_ID, i * QUEUE_POSITION_GAP);
+                values.put(KEY_FEEDITEM, item.getId());
+                values.put(KEY_FEED, item.getFeed().getId());
+                db.insertWithOnConflict(TABLE_NAME_QUEUE, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            update.invalidate();
+            db.setTransactionSuccessful();
+        } finally {
+            endQueueTransaction(update);
+        }
+    }
+
+    /**
+     * Ends a transaction that has changed the queue table. The changes that have been collected in 'update' are
+     * applied to the QueueIndex if the transaction could be committed, otherwise the index is invalidated.
+     */
+    private void endQueueTransaction(QueueIndex.Update update) {
+        try {
+            endTransaction();
+        } catch (RuntimeException e) {
+            update.abort();
+            throw e;
+        }
+        update.commit();
+    }
+
+    /**
+     * Inserts a FeedItem into the queue. Only the positions of the neighbours of the new entry are read and only the
+     * new entry is written, unless there is no free position left between the neighbours.
+     *
+     * @param itemId ID of the FeedItem.
+     * @param index  Destination index. Must be in range 0..queue.size()
+     * @return false if the item is already in the queue or doesn't exist.
+     * @throws IndexOutOfBoundsException if index < 0 || index > queue.size()
+     */
+    public boolean addQueueItemAt(long itemId, int index) {
+        db.beginTransaction();
+        QueueIndex.Update update = QueueIndex.getInstance(context).beginUpdate();
+        try {
+            final long size = getQueueSize();
+            if (index < 0 || index > size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            if (getQueuePositionOfItem(itemId) != NO_QUEUE_POSITION) {
+                return false;
+            }
+            final long feedId = getFeedIdOfItem(itemId);
+            if (feedId == -1) {
+                return false;
+            }
+            insertQueueItem(makeQueuePosition(index, size), itemId, feedId);
+            update.add(index, itemId);
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            endQueueTransaction(update);
+        }
+    }
+
+    /**
+     * Appends FeedItems to the end of the queue. Items that are already in the queue or don't exist are skipped.
+     *
+     * @return The IDs of the items that have been added.
+     */
+    public long[] addQueueItems(long... itemIds) {
+        db.beginTransaction();
+        QueueIndex.Update update = QueueIndex.getInstance(context).beginUpdate();
+        try {
+            long last = getLastQueuePosition();
+            long[] added = new long[itemIds.length];
+            int numAdded = 0;
+            for (long itemId : itemIds) {
+                if (getQueuePositionOfItem(itemId) != NO_QUEUE_POSITION) {
+                    continue;
+                }
+                final long feedId = getFeedIdOfItem(itemId);
+                if (feedId != -1) {
+                    if (last == NO_QUEUE_POSITION) {
+                        last = 0;
+                    } else if (last < Long.MAX_VALUE - QUEUE_POSITION_GAP) {
+                        last += QUEUE_POSITION_GAP;
+                    } else {
+                        renumberQueue();
+                        last = getLastQueuePosition() + QUEUE_POSITION_GAP;
+                    }
+                    insertQueueItem(last, itemId, feedId);
+                    added[numAdded++] = itemId;
+                }
+            }
+            long[] result = new long[numAdded];
+            System.arraycopy(added, 0, result, 0, numAdded);
+            update.addAll(result);
+            db.setTransactionSuccessful();
+            return result;
+        } finally {
+            endQueueTransaction(update);
+        }
+    }
+
+    /**
+     * Removes a FeedItem from the queue. The positions of all other items stay the same.
+     *
+     * @return false if the item was not in the queue.
+     */
+    public boolean removeQueueItem(long itemId) {
+        final boolean removed = db.delete(TABLE_NAME_QUEUE, KEY_FEEDITEM + "=?",
+                new String[]{String.valueOf(itemId)}) > 0;
+        if (removed) {
+            QueueIndex.getInstance(context).remove(itemId);
+        }
+        return removed;
+    }
+
+    /**
+     * Moves the item at index 'from' to index 'to'. Only the moved entry is written unless there is no free
+     * position left at its destination.
+     *
+     * @return false if one of the indices is out of range.
+     */
+    public boolean moveQueueItem(int from, int to) {
+        db.beginTransaction();
+        QueueIndex.Update update = QueueIndex.getInstance(context).beginUpdate();
+        try {
+            final long size = getQueueSize();
+            if (from < 0 || from >= size || to < 0 || to >= size) {
+                return false;
+            }
+            if (from != to) {
+                Cursor c = db.query(TABLE_NAME_QUEUE, new String[]{KEY_FEEDITEM}, null, null, null, null,
+                        KEY_ID + " ASC", from + ",1");
+                final long itemId = (c.moveToFirst()) ? c.getLong(0) : -1;
+                c.close();
+                moveQueueItem(itemId, to, size);
+            }
+            update.move(from, to);
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            endQueueTransaction(update);
+        }
+    }
+
+    /**
+     * Moves a FeedItem to a new index in the queue.
+     *
+     * @param to Destination index. Must be in range 0..queue.size()-1 or -1 for moving the item to the end of
+     *           the queue.
+     * @return false if the item is not in the queue or the index is out of range.
+     */
+    public boolean moveQueueItemById(long itemId, int to) {
+        db.beginTransaction();
+        QueueIndex.Update update = QueueIndex.getInstance(context).beginUpdate();
+        try {
+            final long size = getQueueSize();
+            final long position = getQueuePositionOfItem(itemId);
+            if (to == -1) {
+                to = (int) size - 1;
+            }
+            if (position == NO_QUEUE_POSITION || to < 0 || to >= size) {
+                return false;
+            }
+            final int from = (int) DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE_NAME_QUEUE
+                    + " WHERE " + KEY_ID + "<?", new String[]{String.valueOf(position)});
+            if (from != to) {
+                moveQueueItem(itemId, to, size);
+            }
+            update.move(from, to);
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            endQueueTransaction(update);
+        }
+    }
+
+    /**
+     * Moves the entry of a FeedItem by deleting it and inserting it again at the destination index.
+     */
+    private void moveQueueItem(long itemId, int to, long size) {
+        final String[] args = new String[]{String.valueOf(itemId)};
+        final long feedId = DatabaseUtils.longForQuery(db, "SELECT " + KEY_FEED + " FROM " + TABLE_NAME_QUEUE
+                + " WHERE " + KEY_FEEDITEM + "=?", args);
+        db.delete(TABLE_NAME_QUEUE, KEY_FEEDITEM + "=?", args);
+        insertQueueItem(makeQueuePosition(to, size - 1), itemId, feedId);
+    }
+
+    private void insertQueueItem(long position, long itemId, long feedId) {
+        ContentValues values = new ContentValues();
+        values.put(KEY_ID, position);
+        values.put(KEY_FEEDITEM, itemId);
+        values.put(KEY_FEED, feedId);
+        db.insert(TABLE_NAME_QUEUE, null, values);
+    }
+
+    /**
+     * Returns a free position for a new entry at the given index. Only the positions of the entries at index-1
+     * and index are read.
+     * <p/>
+     * If there is no free position left between these two entries, all entries from 'index' on are moved behind
+     * the last entry with a single UPDATE statement. Moving them by more than the distance between the first of
+     * them and the end of the queue makes sure that no entry takes the position of another entry while the
+     * statement is executed.
+     *
+     * @param size The number of entries in the queue.
+     */
+    private long makeQueuePosition(int index, long size) {
+        long before = NO_QUEUE_POSITION;
+        long after = NO_QUEUE_POSITION;
+        if (index == size) {
+            before = getLastQueuePosition();
+        } else {
+            Cursor c = db.query(TABLE_NAME_QUEUE, new String[]{KEY_ID}, null, null, null, null, KEY_ID + " ASC",
+                    Math.max(0, index - 1) + "," + ((index == 0) ? 1 : 2));
+            if (c.moveToFirst()) {
+                if (index == 0) {
+                    after = c.getLong(0);
+                } else {
+                    before = c.getLong(0);
+                    if (c.moveToNext()) {
+                        after = c.getLong(0);
+                    }
+                }
+            }
+            c.close();
+        }
+
+        if (before == NO_QUEUE_POSITION && after == NO_QUEUE_POSITION) {
+            return 0;
+        } else if (before == NO_QUEUE_POSITION) {
+            if (after > Long.MIN_VALUE + QUEUE_POSITION_GAP) {
+                return after - QUEUE_POSITION_GAP;
+            }
+        } else if (after == NO_QUEUE_POSITION) {
+            if (before < Long.MAX_VALUE - QUEUE_POSITION_GAP) {
+                return before + QUEUE_POSITION_GAP;
+            }
+        } else if (after - before > 1) {
+            return before + (after - before) / 2;
+        } else {
+            final long last = getLastQueuePosition();
+            final long shift = last - after + QUEUE_POSITION_GAP;
+            if (shift > 0 && last < Long.MAX_VALUE - shift) {
+                if (BuildConfig.DEBUG)
+                    Log.d(TAG, "Shifting queue entries from position " + after + " by " + shift);
+                db.execSQL("UPDATE " + TABLE_NAME_QUEUE + " SET " + KEY_ID + "=" + KEY_ID + "+" + shift
+                        + " WHERE " + KEY_ID + ">=" + after);
+                return before + (after + shift - before) / 2;
+            }
+        }
+        // the positions have reached the limits of a long value
+        renumberQueue();
+        return makeQueuePosition(index, size);
+    }
+
+    /**
+     * Rewrites the queue table, spreading the positions of its entries by QUEUE_POSITION_GAP. This is only
+     * necessary if the positions have reached the limits of a long value, so it is the only queue method that reads
+     * the whole queue.
+     */
+    private void renumberQueue() {
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, "Renumbering queue");
+        Cursor c = db.query(TABLE_NAME_QUEUE, new String[]{KEY_FEEDITEM, KEY_FEED}, null, null, null, null,
+                KEY_ID + " ASC");
+        final long[] itemIds = new long[c.getCount()];
+        final long[] feedIds = new long[itemIds.length];
+        for (int i = 0; c.moveToPosition(i); i++) {
+            itemIds[i] = c.getLong(0);
+            feedIds[i] = c.getLong(1);
+        }
+        c.close();
         db.delete(TABLE_NAME_QUEUE, null, null);
-        for (int i = 0; i < queue.size(); i++) {
-            FeedItem item = queue.get(i);
-            values.put(KEY_ID, i);
-            values.put(KEY_FEEDITEM, item.getId());
-            values.put(KEY_FEED, item.getFeed().getId());
-            db.insertWithOnConflict(TABLE_NAME_QUEUE, null, values,
-                    SQLiteDatabase.CONFLICT_REPLACE);
+        for (int i = 0; i < itemIds.length; i++) {
+            insertQueueItem(i * QUEUE_POSITION_GAP, itemIds[i], feedIds[i]);
+        }
+    }
+
+    /**
+     * @return The ID of the item's feed or -1 if the item doesn't exist.
+     */
+    private long getFeedIdOfItem(long itemId) {
+        Cursor c = db.query(TABLE_NAME_FEED_ITEMS, new String[]{KEY_FEED}, KEY_ID + "=?",
+                new String[]{String.valueOf(itemId)}, null, null, null);
+        final long feedId = (c.moveToFirst()) ? c.getLong(0) : -1;
+        c.close();
+        return feedId;
+    }
+
+    private long getQueueSize() {
+        return DatabaseUtils.queryNumEntries(db, TABLE_NAME_QUEUE);
+    }
+
+    /**
+     * @return The position of the item's queue entry or NO_QUEUE_POSITION if the item is not in the queue.
+     */
+    private long getQueuePositionOfItem(long itemId) {
+        Cursor c = db.query(TABLE_NAME_QUEUE, new String[]{KEY_ID}, KEY_FEEDITEM + "=?",
+                new String[]{String.valueOf(itemId)}, null, null, null);
+        final long position = (c.moveToFirst()) ? c.getLong(0) : NO_QUEUE_POSITION;
+        c.close();
+        return position;
+    }
+
+    /**
+     * @return The position of the last queue entry or NO_QUEUE_POSITION if the queue is empty.
+     */
+    private long getLastQueuePosition() {
+        Cursor c = db.query(TABLE_NAME_QUEUE, new String[]{KEY_ID}, null, null, null, null, KEY_ID + " DESC", "1");
+        final long position = (c.moveToFirst()) ? c.getLong(0) : NO_QUEUE_POSITION;
+        c.close();
+        return position;
+    }
+
+    private static final long NO_QUEUE_POSITION = Long.MIN_VALUE;
+
+    /**
+     * Marks the given FeedItems as read.
+     *
+     * @return The number of items that were unread before.
+     */
+    public int markFeedItemsRead(long... itemIds) {
+        db.beginTransaction();
+        ContentValues values = new ContentValues();
+        values.put(KEY_READ, true);
+        int updated = 0;
+        for (long id : itemIds) {
+            updated += db.update(TABLE_NAME_FEED_ITEMS, values, KEY_ID + "=? AND " + KEY_READ + "=0",
+                    new String[]{String.valueOf(id)});
         }
         db.setTransactionSuccessful();
-        db.endTransaction();
+        endTransaction();
+        return updated;
     }
 
     public void clearQueue() {
         db.delete(TABLE_NAME_QUEUE, null, null);
+        QueueIndex.getInstance(context).clear();
     }
 
     public void removeFeedMedia(FeedMedia media) {
@@ -807,6 +1454,7 @@ public class PodDBAdapter {
     public void removeChaptersOfItem(FeedItem item) {
         db.delete(TABLE_NAME_SIMPLECHAPTERS, KEY_FEEDITEM + "=?",
                 new String[]{String.valueOf(item.getId())});
+        FeedItemExtrasCache.getInstance().remove(db, item.getId());
     }
 
     public void removeFeedImage(FeedImage image) {
@@ -821,7 +1469,7 @@ public class PodDBAdapter {
         if (item.getMedia() != null) {
             removeFeedMedia(item.getMedia());
         }
-        if (item.getChapters() != null) {
+        if (item.hasChapters()) {
             removeChaptersOfItem(item);
         }
         if (item.hasItemImage()) {
@@ -829,25 +1477,37 @@ public class PodDBAdapter {
         }
         db.delete(TABLE_NAME_FEED_ITEMS, KEY_ID + "=?",
                 new String[]{String.valueOf(item.getId())});
+        FeedItemExtrasCache.getInstance().remove(db, item.getId());
     }
 
     /**
-     * Remove a feed with all its FeedItems and Media entries.
+     * Remove a feed with all its FeedItems, Media entries, chapters, images and queue entries.
+     * Every table is cleaned up with a single statement, no FeedItem objects have to be loaded.
      */
-    public void removeFeed(Feed feed) {
+    public void removeFeed(long feedId) {
+        final String[] feedArg = new String[]{String.valueOf(feedId)};
+        final String itemsOfFeed = String.format("SELECT %s FROM %s WHERE %s=?",
+                KEY_ID, TABLE_NAME_FEED_ITEMS, KEY_FEED);
+        final String imagesOfFeed = String.format("%s IN (SELECT %s FROM %s WHERE %s=?) OR %s IN (SELECT %s FROM %s WHERE %s=?)",
+                KEY_ID, KEY_IMAGE, TABLE_NAME_FEED_ITEMS, KEY_FEED,
+                KEY_ID, KEY_IMAGE, TABLE_NAME_FEEDS, KEY_ID);
+
         db.beginTransaction();
-        if (feed.getImage() != null) {
-            removeFeedImage(feed.getImage());
-        }
-        if (feed.getItems() != null) {
-            for (FeedItem item : feed.getItems()) {
-                removeFeedItem(item);
-            }
+        QueueIndex.Update update = QueueIndex.getInstance(context).beginUpdate();
+        try {
+            db.delete(TABLE_NAME_QUEUE, KEY_FEEDITEM + " IN (" + itemsOfFeed + ")", feedArg);
+            db.delete(TABLE_NAME_SIMPLECHAPTERS, KEY_FEEDITEM + " IN (" + itemsOfFeed + ")", feedArg);
+            db.delete(TABLE_NAME_FEED_MEDIA, KEY_FEEDITEM + " IN (" + itemsOfFeed + ")", feedArg);
+            db.delete(TABLE_NAME_FEED_IMAGES, imagesOfFeed, new String[]{feedArg[0], feedArg[0]});
+            db.delete(TABLE_NAME_FEED_ITEMS, KEY_FEED + "=?", feedArg);
+            db.delete(TABLE_NAME_FEEDS, KEY_ID + "=?", feedArg);
+            // the IDs of the removed queue entries and items are not known here
+            update.invalidate();
+            FeedItemExtrasCache.getInstance().clear(db);
+            db.setTransactionSuccessful();
+        } finally {
+            endQueueTransaction(update);
         }
-        db.delete(TABLE_NAME_FEEDS, KEY_ID + "=?",
-                new String[]{String.valueOf(feed.getId())});
-        db.setTransactionSuccessful();
-        db.endTransaction();
     }
 
     public void removeDownloadStatus(DownloadStatus remove) {
@@ -896,18 +1556,80 @@ public class PodDBAdapter {
     public final Cursor getAllItemsOfFeedCursor(final long feedId) {
         Cursor c = db.query(TABLE_NAME_FEED_ITEMS, FEEDITEM_SEL_FI_SMALL, KEY_FEED
                         + "=?", new String[]{String.valueOf(feedId)}, null, null,
-                null
+                KEY_PUBDATE + " DESC"
         );
         return c;
     }
 
+    /**
+     * Returns a cursor with a page of the FeedItems of a Feed. Uses FEEDITEM_SEL_FI_SMALL.
+     *
+     * @param feedId       The ID of the Feed.
+     * @param onlyEpisodes true if FeedItems without a FeedMedia should be skipped.
+     * @param after        The last FeedItem of the previous page or null if the first page should be returned.
+     * @param limit        The maximum number of FeedItems on the page.
+     * @return The cursor of the query. The FeedItems are sorted by their pubDate in descending order, FeedItems with the
+     * same pubDate are sorted by their ID in descending order.
+     */
+    public final Cursor getItemsOfFeedPageCursor(final long feedId, final boolean onlyEpisodes, final FeedItem after,
+                                                 final int limit) {
+        String selection = TABLE_NAME_FEED_ITEMS + "." + KEY_FEED + "=" + feedId;
+        if (onlyEpisodes) {
+            selection += " AND EXISTS (SELECT 1 FROM " + TABLE_NAME_FEED_MEDIA + " WHERE "
+                    + TABLE_NAME_FEED_MEDIA + "." + KEY_FEEDITEM + "=" + TABLE_NAME_FEED_ITEMS + "." + KEY_ID + ")";
+        }
+        return getItemPageCursor(TABLE_NAME_FEED_ITEMS, selection, after, limit);
+    }
+
+    /**
+     * Returns a cursor with a page of the unread FeedItems. Uses FEEDITEM_SEL_FI_SMALL and the same order as
+     * {@link #getItemsOfFeedPageCursor(long, boolean, de.danoeh.antennapod.feed.FeedItem, int)}.
+     */
+    public final Cursor getUnreadItemsPageCursor(final FeedItem after, final int limit) {
+        return getItemPageCursor(TABLE_NAME_FEED_ITEMS, TABLE_NAME_FEED_ITEMS + "." + KEY_READ + "=0", after, limit);
+    }
+
+    /**
+     * Returns a cursor with a page of the FeedItems whose episode has been downloaded. Uses FEEDITEM_SEL_FI_SMALL and
+     * the same order as {@link #getItemsOfFeedPageCursor(long, boolean, de.danoeh.antennapod.feed.FeedItem, int)}.
+     */
+    public final Cursor getDownloadedItemsPageCursor(final FeedItem after, final int limit) {
+        final String tables = TABLE_NAME_FEED_ITEMS + " INNER JOIN " + TABLE_NAME_FEED_MEDIA + " ON "
+                + TABLE_NAME_FEED_ITEMS + "." + KEY_ID + "=" + TABLE_NAME_FEED_MEDIA + "." + KEY_FEEDITEM;
+        return getItemPageCursor(tables, TABLE_NAME_FEED_MEDIA + "." + KEY_DOWNLOADED + ">0", after, limit);
+    }
+
+    /**
+     * Keyset pagination: The next page starts after the (pubDate, id) pair of the previous page's last item, which
+     * lets SQLite seek into the index instead of skipping the rows of all previous pages like an OFFSET would.
+     */
+    private Cursor getItemPageCursor(String tables, String selection, FeedItem after, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must be >= 0");
+        }
+        if (after != null) {
+            final long pubDate = after.getPubDate().getTime();
+            selection += " AND (" + TABLE_NAME_FEED_ITEMS + "." + KEY_PUBDATE + "<" + pubDate
+                    + " OR (" + TABLE_NAME_FEED_ITEMS + "." + KEY_PUBDATE + "=" + pubDate
+                    + " AND " + TABLE_NAME_FEED_ITEMS + "." + KEY_ID + "<" + after.getId() + "))";
+        }
+        final String query = "SELECT " + SEL_FI_SMALL_STR + " FROM " + tables + " WHERE " + selection
+                + " ORDER BY " + TABLE_NAME_FEED_ITEMS + "." + KEY_PUBDATE + " DESC, "
+                + TABLE_NAME_FEED_ITEMS + "." + KEY_ID + " DESC LIMIT " + limit;
+        return db.rawQuery(query, null);
+    }
+
     /**
      * Return a cursor with the SEL_FI_EXTRA selection of a single feeditem.
      */
     public final Cursor getExtraInformationOfItem(final FeedItem item) {
+        return getExtraInformationOfItem(item.getId());
+    }
+
+    public final Cursor getExtraInformationOfItem(final long itemId) {
         Cursor c = db
                 .query(TABLE_NAME_FEED_ITEMS, SEL_FI_EXTRA, KEY_ID + "=?",
-                        new String[]{String.valueOf(item.getId())}, null,
+                        new String[]{String.valueOf(itemId)}, null,
                         null, null);
         return c;
     }
@@ -938,13 +1660,55 @@ public class PodDBAdapter {
     }
 
     public final Cursor getSimpleChaptersOfFeedItemCursor(final FeedItem item) {
+        return getSimpleChaptersOfFeedItemCursor(item.getId());
+    }
+
+    public final Cursor getSimpleChaptersOfFeedItemCursor(final long itemId) {
         Cursor c = db.query(TABLE_NAME_SIMPLECHAPTERS, null, KEY_FEEDITEM
-                        + "=?", new String[]{String.valueOf(item.getId())}, null,
+                        + "=?", new String[]{String.valueOf(itemId)}, null,
                 null, null
         );
         return c;
     }
 
+    // column indices for getFeedFilesCursor
+    public static final int IDX_FEED_FILES_FILE_URL = 0;
+    public static final int IDX_FEED_FILES_DOWNLOAD_URL = 1;
+    public static final int IDX_FEED_FILES_DOWNLOADED = 2;
+
+    /**
+     * Returns the file URL, download URL and downloaded-state of the feed's image and of the media files and
+     * images of all its items.
+     *
+     * @param onlyDownloaded true if only files that have been downloaded should be returned.
+     */
+    public final Cursor getFeedFilesCursor(final long feedId, final boolean onlyDownloaded) {
+        final String columns = String.format("%s,%s,%s", KEY_FILE_URL, KEY_DOWNLOAD_URL, KEY_DOWNLOADED);
+        final String downloaded = (onlyDownloaded) ? " AND " + KEY_DOWNLOADED + "=1" : "";
+        final String query = String.format(
+                "SELECT %1$s FROM %2$s WHERE %3$s IN (SELECT %4$s FROM %5$s WHERE %6$s=?)%7$s" +
+                        " UNION ALL SELECT %1$s FROM %8$s WHERE %4$s IN (SELECT %9$s FROM %5$s WHERE %6$s=?)%7$s" +
+                        " UNION ALL SELECT %1$s FROM %8$s WHERE %4$s IN (SELECT %9$s FROM %10$s WHERE %4$s=?)%7$s",
+                columns, TABLE_NAME_FEED_MEDIA, KEY_FEEDITEM, KEY_ID, TABLE_NAME_FEED_ITEMS, KEY_FEED, downloaded,
+                TABLE_NAME_FEED_IMAGES, KEY_IMAGE, TABLE_NAME_FEEDS);
+        final String feedArg = String.valueOf(feedId);
+        return db.rawQuery(query, new String[]{feedArg, feedArg, feedArg});
+    }
+
+    public final Cursor getChapterCacheEntryCursor(final String source) {
+        return db.query(TABLE_NAME_CHAPTER_CACHE, null, KEY_SOURCE + "=?",
+                new String[]{source}, null, null, null);
+    }
+
+    /**
+     * Returns the chapters of a chapter cache entry. The columns of the cursor have the same indices as the
+     * columns of a cursor returned by getSimpleChaptersOfFeedItemCursor.
+     */
+    public final Cursor getCachedChaptersCursor(final long entryId) {
+        return db.query(TABLE_NAME_CACHED_CHAPTERS, null, KEY_CHAPTER_CACHE + "=?",
+                new String[]{String.valueOf(entryId)}, null, null, null);
+    }
+
     public final Cursor getDownloadLogCursor(final int limit) {
         Cursor c = db.query(TABLE_NAME_DOWNLOAD_LOG, null, null, null, null,
                 null, KEY_COMPLETION_DATE + " DESC LIMIT " + limit);
@@ -1001,7 +1765,8 @@ public class PodDBAdapter {
                 + " INNER JOIN " + TABLE_NAME_FEED_MEDIA + " ON "
                 + TABLE_NAME_FEED_ITEMS + "." + KEY_ID + "="
                 + TABLE_NAME_FEED_MEDIA + "." + KEY_FEEDITEM + " WHERE "
-                + TABLE_NAME_FEED_MEDIA + "." + KEY_DOWNLOADED + ">0";
+                + TABLE_NAME_FEED_MEDIA + "." + KEY_DOWNLOADED + ">0 ORDER BY "
+                + TABLE_NAME_FEED_ITEMS + "." + KEY_PUBDATE + " DESC";
         Cursor c = db.rawQuery(query, null);
         return c;
     }
@@ -1098,8 +1863,7 @@ public class PodDBAdapter {
     }
 
     public final int getNumberOfUnreadItems() {
-        final String query = "SELECT COUNT(DISTINCT " + KEY_ID + ") AS count FROM " + TABLE_NAME_FEED_ITEMS +
-                " WHERE " + KEY_READ + " = 0";
+        final String query = "SELECT IFNULL(SUM(" + KEY_NEW_ITEMS + "),0) AS count FROM " + TABLE_NAME_FEED_STATISTICS;
         Cursor c = db.rawQuery(query, null);
         int result = 0;
         if (c.moveToFirst()) {
@@ -1110,8 +1874,7 @@ public class PodDBAdapter {
     }
 
     public final int getNumberOfDownloadedEpisodes() {
-        final String query = "SELECT COUNT(DISTINCT " + KEY_ID + ") AS count FROM " + TABLE_NAME_FEED_MEDIA +
-                " WHERE " + KEY_DOWNLOADED + " > 0";
+        final String query = "SELECT IFNULL(SUM(" + KEY_EPISODES_DOWNLOADED + "),0) AS count FROM " + TABLE_NAME_FEED_STATISTICS;
 
         Cursor c = db.rawQuery(query, null);
         int result = 0;
@@ -1225,29 +1988,87 @@ public class PodDBAdapter {
     public static final int IDX_FEEDSTATISTICS_NEW_ITEMS = 2;
     public static final int IDX_FEEDSTATISTICS_LATEST_EPISODE = 3;
     public static final int IDX_FEEDSTATISTICS_IN_PROGRESS_EPISODES = 4;
+    public static final int IDX_FEEDSTATISTICS_EPISODES_DOWNLOADED = 5;
 
     /**
-     * Select number of items, new items, the date of the latest episode and the number of episodes in progress. The result
-     * is sorted by the title of the feed.
+     * Computes the statistics of every feed from its FeedItems and FeedMedia entries. The columns have the same names
+     * as the columns of the FeedStatistics table. Feeds without items are not included.
      */
-    private static final String FEED_STATISTICS_QUERY = "SELECT Feeds.id, num_items, new_items, latest_episode, in_progress FROM " +
-            " Feeds LEFT JOIN " +
-            "(SELECT feed,count(*) AS num_items," +
+    private static final String GROUPED_FEED_STATISTICS_QUERY = "SELECT feed,count(*) AS num_items," +
             " COUNT(CASE WHEN read=0 THEN 1 END) AS new_items," +
             " MAX(pubDate) AS latest_episode," +
             " COUNT(CASE WHEN position>0 THEN 1 END) AS in_progress," +
             " COUNT(CASE WHEN downloaded=1 THEN 1 END) AS episodes_downloaded " +
-            " FROM FeedItems LEFT JOIN FeedMedia ON FeedItems.id=FeedMedia.feeditem GROUP BY FeedItems.feed)" +
+            " FROM FeedItems LEFT JOIN FeedMedia ON FeedItems.id=FeedMedia.feeditem GROUP BY FeedItems.feed";
+
+    private static final String FEED_STATISTICS_COLUMNS = "Feeds.id, num_items, new_items, latest_episode, in_progress, episodes_downloaded";
+
+    /**
+     * Select number of items, new items, the date of the latest episode and the number of episodes in progress. The result
+     * is sorted by the title of the feed.
+     */
+    private static final String FEED_STATISTICS_QUERY = "SELECT " + FEED_STATISTICS_COLUMNS + " FROM " +
+            " Feeds LEFT JOIN FeedStatistics ON Feeds.id = feed ORDER BY Feeds.title COLLATE NOCASE ASC;";
+
+    private static final String GROUPED_FEED_STATISTICS_CURSOR_QUERY = "SELECT " + FEED_STATISTICS_COLUMNS + " FROM " +
+            " Feeds LEFT JOIN (" + GROUPED_FEED_STATISTICS_QUERY + ")" +
             " ON Feeds.id = feed ORDER BY Feeds.title COLLATE NOCASE ASC;";
 
+    private static final String REBUILD_FEED_STATISTICS_QUERY = "INSERT INTO FeedStatistics" +
+            " (feed, num_items, new_items, latest_episode, in_progress, episodes_downloaded)" +
+            " SELECT Feeds.id, IFNULL(num_items,0), IFNULL(new_items,0), latest_episode," +
+            " IFNULL(in_progress,0), IFNULL(episodes_downloaded,0) FROM " +
+            " Feeds LEFT JOIN (" + GROUPED_FEED_STATISTICS_QUERY + ") ON Feeds.id = feed;";
+
     public Cursor getFeedStatisticsCursor() {
         return db.rawQuery(FEED_STATISTICS_QUERY, null);
     }
 
+    /**
+     * Returns the same columns as getFeedStatisticsCursor, but computes the statistics from the FeedItems and
+     * FeedMedia entries instead of reading them from the FeedStatistics table. This query is slow and should only
+     * be used for checking the consistency of the FeedStatistics table.
+     */
+    public Cursor getGroupedFeedStatisticsCursor() {
+        return db.rawQuery(GROUPED_FEED_STATISTICS_CURSOR_QUERY, null);
+    }
+
+    /**
+     * Computes the content of the FeedStatistics table again. The triggers of the table update it whenever a
+     * FeedItem or FeedMedia entry changes, so this method only has to be called if the table might have become
+     * inconsistent, e.g. because a FeedMedia entry was written before its FeedItem.
+     */
+    public void rebuildFeedStatistics() {
+        db.beginTransaction();
+        rebuildFeedStatistics(db);
+        db.setTransactionSuccessful();
+        endTransaction();
+    }
+
+    private static void rebuildFeedStatistics(SQLiteDatabase db) {
+        db.delete(TABLE_NAME_FEED_STATISTICS, null, null);
+        db.execSQL(REBUILD_FEED_STATISTICS_QUERY);
+    }
+
     /**
      * Helper class for opening the Antennapod database.
      */
     private static class PodDBHelper extends SQLiteOpenHelper {
+        /**
+         * Fraction of the app's memory class that is used for SQLite's page cache.
+         */
+        private static final int PAGE_CACHE_MEMORY_FRACTION = 64;
+        private static final int MIN_PAGE_CACHE_SIZE = 512 * 1024;
+        private static final int MAX_PAGE_CACHE_SIZE = 8 * 1024 * 1024;
+        /**
+         * Fraction of the app's memory class that is memory-mapped. SQLite versions without mmap support ignore
+         * the setting.
+         */
+        private static final int MMAP_MEMORY_FRACTION = 4;
+        private static final long MAX_MMAP_SIZE = 64 * 1024 * 1024;
+
+        private final Context context;
+
         /**
          * Constructor.
          *
@@ -1259,6 +2080,44 @@ public class PodDBAdapter {
         public PodDBHelper(final Context context, final String name,
                            final CursorFactory factory, final int version) {
             super(context, name, factory, version);
+            this.context = context;
+        }
+
+        @Override
+        public void onOpen(final SQLiteDatabase db) {
+            super.onOpen(db);
+            if (!db.isReadOnly()) {
+                configureConnection(db);
+            }
+        }
+
+        /**
+         * Enables write-ahead logging so that readers can use the database while a write transaction is open and
+         * sizes the page cache and memory map according to the memory of the device.
+         */
+        private void configureConnection(final SQLiteDatabase db) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                if (db.enableWriteAheadLogging()) {
+                    // in WAL mode, NORMAL can't corrupt the database, it only risks losing the last commits on power loss
+                    db.execSQL("PRAGMA synchronous=NORMAL");
+                } else {
+                    Log.w(TAG, "Could not enable write-ahead logging");
+                }
+            }
+
+            final long memoryClass = ((ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE))
+                    .getMemoryClass() * 1024L * 1024L;
+            final long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+            final long cacheSize = Math.max(MIN_PAGE_CACHE_SIZE,
+                    Math.min(MAX_PAGE_CACHE_SIZE, memoryClass / PAGE_CACHE_MEMORY_FRACTION));
+            db.execSQL("PRAGMA cache_size=" + (cacheSize / pageSize));
+
+            final long mmapSize = Math.min(MAX_MMAP_SIZE, memoryClass / MMAP_MEMORY_FRACTION);
+            Cursor c = db.rawQuery("PRAGMA mmap_size=" + mmapSize, null);
+            c.moveToFirst();
+            c.close();
+            if (BuildConfig.DEBUG)
+                Log.d(TAG, "Configured connection: page cache " + cacheSize + " bytes, mmap size " + mmapSize + " bytes");
         }
 
         @Override
@@ -1270,6 +2129,22 @@ public class PodDBAdapter {
             db.execSQL(CREATE_TABLE_DOWNLOAD_LOG);
             db.execSQL(CREATE_TABLE_QUEUE);
             db.execSQL(CREATE_TABLE_SIMPLECHAPTERS);
+            db.execSQL(CREATE_TABLE_CHAPTER_CACHE);
+            db.execSQL(CREATE_TABLE_CACHED_CHAPTERS);
+            db.execSQL(CREATE_INDEX_CHAPTER_CACHE_SOURCE);
+            db.execSQL(CREATE_INDEX_CACHED_CHAPTERS_ENTRY);
+            db.execSQL(CREATE_INDEX_FEEDITEMS_FEED_PUBDATE);
+            db.execSQL(CREATE_INDEX_FEEDITEMS_READ_PUBDATE);
+            db.execSQL(CREATE_INDEX_FEEDMEDIA_FEEDITEM);
+            db.execSQL(CREATE_INDEX_SIMPLECHAPTERS_FEEDITEM);
+            createFeedStatistics(db);
+        }
+
+        private void createFeedStatistics(final SQLiteDatabase db) {
+            db.execSQL(CREATE_TABLE_FEED_STATISTICS);
+            for (String trigger : CREATE_TRIGGERS_FEED_STATISTICS) {
+                db.execSQL(trigger);
+            }
         }
 
         @Override
@@ -1358,6 +2233,35 @@ public class PodDBAdapter {
                         + " ADD COLUMN " + KEY_IMAGE
                         + " INTEGER");
             }
+            if (oldVersion <= 12) {
+                db.execSQL(CREATE_TABLE_CHAPTER_CACHE);
+                db.execSQL(CREATE_TABLE_CACHED_CHAPTERS);
+                db.execSQL(CREATE_INDEX_CHAPTER_CACHE_SOURCE);
+                db.execSQL(CREATE_INDEX_CACHED_CHAPTERS_ENTRY);
+            }
+            if (oldVersion <= 13) {
+                // positions were consecutive before, no position can collide with a new one
+                db.execSQL("UPDATE " + TABLE_NAME_QUEUE + " SET " + KEY_ID + "="
+                        + KEY_ID + "*" + QUEUE_POSITION_GAP);
+            }
+            if (oldVersion <= 14) {
+                db.execSQL(CREATE_INDEX_FEEDITEMS_FEED_PUBDATE);
+                db.execSQL(CREATE_INDEX_FEEDITEMS_READ_PUBDATE);
+                db.execSQL(CREATE_INDEX_FEEDMEDIA_FEEDITEM);
+            }
+            if (oldVersion <= 15) {
+                // chapters are now loaded separately for every item
+                db.execSQL(CREATE_INDEX_SIMPLECHAPTERS_FEEDITEM);
+            }
+            if (oldVersion <= 16) {
+                createFeedStatistics(db);
+                rebuildFeedStatistics(db);
+            }
+            if (oldVersion <= 17) {
+                db.execSQL("ALTER TABLE " + TABLE_NAME_FEED_MEDIA
+                        + " ADD COLUMN " + KEY_LOUDNESS_GAIN
+                        + " REAL");
+            }
         }
     }
 }
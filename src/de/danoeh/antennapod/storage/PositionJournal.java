@@ -0,0 +1,267 @@
+package de.danoeh.antennapod.storage;
+
+import android.content.Context;
+import android.util.Log;
+import de.danoeh.antennapod.BuildConfig;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal of playback positions. While an episode is playing, its position is appended to a small
+ * memory-mapped file instead of being written to the database. Appending a record only copies a few bytes into the
+ * mapped buffer, the file is written back by the operating system, so the position is not lost if the process is
+ * killed.
+ * <p/>
+ * The journal is compacted into the FeedMedia table by {@link DBWriter#compactPositionJournal(android.content.Context)},
+ * which is called when playback is paused or stopped and when the application starts after the PlaybackService has
+ * been killed. If the journal is full, only the latest record of each FeedMedia object is kept.
+ * <p/>
+ * Each record gets a sequence number that is higher than the numbers of all earlier records. Compacting the journal
+ * in place reorders the records, so records that have been written to the database are removed by their sequence
+ * number, not by their index.
+ * <p/>
+ * Layout of the file: a header with MAGIC, VERSION, the number of records and the next sequence number, followed by
+ * records of RECORD_SIZE bytes. Each record contains the ID of the FeedMedia object, the position, the duration, the
+ * played duration, the sequence number, a timestamp and a checksum that is used for detecting records that have been
+ * written partially.
+ */
+public class PositionJournal {
+    private static final String TAG = "PositionJournal";
+
+    private static final String FILENAME = "position-journal";
+
+    private static final int MAGIC = 0x41504a31;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int COUNT_OFFSET = 8;
+    private static final int SEQUENCE_OFFSET = 12;
+    private static final int RECORD_SIZE = 40;
+
+    /**
+     * Maximum number of records in the journal.
+     */
+    static final int CAPACITY = 255;
+    private static final int FILE_SIZE = HEADER_SIZE + CAPACITY * RECORD_SIZE;
+
+    private static PositionJournal instance;
+
+    private final File file;
+    private MappedByteBuffer buffer;
+    private boolean opened;
+    private int count;
+    private int nextSequence;
+
+    private PositionJournal(File file) {
+        this.file = file;
+    }
+
+    public static synchronized PositionJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new PositionJournal(new File(context.getApplicationContext().getFilesDir(), FILENAME));
+        }
+        return instance;
+    }
+
+    /**
+     * Appends the position of a FeedMedia object to the journal.
+     *
+     * @return false if the journal is not available or too many FeedMedia objects have been recorded since the last
+     * compaction. In this case, the caller has to write the position to the database.
+     */
+    public synchronized boolean record(long mediaId, int position, int duration, int playedDuration) {
+        if (!open()) {
+            return false;
+        }
+        if (count == CAPACITY) {
+            compactInPlace();
+            if (count > CAPACITY / 2) {
+                return false;
+            }
+        }
+        writeRecord(count, new Entry(mediaId, position, duration, playedDuration, nextSequence,
+                System.currentTimeMillis()));
+        setNextSequence(nextSequence + 1);
+        setCount(count + 1);
+        return true;
+    }
+
+    /**
+     * Returns the number of records in the journal.
+     */
+    synchronized int getRecordCount() {
+        return open() ? count : 0;
+    }
+
+    /**
+     * Returns the sequence number of the latest record. Records that are appended later have a higher sequence
+     * number.
+     */
+    public synchronized int getLastSequence() {
+        return open() ? nextSequence - 1 : 0;
+    }
+
+    /**
+     * Returns the latest record of each FeedMedia object among the records up to the given sequence number.
+     */
+    synchronized List<Entry> getLatestEntries(int lastSequence) {
+        if (!open()) {
+            return new ArrayList<Entry>();
+        }
+        Map<Long, Entry> latest = new LinkedHashMap<Long, Entry>();
+        for (int i = 0; i < count; i++) {
+            Entry entry = readRecord(i);
+            if (entry != null && isUpTo(entry, lastSequence)) {
+                latest.remove(entry.mediaId);
+                latest.put(entry.mediaId, entry);
+            }
+        }
+        return new ArrayList<Entry>(latest.values());
+    }
+
+    /**
+     * Removes the records up to the given sequence number, e.g. after they have been written to the database. Records
+     * that have been appended in the meantime are kept, even if the journal has been compacted in place since.
+     */
+    public synchronized void removeRecords(int lastSequence) {
+        if (!open()) {
+            return;
+        }
+        int remaining = 0;
+        for (int i = 0; i < count; i++) {
+            Entry entry = readRecord(i);
+            if (entry != null && !isUpTo(entry, lastSequence)) {
+                writeRecord(remaining++, entry);
+            }
+        }
+        setCount(remaining);
+    }
+
+    private static boolean isUpTo(Entry entry, int lastSequence) {
+        // the difference is used so that the comparison still works after the sequence number has overflowed
+        return entry.sequence - lastSequence <= 0;
+    }
+
+    /**
+     * Keeps only the latest record of each FeedMedia object. The records stay sorted by their sequence numbers.
+     */
+    private void compactInPlace() {
+        List<Entry> latest = getLatestEntries(nextSequence - 1);
+        for (int i = 0; i < latest.size(); i++) {
+            writeRecord(i, latest.get(i));
+        }
+        setCount(latest.size());
+        if (BuildConfig.DEBUG) Log.d(TAG, "Compacted journal to " + count + " records");
+    }
+
+    /**
+     * Maps the journal file into memory if it hasn't been mapped yet.
+     *
+     * @return false if the journal can't be used.
+     */
+    private boolean open() {
+        if (opened) {
+            return buffer != null;
+        }
+        opened = true;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            final boolean created = raf.length() != FILE_SIZE;
+            if (created) {
+                raf.setLength(FILE_SIZE);
+            }
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            if (created || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                setCount(0);
+                setNextSequence(1);
+            } else {
+                count = Math.max(0, Math.min(CAPACITY, buffer.getInt(COUNT_OFFSET)));
+                nextSequence = buffer.getInt(SEQUENCE_OFFSET);
+                if (BuildConfig.DEBUG && count > 0) Log.d(TAG, "Found " + count + " records in journal");
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            buffer = null;
+            return false;
+        } finally {
+            // the mapping stays valid after the file has been closed
+            IOUtils.closeQuietly(raf);
+        }
+    }
+
+    private void setCount(int count) {
+        this.count = count;
+        buffer.putInt(COUNT_OFFSET, count);
+    }
+
+    private void setNextSequence(int nextSequence) {
+        this.nextSequence = nextSequence;
+        buffer.putInt(SEQUENCE_OFFSET, nextSequence);
+    }
+
+    private void writeRecord(int index, Entry entry) {
+        final int offset = HEADER_SIZE + index * RECORD_SIZE;
+        buffer.putLong(offset, entry.mediaId);
+        buffer.putInt(offset + 8, entry.position);
+        buffer.putInt(offset + 12, entry.duration);
+        buffer.putInt(offset + 16, entry.playedDuration);
+        buffer.putInt(offset + 20, entry.sequence);
+        buffer.putLong(offset + 24, entry.timestamp);
+        buffer.putLong(offset + 32, entry.checksum());
+    }
+
+    /**
+     * Returns the record at the given index or null if the record is corrupted.
+     */
+    private Entry readRecord(int index) {
+        final int offset = HEADER_SIZE + index * RECORD_SIZE;
+        Entry entry = new Entry(buffer.getLong(offset), buffer.getInt(offset + 8), buffer.getInt(offset + 12),
+                buffer.getInt(offset + 16), buffer.getInt(offset + 20), buffer.getLong(offset + 24));
+        if (buffer.getLong(offset + 32) != entry.checksum() || entry.mediaId == 0) {
+            Log.w(TAG, "Ignoring corrupted record " + index);
+            return null;
+        }
+        return entry;
+    }
+
+    static class Entry {
+        final long mediaId;
+        final int position;
+        final int duration;
+        final int playedDuration;
+        final int sequence;
+        final long timestamp;
+
+        Entry(long mediaId, int position, int duration, int playedDuration, int sequence, long timestamp) {
+            this.mediaId = mediaId;
+            this.position = position;
+            this.duration = duration;
+            this.playedDuration = playedDuration;
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+        }
+
+        long checksum() {
+            long h = MAGIC;
+            h = 31 * h + mediaId;
+            h = 31 * h + position;
+            h = 31 * h + duration;
+            h = 31 * h + playedDuration;
+            h = 31 * h + sequence;
+            h = 31 * h + timestamp;
+            return ~h;
+        }
+    }
+}
@@ -0,0 +1,562 @@
+package de.danoeh.antennapod.storage;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Looper;
+import android.util.Log;
+import de.danoeh.antennapod.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Process-wide in-memory copy of the IDs of the FeedItems in the queue. The index is loaded from the database on
+ * first use and then kept up to date by PodDBAdapter's queue methods, so membership tests and lookups of an item's
+ * index or successor don't need database access. PodDBAdapter collects the changes of a transaction in an
+ * {@link Update} and applies them only after the transaction has been committed, so a transaction that is rolled back
+ * can't leave the index out of sync with the database.
+ * <p/>
+ * Changes of the queue are still announced through the {@link de.danoeh.antennapod.feed.EventDistributor}: DBWriter
+ * sends its QUEUE_UPDATE event after the change has been written, at which point the index is already up to date.
+ * <p/>
+ * All methods are thread-safe. Queries on a background thread load the index from the database if it is not loaded
+ * yet. Queries on the GUI thread never block: they answer from the last loaded copy of the index, which is empty if the
+ * index has never been loaded, and start loading it in the background if it has been invalidated. Consumers that need
+ * an up-to-date answer have to call {@link #load()} on a background thread first, like they do when they receive the
+ * QUEUE_UPDATE event that follows every change.
+ */
+public class QueueIndex {
+    private static final String TAG = "QueueIndex";
+
+    /**
+     * Returned by {@link #getSuccessor(long)} if there is no successor.
+     */
+    public static final long NO_ITEM = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static QueueIndex instance;
+
+    private final Context context;
+
+    private long[] ids;
+    private int size;
+    private final LongIntMap positions;
+    private boolean loaded;
+    /**
+     * True while a load that has been started by a query on the GUI thread is running or waiting.
+     */
+    private boolean backgroundLoadScheduled;
+
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    });
+
+    /**
+     * Incremented by every change. An index that has been loaded from the database is only used if no change has
+     * happened in the meantime.
+     */
+    private int generation;
+
+    /**
+     * Number of Updates that have been started but not committed or aborted yet.
+     */
+    private int pendingUpdates;
+
+    private QueueIndex(Context context) {
+        this.context = context;
+        this.ids = new long[INITIAL_CAPACITY];
+        this.positions = new LongIntMap(INITIAL_CAPACITY);
+    }
+
+    public static synchronized QueueIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new QueueIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Loads the index from the database if it hasn't been loaded yet. Returns immediately if the index is loaded, even
+     * if a transaction that changes the queue is in progress: the index then still describes the queue before the
+     * transaction, which is the last committed state. This method should NOT be executed on the GUI thread.
+     */
+    public void load() {
+        while (true) {
+            final int expectedGeneration;
+            synchronized (this) {
+                if (loaded) {
+                    return;
+                }
+                // the database might already contain the changes of an update that hasn't been applied yet
+                boolean interrupted = false;
+                while (pendingUpdates > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                if (loaded) {
+                    return;
+                }
+                expectedGeneration = generation;
+            }
+            // the database is read without holding the lock so that a concurrent queue change can't deadlock with it
+            final long[] loadedIds = readQueue();
+            synchronized (this) {
+                if (loaded) {
+                    return;
+                }
+                if (expectedGeneration == generation) {
+                    set(loadedIds);
+                    return;
+                }
+            }
+            if (BuildConfig.DEBUG)
+                Log.d(TAG, "Queue changed while the index was loaded, loading it again");
+        }
+    }
+
+    private long[] readQueue() {
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        Cursor c = adapter.getQueueIDCursor();
+        long[] result = new long[c.getCount()];
+        int i = 0;
+        while (c.moveToNext() && i < result.length) {
+            result[i++] = c.getLong(0);
+        }
+        c.close();
+        adapter.close();
+        return result;
+    }
+
+    /**
+     * Makes sure that the index can be queried. On the GUI thread, an index that isn't loaded is loaded in the
+     * background and the last loaded copy is used in the meantime.
+     */
+    private void ensureLoaded() {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            load();
+            return;
+        }
+        synchronized (this) {
+            if (loaded || backgroundLoadScheduled) {
+                return;
+            }
+            backgroundLoadScheduled = true;
+        }
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, "Index queried on the GUI thread before it was loaded, loading it in the background");
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load();
+                } finally {
+                    synchronized (QueueIndex.this) {
+                        backgroundLoadScheduled = false;
+                    }
+                }
+            }
+        });
+    }
+
+    private synchronized void set(long[] queue) {
+        ids = new long[Math.max(INITIAL_CAPACITY, queue.length)];
+        System.arraycopy(queue, 0, ids, 0, queue.length);
+        size = queue.length;
+        positions.clear();
+        for (int i = 0; i < size; i++) {
+            positions.put(ids[i], i);
+        }
+        loaded = true;
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, "Loaded queue index with " + size + " items");
+    }
+
+    /**
+     * Returns true if the FeedItem with the given ID is in the queue.
+     */
+    public boolean contains(long itemId) {
+        return indexOf(itemId) != -1;
+    }
+
+    /**
+     * Returns the index of the FeedItem in the queue or -1 if the item is not in the queue.
+     */
+    public int indexOf(long itemId) {
+        ensureLoaded();
+        synchronized (this) {
+            return positions.get(itemId, -1);
+        }
+    }
+
+    /**
+     * Returns the ID of the FeedItem that follows the given item in the queue or {@link #NO_ITEM} if the item is not
+     * in the queue or is the last item of the queue.
+     */
+    public long getSuccessor(long itemId) {
+        ensureLoaded();
+        synchronized (this) {
+            final int index = positions.get(itemId, -1);
+            return (index != -1 && index + 1 < size) ? ids[index + 1] : NO_ITEM;
+        }
+    }
+
+    /**
+     * Returns the ID of the FeedItem at the given index.
+     *
+     * @throws IndexOutOfBoundsException if index < 0 || index >= size()
+     */
+    public long get(int index) {
+        ensureLoaded();
+        synchronized (this) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return ids[index];
+        }
+    }
+
+    public int size() {
+        ensureLoaded();
+        synchronized (this) {
+            return size;
+        }
+    }
+
+    /**
+     * Returns a copy of the IDs in the queue, sorted by the same order as the queue.
+     */
+    public long[] toArray() {
+        ensureLoaded();
+        synchronized (this) {
+            long[] result = new long[size];
+            System.arraycopy(ids, 0, result, 0, size);
+            return result;
+        }
+    }
+
+    /**
+     * Forces the index to be reloaded from the database on next use. Has to be called after changes of the queue
+     * that can't be described by the other update methods. The loaded IDs are kept so that queries on the GUI thread
+     * can still be answered until the index has been loaded again.
+     */
+    synchronized void invalidate() {
+        generation++;
+        loaded = false;
+    }
+
+    /**
+     * Inserts a FeedItem at the given index. Must be called after the item has been inserted into the queue table.
+     */
+    synchronized void add(int index, long itemId) {
+        generation++;
+        if (!loaded) {
+            return;
+        }
+        if (index < 0 || index > size || positions.get(itemId, -1) != -1) {
+            Log.w(TAG, "Index out of sync with the database, invalidating it");
+            invalidate();
+            return;
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(ids, index, ids, index + 1, size - index);
+        ids[index] = itemId;
+        size++;
+        updatePositions(index, size);
+    }
+
+    /**
+     * Removes a FeedItem. Must be called after the item has been removed from the queue table.
+     */
+    synchronized void remove(long itemId) {
+        generation++;
+        if (!loaded) {
+            return;
+        }
+        final int index = positions.remove(itemId);
+        if (index == -1) {
+            return;
+        }
+        System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+        size--;
+        updatePositions(index, size);
+    }
+
+    /**
+     * Moves the FeedItem at index 'from' to index 'to'.
+     */
+    synchronized void move(int from, int to) {
+        generation++;
+        if (!loaded) {
+            return;
+        }
+        if (from < 0 || from >= size || to < 0 || to >= size) {
+            Log.w(TAG, "Index out of sync with the database, invalidating it");
+            invalidate();
+            return;
+        }
+        final long itemId = ids[from];
+        if (from < to) {
+            System.arraycopy(ids, from + 1, ids, from, to - from);
+        } else {
+            System.arraycopy(ids, to, ids, to + 1, from - to);
+        }
+        ids[to] = itemId;
+        updatePositions(Math.min(from, to), Math.max(from, to) + 1);
+    }
+
+    /**
+     * Removes all FeedItems from the index. Must be called after the queue table has been cleared.
+     */
+    synchronized void clear() {
+        generation++;
+        positions.clear();
+        size = 0;
+        loaded = true;
+    }
+
+    /**
+     * Starts collecting the changes of a transaction that modifies the queue table. Until {@link Update#commit()} or
+     * {@link Update#abort()} has been called, the index is not loaded from the database.
+     */
+    synchronized Update beginUpdate() {
+        pendingUpdates++;
+        generation++;
+        return new Update(generation);
+    }
+
+    private synchronized void endUpdate() {
+        pendingUpdates--;
+        notifyAll();
+    }
+
+    /**
+     * Changes of the queue table that are applied to the index after the transaction that made them has been
+     * committed. The changes must be recorded right before the transaction is marked as successful, so that an
+     * exception can't leave only a part of them in the Update.
+     */
+    class Update {
+        private static final int ADD = 0;
+        private static final int APPEND = 1;
+        private static final int MOVE = 2;
+        private static final int INVALIDATE = 3;
+
+        private final int startGeneration;
+        private final List<long[]> changes = new ArrayList<long[]>();
+        private boolean finished;
+
+        private Update(int startGeneration) {
+            this.startGeneration = startGeneration;
+        }
+
+        void add(int index, long itemId) {
+            changes.add(new long[]{ADD, index, itemId});
+        }
+
+        void addAll(long[] itemIds) {
+            for (long itemId : itemIds) {
+                changes.add(new long[]{APPEND, itemId});
+            }
+        }
+
+        void move(int from, int to) {
+            changes.add(new long[]{MOVE, from, to});
+        }
+
+        void invalidate() {
+            changes.add(new long[]{INVALIDATE});
+        }
+
+        /**
+         * Applies the changes to the index. Must be called after the transaction has been committed. If another
+         * update has been started in the meantime, the order in which the changes were written is not known, so the
+         * index is invalidated instead.
+         */
+        void commit() {
+            synchronized (QueueIndex.this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                if (generation != startGeneration) {
+                    QueueIndex.this.invalidate();
+                } else {
+                    for (long[] change : changes) {
+                        switch ((int) change[0]) {
+                            case ADD:
+                                QueueIndex.this.add((int) change[1], change[2]);
+                                break;
+                            case APPEND:
+                                QueueIndex.this.add(size, change[1]);
+                                break;
+                            case MOVE:
+                                QueueIndex.this.move((int) change[1], (int) change[2]);
+                                break;
+                            case INVALIDATE:
+                                QueueIndex.this.invalidate();
+                                break;
+                        }
+                    }
+                    generation++;
+                }
+                endUpdate();
+            }
+        }
+
+        /**
+         * Invalidates the index because the transaction could not be committed.
+         */
+        void abort() {
+            synchronized (QueueIndex.this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                QueueIndex.this.invalidate();
+                endUpdate();
+            }
+        }
+    }
+
+    private void updatePositions(int start, int end) {
+        for (int i = start; i < end; i++) {
+            positions.put(ids[i], i);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > ids.length) {
+            long[] newIds = new long[Math.max(capacity, ids.length * 2)];
+            System.arraycopy(ids, 0, newIds, 0, size);
+            ids = newIds;
+        }
+    }
+
+    /**
+     * Hash map from long keys to non-negative int values with open addressing and linear probing. Doesn't box its
+     * keys or values.
+     */
+    private static class LongIntMap {
+        private static final float MAX_LOAD_FACTOR = 0.5f;
+
+        private long[] keys;
+        private int[] values;
+        private boolean[] used;
+        private int count;
+
+        LongIntMap(int expectedSize) {
+            allocate(tableSizeFor(expectedSize));
+        }
+
+        int get(long key, int defaultValue) {
+            final int mask = keys.length - 1;
+            for (int i = hash(key) & mask; used[i]; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return defaultValue;
+        }
+
+        void put(long key, int value) {
+            if (count + 1 > keys.length * MAX_LOAD_FACTOR) {
+                rehash(keys.length * 2);
+            }
+            final int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (used[i]) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            used[i] = true;
+            keys[i] = key;
+            values[i] = value;
+            count++;
+        }
+
+        /**
+         * @return The value of the removed key or -1 if the map didn't contain the key.
+         */
+        int remove(long key) {
+            final int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (used[i] && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (!used[i]) {
+                return -1;
+            }
+            final int value = values[i];
+            // shift back following entries of the same probe sequence so that lookups don't stop at the gap
+            int gap = i;
+            for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+                final int home = hash(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    keys[gap] = keys[j];
+                    values[gap] = values[j];
+                    gap = j;
+                }
+            }
+            used[gap] = false;
+            count--;
+            return value;
+        }
+
+        void clear() {
+            if (count > 0) {
+                allocate(keys.length);
+            }
+        }
+
+        private void rehash(int newSize) {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            allocate(newSize);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private void allocate(int tableSize) {
+            keys = new long[tableSize];
+            values = new int[tableSize];
+            used = new boolean[tableSize];
+            count = 0;
+        }
+
+        private static int tableSizeFor(int expectedSize) {
+            int size = 2;
+            while (size * MAX_LOAD_FACTOR < expectedSize) {
+                size *= 2;
+            }
+            return size;
+        }
+
+        private static int hash(long key) {
+            final long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
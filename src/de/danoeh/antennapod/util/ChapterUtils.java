@@ -1,44 +1,90 @@
 package de.danoeh.antennapod.util;
 
+import android.content.Context;
 import android.util.Log;
 import de.danoeh.antennapod.BuildConfig;
+import de.danoeh.antennapod.PodcastApp;
 import de.danoeh.antennapod.feed.Chapter;
+import de.danoeh.antennapod.service.download.AntennapodHttpClient;
+import de.danoeh.antennapod.storage.DBReader;
+import de.danoeh.antennapod.storage.DBWriter;
 import de.danoeh.antennapod.util.comparator.ChapterStartTimeComparator;
 import de.danoeh.antennapod.util.id3reader.ChapterReader;
+import de.danoeh.antennapod.util.id3reader.ID3Reader;
 import de.danoeh.antennapod.util.id3reader.ID3ReaderException;
+import de.danoeh.antennapod.util.playback.ChapterTimeline;
 import de.danoeh.antennapod.util.playback.Playable;
 import de.danoeh.antennapod.util.vorbiscommentreader.VorbisCommentChapterReader;
 import de.danoeh.antennapod.util.vorbiscommentreader.VorbisCommentReaderException;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.auth.BasicScheme;
 
 import java.io.*;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /** Utility class for getting chapter data from media files. */
 public class ChapterUtils {
 	private static final String TAG = "ChapterUtils";
 
+	/** URLs whose chapter cache entries have been revalidated in this session. */
+	private static final Set<String> revalidatedUrls = Collections
+			.synchronizedSet(new HashSet<String>());
+
+	private static final ExecutorService revalidationExec = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r);
+					t.setPriority(Thread.MIN_PRIORITY);
+					return t;
+				}
+			});
+
+	/** Maximum size of an ID3 tag that will be fetched from a remote file. */
+	private static final int MAX_ID3_PROBE_SIZE = 1024 * 1024;
+	/** Maximum number of bytes that will be read from a remote Ogg file. */
+	private static final int MAX_OGG_PROBE_SIZE = 128 * 1024;
+
 	private ChapterUtils() {
 	}
 
 	/**
 	 * Uses the download URL of a media object of a feeditem to read its ID3
-	 * chapters.
+	 * chapters. Only the tag header and then exactly the tag are requested from
+	 * the server.
+	 *
+	 * @return false if the tag could not be read because of an I/O error.
 	 */
-	public static void readID3ChaptersFromPlayableStreamUrl(Playable p) {
+	public static boolean readID3ChaptersFromPlayableStreamUrl(Playable p) {
 		if (p != null && p.getStreamUrl() != null) {
             if (BuildConfig.DEBUG)
                 Log.d(TAG, "Reading id3 chapters from item " + p.getEpisodeTitle());
-			InputStream in = null;
 			try {
-				URL url = new URL(p.getStreamUrl());
+				byte[] tag = probeID3Tag(p.getStreamUrl());
+				if (tag == null) {
+					Log.i(TAG, "Stream does not contain an ID3 tag");
+					return true;
+				}
 				ChapterReader reader = new ChapterReader();
-
-				in = url.openStream();
-				reader.readInputStream(in);
+				reader.readByteBuffer(ByteBuffer.wrap(tag));
 				List<Chapter> chapters = reader.getChapters();
 
 				if (chapters != null) {
@@ -54,43 +100,145 @@ public class ChapterUtils {
 				} else {
 					Log.i(TAG, "ChapterReader could not find any ID3 chapters");
 				}
-			} catch (MalformedURLException e) {
+			} catch (IllegalArgumentException e) {
 				e.printStackTrace();
+				return false;
 			} catch (IOException e) {
 				e.printStackTrace();
+				return false;
 			} catch (ID3ReaderException e) {
 				e.printStackTrace();
-			} finally {
-				if (in != null) {
-					try {
-						in.close();
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				}
 			}
+			return true;
 		} else {
 			Log.e(TAG,
 					"Unable to read ID3 chapters: media or download URL was null");
+			return false;
+		}
+	}
+
+	/**
+	 * Fetches the ID3 tag at the beginning of a remote file with HTTP range
+	 * requests. The first request only fetches the tag header, the second one
+	 * exactly the size of the tag. If the server doesn't support range
+	 * requests, the response is read until the end of the tag and then
+	 * aborted.
+	 *
+	 * @return The tag including its header or null if the file doesn't start
+	 * with an ID3 tag or the tag is larger than MAX_ID3_PROBE_SIZE.
+	 */
+	private static byte[] probeID3Tag(String url) throws IOException {
+		HttpGet httpGet = createRangeRequest(url, 0, ID3Reader.HEADER_LENGTH - 1);
+		try {
+			RangeResponse response = executeRangeRequest(httpGet);
+			if (response == null) {
+				return null;
+			}
+			InputStream in = response.content;
+			byte[] header = new byte[ID3Reader.HEADER_LENGTH];
+			if (IOUtils.read(in, header) != header.length) {
+				return null;
+			}
+			final int tagSize = ID3Reader.getTagSize(header);
+			if (tagSize < 0) {
+				return null;
+			} else if (tagSize > MAX_ID3_PROBE_SIZE) {
+				Log.w(TAG, "ID3 tag is too large to be probed: " + tagSize + " bytes");
+				return null;
+			}
+			byte[] tag = new byte[ID3Reader.HEADER_LENGTH + tagSize];
+			System.arraycopy(header, 0, tag, 0, header.length);
+
+			if (response.partial) {
+				httpGet.abort();
+				httpGet = createRangeRequest(url, ID3Reader.HEADER_LENGTH, tag.length - 1);
+				response = executeRangeRequest(httpGet);
+				if (response == null) {
+					return null;
+				}
+				in = response.content;
+				if (!response.partial) {
+					// server has ignored the range this time, skip the header
+					IOUtils.skipFully(in, ID3Reader.HEADER_LENGTH);
+				}
+			}
+			IOUtils.readFully(in, tag, ID3Reader.HEADER_LENGTH, tagSize);
+			return tag;
+		} finally {
+			httpGet.abort();
+		}
+	}
+
+	/**
+	 * Creates a GET request for the given inclusive byte range of a remote
+	 * file.
+	 */
+	private static HttpGet createRangeRequest(String url, long first, long last) {
+		HttpGet httpGet = new HttpGet(URIUtil.getURIFromRequestUrl(url));
+		addAuthentication(httpGet);
+		httpGet.addHeader("Range", "bytes=" + first + "-" + last);
+		return httpGet;
+	}
+
+	/** Adds an authorization header if the URL of the request contains user info. */
+	private static void addAuthentication(HttpRequestBase request) {
+		String userInfo = request.getURI().getUserInfo();
+		if (userInfo != null) {
+			String[] parts = userInfo.split(":");
+			if (parts.length == 2) {
+				request.addHeader(BasicScheme.authenticate(
+						new UsernamePasswordCredentials(parts[0], parts[1]),
+						"UTF-8", false));
+			}
+		}
+	}
+
+	/**
+	 * Executes the request with the shared HTTP client.
+	 *
+	 * @return The response or null if the request was not successful.
+	 */
+	private static RangeResponse executeRangeRequest(HttpGet httpGet) throws IOException {
+		HttpClient httpClient = AntennapodHttpClient.getHttpClient();
+		HttpResponse response = httpClient.execute(httpGet);
+		final int responseCode = response.getStatusLine().getStatusCode();
+		HttpEntity entity = response.getEntity();
+		if (entity == null || (responseCode != HttpURLConnection.HTTP_OK
+				&& responseCode != HttpURLConnection.HTTP_PARTIAL)) {
+			Log.w(TAG, "Range request failed with response code " + responseCode);
+			return null;
+		}
+		return new RangeResponse(entity.getContent(),
+				responseCode == HttpURLConnection.HTTP_PARTIAL);
+	}
+
+	private static class RangeResponse {
+		final InputStream content;
+		/** True if the server has respected the Range header. */
+		final boolean partial;
+
+		RangeResponse(InputStream content, boolean partial) {
+			this.content = content;
+			this.partial = partial;
 		}
 	}
 
 	/**
 	 * Uses the file URL of a media object of a feeditem to read its ID3
 	 * chapters.
+	 *
+	 * @return false if the file could not be read.
 	 */
-	public static void readID3ChaptersFromPlayableFileUrl(Playable p) {
+	public static boolean readID3ChaptersFromPlayableFileUrl(Playable p) {
 		if (p != null && p.localFileAvailable() && p.getLocalMediaUrl() != null) {
             if (BuildConfig.DEBUG)
                 Log.d(TAG, "Reading id3 chapters from item " + p.getEpisodeTitle());
 			File source = new File(p.getLocalMediaUrl());
 			if (source.exists()) {
 				ChapterReader reader = new ChapterReader();
-				InputStream in = null;
 
 				try {
-					in = new BufferedInputStream(new FileInputStream(source));
-					reader.readInputStream(in);
+					reader.readFile(source);
 					List<Chapter> chapters = reader.getChapters();
 
 					if (chapters != null) {
@@ -109,50 +257,60 @@ public class ChapterUtils {
 					}
 				} catch (IOException e) {
 					e.printStackTrace();
+					return false;
 				} catch (ID3ReaderException e) {
 					e.printStackTrace();
-				} finally {
-					if (in != null) {
-						try {
-							in.close();
-						} catch (IOException e) {
-							e.printStackTrace();
-						}
-					}
 				}
+				return true;
 			} else {
 				Log.e(TAG, "Unable to read id3 chapters: Source doesn't exist");
 			}
 		}
+		return false;
 	}
 
-	public static void readOggChaptersFromPlayableStreamUrl(Playable media) {
+	/**
+	 * Reads the Vorbis comment chapters of a remote file. At most
+	 * MAX_OGG_PROBE_SIZE bytes are requested and read from the server.
+	 *
+	 * @return false if the request was not successful.
+	 */
+	public static boolean readOggChaptersFromPlayableStreamUrl(Playable media) {
 		if (media != null && media.streamAvailable()) {
-			InputStream input = null;
+			HttpGet httpGet = null;
 			try {
-				URL url = new URL(media.getStreamUrl());
-				input = url.openStream();
-				if (input != null) {
-					readOggChaptersFromInputStream(media, input);
+				httpGet = createRangeRequest(media.getStreamUrl(), 0, MAX_OGG_PROBE_SIZE - 1);
+				RangeResponse response = executeRangeRequest(httpGet);
+				if (response != null) {
+					readOggChaptersFromInputStream(media,
+							new BoundedInputStream(response.content, MAX_OGG_PROBE_SIZE));
+					return true;
 				}
-			} catch (MalformedURLException e) {
+			} catch (IllegalArgumentException e) {
 				e.printStackTrace();
 			} catch (IOException e) {
 				e.printStackTrace();
 			} finally {
-				IOUtils.closeQuietly(input);
+				if (httpGet != null) {
+					httpGet.abort();
+				}
 			}
 		}
+		return false;
 	}
 
-	public static void readOggChaptersFromPlayableFileUrl(Playable media) {
+	/**
+	 * @return false if the file could not be opened.
+	 */
+	public static boolean readOggChaptersFromPlayableFileUrl(Playable media) {
 		if (media != null && media.getLocalMediaUrl() != null) {
 			File source = new File(media.getLocalMediaUrl());
 			if (source.exists()) {
 				InputStream input = null;
 				try {
-					input = new BufferedInputStream(new FileInputStream(source));
+					input = new FileInputStream(source);
 					readOggChaptersFromInputStream(media, input);
+					return true;
 				} catch (FileNotFoundException e) {
 					e.printStackTrace();
 				} finally {
@@ -160,6 +318,7 @@ public class ChapterUtils {
 				}
 			}
 		}
+		return false;
 	}
 
 	private static void readOggChaptersFromInputStream(Playable p,
@@ -217,45 +376,197 @@ public class ChapterUtils {
 
 	/** Calls getCurrentChapter with current position. */
 	public static Chapter getCurrentChapter(Playable media) {
-		if (media.getChapters() != null) {
-			List<Chapter> chapters = media.getChapters();
-			Chapter current = null;
-			if (chapters != null) {
-				current = chapters.get(0);
-				for (Chapter sc : chapters) {
-					if (sc.getStart() > media.getPosition()) {
-						break;
-					} else {
-						current = sc;
-					}
-				}
-			}
-			return current;
+		return getChapterAt(media, media.getPosition());
+	}
+
+	/**
+	 * Returns the chapter of the media at the given position or null if the
+	 * media has no chapters. Positions before the first chapter belong to the
+	 * first chapter.
+	 */
+	public static Chapter getChapterAt(Playable media, long position) {
+		ChapterTimeline timeline = media.getChapterTimeline();
+		if (timeline != null) {
+			return timeline.getChapterAt(position);
 		} else {
 			return null;
 		}
 	}
 
+	/**
+	 * Loads the chapters of a remote file. An existing chapter cache entry
+	 * is used right away and revalidated in the background once per session
+	 * by comparing the ETag or Last-Modified header and the size of the file.
+	 */
 	public static void loadChaptersFromStreamUrl(Playable media) {
 		if (BuildConfig.DEBUG)
 			Log.d(TAG, "Starting chapterLoader thread");
-		ChapterUtils.readID3ChaptersFromPlayableStreamUrl(media);
+		final Context context = PodcastApp.getInstance();
+		final String url = media.getStreamUrl();
+		if (url != null && loadCachedChapters(context, media, url)) {
+			return;
+		}
+		RemoteFileInfo info = (url != null) ? getRemoteFileInfo(url) : null;
+		boolean read = ChapterUtils.readID3ChaptersFromPlayableStreamUrl(media);
 		if (media.getChapters() == null) {
-			ChapterUtils.readOggChaptersFromPlayableStreamUrl(media);
+			read = ChapterUtils.readOggChaptersFromPlayableStreamUrl(media) && read;
+		}
+		if (url != null && (read || media.getChapters() != null)) {
+			// headers have just been requested, no need to revalidate the entry in this session
+			revalidatedUrls.add(url);
+			DBWriter.setCachedChapters(context, url,
+					(info != null) ? info.size : -1, 0,
+					(info != null) ? info.validator : null, media.getChapters());
 		}
 
 		if (BuildConfig.DEBUG)
 			Log.d(TAG, "ChapterLoaderThread has finished");
 	}
-	
+
+	/**
+	 * Sets the chapters of the chapter cache entry of a remote file without
+	 * checking whether the file has changed. The first time an entry is used
+	 * in this session, the entry is revalidated in the background and removed
+	 * if the file has changed, so that the next call reads the file again.
+	 *
+	 * @return true if a cache entry was found.
+	 */
+	private static boolean loadCachedChapters(final Context context, Playable media,
+			final String url) {
+		List<Chapter> chapters = DBReader.getCachedChapters(context, url);
+		if (chapters == null) {
+			return false;
+		}
+		if (BuildConfig.DEBUG)
+			Log.d(TAG, "Found " + chapters.size() + " cached chapters for " + url);
+		if (!chapters.isEmpty()) {
+			media.setChapters(chapters);
+		}
+		if (revalidatedUrls.add(url)) {
+			revalidationExec.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					RemoteFileInfo info = getRemoteFileInfo(url);
+					if (info == null) {
+						// keep using the entry, it is revalidated in the next session
+						revalidatedUrls.remove(url);
+					} else if (DBReader.getCachedChapters(context, url, info.size, 0,
+							info.validator) == null) {
+						if (BuildConfig.DEBUG)
+							Log.d(TAG, "Cached chapters of " + url + " are outdated");
+						DBWriter.removeCachedChapters(context, url);
+						revalidatedUrls.remove(url);
+					}
+				}
+			});
+		}
+		return true;
+	}
+
+	/**
+	 * Loads the chapters of a local file. The chapter cache is used if the
+	 * size and the modification date of the file haven't changed since the
+	 * chapters were read.
+	 */
 	public static void loadChaptersFromFileUrl(Playable media) {
 		if (media.localFileAvailable()) {
-			ChapterUtils.readID3ChaptersFromPlayableFileUrl(media);
+			final Context context = PodcastApp.getInstance();
+			final File source = new File(media.getLocalMediaUrl());
+			final String path = source.getAbsolutePath();
+			final long size = source.length();
+			final long lastModified = source.lastModified();
+			if (loadCachedChapters(context, media, path, size, lastModified, null)) {
+				return;
+			}
+			boolean read = ChapterUtils.readID3ChaptersFromPlayableFileUrl(media);
 			if (media.getChapters() == null) {
-				ChapterUtils.readOggChaptersFromPlayableFileUrl(media);
+				read = ChapterUtils.readOggChaptersFromPlayableFileUrl(media) && read;
+			}
+			if (read || media.getChapters() != null) {
+				DBWriter.setCachedChapters(context, path, size, lastModified,
+						null, media.getChapters());
 			}
 		} else {
 			Log.e(TAG, "Could not load chapters from file url: local file not available");
 		}
 	}
+
+	/**
+	 * Sets the chapters of the chapter cache entry of a media file.
+	 *
+	 * @return true if a valid cache entry was found. The chapters of the
+	 * media object are only set if the entry contains any chapters.
+	 */
+	private static boolean loadCachedChapters(Context context, Playable media,
+			String source, long size, long lastModified, String validator) {
+		List<Chapter> chapters = DBReader.getCachedChapters(context, source,
+				size, lastModified, validator);
+		if (chapters == null) {
+			return false;
+		}
+		if (BuildConfig.DEBUG)
+			Log.d(TAG, "Found " + chapters.size() + " cached chapters for " + source);
+		if (!chapters.isEmpty()) {
+			media.setChapters(chapters);
+		}
+		return true;
+	}
+
+	/**
+	 * Requests the headers of a remote file that identify its version.
+	 *
+	 * @return The headers or null if the request was not successful or the
+	 * server doesn't send any validator or content length.
+	 */
+	private static RemoteFileInfo getRemoteFileInfo(String url) {
+		HttpHead httpHead = null;
+		try {
+			httpHead = new HttpHead(URIUtil.getURIFromRequestUrl(url));
+			addAuthentication(httpHead);
+			HttpResponse response = AntennapodHttpClient.getHttpClient().execute(httpHead);
+			if (response.getStatusLine().getStatusCode() != HttpURLConnection.HTTP_OK) {
+				return null;
+			}
+			Header validator = response.getFirstHeader("ETag");
+			if (validator == null) {
+				validator = response.getFirstHeader("Last-Modified");
+			}
+			Header contentLength = response.getFirstHeader("Content-Length");
+			long size = -1;
+			if (contentLength != null) {
+				try {
+					size = Long.parseLong(contentLength.getValue());
+				} catch (NumberFormatException e) {
+					e.printStackTrace();
+				}
+			}
+			if (validator == null && size < 0) {
+				return null;
+			}
+			return new RemoteFileInfo(size,
+					(validator != null) ? validator.getValue() : null);
+		} catch (IllegalArgumentException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (httpHead != null) {
+				httpHead.abort();
+			}
+		}
+		return null;
+	}
+
+	private static class RemoteFileInfo {
+		/** Content length or -1 if unknown. */
+		final long size;
+		/** ETag or Last-Modified header, may be null. */
+		final String validator;
+
+		RemoteFileInfo(long size, String validator) {
+			this.size = size;
+			this.validator = validator;
+		}
+	}
 }
@@ -66,4 +66,13 @@ public class NetworkUtils {
         NetworkInfo info = cm.getActiveNetworkInfo();
         return info != null && info.isConnected();
     }
+
+    /**
+     * Returns true if the device is connected to a Wi-Fi network, regardless of the Wi-Fi filter for automatic downloads.
+     */
+    public static boolean connectedToWifi(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = cm.getActiveNetworkInfo();
+        return info != null && info.isConnected() && info.getType() == ConnectivityManager.TYPE_WIFI;
+    }
 }
@@ -1,6 +1,9 @@
 package de.danoeh.antennapod.util;
 
+import android.content.Context;
 import de.danoeh.antennapod.feed.FeedItem;
+import de.danoeh.antennapod.storage.DBWriter;
+import de.danoeh.antennapod.storage.QueueIndex;
 
 import java.util.Iterator;
 import java.util.List;
@@ -44,6 +47,29 @@ public abstract class QueueAccess {
         };
     }
 
+    /**
+     * Provides access to the process-wide {@link de.danoeh.antennapod.storage.QueueIndex}. The index can only be
+     * modified through DBWriter, so remove() removes the item from the queue in the database. The index and
+     * contains() reflect the removal once it has been written.
+     */
+    public static QueueAccess IndexAccess(final Context context, final QueueIndex index) {
+        return new QueueAccess() {
+            @Override
+            public boolean contains(long id) {
+                return index.contains(id);
+            }
+
+            @Override
+            public boolean remove(long id) {
+                if (!index.contains(id)) {
+                    return false;
+                }
+                DBWriter.removeQueueItem(context, id, false);
+                return true;
+            }
+        };
+    }
+
     public static QueueAccess ItemListAccess(final List<FeedItem> items) {
         return new QueueAccess() {
             @Override
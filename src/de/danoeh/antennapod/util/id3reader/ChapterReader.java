@@ -7,9 +7,9 @@ import de.danoeh.antennapod.feed.ID3Chapter;
 import de.danoeh.antennapod.util.id3reader.model.FrameHeader;
 import de.danoeh.antennapod.util.id3reader.model.TagHeader;
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -26,14 +26,13 @@ public class ChapterReader extends ID3Reader {
 	@Override
 	public int onStartTagHeader(TagHeader header) {
 		chapters = new ArrayList<Chapter>();
-		System.out.println(header.toString());
+		if (BuildConfig.DEBUG) Log.d(TAG, header.toString());
 		return ID3Reader.ACTION_DONT_SKIP;
 	}
 
 	@Override
-	public int onStartFrameHeader(FrameHeader header, InputStream input)
-			throws IOException, ID3ReaderException {
-		System.out.println(header.toString());
+	public int onStartFrameHeader(FrameHeader header, ByteBuffer input)
+			throws ID3ReaderException {
 		if (header.getId().equals(FRAME_ID_CHAPTER)) {
 			if (currentChapter != null) {
 				if (!hasId3Chapter(currentChapter)) {
@@ -43,13 +42,12 @@ public class ChapterReader extends ID3Reader {
 				}
 			}
             StringBuffer elementId = new StringBuffer();
-			readISOString(elementId, input, Integer.MAX_VALUE);
-			char[] startTimeSource = readBytes(input, 4);
-			long startTime = ((int) startTimeSource[0] << 24)
-					| ((int) startTimeSource[1] << 16)
-					| ((int) startTimeSource[2] << 8) | startTimeSource[3];
+			readISOString(elementId, input, input.remaining());
+			long startTime = input.getInt() & 0xFFFFFFFFL;
 			currentChapter = new ID3Chapter(elementId.toString(), startTime);
+			// end time, start offset and end offset
 			skipBytes(input, 12);
+			// the rest of the frame consists of embedded frames
 			return ID3Reader.ACTION_DONT_SKIP;
 		} else if (header.getId().equals(FRAME_ID_TITLE)) {
 			if (currentChapter != null && currentChapter.getTitle() == null) {
@@ -58,8 +56,6 @@ public class ChapterReader extends ID3Reader {
 				currentChapter
 						.setTitle(title.toString());
 				if (BuildConfig.DEBUG) Log.d(TAG, "Found title: " + currentChapter.getTitle());
-
-				return ID3Reader.ACTION_DONT_SKIP;
 			}
 		} else if (header.getId().equals(FRAME_ID_LINK)) {
             if (currentChapter != null) {
@@ -67,15 +63,17 @@ public class ChapterReader extends ID3Reader {
                 int descriptionLength = readString(null, input, header.getSize());
                 StringBuffer link = new StringBuffer();
                 readISOString(link, input, header.getSize() - descriptionLength);
-                String decodedLink = URLDecoder.decode(link.toString(), "UTF-8");
-
-                currentChapter.setLink(decodedLink);
+                try {
+                    String decodedLink = URLDecoder.decode(link.toString(), "UTF-8");
+                    currentChapter.setLink(decodedLink);
+                } catch (UnsupportedEncodingException e) {
+                    throw new ID3ReaderException(e);
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Could not decode link " + link);
+                }
 
                 if (BuildConfig.DEBUG) Log.d(TAG, "Found link: " + currentChapter.getLink());
-                return ID3Reader.ACTION_DONT_SKIP;
             }
-        } else if (header.getId().equals("APIC")) {
-            Log.d(TAG, header.toString());
         }
 
 		return super.onStartFrameHeader(header, input);
@@ -97,17 +95,12 @@ public class ChapterReader extends ID3Reader {
 				chapters.add(currentChapter);
 			}
 		}
-		System.out.println("Reached end of tag");
-		if (chapters != null) {
-			for (Chapter c : chapters) {
-				System.out.println(c.toString());
-			}
-		}
+		if (BuildConfig.DEBUG) Log.d(TAG, "Reached end of tag");
 	}
 
 	@Override
 	public void onNoTagHeaderFound() {
-		System.out.println("No tag header found");
+		if (BuildConfig.DEBUG) Log.d(TAG, "No tag header found");
 		super.onNoTagHeaderFound();
 	}
 
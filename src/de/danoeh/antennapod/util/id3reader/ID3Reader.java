@@ -4,68 +4,161 @@ import de.danoeh.antennapod.util.id3reader.model.FrameHeader;
 import de.danoeh.antennapod.util.id3reader.model.TagHeader;
 import org.apache.commons.io.IOUtils;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 
 /**
  * Reads the ID3 Tag of a given file. In order to use this class, you should
  * create a subclass of it and overwrite the onStart* - or onEnd* - methods.
+ * <p/>
+ * The tag is read in one piece into a ByteBuffer (or memory-mapped if it is
+ * read from a local file) and parsed from there. Frames that are skipped are
+ * never copied.
  */
 public class ID3Reader {
-	private static final int HEADER_LENGTH = 10;
+	public static final int HEADER_LENGTH = 10;
 	private static final int ID3_LENGTH = 3;
 	private static final int FRAME_ID_LENGTH = 4;
 
+	/** Frame is skipped, parsing continues after the end of the frame. */
 	protected static final int ACTION_SKIP = 1;
+	/**
+	 * Frame is a container of other frames (like CHAP), parsing continues at
+	 * the current position of the buffer.
+	 */
 	protected static final int ACTION_DONT_SKIP = 2;
 
-	protected int readerPosition;
-
 	private static final byte ENCODING_UTF16_WITH_BOM = 1;
     private static final byte ENCODING_UTF16_WITHOUT_BOM = 2;
     private static final byte ENCODING_UTF8 = 3;
 
+    private static final Charset CHARSET_ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset CHARSET_UTF16 = Charset.forName("UTF-16");
+    private static final Charset CHARSET_UTF16BE = Charset.forName("UTF-16BE");
+    private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+
     private TagHeader tagHeader;
 
 	public ID3Reader() {
 	}
 
+	/**
+	 * Reads the ID3 tag from the beginning of the given input stream. Only the
+	 * bytes of the tag are read from the stream, in bulk.
+	 */
 	public final void readInputStream(InputStream input) throws IOException,
 			ID3ReaderException {
-		int rc;
-		readerPosition = 0;
-		char[] tagHeaderSource = readBytes(input, HEADER_LENGTH);
-		tagHeader = createTagHeader(tagHeaderSource);
+		byte[] headerSource = new byte[HEADER_LENGTH];
+		if (IOUtils.read(input, headerSource) != HEADER_LENGTH) {
+			throw new ID3ReaderException("Unexpected end of stream");
+		}
+		TagHeader header = createTagHeader(ByteBuffer.wrap(headerSource));
+		if (header == null) {
+			onNoTagHeaderFound();
+			return;
+		}
+		byte[] tag = new byte[HEADER_LENGTH + header.getSize()];
+		System.arraycopy(headerSource, 0, tag, 0, HEADER_LENGTH);
+		int read = IOUtils.read(input, tag, HEADER_LENGTH, header.getSize());
+		ByteBuffer buffer = ByteBuffer.wrap(tag);
+		buffer.limit(HEADER_LENGTH + read);
+		readByteBuffer(buffer);
+	}
+
+	/**
+	 * Returns the size of the ID3 tag whose header is stored in the given
+	 * array, excluding the header itself, or -1 if the array doesn't contain
+	 * an ID3 tag header.
+	 */
+	public static int getTagSize(byte[] header) {
+		if (header.length < HEADER_LENGTH) {
+			throw new IllegalArgumentException("Length of header must be at least " + HEADER_LENGTH);
+		}
+		TagHeader tagHeader = new ID3Reader().createTagHeader(ByteBuffer.wrap(header));
+		return (tagHeader != null) ? tagHeader.getSize() : -1;
+	}
+
+	/**
+	 * Reads the ID3 tag of a local file. The region of the file that contains
+	 * the tag is memory-mapped instead of being copied onto the heap.
+	 */
+	public final void readFile(File file) throws IOException,
+			ID3ReaderException {
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+			ByteBuffer headerSource = ByteBuffer.allocate(HEADER_LENGTH);
+			while (headerSource.hasRemaining()) {
+				if (channel.read(headerSource) == -1) {
+					throw new ID3ReaderException("Unexpected end of file");
+				}
+			}
+			headerSource.flip();
+			TagHeader header = createTagHeader(headerSource);
+			if (header == null) {
+				onNoTagHeaderFound();
+				return;
+			}
+			long length = Math.min(channel.size(), (long) HEADER_LENGTH + header.getSize());
+			readByteBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	/**
+	 * Parses the ID3 tag starting at the current position of the given buffer.
+	 */
+	public final void readByteBuffer(ByteBuffer buffer) throws ID3ReaderException {
+		final int start = buffer.position();
+		if (buffer.remaining() < HEADER_LENGTH) {
+			throw new ID3ReaderException("Unexpected end of stream");
+		}
+		tagHeader = createTagHeader(buffer);
 		if (tagHeader == null) {
 			onNoTagHeaderFound();
-		} else {
-			rc = onStartTagHeader(tagHeader);
-			if (rc == ACTION_SKIP) {
-				onEndTag();
-			} else {
-				while (readerPosition < tagHeader.getSize()) {
-					FrameHeader frameHeader = createFrameHeader(readBytes(
-							input, HEADER_LENGTH));
+			return;
+		}
+		try {
+			int rc = onStartTagHeader(tagHeader);
+			if (rc != ACTION_SKIP) {
+				final int tagEnd = (int) Math.min(buffer.limit(),
+						(long) start + HEADER_LENGTH + tagHeader.getSize());
+				if (tagHeader.hasExtendedHeader()) {
+					skipExtendedHeader(buffer);
+				}
+				while (buffer.position() + HEADER_LENGTH <= tagEnd) {
+					FrameHeader frameHeader = createFrameHeader(buffer);
 					if (checkForNullString(frameHeader.getId())) {
 						break;
+					}
+					final int frameEnd = buffer.position() + frameHeader.getSize();
+					if (frameHeader.getSize() < 0 || frameEnd > tagEnd) {
+						break;
+					}
+					ByteBuffer frame = buffer.duplicate();
+					frame.limit(frameEnd);
+					rc = onStartFrameHeader(frameHeader, frame);
+					if (rc == ACTION_SKIP) {
+						buffer.position(frameEnd);
 					} else {
-						rc = onStartFrameHeader(frameHeader, input);
-						if (rc == ACTION_SKIP) {
-
-							if (frameHeader.getSize() + readerPosition > tagHeader
-									.getSize()) {
-								break;
-							} else {
-								skipBytes(input, frameHeader.getSize());
-							}
-						}
+						buffer.position(frame.position());
 					}
 				}
-				onEndTag();
 			}
+		} catch (BufferUnderflowException e) {
+			throw new ID3ReaderException("Unexpected end of tag", e);
+		} catch (IllegalArgumentException e) {
+			throw new ID3ReaderException("Invalid frame size", e);
 		}
+		onEndTag();
 	}
 
 	/** Returns true if string only contains null-bytes. */
@@ -88,71 +181,66 @@ public class ID3Reader {
 	}
 
 	/**
-	 * Read a certain number of bytes from the given input stream. This method
-	 * changes the readerPosition-attribute.
+	 * Read a certain number of bytes from the given buffer.
 	 */
-	protected char[] readBytes(InputStream input, int number)
-			throws IOException, ID3ReaderException {
-		char[] header = new char[number];
-		for (int i = 0; i < number; i++) {
-			int b = input.read();
-			readerPosition++;
-			if (b != -1) {
-				header[i] = (char) b;
-			} else {
-				throw new ID3ReaderException("Unexpected end of stream");
-			}
+	protected byte[] readBytes(ByteBuffer buffer, int number)
+			throws ID3ReaderException {
+		if (buffer.remaining() < number) {
+			throw new ID3ReaderException("Unexpected end of stream");
 		}
-		return header;
+		byte[] result = new byte[number];
+		buffer.get(result);
+		return result;
 	}
 
 	/**
-	 * Skip a certain number of bytes on the given input stream. This method
-	 * changes the readerPosition-attribute.
+	 * Skip a certain number of bytes on the given buffer.
 	 */
-	protected void skipBytes(InputStream input, int number) throws IOException {
-		if (number <= 0) {
-			number = 1;
-		}
-		IOUtils.skipFully(input, number);
-
-		readerPosition += number;
+	protected void skipBytes(ByteBuffer buffer, int number) {
+		buffer.position(Math.min(buffer.limit(), buffer.position() + number));
 	}
 
-	private TagHeader createTagHeader(char[] source) throws ID3ReaderException {
-		boolean hasTag = (source[0] == 0x49) && (source[1] == 0x44)
-				&& (source[2] == 0x33);
-		if (source.length != HEADER_LENGTH) {
-			throw new ID3ReaderException("Length of header must be "
-					+ HEADER_LENGTH);
-		}
+	private TagHeader createTagHeader(ByteBuffer source) {
+		final int start = source.position();
+		boolean hasTag = (source.get(start) == 0x49) && (source.get(start + 1) == 0x44)
+				&& (source.get(start + 2) == 0x33);
 		if (hasTag) {
-			String id = new String(source, 0, ID3_LENGTH);
-			char version = (char) ((source[3] << 8) | source[4]);
-			byte flags = (byte) source[5];
-			int size = (source[6] << 24) | (source[7] << 16) | (source[8] << 8)
-					| source[9];
-            size = unsynchsafe(size);
+			byte[] idSource = new byte[ID3_LENGTH];
+			source.get(idSource);
+			String id = new String(idSource, CHARSET_ISO_8859_1);
+			char version = (char) (((source.get() & 0xFF) << 8) | (source.get() & 0xFF));
+			byte flags = source.get();
+			int size = unsynchsafe(source.getInt());
 			return new TagHeader(id, size, version, flags);
 		} else {
 			return null;
 		}
 	}
 
-	private FrameHeader createFrameHeader(char[] source)
-			throws ID3ReaderException {
-		if (source.length != HEADER_LENGTH) {
-			throw new ID3ReaderException("Length of header must be "
-					+ HEADER_LENGTH);
+	/**
+	 * Skips the extended header. Its size is stored as a syncsafe integer that
+	 * includes the size field in ID3v2.4, and as a plain integer that excludes
+	 * the size field in ID3v2.3.
+	 */
+	private void skipExtendedHeader(ByteBuffer buffer) {
+		int size = buffer.getInt();
+		if (tagHeader.getVersion() >= 0x0400) {
+			skipBytes(buffer, unsynchsafe(size) - 4);
+		} else {
+			skipBytes(buffer, size);
 		}
-		String id = new String(source, 0, FRAME_ID_LENGTH);
+	}
 
-        int size = (((int) source[4]) << 24) | (((int) source[5]) << 16)
-                    | (((int) source[6]) << 8) | source[7];
+	private FrameHeader createFrameHeader(ByteBuffer source) {
+		byte[] idSource = new byte[FRAME_ID_LENGTH];
+		source.get(idSource);
+		String id = new String(idSource, CHARSET_ISO_8859_1);
+
+        int size = source.getInt();
         if (tagHeader != null && tagHeader.getVersion() >= 0x0400) {
             size = unsynchsafe(size);
         }
-		char flags = (char) ((source[8] << 8) | source[9]);
+		char flags = source.getChar();
 		return new FrameHeader(id, size, flags);
 	}
 
@@ -169,16 +257,25 @@ public class ID3Reader {
         return out;
     }
 
-	protected int readString(StringBuffer buffer, InputStream input, int max) throws IOException,
-			ID3ReaderException {
+	/**
+	 * Reads a string whose encoding is defined by its first byte. At most max
+	 * bytes are read from the buffer.
+	 *
+	 * @return The number of bytes that were read, including the encoding byte
+	 * and the termination character.
+	 */
+	protected int readString(StringBuffer buffer, ByteBuffer input, int max)
+			throws ID3ReaderException {
 		if (max > 0) {
-			char[] encoding = readBytes(input, 1);
+			byte encoding = readBytes(input, 1)[0];
 			max--;
-			
-			if (encoding[0] == ENCODING_UTF16_WITH_BOM || encoding[0] == ENCODING_UTF16_WITHOUT_BOM) {
-                return readUnicodeString(buffer, input, max, Charset.forName("UTF-16")) + 1; // take encoding byte into account
-			} else if (encoding[0] == ENCODING_UTF8) {
-                return readUnicodeString(buffer, input, max, Charset.forName("UTF-8")) + 1; // take encoding byte into account
+
+			if (encoding == ENCODING_UTF16_WITH_BOM) {
+                return readUnicodeString(buffer, input, max, CHARSET_UTF16) + 1; // take encoding byte into account
+			} else if (encoding == ENCODING_UTF16_WITHOUT_BOM) {
+                return readUnicodeString(buffer, input, max, CHARSET_UTF16BE) + 1; // take encoding byte into account
+			} else if (encoding == ENCODING_UTF8) {
+                return readEncodedString(buffer, input, max, CHARSET_UTF8) + 1; // take encoding byte into account
             } else {
 				return readISOString(buffer, input, max) + 1; // take encoding byte into account
 			}
@@ -190,52 +287,89 @@ public class ID3Reader {
 		}
 	}
 
-	protected int readISOString(StringBuffer buffer, InputStream input, int max)
-			throws IOException, ID3ReaderException {
+	/**
+	 * Reads a null-terminated ISO-8859-1 string.
+	 *
+	 * @return The number of bytes that were read, including the termination
+	 * character.
+	 */
+	protected int readISOString(StringBuffer buffer, ByteBuffer input, int max)
+			throws ID3ReaderException {
+		return readEncodedString(buffer, input, max, CHARSET_ISO_8859_1);
+	}
 
-		int bytesRead = 0;
-		char c;
-		while (++bytesRead <= max && (c = (char) input.read()) > 0) {
-            if (buffer != null) {
-			    buffer.append(c);
-            }
+	/**
+	 * Reads a string with a single null byte as termination character.
+	 */
+	private int readEncodedString(StringBuffer strBuffer, ByteBuffer input, int max, Charset charset)
+			throws ID3ReaderException {
+		final int start = input.position();
+		final int end = start + Math.min(max, input.remaining());
+		int length = end - start;
+		int consumed = length;
+		for (int i = start; i < end; i++) {
+			if (input.get(i) == 0) {
+				length = i - start;
+				consumed = length + 1;
+				break;
+			}
+		}
+		decode(strBuffer, input, start, length, charset);
+		input.position(start + consumed);
+		return consumed;
+	}
+
+	/**
+	 * Reads a string with a double null byte, aligned to two bytes, as
+	 * termination character.
+	 */
+	private int readUnicodeString(StringBuffer strBuffer, ByteBuffer input, int max, Charset charset)
+			throws ID3ReaderException {
+		final int start = input.position();
+		final int end = start + Math.min(max, input.remaining());
+		int length = end - start;
+		int consumed = length;
+		for (int i = start; i + 1 < end; i += 2) {
+			if (input.get(i) == 0 && input.get(i + 1) == 0) {
+				length = i - start;
+				consumed = length + 2;
+				break;
+			}
+		}
+		decode(strBuffer, input, start, length, charset);
+		input.position(start + consumed);
+		return consumed;
+	}
+
+	private void decode(StringBuffer strBuffer, ByteBuffer input, int start, int length, Charset charset)
+			throws ID3ReaderException {
+		if (strBuffer != null && length > 0) {
+			ByteBuffer source = input.duplicate();
+			source.limit(start + length);
+			source.position(start);
+			try {
+				strBuffer.append(charset.newDecoder().decode(source).toString());
+			} catch (CharacterCodingException e) {
+				throw new ID3ReaderException(e);
+			}
 		}
-		return bytesRead;
-	}
-
-	private int readUnicodeString(StringBuffer strBuffer, InputStream input, int max, Charset charset)
-			throws IOException, ID3ReaderException {
-		byte[] buffer = new byte[max];
-        int c, cZero = -1;
-        int i = 0;
-        for (; i < max; i++) {
-            c = input.read();
-            if (c == -1) {
-                break;
-            } else if (c == 0) {
-                if (cZero == 0) {
-                    // termination character found
-                    break;
-                } else {
-                    cZero = 0;
-                }
-            } else {
-                buffer[i] = (byte) c;
-                cZero = -1;
-            }
-        }
-        if (strBuffer != null) {
-		    strBuffer.append(charset.newDecoder().decode(ByteBuffer.wrap(buffer)).toString());
-        }
-        return i;
 	}
 
 	public int onStartTagHeader(TagHeader header) {
 		return ACTION_SKIP;
 	}
 
-	public int onStartFrameHeader(FrameHeader header, InputStream input)
-			throws IOException, ID3ReaderException {
+	/**
+	 * Called for every frame of the tag.
+	 *
+	 * @param input Buffer that is positioned at the beginning of the frame's
+	 *              content. Its limit is set to the end of the frame.
+	 * @return ACTION_SKIP if parsing should continue after the end of the
+	 * frame, ACTION_DONT_SKIP if parsing should continue at the position of
+	 * input, which is the case for frames that contain other frames.
+	 */
+	public int onStartFrameHeader(FrameHeader header, ByteBuffer input)
+			throws ID3ReaderException {
 		return ACTION_SKIP;
 	}
 
@@ -2,6 +2,9 @@ package de.danoeh.antennapod.util.id3reader.model;
 
 public class TagHeader extends Header {
 
+	/** Flag that signals that the tag header is followed by an extended header. */
+	public static final byte FLAG_EXTENDED_HEADER = 0x40;
+
 	protected char version;
 	protected byte flags;
 
@@ -21,6 +24,14 @@ public class TagHeader extends Header {
 		return version;
 	}
 
+	public byte getFlags() {
+		return flags;
+	}
+
+	public boolean hasExtendedHeader() {
+		return (flags & FLAG_EXTENDED_HEADER) != 0;
+	}
+
 	
 
 }
@@ -4,12 +4,28 @@ import android.content.Context;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import com.aocate.media.MediaPlayer;
+import de.danoeh.antennapod.preferences.UserPreferences;
 
 public class AudioPlayer extends MediaPlayer implements IPlayer {
 	private static final String TAG = "AudioPlayer";
 
+	/**
+	 * Skipped silence time that has already been added to the statistics.
+	 */
+	private long recordedSkippedSilenceTime;
+
 	public AudioPlayer(Context context) {
 		super(context);
+		setUseTimeStretching(UserPreferences.useInProcessPlayer());
+		setSkipSilence(UserPreferences.isSkipSilence());
+	}
+
+	@Override
+	public void release() {
+		final long skippedSilenceTime = getSkippedSilenceTime();
+		UserPreferences.addSkippedSilenceTime(skippedSilenceTime - recordedSkippedSilenceTime);
+		recordedSkippedSilenceTime = skippedSilenceTime;
+		super.release();
 	}
 
 	@Override
@@ -0,0 +1,141 @@
+package de.danoeh.antennapod.util.playback;
+
+import de.danoeh.antennapod.feed.Chapter;
+import de.danoeh.antennapod.util.comparator.ChapterStartTimeComparator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Index of the chapters of a Playable object that finds the chapter at a position without walking the chapter list.
+ * <p/>
+ * The start times are stored in a sorted array and searched with a binary search. Because the position usually
+ * changes only a little between two queries, the index of the last result is remembered and checked first, so most
+ * queries don't need a search at all.
+ * <p/>
+ * A ChapterTimeline is immutable except for this hint, so it can be used by several threads.
+ */
+public class ChapterTimeline {
+    private final List<Chapter> source;
+    private final int sourceSize;
+    private final Chapter[] chapters;
+    private final long[] starts;
+
+    /**
+     * Index of the chapter that was returned by the last query.
+     */
+    private volatile int hint;
+
+    /**
+     * Creates a new ChapterTimeline. The list is not modified, chapters are sorted by their start time.
+     *
+     * @param chapters The chapters of a Playable object. Must not be null.
+     */
+    public ChapterTimeline(List<Chapter> chapters) {
+        if (chapters == null)
+            throw new IllegalArgumentException("chapters = null");
+        this.source = chapters;
+        this.sourceSize = chapters.size();
+        List<Chapter> sorted = new ArrayList<Chapter>(chapters);
+        Collections.sort(sorted, new ChapterStartTimeComparator());
+        this.chapters = sorted.toArray(new Chapter[sorted.size()]);
+        this.starts = new long[this.chapters.length];
+        for (int i = 0; i < this.chapters.length; i++) {
+            starts[i] = this.chapters[i].getStart();
+        }
+    }
+
+    /**
+     * Returns true if this timeline has been created from the given list and the list hasn't changed its size since.
+     */
+    public boolean isFor(List<Chapter> chapters) {
+        return chapters == source && chapters.size() == sourceSize;
+    }
+
+    public int size() {
+        return chapters.length;
+    }
+
+    public Chapter get(int index) {
+        return chapters[index];
+    }
+
+    /**
+     * Returns the index of the chapter at the given position, i.e. of the last chapter that starts at or before the
+     * position. Positions before the start of the first chapter belong to the first chapter. Returns -1 if there are
+     * no chapters.
+     */
+    public int indexAt(long position) {
+        final int n = starts.length;
+        if (n == 0) {
+            return -1;
+        }
+        final int h = hint;
+        if (h < n && contains(h, position)) {
+            return h;
+        }
+        if (h + 1 < n && contains(h + 1, position)) {
+            hint = h + 1;
+            return h + 1;
+        }
+        // find the last start that is <= position
+        int low = 0;
+        int high = n - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        hint = low;
+        return low;
+    }
+
+    private boolean contains(int index, long position) {
+        return (index == 0 || starts[index] <= position)
+                && (index + 1 == starts.length || starts[index + 1] > position);
+    }
+
+    /**
+     * Returns the chapter at the given position or null if there are no chapters.
+     *
+     * @see #indexAt(long)
+     */
+    public Chapter getChapterAt(long position) {
+        final int index = indexAt(position);
+        return (index >= 0) ? chapters[index] : null;
+    }
+
+    /**
+     * Returns the first chapter that starts after the given position or null if there is no such chapter.
+     */
+    public Chapter getNextChapter(long position) {
+        final int index = indexAt(position);
+        if (index < 0) {
+            return null;
+        }
+        if (index == 0 && starts[0] > position) {
+            return chapters[0];
+        }
+        return (index + 1 < chapters.length) ? chapters[index + 1] : null;
+    }
+
+    /**
+     * Returns the chapter that a "previous" command should go back to: the chapter at the given position if more than
+     * 'restartThreshold' milliseconds of it have been played, otherwise the chapter before it. Returns null if there
+     * are no chapters.
+     */
+    public Chapter getPreviousChapter(long position, long restartThreshold) {
+        final int index = indexAt(position);
+        if (index < 0) {
+            return null;
+        }
+        if (index > 0 && position - starts[index] < restartThreshold) {
+            return chapters[index - 1];
+        }
+        return chapters[index];
+    }
+}
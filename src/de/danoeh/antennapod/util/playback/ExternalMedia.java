@@ -27,6 +27,7 @@ public class ExternalMedia implements Playable {
 	private String feedTitle;
 	private MediaType mediaType = MediaType.AUDIO;
 	private List<Chapter> chapters;
+	private volatile ChapterTimeline chapterTimeline;
 	private int duration;
 	private int position;
 
@@ -114,6 +115,20 @@ public class ExternalMedia implements Playable {
 		return chapters;
 	}
 
+	@Override
+	public ChapterTimeline getChapterTimeline() {
+		final List<Chapter> chapters = this.chapters;
+		if (chapters == null) {
+			return null;
+		}
+		ChapterTimeline timeline = chapterTimeline;
+		if (timeline == null || !timeline.isFor(chapters)) {
+			timeline = new ChapterTimeline(chapters);
+			chapterTimeline = timeline;
+		}
+		return timeline;
+	}
+
 	@Override
 	public String getWebsiteLink() {
 		return null;
@@ -56,6 +56,12 @@ public interface Playable extends Parcelable,
      */
     public List<Chapter> getChapters();
 
+    /**
+     * Returns an index of the chapter marks for finding the chapter at a position, or null if this Playable has no
+     * chapters. The index is created once and reused until the chapter list changes.
+     */
+    public ChapterTimeline getChapterTimeline();
+
     /**
      * Returns a link to a website that is meant to be shown in a browser
      */
@@ -21,15 +21,15 @@ import de.danoeh.antennapod.feed.Chapter;
 import de.danoeh.antennapod.feed.FeedMedia;
 import de.danoeh.antennapod.feed.MediaType;
 import de.danoeh.antennapod.preferences.PlaybackPreferences;
+import de.danoeh.antennapod.service.playback.PlaybackClock;
 import de.danoeh.antennapod.service.playback.PlaybackService;
 import de.danoeh.antennapod.service.playback.PlaybackServiceMediaPlayer;
 import de.danoeh.antennapod.service.playback.PlayerStatus;
 import de.danoeh.antennapod.storage.DBTasks;
+import de.danoeh.antennapod.storage.PlaybackSnapshot;
 import de.danoeh.antennapod.util.Converter;
 import de.danoeh.antennapod.util.playback.Playable.PlayableUtils;
 
-import java.util.concurrent.*;
-
 /**
  * Communicates with the playback service. GUI classes should use this class to
  * control playback instead of communicating with the PlaybackService directly.
@@ -46,11 +46,11 @@ public abstract class PlaybackController {
     private Playable media;
     private PlayerStatus status;
 
-    private ScheduledThreadPoolExecutor schedExecutor;
-    private static final int SCHED_EX_POOLSIZE = 1;
-
-    protected MediaPositionObserver positionObserver;
-    protected ScheduledFuture positionObserverFuture;
+    protected final MediaPositionObserver positionObserver = new MediaPositionObserver();
+    /**
+     * The last position tick of the PlaybackService or null if the position has to be requested from the service.
+     */
+    private volatile PlaybackClock.Tick lastPositionTick;
 
     private boolean mediaInfoLoaded = false;
     private boolean released = false;
@@ -66,25 +66,6 @@ public abstract class PlaybackController {
             throw new IllegalArgumentException("activity = null");
         this.activity = activity;
         this.reinitOnPause = reinitOnPause;
-        schedExecutor = new ScheduledThreadPoolExecutor(SCHED_EX_POOLSIZE,
-                new ThreadFactory() {
-
-                    @Override
-                    public Thread newThread(Runnable r) {
-                        Thread t = new Thread(r);
-                        t.setPriority(Thread.MIN_PRIORITY);
-                        return t;
-                    }
-                }, new RejectedExecutionHandler() {
-
-            @Override
-            public void rejectedExecution(Runnable r,
-                                          ThreadPoolExecutor executor) {
-                Log.w(TAG,
-                        "Rejected execution of runnable in schedExecutor");
-            }
-        }
-        );
     }
 
     /**
@@ -141,7 +122,6 @@ public abstract class PlaybackController {
             // ignore
         }
         cancelPositionObserver();
-        schedExecutor.shutdownNow();
         media = null;
         released = true;
 
@@ -206,6 +186,21 @@ public abstract class PlaybackController {
                 .getDefaultSharedPreferences(activity.getApplicationContext());
         long currentlyPlayingMedia = PlaybackPreferences
                 .getCurrentlyPlayingMedia();
+        if (currentlyPlayingMedia == FeedMedia.PLAYABLE_TYPE_FEEDMEDIA) {
+            // the PlaybackService can restore the media without loading it from the database. Only the ID in the
+            // snapshot is checked here, the snapshot itself is restored by the service
+            final long snapshotMediaId = PlaybackSnapshot.getInstance(activity).getMediaId();
+            if (snapshotMediaId != 0 && snapshotMediaId == PlaybackPreferences.getCurrentlyPlayingFeedMediaId()) {
+                Intent serviceIntent = new Intent(activity,
+                        PlaybackService.class);
+                serviceIntent.putExtra(PlaybackService.EXTRA_RESTORE_SNAPSHOT, true);
+                serviceIntent.putExtra(
+                        PlaybackService.EXTRA_START_WHEN_PREPARED, false);
+                serviceIntent.putExtra(
+                        PlaybackService.EXTRA_PREPARE_IMMEDIATELY, false);
+                return serviceIntent;
+            }
+        }
         if (currentlyPlayingMedia != PlaybackPreferences.NO_MEDIA_PLAYING) {
             Playable media = PlayableUtils.createInstanceFromPreferences(activity,
                     (int) currentlyPlayingMedia, prefs);
@@ -236,27 +231,28 @@ public abstract class PlaybackController {
 
     public abstract void setupGUI();
 
-    private void setupPositionObserver() {
-        if ((positionObserverFuture != null && positionObserverFuture
-                .isCancelled())
-                || (positionObserverFuture != null && positionObserverFuture
-                .isDone()) || positionObserverFuture == null) {
+    /**
+     * Returns the interval in milliseconds at which onPositionObserverUpdate() is called while media is playing.
+     * Subclasses can override this method to choose a different rate.
+     */
+    protected long getPositionObserverInterval() {
+        return MediaPositionObserver.WAITING_INTERVALL;
+    }
 
+    private void setupPositionObserver() {
+        if (playbackService != null && !released) {
             if (BuildConfig.DEBUG)
                 Log.d(TAG, "Setting up position observer");
-            positionObserver = new MediaPositionObserver();
-            positionObserverFuture = schedExecutor.scheduleWithFixedDelay(
-                    positionObserver, MediaPositionObserver.WAITING_INTERVALL,
-                    MediaPositionObserver.WAITING_INTERVALL,
-                    TimeUnit.MILLISECONDS);
+            playbackService.subscribeToPositionTicks(positionObserver, getPositionObserverInterval());
         }
     }
 
     private void cancelPositionObserver() {
-        if (positionObserverFuture != null) {
-            boolean result = positionObserverFuture.cancel(true);
+        lastPositionTick = null;
+        if (playbackService != null) {
+            playbackService.unsubscribeFromPositionTicks(positionObserver);
             if (BuildConfig.DEBUG)
-                Log.d(TAG, "PositionObserver cancelled. Result: " + result);
+                Log.d(TAG, "PositionObserver cancelled");
         }
     }
 
@@ -278,6 +274,7 @@ public abstract class PlaybackController {
         @Override
         public void onServiceDisconnected(ComponentName name) {
             playbackService = null;
+            lastPositionTick = null;
             if (BuildConfig.DEBUG)
                 Log.d(TAG, "Disconnected from Service");
 
@@ -291,6 +288,8 @@ public abstract class PlaybackController {
                 Log.d(TAG, "Received statusUpdate Intent.");
             if (isConnectedToPlaybackService()) {
                 PlaybackServiceMediaPlayer.PSMPInfo info = playbackService.getPSMPInfo();
+                // the position might have changed, e.g. because of a seek
+                lastPositionTick = null;
                 status = info.playerStatus;
                 media = info.playable;
                 handleStatus();
@@ -626,8 +625,15 @@ public abstract class PlaybackController {
         return playbackService != null;
     }
 
+    /**
+     * Returns the current position. While media is playing, the position is extrapolated from the last position tick of
+     * the PlaybackService.
+     */
     public int getPosition() {
-        if (playbackService != null) {
+        final PlaybackClock.Tick tick = lastPositionTick;
+        if (tick != null && tick.getPosition() != PlaybackService.INVALID_TIME) {
+            return tick.getExtrapolatedPosition();
+        } else if (playbackService != null) {
             return playbackService.getCurrentPosition();
         } else {
             return PlaybackService.INVALID_TIME;
@@ -635,7 +641,10 @@ public abstract class PlaybackController {
     }
 
     public int getDuration() {
-        if (playbackService != null) {
+        final PlaybackClock.Tick tick = lastPositionTick;
+        if (tick != null && tick.getDuration() != PlaybackService.INVALID_TIME) {
+            return tick.getDuration();
+        } else if (playbackService != null) {
             return playbackService.getDuration();
         } else {
             return PlaybackService.INVALID_TIME;
@@ -752,15 +761,17 @@ public abstract class PlaybackController {
     }
 
     /**
-     * Refreshes the current position of the media file that is playing.
+     * Refreshes the current position of the media file that is playing. Receives the position ticks of the
+     * PlaybackService.
      */
-    public class MediaPositionObserver implements Runnable {
+    public class MediaPositionObserver implements PlaybackClock.Subscriber {
 
         public static final int WAITING_INTERVALL = 1000;
 
         @Override
-        public void run() {
-            if (playbackService != null && playbackService.getStatus() == PlayerStatus.PLAYING) {
+        public void onTick(PlaybackClock.Tick tick) {
+            if (tick.isPlaying()) {
+                lastPositionTick = tick;
                 activity.runOnUiThread(new Runnable() {
 
                     @Override
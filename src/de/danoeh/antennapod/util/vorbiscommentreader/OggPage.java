@@ -0,0 +1,87 @@
+package de.danoeh.antennapod.util.vorbiscommentreader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A page of an Ogg bitstream as read by OggPageReader.
+ */
+public class OggPage {
+	public static final int HEADER_TYPE_CONTINUATION = 0x01;
+	public static final int HEADER_TYPE_BEGINNING_OF_STREAM = 0x02;
+	public static final int HEADER_TYPE_END_OF_STREAM = 0x04;
+
+	private final int version;
+	private final int headerType;
+	private final long granulePosition;
+	private final int serialNumber;
+	private final int sequenceNumber;
+	private final int[] segmentTable;
+	private final ByteBuffer payload;
+
+	public OggPage(int version, int headerType, long granulePosition,
+			int serialNumber, int sequenceNumber, int[] segmentTable,
+			ByteBuffer payload) {
+		this.version = version;
+		this.headerType = headerType;
+		this.granulePosition = granulePosition;
+		this.serialNumber = serialNumber;
+		this.sequenceNumber = sequenceNumber;
+		this.segmentTable = segmentTable;
+		this.payload = payload;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public int getHeaderType() {
+		return headerType;
+	}
+
+	/** True if the first packet of this page continues a packet of the previous page. */
+	public boolean isContinuation() {
+		return (headerType & HEADER_TYPE_CONTINUATION) != 0;
+	}
+
+	public boolean isBeginningOfStream() {
+		return (headerType & HEADER_TYPE_BEGINNING_OF_STREAM) != 0;
+	}
+
+	public boolean isEndOfStream() {
+		return (headerType & HEADER_TYPE_END_OF_STREAM) != 0;
+	}
+
+	public long getGranulePosition() {
+		return granulePosition;
+	}
+
+	public int getSerialNumber() {
+		return serialNumber;
+	}
+
+	public int getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	/** Returns the lacing values of this page's segments. */
+	public int[] getSegmentTable() {
+		return segmentTable;
+	}
+
+	/**
+	 * Returns the payload of this page. The buffer is only valid until the
+	 * next page is read from the OggPageReader that has created this page.
+	 */
+	public ByteBuffer getPayload() {
+		return payload;
+	}
+
+	@Override
+	public String toString() {
+		return "OggPage [version=" + version + ", headerType=" + headerType
+				+ ", granulePosition=" + granulePosition + ", serialNumber="
+				+ serialNumber + ", sequenceNumber=" + sequenceNumber
+				+ ", segments=" + segmentTable.length + ", payloadLength="
+				+ payload.remaining() + "]";
+	}
+}
@@ -0,0 +1,244 @@
+package de.danoeh.antennapod.util.vorbiscommentreader;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads the pages of an Ogg bitstream from an InputStream. The stream is read
+ * in bulk into an internal buffer, so the given InputStream doesn't have to be
+ * buffered.
+ * <p/>
+ * Pages can either be read one by one with readPage or be reassembled into
+ * packets with readPacket. Both methods must not be mixed.
+ */
+public class OggPageReader {
+	private static final int BUFFER_SIZE = 8 * 1024;
+	/** Length of a page header without the segment table. */
+	private static final int HEADER_LENGTH = 27;
+	private static final int MAX_SEGMENTS = 255;
+	private static final int MAX_PAYLOAD_LENGTH = MAX_SEGMENTS * 255;
+	private static final int STREAM_STRUCTURE_VERSION = 0;
+	private static final int DEFAULT_MAX_PACKET_LENGTH = 1024 * 1024;
+
+	private final InputStream input;
+	private final byte[] buffer;
+	private int bufferPosition;
+	private int bufferLimit;
+	private boolean endOfStream;
+
+	private final byte[] payload;
+
+	private final int maxPacketLength;
+	private byte[] packet;
+	private OggPage currentPage;
+	private int segmentIndex;
+	private boolean hasSerialNumber;
+	private int serialNumber;
+
+	public OggPageReader(InputStream input) {
+		this(input, DEFAULT_MAX_PACKET_LENGTH);
+	}
+
+	/**
+	 * @param maxPacketLength Maximum length of a packet returned by readPacket.
+	 */
+	public OggPageReader(InputStream input, int maxPacketLength) {
+		if (input == null) {
+			throw new IllegalArgumentException("input must not be null");
+		}
+		this.input = input;
+		this.maxPacketLength = maxPacketLength;
+		this.buffer = new byte[BUFFER_SIZE];
+		this.payload = new byte[MAX_PAYLOAD_LENGTH];
+		this.packet = new byte[BUFFER_SIZE];
+	}
+
+	/**
+	 * Reads the next page of the stream.
+	 *
+	 * @return The next page or null if the end of the stream has been reached.
+	 */
+	public OggPage readPage() throws IOException {
+		while (findCapturePattern()) {
+			if (!ensureAvailable(HEADER_LENGTH)) {
+				return null;
+			}
+			final int start = bufferPosition;
+			final int version = buffer[start + 4] & 0xFF;
+			if (version != STREAM_STRUCTURE_VERSION) {
+				// not a real page header, resynchronize
+				bufferPosition++;
+				continue;
+			}
+			final int headerType = buffer[start + 5] & 0xFF;
+			final long granulePosition = readLong(start + 6);
+			final int serial = readInt(start + 14);
+			final int sequenceNumber = readInt(start + 18);
+			final int numSegments = buffer[start + 26] & 0xFF;
+			if (!ensureAvailable(HEADER_LENGTH + numSegments)) {
+				return null;
+			}
+			int[] segmentTable = new int[numSegments];
+			int payloadLength = 0;
+			for (int i = 0; i < numSegments; i++) {
+				segmentTable[i] = buffer[start + HEADER_LENGTH + i] & 0xFF;
+				payloadLength += segmentTable[i];
+			}
+			bufferPosition += HEADER_LENGTH + numSegments;
+			if (readFully(payload, payloadLength) != payloadLength) {
+				return null;
+			}
+			return new OggPage(version, headerType, granulePosition, serial,
+					sequenceNumber, segmentTable, ByteBuffer.wrap(payload, 0,
+							payloadLength).order(ByteOrder.LITTLE_ENDIAN));
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the next packet of the logical bitstream of the first page.
+	 * Packets that span multiple pages are reassembled. Pages of other logical
+	 * bitstreams are skipped.
+	 *
+	 * @return A little-endian buffer that contains the packet. The buffer is
+	 * only valid until the next call of readPacket. Returns null if the end of
+	 * the stream has been reached.
+	 * @throws IOException If the packet is longer than the maximum packet
+	 *                     length.
+	 */
+	public ByteBuffer readPacket() throws IOException {
+		int packetLength = 0;
+		while (true) {
+			if (currentPage == null
+					|| segmentIndex >= currentPage.getSegmentTable().length) {
+				currentPage = readPage();
+				segmentIndex = 0;
+				if (currentPage == null) {
+					return null;
+				}
+				if (!hasSerialNumber) {
+					serialNumber = currentPage.getSerialNumber();
+					hasSerialNumber = true;
+				} else if (currentPage.getSerialNumber() != serialNumber) {
+					currentPage = null;
+					continue;
+				}
+				if (packetLength > 0 && !currentPage.isContinuation()) {
+					// previous packet was never completed
+					packetLength = 0;
+				}
+				continue;
+			}
+			final int lacingValue = currentPage.getSegmentTable()[segmentIndex++];
+			if (packetLength + lacingValue > maxPacketLength) {
+				throw new IOException("Packet exceeds maximum length of "
+						+ maxPacketLength + " bytes");
+			}
+			if (packetLength + lacingValue > packet.length) {
+				byte[] newPacket = new byte[Math.min(maxPacketLength,
+						Math.max(packet.length * 2, packetLength + lacingValue))];
+				System.arraycopy(packet, 0, newPacket, 0, packetLength);
+				packet = newPacket;
+			}
+			currentPage.getPayload().get(packet, packetLength, lacingValue);
+			packetLength += lacingValue;
+			if (lacingValue < 255) {
+				return ByteBuffer.wrap(packet, 0, packetLength).order(
+						ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+	}
+
+	/**
+	 * Moves the buffer position to the next occurrence of the capture pattern
+	 * "OggS".
+	 *
+	 * @return false if the end of the stream was reached before the pattern
+	 * could be found.
+	 */
+	private boolean findCapturePattern() throws IOException {
+		while (ensureAvailable(4)) {
+			final int end = bufferLimit - 3;
+			for (int i = bufferPosition; i < end; i++) {
+				if (buffer[i] == 'O' && buffer[i + 1] == 'g'
+						&& buffer[i + 2] == 'g' && buffer[i + 3] == 'S') {
+					bufferPosition = i;
+					return true;
+				}
+			}
+			// the last three bytes might be the beginning of the pattern
+			bufferPosition = end;
+			if (!fill()) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Makes sure that at least the given number of bytes is available in the
+	 * buffer, starting at the buffer position.
+	 */
+	private boolean ensureAvailable(int length) throws IOException {
+		while (bufferLimit - bufferPosition < length) {
+			if (!fill()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the remaining bytes to the beginning of the buffer and reads as
+	 * many bytes from the input as possible.
+	 *
+	 * @return false if no bytes could be read.
+	 */
+	private boolean fill() throws IOException {
+		if (endOfStream) {
+			return false;
+		}
+		final int remaining = bufferLimit - bufferPosition;
+		System.arraycopy(buffer, bufferPosition, buffer, 0, remaining);
+		bufferPosition = 0;
+		bufferLimit = remaining;
+		int read = input.read(buffer, bufferLimit, buffer.length - bufferLimit);
+		if (read == -1) {
+			endOfStream = true;
+			return false;
+		}
+		bufferLimit += read;
+		return true;
+	}
+
+	/**
+	 * Copies the given number of bytes into the destination array, first from
+	 * the buffer, then directly from the input stream.
+	 *
+	 * @return The number of bytes that were copied.
+	 */
+	private int readFully(byte[] dest, int length) throws IOException {
+		final int fromBuffer = Math.min(length, bufferLimit - bufferPosition);
+		System.arraycopy(buffer, bufferPosition, dest, 0, fromBuffer);
+		bufferPosition += fromBuffer;
+		if (fromBuffer == length || endOfStream) {
+			return fromBuffer;
+		}
+		return fromBuffer + IOUtils.read(input, dest, fromBuffer, length - fromBuffer);
+	}
+
+	private int readInt(int offset) {
+		return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8)
+				| ((buffer[offset + 2] & 0xFF) << 16)
+				| ((buffer[offset + 3] & 0xFF) << 24);
+	}
+
+	private long readLong(int offset) {
+		return (readInt(offset) & 0xFFFFFFFFL)
+				| ((long) readInt(offset + 4) << 32);
+	}
+}
@@ -22,13 +22,13 @@ public class VorbisCommentChapterReader extends VorbisCommentReader {
 
 	@Override
 	public void onVorbisCommentFound() {
-		System.out.println("Vorbis comment found");
+		if (BuildConfig.DEBUG) Log.d(TAG, "Vorbis comment found");
 	}
 
 	@Override
 	public void onVorbisCommentHeaderFound(VorbisCommentHeader header) {
 		chapters = new ArrayList<Chapter>();
-		System.out.println(header.toString());
+		if (BuildConfig.DEBUG) Log.d(TAG, header.toString());
 	}
 
 	@Override
@@ -69,15 +69,12 @@ public class VorbisCommentChapterReader extends VorbisCommentReader {
 
 	@Override
 	public void onNoVorbisCommentFound() {
-		System.out.println("No vorbis comment found");
+		if (BuildConfig.DEBUG) Log.d(TAG, "No vorbis comment found");
 	}
 
 	@Override
 	public void onEndOfComment() {
-		System.out.println("End of comment");
-		for (Chapter c : chapters) {
-			System.out.println(c.toString());
-		}
+		if (BuildConfig.DEBUG) Log.d(TAG, "End of comment");
 	}
 
 	@Override
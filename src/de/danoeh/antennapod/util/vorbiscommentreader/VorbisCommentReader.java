@@ -1,22 +1,23 @@
 package de.danoeh.antennapod.util.vorbiscommentreader;
 
-import org.apache.commons.io.EndianUtils;
-import org.apache.commons.io.IOUtils;
-
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
-import java.util.Arrays;
 
 
+/**
+ * Reads the Vorbis comment header of an Ogg file. The header packets are read
+ * with an OggPageReader, reading stops after the comment header packet.
+ */
 public abstract class VorbisCommentReader {
-	/** Length of first page in an ogg file in bytes. */
-	private static final int FIRST_PAGE_LENGTH = 58;
-	private static final int SECOND_PAGE_MAX_LENGTH = 64 * 1024 * 1024;
 	private static final int PACKET_TYPE_IDENTIFICATION = 1;
 	private static final int PACKET_TYPE_COMMENT = 3;
+	private static final byte[] VORBIS = {'v', 'o', 'r', 'b', 'i', 's'};
+
+	private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
 
 	/** Called when Reader finds identification header. */
 	public abstract void onVorbisCommentFound();
@@ -46,39 +47,14 @@ public abstract class VorbisCommentReader {
 	public void readInputStream(InputStream input)
 			throws VorbisCommentReaderException {
 		try {
+			OggPageReader reader = new OggPageReader(input);
 			// look for identification header
-			if (findIdentificationHeader(input)) {
-				
+			ByteBuffer packet = reader.readPacket();
+			if (packet != null && isVorbisHeader(packet, PACKET_TYPE_IDENTIFICATION)) {
 				onVorbisCommentFound();
-				input = new OggInputStream(input);
-				if (findCommentHeader(input)) {
-					VorbisCommentHeader commentHeader = readCommentHeader(input);
-					if (commentHeader != null) {
-						onVorbisCommentHeaderFound(commentHeader);
-						for (int i = 0; i < commentHeader
-								.getUserCommentLength(); i++) {
-							try {
-								long vectorLength = EndianUtils
-										.readSwappedUnsignedInteger(input);
-								String key = readContentVectorKey(input,
-										vectorLength).toLowerCase();
-								boolean readValue = onContentVectorKey(key);
-								if (readValue) {
-									String value = readUTF8String(
-											input,
-											(int) (vectorLength - key.length() - 1));
-									onContentVectorValue(key, value);
-								} else {
-									IOUtils.skipFully(input,
-											vectorLength - key.length() - 1);
-								}
-							} catch (IOException e) {
-								e.printStackTrace();
-							}
-						}
-						onEndOfComment();
-					}
-
+				packet = reader.readPacket();
+				if (packet != null && isVorbisHeader(packet, PACKET_TYPE_COMMENT)) {
+					readComment(packet);
 				} else {
 					onError(new VorbisCommentReaderException(
 							"No comment header found"));
@@ -91,98 +67,89 @@ public abstract class VorbisCommentReader {
 		}
 	}
 
-	private String readUTF8String(InputStream input, long length)
-			throws IOException {
-		byte[] buffer = new byte[(int) length];
-		
-		IOUtils.readFully(input, buffer);
-		Charset charset = Charset.forName("UTF-8");
-		return charset.newDecoder().decode(ByteBuffer.wrap(buffer)).toString();
-	}
-
 	/**
-	 * Looks for an identification header in the first page of the file. If an
-	 * identification header is found, it will be skipped completely and the
-	 * method will return true, otherwise false.
-	 * 
-	 * @throws IOException
+	 * Returns true if the packet starts with the given packet type and the
+	 * string "vorbis". The position of the packet is moved behind the string.
 	 */
-	private boolean findIdentificationHeader(InputStream input)
-			throws IOException {
-		byte[] buffer = new byte[FIRST_PAGE_LENGTH];
-		IOUtils.readFully(input, buffer);
-		int i;
-		for (i = 6; i < buffer.length; i++) {
-			if (buffer[i - 5] == 'v' && buffer[i - 4] == 'o'
-					&& buffer[i - 3] == 'r' && buffer[i - 2] == 'b'
-					&& buffer[i - 1] == 'i' && buffer[i] == 's'
-					&& buffer[i - 6] == PACKET_TYPE_IDENTIFICATION) {
-				return true;
+	private boolean isVorbisHeader(ByteBuffer packet, int packetType) {
+		if (packet.remaining() < VORBIS.length + 1
+				|| packet.get() != packetType) {
+			return false;
+		}
+		for (byte b : VORBIS) {
+			if (packet.get() != b) {
+				return false;
 			}
 		}
-		return false;
+		return true;
 	}
 
-	private boolean findCommentHeader(InputStream input) throws IOException {
-		char[] buffer = new char["vorbis".length() + 1];
-		for (int bytesRead = 0; bytesRead < SECOND_PAGE_MAX_LENGTH; bytesRead++) {
-			char c = (char) input.read();
-			int dest = -1;
-			switch (c) {
-			case PACKET_TYPE_COMMENT:
-				dest = 0;
-				break;
-			case 'v':
-				dest = 1;
-				break;
-			case 'o':
-				dest = 2;
-				break;
-			case 'r':
-				dest = 3;
-				break;
-			case 'b':
-				dest = 4;
-				break;
-			case 'i':
-				dest = 5;
-				break;
-			case 's':
-				dest = 6;
-				break;
-			}
-			if (dest >= 0) {
-				buffer[dest] = c;
-				if (buffer[1] == 'v' && buffer[2] == 'o' && buffer[3] == 'r'
-						&& buffer[4] == 'b' && buffer[5] == 'i'
-						&& buffer[6] == 's' && buffer[0] == PACKET_TYPE_COMMENT) {
-					return true;
+	private void readComment(ByteBuffer packet)
+			throws VorbisCommentReaderException {
+		try {
+			VorbisCommentHeader commentHeader = readCommentHeader(packet);
+			onVorbisCommentHeaderFound(commentHeader);
+			for (long i = 0; i < commentHeader.getUserCommentLength(); i++) {
+				final int vectorLength = (int) readUnsignedInt(packet);
+				if (vectorLength < 0 || vectorLength > packet.remaining()) {
+					throw new VorbisCommentReaderException(
+							"Invalid content vector length");
 				}
-			} else {
-				Arrays.fill(buffer, (char) 0);
+				final int vectorEnd = packet.position() + vectorLength;
+				String key = readContentVectorKey(packet, vectorEnd);
+				if (key != null) {
+					key = key.toLowerCase();
+					if (onContentVectorKey(key)) {
+						String value = readUTF8String(packet, vectorEnd
+								- packet.position());
+						onContentVectorValue(key, value);
+					}
+				}
+				packet.position(vectorEnd);
 			}
+			onEndOfComment();
+		} catch (BufferUnderflowException e) {
+			throw new VorbisCommentReaderException("Unexpected end of comment header", e);
 		}
-		return false;
 	}
 
-	private VorbisCommentHeader readCommentHeader(InputStream input)
-			throws IOException, VorbisCommentReaderException {
+	private long readUnsignedInt(ByteBuffer packet) {
+		return packet.getInt() & 0xFFFFFFFFL;
+	}
+
+	private String readUTF8String(ByteBuffer packet, int length)
+			throws VorbisCommentReaderException {
+		if (length < 0 || length > packet.remaining()) {
+			throw new VorbisCommentReaderException("Invalid string length");
+		}
+		ByteBuffer source = packet.duplicate();
+		source.limit(packet.position() + length);
+		packet.position(packet.position() + length);
 		try {
-			long vendorLength = EndianUtils.readSwappedUnsignedInteger(input);
-			String vendorName = readUTF8String(input, vendorLength);
-			long userCommentLength = EndianUtils
-					.readSwappedUnsignedInteger(input);
-			return new VorbisCommentHeader(vendorName, userCommentLength);
-		} catch (UnsupportedEncodingException e) {
+			return CHARSET_UTF8.newDecoder().decode(source).toString();
+		} catch (CharacterCodingException e) {
 			throw new VorbisCommentReaderException(e);
 		}
 	}
 
-	private String readContentVectorKey(InputStream input, long vectorLength)
-			throws IOException {
-		StringBuffer buffer = new StringBuffer();
-		for (int i = 0; i < vectorLength; i++) {
-			char c = (char) input.read();
+	private VorbisCommentHeader readCommentHeader(ByteBuffer packet)
+			throws VorbisCommentReaderException {
+		long vendorLength = readUnsignedInt(packet);
+		String vendorName = readUTF8String(packet, (int) vendorLength);
+		long userCommentLength = readUnsignedInt(packet);
+		return new VorbisCommentHeader(vendorName, userCommentLength);
+	}
+
+	/**
+	 * Reads the key of a content vector. The position of the packet is moved
+	 * behind the '=' character.
+	 *
+	 * @return The key or null if the content vector doesn't contain a key.
+	 */
+	private String readContentVectorKey(ByteBuffer packet, int vectorEnd) {
+		StringBuilder buffer = new StringBuilder();
+		while (packet.position() < vectorEnd) {
+			char c = (char) (packet.get() & 0xFF);
 			if (c == '=') {
 				return buffer.toString();
 			} else {
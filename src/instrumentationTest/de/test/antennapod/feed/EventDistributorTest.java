@@ -0,0 +1,120 @@
+package instrumentationTest.de.test.antennapod.feed;
+
+import android.test.InstrumentationTestCase;
+import de.danoeh.antennapod.feed.DatabaseEvent;
+import de.danoeh.antennapod.feed.EventDistributor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the TypedEventListeners of EventDistributor
+ */
+public class EventDistributorTest extends InstrumentationTestCase {
+    private static final long TIMEOUT = 5L;
+    private static final long COALESCING_WINDOW = 300;
+
+    public void testCoalescing() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<List<DatabaseEvent>> received = new ArrayList<List<DatabaseEvent>>();
+        EventDistributor.TypedEventListener listener = new EventDistributor.TypedEventListener(
+                EventDistributor.UNREAD_ITEMS_UPDATE | EventDistributor.QUEUE_UPDATE,
+                EventDistributor.TypedEventListener.THREAD_BACKGROUND, COALESCING_WINDOW) {
+            @Override
+            public void onEvents(List<DatabaseEvent> events) {
+                synchronized (received) {
+                    received.add(events);
+                }
+                latch.countDown();
+            }
+        };
+        EventDistributor eventDistributor = EventDistributor.getInstance();
+        eventDistributor.register(listener);
+        try {
+            eventDistributor.sendUnreadItemsUpdateBroadcast(null, new long[]{3, 1});
+            eventDistributor.sendUnreadItemsUpdateBroadcast(new long[]{7}, new long[]{2, 3});
+            eventDistributor.sendQueueUpdateBroadcast(5);
+            // not in the listener's event mask
+            eventDistributor.sendFeedUpdateBroadcast(7);
+
+            assertTrue(latch.await(TIMEOUT, TimeUnit.SECONDS));
+            // give the distributor the chance to deliver a second batch, which it must not do
+            Thread.sleep(2 * COALESCING_WINDOW);
+            synchronized (received) {
+                assertEquals(1, received.size());
+                List<DatabaseEvent> events = received.get(0);
+                assertEquals(2, events.size());
+
+                DatabaseEvent unread = EventDistributor.TypedEventListener.getEvent(events,
+                        EventDistributor.UNREAD_ITEMS_UPDATE);
+                assertNotNull(unread);
+                assertFalse(unread.isUnspecific());
+                assertTrue(Arrays.equals(new long[]{1, 2, 3}, unread.getItemIds()));
+                assertTrue(Arrays.equals(new long[]{7}, unread.getFeedIds()));
+                assertTrue(unread.affectsItem(2));
+                assertFalse(unread.affectsItem(4));
+
+                DatabaseEvent queue = EventDistributor.TypedEventListener.getEvent(events,
+                        EventDistributor.QUEUE_UPDATE);
+                assertNotNull(queue);
+                assertTrue(Arrays.equals(new long[]{5}, queue.getItemIds()));
+                assertNull(EventDistributor.TypedEventListener.getEvent(events, EventDistributor.FEED_LIST_UPDATE));
+            }
+        } finally {
+            eventDistributor.unregister(listener);
+        }
+    }
+
+    public void testUnspecificEventsAreMerged() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<DatabaseEvent> received = new ArrayList<DatabaseEvent>();
+        EventDistributor.TypedEventListener listener = new EventDistributor.TypedEventListener(
+                EventDistributor.UNREAD_ITEMS_UPDATE,
+                EventDistributor.TypedEventListener.THREAD_BACKGROUND, COALESCING_WINDOW) {
+            @Override
+            public void onEvents(List<DatabaseEvent> events) {
+                synchronized (received) {
+                    received.addAll(events);
+                }
+                latch.countDown();
+            }
+        };
+        EventDistributor eventDistributor = EventDistributor.getInstance();
+        eventDistributor.register(listener);
+        try {
+            eventDistributor.sendUnreadItemsUpdateBroadcast(null, new long[]{1});
+            // sent by code that doesn't know the IDs of the affected items
+            eventDistributor.sendUnreadItemsUpdateBroadcast();
+
+            assertTrue(latch.await(TIMEOUT, TimeUnit.SECONDS));
+            synchronized (received) {
+                assertEquals(1, received.size());
+                assertTrue(received.get(0).isUnspecific());
+                assertTrue(received.get(0).affectsItem(42));
+                assertTrue(received.get(0).affectsFeed(42));
+            }
+        } finally {
+            eventDistributor.unregister(listener);
+        }
+    }
+
+    public void testUnregister() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        EventDistributor.TypedEventListener listener = new EventDistributor.TypedEventListener(
+                EventDistributor.QUEUE_UPDATE,
+                EventDistributor.TypedEventListener.THREAD_BACKGROUND, COALESCING_WINDOW) {
+            @Override
+            public void onEvents(List<DatabaseEvent> events) {
+                latch.countDown();
+            }
+        };
+        EventDistributor eventDistributor = EventDistributor.getInstance();
+        eventDistributor.register(listener);
+        eventDistributor.sendQueueUpdateBroadcast(1);
+        eventDistributor.unregister(listener);
+        assertFalse(latch.await(2 * COALESCING_WINDOW, TimeUnit.MILLISECONDS));
+    }
+}
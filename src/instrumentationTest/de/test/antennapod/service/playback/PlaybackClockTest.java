@@ -0,0 +1,140 @@
+package instrumentationTest.de.test.antennapod.service.playback;
+
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import de.danoeh.antennapod.service.playback.PlaybackClock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for PlaybackClock
+ */
+public class PlaybackClockTest extends InstrumentationTestCase {
+
+    private static final int POSITION = 10000;
+    private static final int DURATION = 60000;
+
+    private ScheduledThreadPoolExecutor executor;
+    private AtomicInteger positionQueries;
+    private PlaybackClock clock;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = new ScheduledThreadPoolExecutor(1);
+        positionQueries = new AtomicInteger();
+        clock = new PlaybackClock(executor, new PlaybackClock.PositionSource() {
+            @Override
+            public int getPosition() {
+                positionQueries.incrementAndGet();
+                return POSITION;
+            }
+
+            @Override
+            public int getDuration() {
+                return DURATION;
+            }
+
+            @Override
+            public float getSpeed() {
+                return 2.0f;
+            }
+
+            @Override
+            public boolean isPlaying() {
+                return true;
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        clock.unsubscribeAll();
+        executor.shutdownNow();
+    }
+
+    public void testSubscribersUseTheirOwnRate() throws InterruptedException {
+        final CountDownLatch fast = new CountDownLatch(4);
+        final CountDownLatch slow = new CountDownLatch(1);
+        final AtomicInteger slowTicks = new AtomicInteger();
+        clock.subscribe(new PlaybackClock.Subscriber() {
+            @Override
+            public void onTick(PlaybackClock.Tick tick) {
+                fast.countDown();
+            }
+        }, 100);
+        clock.subscribe(new PlaybackClock.Subscriber() {
+            @Override
+            public void onTick(PlaybackClock.Tick tick) {
+                slowTicks.incrementAndGet();
+                slow.countDown();
+            }
+        }, 400);
+        assertTrue(fast.await(2000, TimeUnit.MILLISECONDS));
+        assertTrue(slow.await(2000, TimeUnit.MILLISECONDS));
+        assertTrue(slowTicks.get() <= 2);
+    }
+
+    public void testSubscribersDueAtTheSameTimeShareTick() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(2);
+        PlaybackClock.Subscriber subscriber = new PlaybackClock.Subscriber() {
+            @Override
+            public void onTick(PlaybackClock.Tick tick) {
+                clock.unsubscribe(this);
+                latch.countDown();
+            }
+        };
+        PlaybackClock.Subscriber other = new PlaybackClock.Subscriber() {
+            @Override
+            public void onTick(PlaybackClock.Tick tick) {
+                clock.unsubscribe(this);
+                latch.countDown();
+            }
+        };
+        clock.subscribe(subscriber, 200);
+        clock.subscribe(other, 200);
+        assertTrue(latch.await(2000, TimeUnit.MILLISECONDS));
+        assertEquals(1, positionQueries.get());
+    }
+
+    public void testNoTicksWithoutSubscribers() throws InterruptedException {
+        PlaybackClock.Subscriber subscriber = new PlaybackClock.Subscriber() {
+            @Override
+            public void onTick(PlaybackClock.Tick tick) {
+                fail("Unsubscribed subscriber was notified");
+            }
+        };
+        clock.subscribe(subscriber, 100);
+        assertTrue(clock.isSubscribed(subscriber));
+        clock.unsubscribe(subscriber);
+        assertFalse(clock.isSubscribed(subscriber));
+        Thread.sleep(300);
+        assertEquals(0, positionQueries.get());
+    }
+
+    public void testExtrapolatedPosition() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final PlaybackClock.Tick[] result = new PlaybackClock.Tick[1];
+        clock.subscribe(new PlaybackClock.Subscriber() {
+            @Override
+            public void onTick(PlaybackClock.Tick tick) {
+                clock.unsubscribe(this);
+                result[0] = tick;
+                latch.countDown();
+            }
+        }, 100);
+        assertTrue(latch.await(2000, TimeUnit.MILLISECONDS));
+        PlaybackClock.Tick tick = result[0];
+        assertEquals(POSITION, tick.getPosition());
+        assertEquals(DURATION, tick.getDuration());
+        Thread.sleep(500);
+        final int elapsed = (int) (SystemClock.elapsedRealtime() - tick.getTimestamp());
+        final int extrapolated = tick.getExtrapolatedPosition();
+        assertTrue(extrapolated >= POSITION + 2 * 500);
+        assertTrue(extrapolated <= POSITION + 2 * elapsed);
+    }
+}
@@ -3,6 +3,7 @@ package instrumentationTest.de.test.antennapod.service.playback;
 import android.content.Context;
 import android.media.RemoteControlClient;
 import android.test.InstrumentationTestCase;
+import android.util.Log;
 import de.danoeh.antennapod.feed.Feed;
 import de.danoeh.antennapod.feed.FeedItem;
 import de.danoeh.antennapod.feed.FeedMedia;
@@ -715,6 +716,119 @@ public class PlaybackServiceMediaPlayerTest extends InstrumentationTestCase {
     }
 
 
+    /**
+     * Measures the time between the call of playMediaObject and the start of playback when one episode follows
+     * another, once with a preloaded player and once without.
+     */
+    public void testTransitionLatencyWithPreloading() throws InterruptedException {
+        final Context c = getInstrumentation().getTargetContext();
+        final PlayingStatusCallback callback = new PlayingStatusCallback();
+        PlaybackServiceMediaPlayer psmp = new PlaybackServiceMediaPlayer(c, callback);
+        Playable first = writeTestPlayable(PLAYABLE_FILE_URL, PLAYABLE_LOCAL_URL);
+        Playable preloaded = writeTestPlayable(PLAYABLE_FILE_URL, PLAYABLE_LOCAL_URL);
+        Playable notPreloaded = writeTestPlayable(PLAYABLE_FILE_URL, PLAYABLE_LOCAL_URL);
+
+        callback.expect(first);
+        psmp.playMediaObject(first, false, true, true);
+        assertTrue(callback.await());
+
+        psmp.preloadMediaObject(preloaded, false);
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LATCH_TIMEOUT_SECONDS);
+        while (!psmp.isPreloaded(preloaded, false) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(psmp.isPreloaded(preloaded, false));
+        assertFalse(psmp.isPreloaded(preloaded, true));
+
+        callback.expect(preloaded);
+        long start = System.currentTimeMillis();
+        psmp.playMediaObject(preloaded, false, true, true);
+        assertTrue(callback.await());
+        final long preloadedLatency = System.currentTimeMillis() - start;
+        assertFalse(psmp.isPreloaded(preloaded, false));
+
+        callback.expect(notPreloaded);
+        start = System.currentTimeMillis();
+        psmp.playMediaObject(notPreloaded, false, true, true);
+        assertTrue(callback.await());
+        final long notPreloadedLatency = System.currentTimeMillis() - start;
+
+        if (assertionError != null)
+            throw assertionError;
+        Log.i(TAG, "Transition latency: " + preloadedLatency + " ms with preloading, "
+                + notPreloadedLatency + " ms without preloading");
+        assertEquals(PlayerStatus.PLAYING, psmp.getPSMPInfo().playerStatus);
+        assertEquals(notPreloaded.getIdentifier(), psmp.getPSMPInfo().playable.getIdentifier());
+        psmp.shutdown();
+    }
+
+    /**
+     * Counts down a latch when the expected Playable object starts playing.
+     */
+    private class PlayingStatusCallback implements PlaybackServiceMediaPlayer.PSMPCallback {
+        private volatile Playable expected;
+        private volatile CountDownLatch latch;
+
+        void expect(Playable playable) {
+            expected = playable;
+            latch = new CountDownLatch(1);
+        }
+
+        boolean await() throws InterruptedException {
+            return latch.await(LATCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public void statusChanged(PlaybackServiceMediaPlayer.PSMPInfo newInfo) {
+            checkPSMPInfo(newInfo);
+            try {
+                assertFalse(newInfo.playerStatus == PlayerStatus.ERROR);
+            } catch (AssertionFailedError e) {
+                if (assertionError == null)
+                    assertionError = e;
+            }
+            if (newInfo.playerStatus == PlayerStatus.PLAYING
+                    && newInfo.playable.getIdentifier().equals(expected.getIdentifier())) {
+                latch.countDown();
+            }
+        }
+
+        @Override
+        public void shouldStop() {
+
+        }
+
+        @Override
+        public void playbackSpeedChanged(float s) {
+
+        }
+
+        @Override
+        public void onBufferingUpdate(int percent) {
+
+        }
+
+        @Override
+        public boolean onMediaPlayerInfo(int code) {
+            return false;
+        }
+
+        @Override
+        public boolean onMediaPlayerError(Object inObj, int what, int extra) {
+            return false;
+        }
+
+        @Override
+        public boolean endPlayback(boolean playNextEpisode) {
+            return false;
+        }
+
+        @Override
+        public RemoteControlClient getRemoteControlClient() {
+            return null;
+        }
+    }
+
     private final PlaybackServiceMediaPlayer.PSMPCallback defaultCallback = new PlaybackServiceMediaPlayer.PSMPCallback() {
         @Override
         public void statusChanged(PlaybackServiceMediaPlayer.PSMPInfo newInfo) {
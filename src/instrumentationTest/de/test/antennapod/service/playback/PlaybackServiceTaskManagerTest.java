@@ -1,11 +1,14 @@
 package instrumentationTest.de.test.antennapod.service.playback;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.test.InstrumentationTestCase;
+import de.danoeh.antennapod.feed.DatabaseEvent;
 import de.danoeh.antennapod.feed.EventDistributor;
 import de.danoeh.antennapod.feed.Feed;
 import de.danoeh.antennapod.feed.FeedItem;
 import de.danoeh.antennapod.service.playback.PlaybackServiceTaskManager;
+import de.danoeh.antennapod.storage.DBWriter;
 import de.danoeh.antennapod.storage.PodDBAdapter;
 import de.danoeh.antennapod.util.playback.Playable;
 
@@ -13,13 +16,20 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Test class for PlaybackServiceTaskManager
  */
 public class PlaybackServiceTaskManagerTest extends InstrumentationTestCase {
 
+    /**
+     * Maximum delay in milliseconds between the scheduled and the actual time of a sleep timer event.
+     */
+    private static final long SLEEP_TIMER_TOLERANCE = 200;
+
     @Override
     protected void tearDown() throws Exception {
         super.tearDown();
@@ -86,16 +96,12 @@ public class PlaybackServiceTaskManagerTest extends InstrumentationTestCase {
 
 
         final CountDownLatch countDownLatch = new CountDownLatch(1);
-        EventDistributor.EventListener queueListener = new EventDistributor.EventListener() {
-            @Override
-            public void update(EventDistributor eventDistributor, Integer arg) {
-                countDownLatch.countDown();
-            }
-        };
+        EventDistributor.TypedEventListener queueListener = createQueueListener(countDownLatch);
         EventDistributor.getInstance().register(queueListener);
         List<FeedItem> queue = writeTestQueue("a");
         EventDistributor.getInstance().sendQueueUpdateBroadcast();
         countDownLatch.await(5000, TimeUnit.MILLISECONDS);
+        EventDistributor.getInstance().unregister(queueListener);
 
         assertNotNull(queue);
         testQueue = pstm.getQueue();
@@ -107,6 +113,43 @@ public class PlaybackServiceTaskManagerTest extends InstrumentationTestCase {
         pstm.shutdown();
     }
 
+    public void testQueueUpdateReusesUnchangedItems() throws InterruptedException, ExecutionException,
+            TimeoutException {
+        final Context c = getInstrumentation().getTargetContext();
+        List<FeedItem> queue = writeTestQueue("a");
+        PlaybackServiceTaskManager pstm = new PlaybackServiceTaskManager(c, defaultPSTM);
+        List<FeedItem> oldQueue = pstm.getQueue();
+        assertEquals(queue.size(), oldQueue.size());
+
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+        EventDistributor.TypedEventListener queueListener = createQueueListener(countDownLatch);
+        EventDistributor.getInstance().register(queueListener);
+        DBWriter.removeQueueItem(c, queue.get(0).getId(), false).get(5, TimeUnit.SECONDS);
+        countDownLatch.await(5000, TimeUnit.MILLISECONDS);
+        EventDistributor.getInstance().unregister(queueListener);
+
+        List<FeedItem> testQueue = pstm.getQueue();
+        assertEquals(queue.size() - 1, testQueue.size());
+        for (int i = 0; i < testQueue.size(); i++) {
+            assertSame(oldQueue.get(i + 1), testQueue.get(i));
+        }
+        pstm.shutdown();
+    }
+
+    /**
+     * Returns a listener that is notified after the PSTM has received the same QUEUE_UPDATE event, because its
+     * coalescing window is longer than the PSTM's window.
+     */
+    private EventDistributor.TypedEventListener createQueueListener(final CountDownLatch countDownLatch) {
+        return new EventDistributor.TypedEventListener(EventDistributor.QUEUE_UPDATE,
+                EventDistributor.TypedEventListener.THREAD_BACKGROUND, 1000) {
+            @Override
+            public void onEvents(List<DatabaseEvent> events) {
+                countDownLatch.countDown();
+            }
+        };
+    }
+
     public void testStartPositionSaver() throws InterruptedException {
         final Context c = getInstrumentation().getTargetContext();
         final int NUM_COUNTDOWNS = 2;
@@ -123,6 +166,11 @@ public class PlaybackServiceTaskManagerTest extends InstrumentationTestCase {
 
             }
 
+            @Override
+            public void onSleepTimerFading(float volume) {
+
+            }
+
             @Override
             public void onWidgetUpdaterTick() {
 
@@ -171,6 +219,11 @@ public class PlaybackServiceTaskManagerTest extends InstrumentationTestCase {
 
             }
 
+            @Override
+            public void onSleepTimerFading(float volume) {
+
+            }
+
             @Override
             public void onWidgetUpdaterTick() {
                 countDownLatch.countDown();
@@ -231,6 +284,7 @@ public class PlaybackServiceTaskManagerTest extends InstrumentationTestCase {
         final long TIME = 2000;
         final long TIMEOUT = 2 * TIME;
         final CountDownLatch countDownLatch = new CountDownLatch(1);
+        final long[] expiration = new long[1];
         PlaybackServiceTaskManager pstm = new PlaybackServiceTaskManager(c, new PlaybackServiceTaskManager.PSTMCallback() {
             @Override
             public void positionSaverTick() {
@@ -242,9 +296,15 @@ public class PlaybackServiceTaskManagerTest extends InstrumentationTestCase {
                 if (countDownLatch.getCount() == 0) {
                     fail();
                 }
+                expiration[0] = SystemClock.elapsedRealtime();
                 countDownLatch.countDown();
             }
 
+            @Override
+            public void onSleepTimerFading(float volume) {
+
+            }
+
             @Override
             public void onWidgetUpdaterTick() {
 
@@ -255,8 +315,12 @@ public class PlaybackServiceTaskManagerTest extends InstrumentationTestCase {
 
             }
         });
+        final long start = SystemClock.elapsedRealtime();
         pstm.setSleepTimer(TIME);
-        countDownLatch.await(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertTrue(countDownLatch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(expiration[0] - start >= TIME);
+        assertTrue(expiration[0] - start <= TIME + SLEEP_TIMER_TOLERANCE);
+        assertFalse(pstm.isSleepTimerActive());
         pstm.shutdown();
     }
 
@@ -276,6 +340,11 @@ public class PlaybackServiceTaskManagerTest extends InstrumentationTestCase {
                 fail("Sleeptimer expired");
             }
 
+            @Override
+            public void onSleepTimerFading(float volume) {
+
+            }
+
             @Override
             public void onWidgetUpdaterTick() {
 
@@ -309,6 +378,166 @@ public class PlaybackServiceTaskManagerTest extends InstrumentationTestCase {
         pstm.shutdown();
     }
 
+    public void testGetSleepTimerTimeLeft() throws InterruptedException {
+        final Context c = getInstrumentation().getTargetContext();
+        final long TIME = 10000;
+        final long WAIT = 500;
+        PlaybackServiceTaskManager pstm = new PlaybackServiceTaskManager(c, defaultPSTM);
+        pstm.setSleepTimer(TIME);
+        final long start = SystemClock.elapsedRealtime();
+        Thread.sleep(WAIT);
+        final long elapsed = SystemClock.elapsedRealtime() - start;
+        final long timeLeft = pstm.getSleepTimerTimeLeft();
+        assertTrue(timeLeft <= TIME - elapsed);
+        assertTrue(timeLeft >= TIME - elapsed - SLEEP_TIMER_TOLERANCE);
+        pstm.shutdown();
+    }
+
+    public void testExtendSleepTimer() throws InterruptedException {
+        final Context c = getInstrumentation().getTargetContext();
+        final long TIME = 1000;
+        final long EXTRA_TIME = 1000;
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+        final long[] expiration = new long[1];
+        PlaybackServiceTaskManager pstm = new PlaybackServiceTaskManager(c, new PlaybackServiceTaskManager.PSTMCallback() {
+            @Override
+            public void positionSaverTick() {
+
+            }
+
+            @Override
+            public void onSleepTimerExpired() {
+                expiration[0] = SystemClock.elapsedRealtime();
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void onSleepTimerFading(float volume) {
+
+            }
+
+            @Override
+            public void onWidgetUpdaterTick() {
+
+            }
+
+            @Override
+            public void onChapterLoaded(Playable media) {
+
+            }
+        });
+        final long start = SystemClock.elapsedRealtime();
+        pstm.setSleepTimer(TIME);
+        pstm.extendSleepTimer(EXTRA_TIME);
+        assertTrue(pstm.getSleepTimerTimeLeft() > TIME);
+        assertTrue(countDownLatch.await(2 * (TIME + EXTRA_TIME), TimeUnit.MILLISECONDS));
+        assertTrue(expiration[0] - start >= TIME + EXTRA_TIME);
+        assertTrue(expiration[0] - start <= TIME + EXTRA_TIME + SLEEP_TIMER_TOLERANCE);
+        pstm.shutdown();
+    }
+
+    public void testSleepTimerFading() throws InterruptedException {
+        final Context c = getInstrumentation().getTargetContext();
+        final long TIME = 3000;
+        final long FADE_DURATION = 2000;
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+        final List<Float> volumes = new ArrayList<Float>();
+        final long[] fadeStart = new long[1];
+        PlaybackServiceTaskManager pstm = new PlaybackServiceTaskManager(c, new PlaybackServiceTaskManager.PSTMCallback() {
+            @Override
+            public void positionSaverTick() {
+
+            }
+
+            @Override
+            public void onSleepTimerExpired() {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void onSleepTimerFading(float volume) {
+                synchronized (volumes) {
+                    if (volumes.isEmpty()) {
+                        fadeStart[0] = SystemClock.elapsedRealtime();
+                    }
+                    volumes.add(volume);
+                }
+            }
+
+            @Override
+            public void onWidgetUpdaterTick() {
+
+            }
+
+            @Override
+            public void onChapterLoaded(Playable media) {
+
+            }
+        });
+        final long start = SystemClock.elapsedRealtime();
+        pstm.setSleepTimer(TIME, FADE_DURATION);
+        assertTrue(countDownLatch.await(2 * TIME, TimeUnit.MILLISECONDS));
+        pstm.shutdown();
+        synchronized (volumes) {
+            assertTrue(volumes.size() >= FADE_DURATION / PlaybackServiceTaskManager.SLEEP_TIMER_FADE_STEP_INTERVAL - 1);
+            assertTrue(fadeStart[0] - start >= TIME - FADE_DURATION);
+            assertTrue(fadeStart[0] - start <= TIME - FADE_DURATION + SLEEP_TIMER_TOLERANCE);
+            float previous = 1.0f;
+            for (float volume : volumes) {
+                assertTrue(volume > 0.0f);
+                assertTrue(volume <= previous);
+                previous = volume;
+            }
+        }
+    }
+
+    public void testDisableSleepTimerWhileFading() throws InterruptedException {
+        final Context c = getInstrumentation().getTargetContext();
+        final long TIME = 2000;
+        final long FADE_DURATION = 1500;
+        final CountDownLatch fading = new CountDownLatch(2);
+        final List<Float> volumes = new ArrayList<Float>();
+        PlaybackServiceTaskManager pstm = new PlaybackServiceTaskManager(c, new PlaybackServiceTaskManager.PSTMCallback() {
+            @Override
+            public void positionSaverTick() {
+
+            }
+
+            @Override
+            public void onSleepTimerExpired() {
+                fail("Sleeptimer expired");
+            }
+
+            @Override
+            public void onSleepTimerFading(float volume) {
+                synchronized (volumes) {
+                    volumes.add(volume);
+                }
+                fading.countDown();
+            }
+
+            @Override
+            public void onWidgetUpdaterTick() {
+
+            }
+
+            @Override
+            public void onChapterLoaded(Playable media) {
+
+            }
+        });
+        pstm.setSleepTimer(TIME, FADE_DURATION);
+        assertTrue(fading.await(TIME, TimeUnit.MILLISECONDS));
+        pstm.disableSleepTimer();
+        assertFalse(pstm.isSleepTimerActive());
+        Thread.sleep(TIME);
+        pstm.shutdown();
+        synchronized (volumes) {
+            assertTrue(volumes.get(1) < 1.0f);
+            assertEquals(1.0f, volumes.get(volumes.size() - 1));
+        }
+    }
+
     private final PlaybackServiceTaskManager.PSTMCallback defaultPSTM = new PlaybackServiceTaskManager.PSTMCallback() {
         @Override
         public void positionSaverTick() {
@@ -320,6 +549,11 @@ public class PlaybackServiceTaskManagerTest extends InstrumentationTestCase {
 
         }
 
+        @Override
+        public void onSleepTimerFading(float volume) {
+
+        }
+
         @Override
         public void onWidgetUpdaterTick() {
 
@@ -0,0 +1,270 @@
+package instrumentationTest.de.test.antennapod.service.playback;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import de.danoeh.antennapod.feed.Feed;
+import de.danoeh.antennapod.feed.FeedItem;
+import de.danoeh.antennapod.feed.FeedMedia;
+import de.danoeh.antennapod.service.playback.StreamProxy;
+import de.danoeh.antennapod.storage.DBReader;
+import de.danoeh.antennapod.storage.PodDBAdapter;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Test class for StreamProxy. The episodes are served by a local HTTP server that supports range requests.
+ */
+public class StreamProxyTest extends InstrumentationTestCase {
+
+    private static final int DATA_LENGTH = 300 * 1024 + 123;
+    private static final long TIMEOUT = 10000;
+
+    private byte[] data;
+    private TestServer server;
+    private StreamProxy proxy;
+    private FeedMedia media;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Context context = getInstrumentation().getTargetContext();
+        context.deleteDatabase(PodDBAdapter.DATABASE_NAME);
+        // make sure database is created
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.close();
+
+        data = new byte[DATA_LENGTH];
+        new Random(42).nextBytes(data);
+        server = new TestServer(data);
+        server.start();
+        proxy = new StreamProxy(context);
+        media = writeTestMedia("http://127.0.0.1:" + server.getPort() + "/episode-" + System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        proxy.stop();
+        server.stop();
+        final Context context = getInstrumentation().getTargetContext();
+        FeedMedia saved = DBReader.getFeedMedia(context, media.getId());
+        if (saved != null && saved.getFile_url() != null) {
+            new File(saved.getFile_url()).delete();
+        }
+        PodDBAdapter.deleteDatabase(context);
+    }
+
+    private FeedMedia writeTestMedia(String downloadUrl) {
+        final Context c = getInstrumentation().getTargetContext();
+        Feed f = new Feed(0, new Date(), "f", "l", "d", null, null, null, null, "i", null, null, "l", false);
+        f.setItems(new ArrayList<FeedItem>());
+        FeedItem i = new FeedItem(0, "t", "i", "l", new Date(), false, f);
+        f.getItems().add(i);
+        FeedMedia media = new FeedMedia(0, i, 0, 0, DATA_LENGTH, "audio/mpeg", null, downloadUrl, false, null, 0);
+        i.setMedia(media);
+        PodDBAdapter adapter = new PodDBAdapter(c);
+        adapter.open();
+        adapter.setCompleteFeed(f);
+        assertTrue(media.getId() != 0);
+        adapter.close();
+        return media;
+    }
+
+    private HttpURLConnection openConnection(String url, String range) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setReadTimeout((int) TIMEOUT);
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        return connection;
+    }
+
+    private FeedMedia waitUntilDownloaded() throws InterruptedException {
+        final Context context = getInstrumentation().getTargetContext();
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            FeedMedia saved = DBReader.getFeedMedia(context, media.getId());
+            if (saved != null && saved.isDownloaded()) {
+                return saved;
+            }
+            Thread.sleep(100);
+        }
+        fail("Cached stream has not been saved as a downloaded episode");
+        return null;
+    }
+
+    public void testReadCompleteStream() throws Exception {
+        String url = proxy.getUrl(media);
+        assertNotNull(url);
+        HttpURLConnection connection = openConnection(url, null);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(DATA_LENGTH, connection.getContentLength());
+        InputStream in = connection.getInputStream();
+        byte[] result = IOUtils.toByteArray(in);
+        in.close();
+        assertTrue(Arrays.equals(data, result));
+
+        FeedMedia saved = waitUntilDownloaded();
+        assertNotNull(saved.getFile_url());
+        File file = new File(saved.getFile_url());
+        assertTrue(file.exists());
+        assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(file)));
+    }
+
+    public void testRangeRequest() throws Exception {
+        final int start = 100 * 1024 + 7;
+        final int end = 200 * 1024 + 13;
+        String url = proxy.getUrl(media);
+        assertNotNull(url);
+        HttpURLConnection connection = openConnection(url, "bytes=" + start + "-" + end);
+        assertEquals(206, connection.getResponseCode());
+        assertEquals("bytes " + start + "-" + end + "/" + DATA_LENGTH, connection.getHeaderField("Content-Range"));
+        InputStream in = connection.getInputStream();
+        byte[] result = IOUtils.toByteArray(in);
+        in.close();
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, start, end + 1), result));
+    }
+
+    public void testRangeRequestOutOfBounds() throws Exception {
+        String url = proxy.getUrl(media);
+        assertNotNull(url);
+        HttpURLConnection connection = openConnection(url, "bytes=" + DATA_LENGTH + "-");
+        assertEquals(416, connection.getResponseCode());
+    }
+
+    public void testRequestWithoutValidTokenIsRejected() throws Exception {
+        String url = proxy.getUrl(media);
+        assertNotNull(url);
+        final String prefix = url.substring(0, url.lastIndexOf('/'));
+        assertEquals(403, openConnection(prefix, null).getResponseCode());
+        assertEquals(403, openConnection(prefix + "/", null).getResponseCode());
+        assertEquals(403, openConnection(prefix + "/0123456789abcdef0123456789abcdef", null).getResponseCode());
+        assertEquals(404, openConnection(prefix + "0/" + url.substring(url.lastIndexOf('/') + 1), null)
+                .getResponseCode());
+    }
+
+    public void testSeekIsServedFromCache() throws Exception {
+        String url = proxy.getUrl(media);
+        assertNotNull(url);
+        HttpURLConnection connection = openConnection(url, null);
+        InputStream in = connection.getInputStream();
+        IOUtils.toByteArray(in);
+        in.close();
+        waitUntilDownloaded();
+
+        final int requests = server.getNumberOfRequests();
+        final int start = 50 * 1024;
+        connection = openConnection(url, "bytes=" + start + "-");
+        assertEquals(206, connection.getResponseCode());
+        in = connection.getInputStream();
+        byte[] result = IOUtils.toByteArray(in);
+        in.close();
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, start, DATA_LENGTH), result));
+        assertEquals(requests, server.getNumberOfRequests());
+    }
+
+    /**
+     * Minimal HTTP server that serves a byte array and supports range requests.
+     */
+    private static class TestServer implements Runnable {
+        private static final Pattern RANGE_HEADER = Pattern.compile("Range: bytes=(\\d+)-(\\d*)",
+                Pattern.CASE_INSENSITIVE);
+
+        private final byte[] content;
+        private final AtomicInteger numberOfRequests = new AtomicInteger();
+        private ServerSocket serverSocket;
+        private Thread thread;
+
+        TestServer(byte[] content) {
+            this.content = content;
+        }
+
+        void start() throws IOException {
+            serverSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+            thread = new Thread(this);
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            IOUtils.closeQuietly(serverSocket);
+            thread.join();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        int getNumberOfRequests() {
+            return numberOfRequests.get();
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    final Socket client = serverSocket.accept();
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            handle(client);
+                        }
+                    }.start();
+                } catch (IOException e) {
+                    // server has been stopped
+                }
+            }
+        }
+
+        private void handle(Socket client) {
+            try {
+                numberOfRequests.incrementAndGet();
+                BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "US-ASCII"));
+                OutputStream out = client.getOutputStream();
+                int start = 0;
+                int end = content.length - 1;
+                boolean hasRange = false;
+                String line;
+                while ((line = in.readLine()) != null && line.length() > 0) {
+                    Matcher matcher = RANGE_HEADER.matcher(line);
+                    if (matcher.matches()) {
+                        hasRange = true;
+                        start = Integer.parseInt(matcher.group(1));
+                        if (matcher.group(2).length() > 0) {
+                            end = Math.min(end, Integer.parseInt(matcher.group(2)));
+                        }
+                    }
+                }
+                StringBuilder header = new StringBuilder();
+                header.append(hasRange ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+                header.append("Content-Length: ").append(end - start + 1).append("\r\n");
+                if (hasRange) {
+                    header.append("Content-Range: bytes ").append(start).append("-").append(end)
+                            .append("/").append(content.length).append("\r\n");
+                }
+                header.append("Connection: close\r\n\r\n");
+                out.write(header.toString().getBytes("US-ASCII"));
+                out.write(content, start, end - start + 1);
+                out.flush();
+            } catch (IOException e) {
+                // client has closed the connection
+            } finally {
+                IOUtils.closeQuietly(client);
+            }
+        }
+    }
+}
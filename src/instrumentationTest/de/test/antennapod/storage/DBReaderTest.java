@@ -2,9 +2,11 @@ package instrumentationTest.de.test.antennapod.storage;
 
 import android.content.Context;
 import android.test.InstrumentationTestCase;
+import de.danoeh.antennapod.feed.Chapter;
 import de.danoeh.antennapod.feed.Feed;
 import de.danoeh.antennapod.feed.FeedItem;
 import de.danoeh.antennapod.feed.FeedMedia;
+import de.danoeh.antennapod.feed.SimpleChapter;
 import de.danoeh.antennapod.storage.DBReader;
 import de.danoeh.antennapod.storage.FeedItemStatistics;
 import de.danoeh.antennapod.storage.PodDBAdapter;
@@ -12,6 +14,7 @@ import de.danoeh.antennapod.util.flattr.FlattrStatus;
 import static instrumentationTest.de.test.antennapod.storage.DBTestUtils.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Random;
@@ -259,6 +262,174 @@ public class DBReaderTest extends InstrumentationTestCase {
         }
     }
 
+    /**
+     * Saves a feed whose items have partly the same pubDate and pages through it with a small page size. The pages
+     * must contain every item exactly once, sorted by pubDate and ID in descending order.
+     */
+    public void testGetFeedItemPage() {
+        final Context context = getInstrumentation().getTargetContext();
+        final int numItems = 25;
+        final int pageSize = 4;
+        Feed feed = new Feed(0, new Date(), "feed", "link", "descr", null,
+                null, null, null, "feed", null, null, "url", false, new FlattrStatus());
+        feed.setItems(new ArrayList<FeedItem>());
+        for (int i = 0; i < numItems; i++) {
+            // three items share each pubDate
+            FeedItem item = new FeedItem(0, "item " + i, "id" + i, "link" + i, new Date(1000 * (i / 3)), true, feed);
+            if (i % 2 == 0) {
+                item.setMedia(new FeedMedia(item, "url" + i, 1, "audio/mp3"));
+            }
+            feed.getItems().add(item);
+        }
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.setCompleteFeed(feed);
+        adapter.close();
+
+        // items were inserted in ascending order, so their IDs ascend with their pubDate
+        List<FeedItem> expected = new ArrayList<FeedItem>(feed.getItems());
+        Collections.reverse(expected);
+
+        List<FeedItem> paged = new ArrayList<FeedItem>();
+        FeedItem after = null;
+        while (true) {
+            List<FeedItem> page = DBReader.getFeedItemPage(context, feed, false, after, pageSize);
+            assertTrue(page.size() <= pageSize);
+            paged.addAll(page);
+            if (page.size() < pageSize) {
+                break;
+            }
+            after = page.get(page.size() - 1);
+        }
+        assertEquals(numItems, paged.size());
+        for (int i = 0; i < numItems; i++) {
+            assertEquals(expected.get(i).getId(), paged.get(i).getId());
+            assertEquals(feed, paged.get(i).getFeed());
+        }
+
+        // episode filter
+        List<FeedItem> episodes = DBReader.getFeedItemPage(context, feed, true, null, numItems);
+        assertEquals((numItems + 1) / 2, episodes.size());
+        for (FeedItem item : episodes) {
+            assertNotNull(item.getMedia());
+        }
+    }
+
+    public void testGetUnreadItemsPage() {
+        final Context context = getInstrumentation().getTargetContext();
+        final int numItems = 10;
+        final int pageSize = 3;
+        List<FeedItem> unread = saveUnreadItems(numItems);
+
+        List<FeedItem> paged = new ArrayList<FeedItem>();
+        FeedItem after = null;
+        List<FeedItem> page;
+        do {
+            page = DBReader.getUnreadItemsPage(context, after, pageSize);
+            paged.addAll(page);
+            if (!page.isEmpty()) {
+                after = page.get(page.size() - 1);
+            }
+        } while (page.size() == pageSize);
+
+        assertEquals(unread.size(), paged.size());
+        for (int i = 0; i < paged.size(); i++) {
+            FeedItem item = paged.get(i);
+            assertFalse(item.isRead());
+            assertNotNull(item.getFeed());
+            if (i > 0) {
+                FeedItem previous = paged.get(i - 1);
+                assertTrue(previous.getPubDate().getTime() > item.getPubDate().getTime()
+                        || (previous.getPubDate().getTime() == item.getPubDate().getTime()
+                        && previous.getId() > item.getId()));
+            }
+        }
+    }
+
+    public void testGetDownloadedItemsPage() {
+        final Context context = getInstrumentation().getTargetContext();
+        final int numItems = 10;
+        List<FeedItem> downloaded = saveDownloadedItems(numItems);
+
+        List<FeedItem> firstPage = DBReader.getDownloadedItemsPage(context, null, numItems / 2);
+        assertEquals(numItems / 2, firstPage.size());
+        List<FeedItem> secondPage = DBReader.getDownloadedItemsPage(context,
+                firstPage.get(firstPage.size() - 1), numItems);
+        assertEquals(downloaded.size() - firstPage.size(), secondPage.size());
+        for (FeedItem item : secondPage) {
+            assertTrue(item.getMedia().isDownloaded());
+            for (FeedItem other : firstPage) {
+                assertTrue(item.getId() != other.getId());
+            }
+        }
+    }
+
+    public void testChaptersAreLoadedExplicitly() {
+        final Context context = getInstrumentation().getTargetContext();
+        final int numChapters = 5;
+        Feed feed = new Feed(0, new Date(), "feed", "link", "descr", null,
+                null, null, null, "feed", null, null, "url", false, new FlattrStatus());
+        feed.setItems(new ArrayList<FeedItem>());
+        FeedItem withChapters = new FeedItem(0, "item 1", "id1", "link1", new Date(), true, feed);
+        withChapters.setChapters(new ArrayList<Chapter>());
+        for (int i = 0; i < numChapters; i++) {
+            withChapters.getChapters().add(new SimpleChapter(1000 * i, "chapter " + i, withChapters, "link" + i));
+        }
+        FeedItem withoutChapters = new FeedItem(0, "item 2", "id2", "link2", new Date(), true, feed);
+        feed.getItems().add(withChapters);
+        feed.getItems().add(withoutChapters);
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.setCompleteFeed(feed);
+        adapter.close();
+
+        FeedItem saved = DBReader.getFeedItem(context, withChapters.getId());
+        assertTrue(saved.hasChapters());
+        assertFalse(saved.hasLoadedChapters());
+        // getChapters() doesn't access the database
+        assertNull(saved.getChapters());
+        DBReader.loadChaptersOfFeedItem(context, saved);
+        assertNotNull(saved.getChapters());
+        assertEquals(numChapters, saved.getChapters().size());
+        assertTrue(saved.hasLoadedChapters());
+
+        // the second load is served by the cache, but the item gets its own list
+        FeedItem savedAgain = DBReader.getFeedItem(context, withChapters.getId());
+        DBReader.loadChaptersOfFeedItem(context, savedAgain);
+        assertEquals(numChapters, savedAgain.getChapters().size());
+        assertNotSame(saved.getChapters(), savedAgain.getChapters());
+
+        FeedItem savedWithoutChapters = DBReader.getFeedItem(context, withoutChapters.getId());
+        assertFalse(savedWithoutChapters.hasChapters());
+        assertNull(savedWithoutChapters.getChapters());
+    }
+
+    public void testLoadExtraInformationAfterUpdate() throws Exception {
+        final Context context = getInstrumentation().getTargetContext();
+        List<Feed> feeds = saveFeedlist(context, 1, 1, false);
+        FeedItem item = feeds.get(0).getItems().get(0);
+        item.setDescription("old description");
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.setSingleFeedItem(item);
+        adapter.close();
+
+        FeedItem saved = DBReader.getFeedItem(context, item.getId());
+        DBReader.loadExtraInformationOfFeedItem(context, saved);
+        assertEquals("old description", saved.getDescription());
+
+        // writing the item must invalidate the cached shownotes
+        item.setDescription("new description");
+        adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.setSingleFeedItem(item);
+        adapter.close();
+
+        FeedItem updated = DBReader.getFeedItem(context, item.getId());
+        DBReader.loadExtraInformationOfFeedItem(context, updated);
+        assertEquals("new description", updated.getDescription());
+    }
+
     private List<FeedItem> saveUnreadItems(int numItems) {
         if (numItems <= 0) {
             throw new IllegalArgumentException("numItems<=0");
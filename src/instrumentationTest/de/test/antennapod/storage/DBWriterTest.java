@@ -4,13 +4,18 @@ import android.content.Context;
 import android.database.Cursor;
 import android.test.InstrumentationTestCase;
 import android.util.Log;
+import de.danoeh.antennapod.feed.Chapter;
 import de.danoeh.antennapod.feed.Feed;
 import de.danoeh.antennapod.feed.FeedImage;
 import de.danoeh.antennapod.feed.FeedItem;
 import de.danoeh.antennapod.feed.FeedMedia;
+import de.danoeh.antennapod.feed.ID3Chapter;
+import de.danoeh.antennapod.feed.SimpleChapter;
+import de.danoeh.antennapod.feed.VorbisCommentChapter;
 import de.danoeh.antennapod.storage.DBReader;
 import de.danoeh.antennapod.storage.DBWriter;
 import de.danoeh.antennapod.storage.PodDBAdapter;
+import de.danoeh.antennapod.storage.PositionJournal;
 
 import java.io.File;
 import java.io.IOException;
@@ -483,6 +488,82 @@ public class DBWriterTest extends InstrumentationTestCase {
         }
     }
 
+    public void testDeleteFeedKeepsOtherFeeds() throws ExecutionException, InterruptedException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        List<Feed> feeds = new ArrayList<Feed>();
+        for (int i = 0; i < 2; i++) {
+            Feed feed = new Feed("url " + i, new Date(), "title " + i);
+            feed.setImage(new FeedImage(0, "image " + i, null, "image url " + i, false));
+            feed.getImage().setOwner(feed);
+            feed.setItems(new ArrayList<FeedItem>());
+            for (int j = 0; j < 10; j++) {
+                FeedItem item = new FeedItem(0, "Item " + j, "Item" + j, "url", new Date(), true, feed);
+                item.setMedia(new FeedMedia(0, item, 1, 1, 1, "mime_type", null, "download_url " + i + j, false, null, 0));
+                List<Chapter> chapters = new ArrayList<Chapter>();
+                chapters.add(new SimpleChapter(0, "chapter", item, null));
+                item.setChapters(chapters);
+                item.setImage(new FeedImage(0, "item image", null, "item image url " + i + j, false));
+                feed.getItems().add(item);
+            }
+            feeds.add(feed);
+        }
+        List<FeedItem> queue = new ArrayList<FeedItem>();
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        for (Feed feed : feeds) {
+            adapter.setCompleteFeed(feed);
+            queue.addAll(feed.getItems());
+        }
+        adapter.setQueue(queue);
+        adapter.close();
+
+        final Feed deleted = feeds.get(0);
+        final Feed remaining = feeds.get(1);
+        DBWriter.deleteFeed(context, deleted.getId()).get(TIMEOUT, TimeUnit.SECONDS);
+
+        adapter.open();
+        Cursor c = adapter.getFeedCursor(deleted.getId());
+        assertEquals(0, c.getCount());
+        c.close();
+        c = adapter.getImageCursor(deleted.getImage().getId());
+        assertEquals(0, c.getCount());
+        c.close();
+        for (FeedItem item : deleted.getItems()) {
+            c = adapter.getFeedItemCursor(String.valueOf(item.getId()));
+            assertEquals(0, c.getCount());
+            c.close();
+            c = adapter.getSimpleChaptersOfFeedItemCursor(item);
+            assertEquals(0, c.getCount());
+            c.close();
+            c = adapter.getImageCursor(item.getImage().getId());
+            assertEquals(0, c.getCount());
+            c.close();
+        }
+        c = adapter.getImageCursor(remaining.getImage().getId());
+        assertEquals(1, c.getCount());
+        c.close();
+        for (FeedItem item : remaining.getItems()) {
+            c = adapter.getSingleFeedMediaCursor(item.getMedia().getId());
+            assertEquals(1, c.getCount());
+            c.close();
+            c = adapter.getSimpleChaptersOfFeedItemCursor(item);
+            assertEquals(1, c.getCount());
+            c.close();
+            c = adapter.getImageCursor(item.getImage().getId());
+            assertEquals(1, c.getCount());
+            c.close();
+        }
+        adapter.close();
+
+        List<FeedItem> savedItems = DBReader.getFeedItemList(context, remaining);
+        assertEquals(remaining.getItems().size(), savedItems.size());
+        List<Long> queueIds = DBReader.getQueueIDList(context);
+        assertEquals(remaining.getItems().size(), queueIds.size());
+        for (int i = 0; i < queueIds.size(); i++) {
+            assertEquals(remaining.getItems().get(i).getId(), (long) queueIds.get(i));
+        }
+    }
+
     private FeedMedia playbackHistorySetup(Date playbackCompletionDate) {
         final Context context = getInstrumentation().getTargetContext();
         Feed feed = new Feed("url", new Date(), "title");
@@ -739,6 +820,146 @@ public class DBWriterTest extends InstrumentationTestCase {
         }
     }
 
+    public void testAddQueueItemAt() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        // enough insertions at the same index to use up the gap between two queue positions
+        final int NUM_ITEMS = 40;
+        Feed feed = new Feed("url", new Date(), "title");
+        feed.setItems(new ArrayList<FeedItem>());
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            FeedItem item = new FeedItem(0, "title " + i, "id " + i, "link " + i, new Date(), false, feed);
+            feed.getItems().add(item);
+        }
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.setCompleteFeed(feed);
+        adapter.close();
+
+        List<Long> expected = new ArrayList<Long>();
+        DBWriter.addQueueItem(context, feed.getItems().get(0).getId(), feed.getItems().get(1).getId())
+                .get(TIMEOUT, TimeUnit.SECONDS);
+        expected.add(feed.getItems().get(0).getId());
+        expected.add(feed.getItems().get(1).getId());
+        for (int i = 2; i < NUM_ITEMS; i++) {
+            final long id = feed.getItems().get(i).getId();
+            DBWriter.addQueueItemAt(context, id, 1, false).get(TIMEOUT, TimeUnit.SECONDS);
+            expected.add(1, id);
+        }
+        // adding an item that is already in the queue must not change the queue
+        DBWriter.addQueueItemAt(context, expected.get(5), 0, false).get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertEquals(expected, DBReader.getQueueIDList(context));
+        for (FeedItem item : DBReader.getFeedItemList(context, feed)) {
+            assertTrue(item.isRead());
+        }
+    }
+
+    public void testMoveQueueItemById() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        final int NUM_ITEMS = 10;
+        Feed feed = queueTestSetupMultipleItems(NUM_ITEMS);
+        List<Long> expected = DBReader.getQueueIDList(context);
+        assertEquals(NUM_ITEMS, expected.size());
+
+        final long id = expected.get(2);
+        DBWriter.moveQueueItemById(context, id, 7, false).get(TIMEOUT, TimeUnit.SECONDS);
+        expected.add(7, expected.remove(2));
+        assertEquals(expected, DBReader.getQueueIDList(context));
+
+        DBWriter.moveQueueItemToTop(context, id, false).get(TIMEOUT, TimeUnit.SECONDS);
+        expected.add(0, expected.remove(7));
+        assertEquals(expected, DBReader.getQueueIDList(context));
+
+        DBWriter.moveQueueItemToBottom(context, id, false).get(TIMEOUT, TimeUnit.SECONDS);
+        expected.add(expected.remove(0));
+        assertEquals(expected, DBReader.getQueueIDList(context));
+
+        DBWriter.removeQueueItem(context, expected.get(4), false).get(TIMEOUT, TimeUnit.SECONDS);
+        expected.remove(4);
+        assertEquals(expected, DBReader.getQueueIDList(context));
+        assertEquals(NUM_ITEMS, feed.getItems().size());
+    }
+
+    public void testMarkItemReadGroupCommit() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        // more items than fit into a single group
+        final int NUM_ITEMS = 500;
+        Feed feed = new Feed("url", new Date(), "title");
+        feed.setItems(new ArrayList<FeedItem>());
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            FeedItem item = new FeedItem(0, "title " + i, "id " + i, "link " + i, new Date(), false, feed);
+            feed.getItems().add(item);
+        }
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.setCompleteFeed(feed);
+        adapter.close();
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (FeedItem item : feed.getItems()) {
+            futures.add(DBWriter.markItemRead(context, item.getId(), true));
+        }
+        for (Future<?> future : futures) {
+            future.get(TIMEOUT, TimeUnit.SECONDS);
+        }
+        for (FeedItem item : DBReader.getFeedItemList(context, feed)) {
+            assertTrue(item.isRead());
+        }
+    }
+
+    public void testGroupCommitFailedOperation() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        Feed feed = new Feed("url", new Date(), "title");
+        feed.setItems(new ArrayList<FeedItem>());
+        for (int i = 0; i < 2; i++) {
+            FeedItem item = new FeedItem(0, "title " + i, "id " + i, "link " + i, new Date(), false, feed);
+            feed.getItems().add(item);
+        }
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.setCompleteFeed(feed);
+        adapter.close();
+
+        // an item without a pubDate can't be saved
+        FeedItem invalidItem = new FeedItem(0, "invalid", "invalid", "invalid", null, false, feed);
+        Future<?> first = DBWriter.markItemRead(context, feed.getItems().get(0).getId(), true);
+        Future<?> failed = DBWriter.setFeedItem(context, invalidItem);
+        Future<?> second = DBWriter.markItemRead(context, feed.getItems().get(1).getId(), true);
+
+        first.get(TIMEOUT, TimeUnit.SECONDS);
+        second.get(TIMEOUT, TimeUnit.SECONDS);
+        try {
+            failed.get(TIMEOUT, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        for (FeedItem item : DBReader.getFeedItemList(context, feed)) {
+            assertTrue(item.isRead());
+        }
+        // the database must still be usable
+        DBWriter.markItemRead(context, feed.getItems().get(0).getId(), false).get(TIMEOUT, TimeUnit.SECONDS);
+        assertFalse(DBReader.getFeedItem(context, feed.getItems().get(0).getId()).isRead());
+    }
+
+    public void testGroupCommitKeepsOrderWithOtherWrites() throws InterruptedException, ExecutionException,
+            TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        DBWriter.compactPositionJournal(context).get(TIMEOUT, TimeUnit.SECONDS);
+        FeedMedia other = playbackHistorySetup(null);
+        FeedMedia media = playbackHistorySetup(null);
+        assertTrue(PositionJournal.getInstance(context).record(media.getId(), 30000, 60000, 0));
+
+        // the first write opens a group, the compaction has to close it
+        DBWriter.markItemRead(context, other.getItem().getId(), true);
+        DBWriter.compactPositionJournal(context);
+        DBWriter.markItemRead(context, media.getItem(), true, true).get(TIMEOUT, TimeUnit.SECONDS);
+
+        media = DBReader.getFeedMedia(context, media.getId());
+        assertEquals(0, media.getPosition());
+        assertTrue(DBReader.getFeedItem(context, other.getItem().getId()).isRead());
+    }
+
     public void testMarkFeedRead() throws InterruptedException, ExecutionException, TimeoutException {
         final Context context = getInstrumentation().getTargetContext();
         final int NUM_ITEMS = 10;
@@ -793,4 +1014,150 @@ public class DBWriterTest extends InstrumentationTestCase {
         }
     }
 
+    public void testSetCachedChapters() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        final String source = "/sdcard/episode.mp3";
+        List<Chapter> chapters = new ArrayList<Chapter>();
+        for (int i = 0; i < 10; i++) {
+            chapters.add(new ID3Chapter(i * 1000L, "chapter " + i, null, "link " + i));
+        }
+        DBWriter.setCachedChapters(context, source, 1024, 42, null, chapters).get(TIMEOUT, TimeUnit.SECONDS);
+
+        List<Chapter> cached = DBReader.getCachedChapters(context, source, 1024, 42, null);
+        assertNotNull(cached);
+        assertEquals(chapters.size(), cached.size());
+        for (int i = 0; i < chapters.size(); i++) {
+            Chapter c = cached.get(i);
+            assertEquals(ID3Chapter.CHAPTERTYPE_ID3CHAPTER, c.getChapterType());
+            assertEquals(chapters.get(i).getStart(), c.getStart());
+            assertEquals(chapters.get(i).getTitle(), c.getTitle());
+            assertEquals(chapters.get(i).getLink(), c.getLink());
+            assertEquals(0, c.getId());
+        }
+
+        // file has changed
+        assertNull(DBReader.getCachedChapters(context, source, 2048, 42, null));
+        assertNull(DBReader.getCachedChapters(context, source, 1024, 43, null));
+        assertNull(DBReader.getCachedChapters(context, source, 1024, 42, "etag"));
+        assertNull(DBReader.getCachedChapters(context, "/sdcard/other.mp3", 1024, 42, null));
+    }
+
+    public void testSetCachedChaptersNoChapters() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        final String source = "http://example.com/episode.mp3";
+        DBWriter.setCachedChapters(context, source, -1, 0, "\"etag\"", null).get(TIMEOUT, TimeUnit.SECONDS);
+
+        List<Chapter> cached = DBReader.getCachedChapters(context, source, -1, 0, "\"etag\"");
+        assertNotNull(cached);
+        assertTrue(cached.isEmpty());
+    }
+
+    public void testSetCachedChaptersReplacesEntry() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        final String source = "/sdcard/episode.ogg";
+        List<Chapter> chapters = new ArrayList<Chapter>();
+        chapters.add(new VorbisCommentChapter(0, "old", null, null));
+        DBWriter.setCachedChapters(context, source, 1024, 1, null, chapters).get(TIMEOUT, TimeUnit.SECONDS);
+        chapters.clear();
+        chapters.add(new VorbisCommentChapter(0, "new 1", null, null));
+        chapters.add(new VorbisCommentChapter(1000, "new 2", null, null));
+        DBWriter.setCachedChapters(context, source, 2048, 2, null, chapters).get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertNull(DBReader.getCachedChapters(context, source, 1024, 1, null));
+        List<Chapter> cached = DBReader.getCachedChapters(context, source, 2048, 2, null);
+        assertNotNull(cached);
+        assertEquals(2, cached.size());
+        assertEquals("new 1", cached.get(0).getTitle());
+        assertEquals("new 2", cached.get(1).getTitle());
+    }
+
+    public void testGetCachedChaptersOfAnyVersion() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        final String source = "http://example.com/episode.mp3";
+        List<Chapter> chapters = new ArrayList<Chapter>();
+        chapters.add(new ID3Chapter(0, "chapter", null, null));
+        DBWriter.setCachedChapters(context, source, -1, 0, null, chapters).get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertNull(DBReader.getCachedChapters(context, source, 1024, 0, "\"etag\""));
+        List<Chapter> cached = DBReader.getCachedChapters(context, source);
+        assertNotNull(cached);
+        assertEquals(1, cached.size());
+        assertEquals("chapter", cached.get(0).getTitle());
+        assertNull(DBReader.getCachedChapters(context, "http://example.com/other.mp3"));
+    }
+
+    public void testRemoveCachedChapters() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        final String source = "http://example.com/episode.mp3";
+        final String other = "http://example.com/other.mp3";
+        DBWriter.setCachedChapters(context, source, 1024, 0, "\"etag\"", null).get(TIMEOUT, TimeUnit.SECONDS);
+        DBWriter.setCachedChapters(context, other, 1024, 0, "\"etag\"", null).get(TIMEOUT, TimeUnit.SECONDS);
+
+        DBWriter.removeCachedChapters(context, source).get(TIMEOUT, TimeUnit.SECONDS);
+        assertNull(DBReader.getCachedChapters(context, source));
+        assertNotNull(DBReader.getCachedChapters(context, other));
+    }
+
+    public void testCompactPositionJournal() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        // remove records of earlier runs
+        DBWriter.compactPositionJournal(context).get(TIMEOUT, TimeUnit.SECONDS);
+        FeedMedia first = playbackHistorySetup(null);
+        FeedMedia second = playbackHistorySetup(null);
+        PositionJournal journal = PositionJournal.getInstance(context);
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(journal.record(first.getId(), i * 1000, 60000, i * 500));
+        }
+        assertTrue(journal.record(second.getId(), 42000, 90000, 1000));
+        // positions are only written to the database when the journal is compacted
+        assertEquals(0, DBReader.getFeedMedia(context, first.getId()).getPosition());
+
+        DBWriter.compactPositionJournal(context).get(TIMEOUT, TimeUnit.SECONDS);
+        FeedMedia media = DBReader.getFeedMedia(context, first.getId());
+        assertEquals(10000, media.getPosition());
+        assertEquals(60000, media.getDuration());
+        assertEquals(5000, media.getPlayedDuration());
+        media = DBReader.getFeedMedia(context, second.getId());
+        assertEquals(42000, media.getPosition());
+        assertEquals(90000, media.getDuration());
+    }
+
+    public void testPositionJournalIsCompactedWhenFull() throws InterruptedException, ExecutionException,
+            TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        DBWriter.compactPositionJournal(context).get(TIMEOUT, TimeUnit.SECONDS);
+        FeedMedia media = playbackHistorySetup(null);
+        PositionJournal journal = PositionJournal.getInstance(context);
+        for (int i = 1; i <= 1000; i++) {
+            assertTrue(journal.record(media.getId(), i, 60000, 0));
+        }
+        DBWriter.compactPositionJournal(context).get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(1000, DBReader.getFeedMedia(context, media.getId()).getPosition());
+    }
+
+    public void testPositionJournalRecordsDuringCompaction() throws InterruptedException, ExecutionException,
+            TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        DBWriter.compactPositionJournal(context).get(TIMEOUT, TimeUnit.SECONDS);
+        FeedMedia first = playbackHistorySetup(null);
+        FeedMedia second = playbackHistorySetup(null);
+        FeedMedia third = playbackHistorySetup(null);
+        PositionJournal journal = PositionJournal.getInstance(context);
+        assertTrue(journal.record(first.getId(), 1000, 60000, 0));
+        assertTrue(journal.record(second.getId(), 2000, 60000, 0));
+        // a compaction starts and writes the records up to this point to the database
+        final int lastSequence = journal.getLastSequence();
+
+        // newer position of 'second', followed by enough records to compact the journal in place, which moves the
+        // newer record of 'second' to the position of the older one
+        assertTrue(journal.record(second.getId(), 3000, 60000, 0));
+        for (int i = 1; i <= 1000; i++) {
+            assertTrue(journal.record(third.getId(), i, 60000, 0));
+        }
+        journal.removeRecords(lastSequence);
+
+        DBWriter.compactPositionJournal(context).get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(3000, DBReader.getFeedMedia(context, second.getId()).getPosition());
+        assertEquals(1000, DBReader.getFeedMedia(context, third.getId()).getPosition());
+    }
 }
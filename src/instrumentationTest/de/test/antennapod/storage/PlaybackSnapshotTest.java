@@ -0,0 +1,224 @@
+package instrumentationTest.de.test.antennapod.storage;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import de.danoeh.antennapod.feed.*;
+import de.danoeh.antennapod.storage.DBWriter;
+import de.danoeh.antennapod.storage.PlaybackSnapshot;
+import de.danoeh.antennapod.storage.PodDBAdapter;
+import de.danoeh.antennapod.storage.PositionJournal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Test class for PlaybackSnapshot
+ */
+public class PlaybackSnapshotTest extends InstrumentationTestCase {
+    private static final long TIMEOUT = 5L;
+
+    private File mediaFile;
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        mediaFile.delete();
+        PlaybackSnapshot.getInstance(getInstrumentation().getTargetContext()).clear();
+        assertTrue(PodDBAdapter.deleteDatabase(getInstrumentation().getTargetContext()));
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Context context = getInstrumentation().getTargetContext();
+        context.deleteDatabase(PodDBAdapter.DATABASE_NAME);
+        // make sure database is created
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.close();
+        // remove records of earlier runs
+        DBWriter.compactPositionJournal(context).get(TIMEOUT, TimeUnit.SECONDS);
+        mediaFile = new File(context.getFilesDir(), "snapshot-test.mp3");
+        assertTrue(mediaFile.exists() || mediaFile.createNewFile());
+    }
+
+    private FeedMedia saveFeedMedia() {
+        final Context context = getInstrumentation().getTargetContext();
+        Feed feed = new Feed(0, new Date(), "feed title", "l", "d", null, null, null, null, "i", null, null, "l", false);
+        feed.setItems(new ArrayList<FeedItem>());
+        FeedItem item = new FeedItem(0, "item title", "i", "l", new Date(), false, feed);
+        List<Chapter> chapters = new ArrayList<Chapter>();
+        chapters.add(new SimpleChapter(0, "chapter 1", item, null));
+        chapters.add(new ID3Chapter(30000, "chapter 2", item, "http://example.com/chapter"));
+        item.setChapters(chapters);
+        feed.getItems().add(item);
+        FeedMedia media = new FeedMedia(0, item, 60000, 12000, 1024, "audio/mpeg", mediaFile.getAbsolutePath(),
+                "http://example.com/episode.mp3", true, null, 3000);
+        media.setLoudnessGain(-4.5f);
+        item.setMedia(media);
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.setCompleteFeed(feed);
+        adapter.close();
+        assertTrue(media.getId() != 0);
+        return media;
+    }
+
+    public void testSaveAndRestore() {
+        final Context context = getInstrumentation().getTargetContext();
+        FeedMedia media = saveFeedMedia();
+        PlaybackSnapshot snapshot = PlaybackSnapshot.getInstance(context);
+        snapshot.save(media, true);
+
+        PlaybackSnapshot.Entry entry = snapshot.restore();
+        assertNotNull(entry);
+        assertTrue(entry.stream);
+        FeedMedia restored = entry.media;
+        assertEquals(media.getId(), restored.getId());
+        assertEquals(media.getDuration(), restored.getDuration());
+        assertEquals(media.getPosition(), restored.getPosition());
+        assertEquals(media.getPlayedDuration(), restored.getPlayedDuration());
+        assertEquals(media.getSize(), restored.getSize());
+        assertEquals(media.getMime_type(), restored.getMime_type());
+        assertEquals(media.getFile_url(), restored.getFile_url());
+        assertEquals(media.getDownload_url(), restored.getDownload_url());
+        assertTrue(restored.isDownloaded());
+        assertNull(restored.getPlaybackCompletionDate());
+        assertEquals(media.getLoudnessGain(), restored.getLoudnessGain());
+
+        assertTrue(restored.hasPlaceholderItem());
+        FeedItem item = restored.getItem();
+        assertEquals(media.getItem().getId(), item.getId());
+        assertEquals("item title", item.getTitle());
+        assertEquals(media.getItem().getFeed().getId(), item.getFeed().getId());
+        assertEquals("feed title", item.getFeed().getTitle());
+        List<Chapter> chapters = restored.getChapters();
+        assertNotNull(chapters);
+        assertEquals(2, chapters.size());
+        assertEquals(SimpleChapter.CHAPTERTYPE_SIMPLECHAPTER, chapters.get(0).getChapterType());
+        assertEquals("chapter 1", chapters.get(0).getTitle());
+        assertEquals(ID3Chapter.CHAPTERTYPE_ID3CHAPTER, chapters.get(1).getChapterType());
+        assertEquals(30000, chapters.get(1).getStart());
+        assertEquals("http://example.com/chapter", chapters.get(1).getLink());
+    }
+
+    public void testClear() {
+        final Context context = getInstrumentation().getTargetContext();
+        PlaybackSnapshot snapshot = PlaybackSnapshot.getInstance(context);
+        snapshot.save(saveFeedMedia(), false);
+        assertNotNull(snapshot.restore());
+        snapshot.clear();
+        assertNull(snapshot.restore());
+    }
+
+    public void testGetMediaId() {
+        final Context context = getInstrumentation().getTargetContext();
+        PlaybackSnapshot snapshot = PlaybackSnapshot.getInstance(context);
+        snapshot.clear();
+        assertEquals(0, snapshot.getMediaId());
+        FeedMedia media = saveFeedMedia();
+        snapshot.save(media, false);
+        assertEquals(media.getId(), snapshot.getMediaId());
+    }
+
+    public void testRestoreWithMissingFile() {
+        final Context context = getInstrumentation().getTargetContext();
+        PlaybackSnapshot snapshot = PlaybackSnapshot.getInstance(context);
+        snapshot.save(saveFeedMedia(), false);
+        assertTrue(mediaFile.delete());
+
+        PlaybackSnapshot.Entry entry = snapshot.restore();
+        assertNotNull(entry);
+        assertFalse(entry.media.isDownloaded());
+        assertNull(entry.media.getFile_url());
+    }
+
+    public void testDeleteFeedMediaClearsSnapshot() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        FeedMedia media = saveFeedMedia();
+        PlaybackSnapshot snapshot = PlaybackSnapshot.getInstance(context);
+        snapshot.save(media, false);
+        DBWriter.deleteFeedMediaOfItem(context, media.getId()).get(TIMEOUT, TimeUnit.SECONDS);
+        assertNull(snapshot.restore());
+    }
+
+    public void testDeleteFeedClearsSnapshot() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        FeedMedia media = saveFeedMedia();
+        PlaybackSnapshot snapshot = PlaybackSnapshot.getInstance(context);
+        snapshot.save(media, false);
+        DBWriter.deleteFeed(context, media.getItem().getFeed().getId()).get(TIMEOUT, TimeUnit.SECONDS);
+        assertNull(snapshot.restore());
+    }
+
+    public void testMarkItemReadClearsSnapshot() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        FeedMedia media = saveFeedMedia();
+        PlaybackSnapshot snapshot = PlaybackSnapshot.getInstance(context);
+        snapshot.save(media, false);
+        DBWriter.markItemRead(context, media.getItem(), true, false).get(TIMEOUT, TimeUnit.SECONDS);
+        assertNotNull(snapshot.restore());
+        DBWriter.markItemRead(context, media.getItem(), true, true).get(TIMEOUT, TimeUnit.SECONDS);
+        assertNull(snapshot.restore());
+    }
+
+    public void testSnapshotOfOtherMediaIsKept() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        FeedMedia media = saveFeedMedia();
+        PlaybackSnapshot snapshot = PlaybackSnapshot.getInstance(context);
+        snapshot.save(media, false);
+        snapshot.invalidateMedia(media.getId() + 1);
+        snapshot.invalidateFeed(media.getItem().getFeed().getId() + 1);
+        assertNotNull(snapshot.restore());
+    }
+
+    public void testRestoreAppliesJournal() throws InterruptedException {
+        final Context context = getInstrumentation().getTargetContext();
+        FeedMedia media = saveFeedMedia();
+        PlaybackSnapshot snapshot = PlaybackSnapshot.getInstance(context);
+        snapshot.save(media, false);
+        Thread.sleep(10);
+        assertTrue(PositionJournal.getInstance(context).record(media.getId(), 42000, 60000, 5000));
+
+        PlaybackSnapshot.Entry entry = snapshot.restore();
+        assertNotNull(entry);
+        assertEquals(42000, entry.media.getPosition());
+        assertEquals(5000, entry.media.getPlayedDuration());
+    }
+
+    public void testCompactionUpdatesSnapshot() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        FeedMedia media = saveFeedMedia();
+        PlaybackSnapshot snapshot = PlaybackSnapshot.getInstance(context);
+        snapshot.save(media, false);
+        Thread.sleep(10);
+        assertTrue(PositionJournal.getInstance(context).record(media.getId(), 42000, 60000, 5000));
+        DBWriter.compactPositionJournal(context).get(TIMEOUT, TimeUnit.SECONDS);
+
+        PlaybackSnapshot.Entry entry = snapshot.restore();
+        assertNotNull(entry);
+        assertEquals(42000, entry.media.getPosition());
+    }
+
+    public void testReplacePlaceholderItem() {
+        final Context context = getInstrumentation().getTargetContext();
+        FeedMedia media = saveFeedMedia();
+        PlaybackSnapshot snapshot = PlaybackSnapshot.getInstance(context);
+        snapshot.save(media, false);
+        FeedMedia restored = snapshot.restore().media;
+        assertTrue(restored.hasPlaceholderItem());
+
+        restored.replacePlaceholderItem();
+        assertFalse(restored.hasPlaceholderItem());
+        FeedItem item = restored.getItem();
+        assertEquals(media.getItem().getId(), item.getId());
+        assertEquals("i", item.getItemIdentifier());
+        assertSame(restored, item.getMedia());
+        assertNotNull(item.getFeed().getLastUpdate());
+    }
+}
@@ -0,0 +1,366 @@
+package instrumentationTest.de.test.antennapod.storage;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Build;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import de.danoeh.antennapod.feed.*;
+import de.danoeh.antennapod.storage.DBReader;
+import de.danoeh.antennapod.storage.DBTasks;
+import de.danoeh.antennapod.storage.DBWriter;
+import de.danoeh.antennapod.storage.FeedItemStatistics;
+import de.danoeh.antennapod.storage.PodDBAdapter;
+import de.danoeh.antennapod.util.flattr.FlattrStatus;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test class for the write methods of PodDBAdapter.
+ */
+public class PodDBAdapterTest extends InstrumentationTestCase {
+    private static final String TAG = "PodDBAdapterTest";
+
+    private static final int NUM_BENCHMARK_ITEMS = 5000;
+    /**
+     * Every single item is saved in its own transaction, so fewer items are used for the comparison.
+     */
+    private static final int NUM_BENCHMARK_SINGLE_ITEMS = 500;
+
+    private static final int NUM_CONCURRENCY_ITEMS = 20000;
+    /**
+     * Maximum time in milliseconds a read may take while the write transaction is open.
+     */
+    private static final long MAX_READ_TIME = 500;
+    private static final long READ_INTERVAL = 10;
+
+    private static final long TIMEOUT = 5L;
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        assertTrue(PodDBAdapter.deleteDatabase(getInstrumentation().getTargetContext()));
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Context context = getInstrumentation().getTargetContext();
+        context.deleteDatabase(PodDBAdapter.DATABASE_NAME);
+        // make sure database is created
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.close();
+    }
+
+    public void testSetCompleteFeed() {
+        final Context context = getInstrumentation().getTargetContext();
+        Feed feed = createFeed("feed", 10);
+
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.setCompleteFeed(feed);
+        adapter.close();
+
+        assertTrue(feed.getId() != 0);
+        List<FeedItem> savedItems = DBReader.getFeedItemList(context, feed);
+        assertEquals(feed.getItems().size(), savedItems.size());
+        for (FeedItem item : feed.getItems()) {
+            FeedItem saved = getItemWithId(savedItems, item.getId());
+            assertNotNull(saved);
+            assertEquals(item.getTitle(), saved.getTitle());
+            assertEquals(item.getItemIdentifier(), saved.getItemIdentifier());
+            assertEquals(item.getPubDate(), saved.getPubDate());
+            assertEquals(item.isRead(), saved.isRead());
+
+            assertNotNull(saved.getMedia());
+            assertEquals(item.getMedia().getId(), saved.getMedia().getId());
+            assertEquals(item.getMedia().getDownload_url(), saved.getMedia().getDownload_url());
+            assertEquals(item.getMedia().getSize(), saved.getMedia().getSize());
+
+            DBReader.loadChaptersOfFeedItem(context, saved);
+            assertNotNull(saved.getChapters());
+            assertEquals(item.getChapters().size(), saved.getChapters().size());
+            for (int i = 0; i < item.getChapters().size(); i++) {
+                assertEquals(item.getChapters().get(i).getId(), saved.getChapters().get(i).getId());
+                assertEquals(item.getChapters().get(i).getTitle(), saved.getChapters().get(i).getTitle());
+            }
+
+            assertTrue(saved.hasItemImage());
+            assertEquals(item.getImage().getId(), saved.getImage().getId());
+            assertEquals(item.getImage().getDownload_url(), saved.getImage().getDownload_url());
+
+            DBReader.loadExtraInformationOfFeedItem(context, saved);
+            assertEquals(item.getDescription(), saved.getDescription());
+            assertEquals(item.getContentEncoded(), saved.getContentEncoded());
+        }
+    }
+
+    public void testSetCompleteFeedUpdate() {
+        final Context context = getInstrumentation().getTargetContext();
+        Feed feed = createFeed("feed", 10);
+
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.setCompleteFeed(feed);
+
+        final FeedItem item = feed.getItems().get(0);
+        final long itemId = item.getId();
+        final long mediaId = item.getMedia().getId();
+        final long chapterId = item.getChapters().get(0).getId();
+        final String description = item.getDescription();
+        item.setTitle("new title");
+        item.setDescription(null);
+        item.getMedia().setPosition(42);
+        item.getChapters().get(0).setTitle("new chapter title");
+        adapter.setCompleteFeed(feed);
+        adapter.close();
+
+        assertEquals(itemId, item.getId());
+        assertEquals(mediaId, item.getMedia().getId());
+        assertEquals(chapterId, item.getChapters().get(0).getId());
+
+        FeedItem saved = DBReader.getFeedItem(context, itemId);
+        assertNotNull(saved);
+        assertEquals("new title", saved.getTitle());
+        assertEquals(42, saved.getMedia().getPosition());
+        DBReader.loadChaptersOfFeedItem(context, saved);
+        assertEquals(item.getChapters().size(), saved.getChapters().size());
+        assertEquals("new chapter title", getChapterWithId(saved.getChapters(), chapterId).getTitle());
+        // a description that is null must not overwrite the existing one
+        DBReader.loadExtraInformationOfFeedItem(context, saved);
+        assertEquals(description, saved.getDescription());
+        assertEquals(feed.getItems().size(), DBReader.getFeedItemList(context, feed).size());
+    }
+
+    public void testSetFeedItemlist() {
+        final Context context = getInstrumentation().getTargetContext();
+        Feed feed1 = createFeed("feed 1", 5);
+        Feed feed2 = createFeed("feed 2", 5);
+        List<FeedItem> items = new ArrayList<FeedItem>();
+        items.addAll(feed1.getItems());
+        items.addAll(feed2.getItems());
+
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.setFeedItemlist(items);
+        adapter.close();
+
+        assertTrue(feed1.getId() != 0);
+        assertTrue(feed2.getId() != 0);
+        assertEquals(2, DBReader.getFeedList(context).size());
+        assertEquals(feed1.getItems().size(), DBReader.getFeedItemList(context, feed1).size());
+        assertEquals(feed2.getItems().size(), DBReader.getFeedItemList(context, feed2).size());
+    }
+
+    /**
+     * Compares saving a large feed with setCompleteFeed to saving its items one by one.
+     */
+    public void testSetCompleteFeedBenchmark() {
+        final Context context = getInstrumentation().getTargetContext();
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+
+        Feed feed = createFeed("feed", NUM_BENCHMARK_ITEMS);
+        long start = System.nanoTime();
+        adapter.setCompleteFeed(feed);
+        final long insertTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        adapter.setCompleteFeed(feed);
+        final long updateTime = System.nanoTime() - start;
+
+        Feed singleFeed = createFeed("single", NUM_BENCHMARK_SINGLE_ITEMS);
+        adapter.setFeed(singleFeed);
+        start = System.nanoTime();
+        for (FeedItem item : singleFeed.getItems()) {
+            adapter.setSingleFeedItem(item);
+        }
+        final long singleTime = System.nanoTime() - start;
+        adapter.close();
+
+        assertEquals(NUM_BENCHMARK_ITEMS, DBReader.getFeedItemList(context, feed).size());
+        Log.i(TAG, String.format("Average time per item: setCompleteFeed insert %d us, setCompleteFeed update %d us, " +
+                "setSingleFeedItem %d us",
+                insertTime / NUM_BENCHMARK_ITEMS / 1000, updateTime / NUM_BENCHMARK_ITEMS / 1000,
+                singleTime / NUM_BENCHMARK_SINGLE_ITEMS / 1000));
+    }
+
+    /**
+     * Reads the feed list while a large feed is written in a single DBWriter transaction. With write-ahead logging,
+     * the readers must not have to wait until the transaction has been committed.
+     */
+    public void testGetFeedListDuringWriteTransaction() throws InterruptedException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // write-ahead logging is not available
+            return;
+        }
+        final Context context = getInstrumentation().getTargetContext();
+        final Feed feed = createFeed("feed", NUM_CONCURRENCY_ITEMS);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                DBTasks.updateFeed(context, feed);
+                writing.set(false);
+            }
+        };
+        writer.start();
+
+        int readsDuringWrite = 0;
+        long maxReadTime = 0;
+        while (writer.isAlive()) {
+            final long start = System.nanoTime();
+            DBReader.getFeedList(context);
+            final long readTime = System.nanoTime() - start;
+            if (writing.get()) {
+                readsDuringWrite++;
+                maxReadTime = Math.max(maxReadTime, readTime);
+            }
+            Thread.sleep(READ_INTERVAL);
+        }
+        writer.join();
+        Log.i(TAG, String.format("%d reads during write transaction, max. read time %d ms", readsDuringWrite,
+                maxReadTime / 1000000));
+        assertTrue(readsDuringWrite > 1);
+        assertTrue(maxReadTime / 1000000 < MAX_READ_TIME);
+        assertEquals(1, DBReader.getFeedList(context).size());
+    }
+
+    public void testFeedStatisticsMatchGroupedQuery() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        List<Feed> feeds = DBTestUtils.saveFeedlist(context, 3, 10, true);
+        assertFeedStatisticsConsistent(context);
+
+        // read state
+        Feed feed = feeds.get(0);
+        DBWriter.markItemRead(context, feed.getItems().get(0).getId(), false).get(TIMEOUT, TimeUnit.SECONDS);
+        DBWriter.markItemRead(context, feed.getItems().get(1).getId(), false).get(TIMEOUT, TimeUnit.SECONDS);
+        assertFeedStatisticsConsistent(context);
+
+        // download and playback position
+        FeedMedia media = feed.getItems().get(2).getMedia();
+        media.setFile_url("file url");
+        media.setDownloaded(true);
+        media.setPosition(1000);
+        DBWriter.setFeedMedia(context, media).get(TIMEOUT, TimeUnit.SECONDS);
+        media = feeds.get(1).getItems().get(0).getMedia();
+        media.setPosition(500);
+        DBWriter.setFeedMediaPlaybackInformation(context, media).get(TIMEOUT, TimeUnit.SECONDS);
+        assertFeedStatisticsConsistent(context);
+
+        // new item with a later pubDate
+        FeedItem item = new FeedItem(0, "new item", "new item id", "new item link",
+                new Date(System.currentTimeMillis() + 60000), false, feeds.get(1));
+        item.setMedia(new FeedMedia(item, "new media url", 1, "audio/mp3"));
+        feeds.get(1).getItems().add(item);
+        DBWriter.setFeedItem(context, item).get(TIMEOUT, TimeUnit.SECONDS);
+        assertFeedStatisticsConsistent(context);
+
+        // removed item and feed, feed without items
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.removeFeedItem(feed.getItems().get(2));
+        Feed emptyFeed = new Feed("empty url", new Date(), "empty feed");
+        emptyFeed.setItems(new ArrayList<FeedItem>());
+        adapter.setCompleteFeed(emptyFeed);
+        adapter.close();
+        DBWriter.deleteFeed(context, feeds.get(2).getId()).get(TIMEOUT, TimeUnit.SECONDS);
+        assertFeedStatisticsConsistent(context);
+
+        List<FeedItemStatistics> statistics = DBReader.getFeedStatisticsList(context);
+        assertEquals(3, statistics.size());
+        for (FeedItemStatistics s : statistics) {
+            if (s.getFeedID() == feed.getId()) {
+                assertEquals(9, s.getNumberOfItems());
+                assertEquals(2, s.getNumberOfNewItems());
+                assertEquals(0, s.getNumberOfInProgressItems());
+            } else if (s.getFeedID() == feeds.get(1).getId()) {
+                assertEquals(11, s.getNumberOfItems());
+                assertEquals(1, s.getNumberOfNewItems());
+                assertEquals(1, s.getNumberOfInProgressItems());
+                assertEquals(item.getPubDate(), s.getLastUpdate());
+            } else {
+                assertEquals(emptyFeed.getId(), s.getFeedID());
+                assertEquals(0, s.getNumberOfItems());
+                assertFalse(s.lastUpdateKnown());
+            }
+        }
+
+        adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.rebuildFeedStatistics();
+        adapter.close();
+        assertFeedStatisticsConsistent(context);
+    }
+
+    private void assertFeedStatisticsConsistent(Context context) {
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        Cursor expected = adapter.getGroupedFeedStatisticsCursor();
+        Cursor actual = adapter.getFeedStatisticsCursor();
+        assertEquals(expected.getCount(), actual.getCount());
+        int unread = 0;
+        int downloaded = 0;
+        while (expected.moveToNext()) {
+            assertTrue(actual.moveToNext());
+            assertEquals(expected.getColumnCount(), actual.getColumnCount());
+            for (int i = 0; i < expected.getColumnCount(); i++) {
+                assertEquals(expected.getLong(i), actual.getLong(i));
+            }
+            unread += expected.getInt(PodDBAdapter.IDX_FEEDSTATISTICS_NEW_ITEMS);
+            downloaded += expected.getInt(PodDBAdapter.IDX_FEEDSTATISTICS_EPISODES_DOWNLOADED);
+        }
+        expected.close();
+        actual.close();
+        assertEquals(unread, adapter.getNumberOfUnreadItems());
+        assertEquals(downloaded, adapter.getNumberOfDownloadedEpisodes());
+        adapter.close();
+    }
+
+    /**
+     * Creates a feed whose items have a media object, two chapters and an image each.
+     */
+    private Feed createFeed(String title, int numItems) {
+        Feed feed = new Feed(0, new Date(), title, "link", "descr", null, null,
+                null, null, title, null, null, "url " + title, false, new FlattrStatus());
+        feed.setItems(new ArrayList<FeedItem>());
+        for (int i = 0; i < numItems; i++) {
+            FeedItem item = new FeedItem(0, "item " + i, "id " + i, "link " + i, new Date(i), false, feed);
+            item.setDescription("description " + i);
+            item.setContentEncoded("<p>content " + i + "</p>");
+            item.setMedia(new FeedMedia(item, "media url " + i, 1000 + i, "audio/mp3"));
+            List<Chapter> chapters = new ArrayList<Chapter>();
+            chapters.add(new SimpleChapter(0, "chapter 1", item, "chapter link 1"));
+            chapters.add(new SimpleChapter(60000, "chapter 2", item, null));
+            item.setChapters(chapters);
+            item.setImage(new FeedImage("image url " + i, "image " + i));
+            feed.getItems().add(item);
+        }
+        return feed;
+    }
+
+    private FeedItem getItemWithId(List<FeedItem> items, long id) {
+        for (FeedItem item : items) {
+            if (item.getId() == id) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private Chapter getChapterWithId(List<Chapter> chapters, long id) {
+        for (Chapter chapter : chapters) {
+            if (chapter.getId() == id) {
+                return chapter;
+            }
+        }
+        return null;
+    }
+}
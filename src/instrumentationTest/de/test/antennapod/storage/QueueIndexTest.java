@@ -0,0 +1,173 @@
+package instrumentationTest.de.test.antennapod.storage;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.test.InstrumentationTestCase;
+import de.danoeh.antennapod.feed.Feed;
+import de.danoeh.antennapod.feed.FeedItem;
+import de.danoeh.antennapod.storage.DBTasks;
+import de.danoeh.antennapod.storage.DBWriter;
+import de.danoeh.antennapod.storage.PodDBAdapter;
+import de.danoeh.antennapod.storage.QueueIndex;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Test class for QueueIndex
+ */
+public class QueueIndexTest extends InstrumentationTestCase {
+    private static final long TIMEOUT = 5L;
+    private static final int NUM_ITEMS = 10;
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        assertTrue(PodDBAdapter.deleteDatabase(getInstrumentation().getTargetContext()));
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Context context = getInstrumentation().getTargetContext();
+        context.deleteDatabase(PodDBAdapter.DATABASE_NAME);
+        // make sure database is created
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.close();
+    }
+
+    public void testLoad() {
+        final Context context = getInstrumentation().getTargetContext();
+        Feed feed = saveFeed();
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.setQueue(feed.getItems());
+        adapter.close();
+
+        QueueIndex index = QueueIndex.getInstance(context);
+        assertEquals(NUM_ITEMS, index.size());
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            final long id = feed.getItems().get(i).getId();
+            assertTrue(index.contains(id));
+            assertEquals(i, index.indexOf(id));
+            assertEquals(id, index.get(i));
+            if (i + 1 < NUM_ITEMS) {
+                assertEquals(feed.getItems().get(i + 1).getId(), index.getSuccessor(id));
+            } else {
+                assertEquals(QueueIndex.NO_ITEM, index.getSuccessor(id));
+            }
+        }
+        assertFalse(index.contains(0));
+        assertEquals(-1, index.indexOf(0));
+    }
+
+    public void testUpdatedByDBWriter() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        Feed feed = saveFeed();
+        QueueIndex index = QueueIndex.getInstance(context);
+        // load the empty queue so that all following changes have to be applied to the loaded index
+        assertEquals(0, index.size());
+
+        for (FeedItem item : feed.getItems()) {
+            DBWriter.addQueueItem(context, item.getId()).get(TIMEOUT, TimeUnit.SECONDS);
+        }
+        assertIndexEqualsDatabase(context);
+        DBWriter.addQueueItemAt(context, feed.getItems().get(3).getId(), 0, false).get(TIMEOUT, TimeUnit.SECONDS);
+        assertIndexEqualsDatabase(context);
+        DBWriter.moveQueueItem(context, 1, 7, false).get(TIMEOUT, TimeUnit.SECONDS);
+        assertIndexEqualsDatabase(context);
+        DBWriter.moveQueueItemToTop(context, feed.getItems().get(9).getId(), false).get(TIMEOUT, TimeUnit.SECONDS);
+        assertIndexEqualsDatabase(context);
+        DBWriter.moveQueueItemToBottom(context, feed.getItems().get(9).getId(), false).get(TIMEOUT, TimeUnit.SECONDS);
+        assertIndexEqualsDatabase(context);
+        DBWriter.removeQueueItem(context, feed.getItems().get(5).getId(), false).get(TIMEOUT, TimeUnit.SECONDS);
+        assertIndexEqualsDatabase(context);
+        assertFalse(DBTasks.isInQueue(context, feed.getItems().get(5).getId()));
+        assertTrue(DBTasks.isInQueue(context, feed.getItems().get(6).getId()));
+
+        DBWriter.clearQueue(context).get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(0, index.size());
+        assertIndexEqualsDatabase(context);
+    }
+
+    public void testDeleteFeed() throws InterruptedException, ExecutionException, TimeoutException {
+        final Context context = getInstrumentation().getTargetContext();
+        Feed feed = saveFeed();
+        Feed otherFeed = saveFeed();
+        List<FeedItem> queue = new ArrayList<FeedItem>();
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            queue.add(feed.getItems().get(i));
+            queue.add(otherFeed.getItems().get(i));
+        }
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.setQueue(queue);
+        adapter.close();
+        assertEquals(2 * NUM_ITEMS, QueueIndex.getInstance(context).size());
+
+        DBWriter.deleteFeed(context, feed.getId()).get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(NUM_ITEMS, QueueIndex.getInstance(context).size());
+        assertIndexEqualsDatabase(context);
+    }
+
+    public void testGuiThreadUsesLoadedCopy() {
+        final Context context = getInstrumentation().getTargetContext();
+        final Feed feed = saveFeed();
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.setQueue(feed.getItems());
+        adapter.close();
+        final QueueIndex index = QueueIndex.getInstance(context);
+        index.load();
+
+        // setQueue() invalidates the index
+        adapter.open();
+        adapter.setQueue(feed.getItems().subList(0, 1));
+        adapter.close();
+        final int[] sizeOnGuiThread = new int[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                sizeOnGuiThread[0] = index.size();
+            }
+        });
+        // the GUI thread gets either the previous copy or the result of the background load
+        assertTrue(sizeOnGuiThread[0] == NUM_ITEMS || sizeOnGuiThread[0] == 1);
+        assertEquals(1, index.size());
+        assertIndexEqualsDatabase(context);
+    }
+
+    private void assertIndexEqualsDatabase(Context context) {
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        Cursor cursor = adapter.getQueueIDCursor();
+        long[] ids = QueueIndex.getInstance(context).toArray();
+        assertEquals(cursor.getCount(), ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertTrue(cursor.moveToPosition(i));
+            assertEquals(cursor.getLong(0), ids[i]);
+        }
+        cursor.close();
+        adapter.close();
+    }
+
+    private Feed saveFeed() {
+        final Context context = getInstrumentation().getTargetContext();
+        Feed feed = new Feed("url", new Date(), "title");
+        feed.setItems(new ArrayList<FeedItem>());
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            FeedItem item = new FeedItem(0, "title " + i, "id " + i, "link " + i, new Date(), true, feed);
+            feed.getItems().add(item);
+        }
+        PodDBAdapter adapter = new PodDBAdapter(context);
+        adapter.open();
+        adapter.setCompleteFeed(feed);
+        adapter.close();
+        return feed;
+    }
+}
@@ -0,0 +1,177 @@
+package instrumentationTest.de.test.antennapod.util.id3reader;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import de.danoeh.antennapod.feed.Chapter;
+import de.danoeh.antennapod.util.id3reader.ChapterReader;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * Test class for the ID3 ChapterReader. Tags are generated by the test.
+ */
+public class ChapterReaderTest extends AndroidTestCase {
+    private static final String TAG = "ChapterReaderTest";
+
+    private static final int NUM_CHAPTERS = 500;
+    private static final int COVER_SIZE = 2 * 1024 * 1024;
+    private static final int BENCHMARK_RUNS = 10;
+
+    private File testFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        testFile = new File(getContext().getExternalCacheDir(), "id3test.mp3");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        testFile.delete();
+    }
+
+    public void testReadInputStreamV3() throws Exception {
+        byte[] tag = createTag(3, false, 10, 1024);
+        ChapterReader reader = new ChapterReader();
+        reader.readInputStream(new ByteArrayInputStream(tag));
+        assertChapters(reader.getChapters(), 10);
+    }
+
+    public void testReadInputStreamV4ExtendedHeader() throws Exception {
+        byte[] tag = createTag(4, true, 10, 1024);
+        ChapterReader reader = new ChapterReader();
+        reader.readInputStream(new ByteArrayInputStream(tag));
+        assertChapters(reader.getChapters(), 10);
+    }
+
+    public void testReadFileV4() throws Exception {
+        writeTestFile(createTag(4, false, NUM_CHAPTERS, COVER_SIZE));
+        ChapterReader reader = new ChapterReader();
+        reader.readFile(testFile);
+        assertChapters(reader.getChapters(), NUM_CHAPTERS);
+    }
+
+    public void testReadFileNoTag() throws Exception {
+        writeTestFile(new byte[1024]);
+        ChapterReader reader = new ChapterReader();
+        reader.readFile(testFile);
+        assertNull(reader.getChapters());
+    }
+
+    /**
+     * Compares reading a tag with many chapters and a large cover image from a
+     * stream and from a memory-mapped file.
+     */
+    public void testReadBenchmark() throws Exception {
+        writeTestFile(createTag(4, false, NUM_CHAPTERS, COVER_SIZE));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_RUNS; i++) {
+            InputStream in = new BufferedInputStream(new FileInputStream(testFile));
+            try {
+                ChapterReader reader = new ChapterReader();
+                reader.readInputStream(in);
+                assertEquals(NUM_CHAPTERS, reader.getChapters().size());
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        long streamTime = (System.nanoTime() - start) / BENCHMARK_RUNS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_RUNS; i++) {
+            ChapterReader reader = new ChapterReader();
+            reader.readFile(testFile);
+            assertEquals(NUM_CHAPTERS, reader.getChapters().size());
+        }
+        long fileTime = (System.nanoTime() - start) / BENCHMARK_RUNS;
+
+        Log.i(TAG, String.format("Average read time: stream %d us, memory-mapped file %d us",
+                streamTime / 1000, fileTime / 1000));
+    }
+
+    private void assertChapters(List<Chapter> chapters, int expectedCount) {
+        assertNotNull(chapters);
+        assertEquals(expectedCount, chapters.size());
+        for (int i = 0; i < expectedCount; i++) {
+            Chapter c = chapters.get(i);
+            assertEquals(i * 60000L, c.getStart());
+            assertEquals("Chapter " + i, c.getTitle());
+            assertEquals("http://example.com/" + i, c.getLink());
+        }
+    }
+
+    private void writeTestFile(byte[] content) throws IOException {
+        OutputStream out = new FileOutputStream(testFile);
+        try {
+            out.write(content);
+            // some fake audio data after the tag
+            out.write(new byte[4096]);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Creates an ID3 tag with an APIC frame of the given size, followed by
+     * CHAP frames that contain a TIT2 and a WXXX frame each.
+     */
+    private byte[] createTag(int version, boolean extendedHeader, int numChapters, int coverSize) throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        if (extendedHeader) {
+            // ID3v2.4 extended header: syncsafe size including itself, number of flag bytes, flags
+            frames.write(syncsafe(6));
+            frames.write(new byte[]{1, 0});
+        }
+        writeFrame(frames, version, "APIC", new byte[coverSize]);
+        for (int i = 0; i < numChapters; i++) {
+            ByteArrayOutputStream chap = new ByteArrayOutputStream();
+            chap.write(("ch" + i).getBytes("ISO-8859-1"));
+            chap.write(0);
+            chap.write(int32(i * 60000));
+            chap.write(int32((i + 1) * 60000));
+            chap.write(int32(0xFFFFFFFF));
+            chap.write(int32(0xFFFFFFFF));
+
+            ByteArrayOutputStream title = new ByteArrayOutputStream();
+            title.write(3); // UTF-8
+            title.write(("Chapter " + i).getBytes("UTF-8"));
+            writeFrame(chap, version, "TIT2", title.toByteArray());
+
+            ByteArrayOutputStream link = new ByteArrayOutputStream();
+            link.write(0); // ISO-8859-1
+            link.write(0); // empty description
+            link.write(("http://example.com/" + i).getBytes("ISO-8859-1"));
+            writeFrame(chap, version, "WXXX", link.toByteArray());
+
+            writeFrame(frames, version, "CHAP", chap.toByteArray());
+        }
+        // padding
+        frames.write(new byte[256]);
+
+        ByteArrayOutputStream tag = new ByteArrayOutputStream();
+        tag.write(new byte[]{'I', 'D', '3', (byte) version, 0, (byte) (extendedHeader ? 0x40 : 0)});
+        tag.write(syncsafe(frames.size()));
+        frames.writeTo(tag);
+        return tag.toByteArray();
+    }
+
+    private void writeFrame(OutputStream out, int version, String id, byte[] content) throws IOException {
+        out.write(id.getBytes("ISO-8859-1"));
+        out.write((version >= 4) ? syncsafe(content.length) : int32(content.length));
+        out.write(new byte[]{0, 0});
+        out.write(content);
+    }
+
+    private byte[] int32(int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    private byte[] syncsafe(int value) {
+        return new byte[]{(byte) ((value >>> 21) & 0x7F), (byte) ((value >>> 14) & 0x7F),
+                (byte) ((value >>> 7) & 0x7F), (byte) (value & 0x7F)};
+    }
+}
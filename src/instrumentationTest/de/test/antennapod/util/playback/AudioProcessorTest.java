@@ -0,0 +1,128 @@
+package instrumentationTest.de.test.antennapod.util.playback;
+
+import android.test.AndroidTestCase;
+import com.aocate.media.AudioProcessor;
+
+/**
+ * Test class for AudioProcessor. Audio is generated by the test.
+ */
+public class AudioProcessorTest extends AndroidTestCase {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHUNK_FRAMES = 4096;
+
+    public void testUnchangedByDefault() {
+        short[] input = concat(tone(1000, 8000), silence(2000), tone(1000, 8000));
+        short[] output = input.clone();
+        AudioProcessor processor = new AudioProcessor(SAMPLE_RATE, 1);
+        assertEquals(input.length, processor.process(output, output.length));
+        for (int i = 0; i < input.length; i++) {
+            assertEquals(input[i], output[i]);
+        }
+        assertEquals(0, processor.getSkippedFrames());
+    }
+
+    public void testLongSilenceIsShortened() {
+        short[] input = concat(tone(1000, 8000), silence(2000), tone(1000, 8000));
+        AudioProcessor processor = new AudioProcessor(SAMPLE_RATE, 1);
+        processor.setSkipSilence(true);
+        final int outputFrames = process(processor, input, 1);
+
+        // 300 ms of the silence remain, plus the time in which the envelope falls below the threshold
+        final int expectedFrames = SAMPLE_RATE * 2300 / 1000;
+        assertTrue("Unexpected length: " + outputFrames,
+                outputFrames >= expectedFrames && outputFrames < expectedFrames + SAMPLE_RATE / 10);
+        assertEquals(input.length - outputFrames, processor.getSkippedFrames());
+    }
+
+    public void testSkippedRuns() {
+        short[] tone = tone(1000, 8000);
+        short[] samples = concat(tone, silence(2000), tone);
+        AudioProcessor processor = new AudioProcessor(SAMPLE_RATE, 1);
+        processor.setSkipSilence(true);
+        final int outputFrames = processor.process(samples, samples.length);
+        assertEquals(1, processor.getSkippedRunCount());
+        assertEquals(samples.length - outputFrames, processor.getSkippedRunLength(0));
+        // the second tone follows the run of dropped frames
+        final int offset = processor.getSkippedRunOffset(0);
+        assertEquals(outputFrames - tone.length, offset);
+        assertEquals(tone[1], samples[offset + 1]);
+
+        processor.process(tone.clone(), tone.length);
+        assertEquals(0, processor.getSkippedRunCount());
+    }
+
+    public void testShortPausesAreKept() {
+        short[] input = concat(tone(500, 8000), silence(200), tone(500, 8000), silence(250), tone(500, 8000));
+        AudioProcessor processor = new AudioProcessor(SAMPLE_RATE, 2);
+        processor.setSkipSilence(true);
+        short[] stereo = toStereo(input);
+        assertEquals(input.length, process(processor, stereo, 2));
+        assertEquals(0, processor.getSkippedFrames());
+    }
+
+    public void testGain() {
+        short[] input = tone(100, 1000);
+        short[] output = input.clone();
+        AudioProcessor processor = new AudioProcessor(SAMPLE_RATE, 1);
+        processor.setGain(6.0206f);
+        assertEquals(input.length, processor.process(output, output.length));
+        for (int i = 0; i < input.length; i++) {
+            assertTrue(Math.abs(2 * input[i] - output[i]) <= 1);
+        }
+    }
+
+    public void testGainIsClipped() {
+        short[] samples = {20000, -20000, 100};
+        AudioProcessor processor = new AudioProcessor(SAMPLE_RATE, 1);
+        processor.setGain(12f);
+        assertEquals(3, processor.process(samples, 3));
+        assertEquals(Short.MAX_VALUE, samples[0]);
+        assertEquals(Short.MIN_VALUE, samples[1]);
+        assertTrue(samples[2] > 100);
+    }
+
+    private static int process(AudioProcessor processor, short[] input, int channels) {
+        short[] chunk = new short[CHUNK_FRAMES * channels];
+        int outputFrames = 0;
+        for (int offset = 0; offset < input.length; offset += chunk.length) {
+            final int length = Math.min(chunk.length, input.length - offset);
+            System.arraycopy(input, offset, chunk, 0, length);
+            outputFrames += processor.process(chunk, length / channels);
+        }
+        return outputFrames;
+    }
+
+    private static short[] tone(int millis, int amplitude) {
+        short[] samples = new short[SAMPLE_RATE * millis / 1000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (amplitude * Math.sin(2 * Math.PI * 220 * i / SAMPLE_RATE));
+        }
+        return samples;
+    }
+
+    private static short[] silence(int millis) {
+        return new short[SAMPLE_RATE * millis / 1000];
+    }
+
+    private static short[] concat(short[]... parts) {
+        int length = 0;
+        for (short[] part : parts) {
+            length += part.length;
+        }
+        short[] result = new short[length];
+        int offset = 0;
+        for (short[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+
+    private static short[] toStereo(short[] mono) {
+        short[] result = new short[mono.length * 2];
+        for (int i = 0; i < mono.length; i++) {
+            result[2 * i] = result[2 * i + 1] = mono[i];
+        }
+        return result;
+    }
+}
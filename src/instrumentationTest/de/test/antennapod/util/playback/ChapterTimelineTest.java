@@ -0,0 +1,143 @@
+package instrumentationTest.de.test.antennapod.util.playback;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import de.danoeh.antennapod.feed.Chapter;
+import de.danoeh.antennapod.feed.SimpleChapter;
+import de.danoeh.antennapod.util.comparator.ChapterStartTimeComparator;
+import de.danoeh.antennapod.util.playback.ChapterTimeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test class for ChapterTimeline
+ */
+public class ChapterTimelineTest extends AndroidTestCase {
+    private static final String TAG = "ChapterTimelineTest";
+
+    private static final int NUM_BENCHMARK_CHAPTERS = 500;
+    private static final int NUM_BENCHMARK_QUERIES = 100000;
+
+    private static List<Chapter> createChapters(long... starts) {
+        List<Chapter> chapters = new ArrayList<Chapter>();
+        for (long start : starts) {
+            chapters.add(new SimpleChapter(start, "Chapter " + start, null, null));
+        }
+        return chapters;
+    }
+
+    /**
+     * Walks the chapter list like ChapterUtils did before the timeline was introduced.
+     */
+    private static Chapter findLinear(List<Chapter> chapters, long position) {
+        Chapter current = chapters.get(0);
+        for (Chapter c : chapters) {
+            if (c.getStart() > position) {
+                break;
+            }
+            current = c;
+        }
+        return current;
+    }
+
+    public void testEmpty() {
+        ChapterTimeline timeline = new ChapterTimeline(new ArrayList<Chapter>());
+        assertEquals(0, timeline.size());
+        assertEquals(-1, timeline.indexAt(1000));
+        assertNull(timeline.getChapterAt(1000));
+        assertNull(timeline.getNextChapter(1000));
+        assertNull(timeline.getPreviousChapter(1000, 3000));
+    }
+
+    public void testChapterAt() {
+        List<Chapter> chapters = createChapters(0, 10000, 20000, 30000);
+        ChapterTimeline timeline = new ChapterTimeline(chapters);
+        assertSame(chapters.get(0), timeline.getChapterAt(0));
+        assertSame(chapters.get(0), timeline.getChapterAt(9999));
+        assertSame(chapters.get(1), timeline.getChapterAt(10000));
+        assertSame(chapters.get(3), timeline.getChapterAt(100000));
+        // jump backwards, so that the hint can't be used
+        assertSame(chapters.get(1), timeline.getChapterAt(15000));
+    }
+
+    public void testPositionBeforeFirstChapter() {
+        List<Chapter> chapters = createChapters(5000, 10000);
+        ChapterTimeline timeline = new ChapterTimeline(chapters);
+        assertSame(chapters.get(0), timeline.getChapterAt(0));
+        assertSame(chapters.get(0), timeline.getNextChapter(0));
+    }
+
+    public void testUnsortedChapters() {
+        List<Chapter> chapters = createChapters(20000, 0, 10000);
+        ChapterTimeline timeline = new ChapterTimeline(chapters);
+        assertSame(chapters.get(1), timeline.get(0));
+        assertSame(chapters.get(2), timeline.getChapterAt(15000));
+        assertSame(chapters.get(0), timeline.getNextChapter(15000));
+    }
+
+    public void testNextAndPreviousChapter() {
+        List<Chapter> chapters = createChapters(0, 10000, 20000);
+        ChapterTimeline timeline = new ChapterTimeline(chapters);
+        assertSame(chapters.get(1), timeline.getNextChapter(5000));
+        assertNull(timeline.getNextChapter(25000));
+        // the current chapter is restarted if enough of it has been played
+        assertSame(chapters.get(1), timeline.getPreviousChapter(15000, 3000));
+        assertSame(chapters.get(0), timeline.getPreviousChapter(11000, 3000));
+        assertSame(chapters.get(0), timeline.getPreviousChapter(1000, 3000));
+    }
+
+    public void testIsFor() {
+        List<Chapter> chapters = createChapters(0, 10000);
+        ChapterTimeline timeline = new ChapterTimeline(chapters);
+        assertTrue(timeline.isFor(chapters));
+        assertFalse(timeline.isFor(createChapters(0, 10000)));
+        chapters.add(new SimpleChapter(20000, "Chapter", null, null));
+        assertFalse(timeline.isFor(chapters));
+    }
+
+    public void testMatchesLinearSearch() {
+        Random random = new Random(42);
+        long[] starts = new long[NUM_BENCHMARK_CHAPTERS];
+        for (int i = 0; i < starts.length; i++) {
+            // duplicates are intended
+            starts[i] = random.nextInt(1000) * 1000L;
+        }
+        List<Chapter> chapters = createChapters(starts);
+        Collections.sort(chapters, new ChapterStartTimeComparator());
+        ChapterTimeline timeline = new ChapterTimeline(chapters);
+        for (int i = 0; i < 10000; i++) {
+            final long position = random.nextInt(1100000);
+            assertSame(findLinear(chapters, position), timeline.getChapterAt(position));
+        }
+    }
+
+    public void testLookupBenchmark() {
+        long[] starts = new long[NUM_BENCHMARK_CHAPTERS];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = i * 60000L;
+        }
+        List<Chapter> chapters = createChapters(starts);
+        final long duration = starts[starts.length - 1] + 60000L;
+        final long step = duration / NUM_BENCHMARK_QUERIES;
+
+        long start = System.nanoTime();
+        for (long position = 0; position < duration; position += step) {
+            findLinear(chapters, position);
+        }
+        final long linearTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        ChapterTimeline timeline = new ChapterTimeline(chapters);
+        for (long position = 0; position < duration; position += step) {
+            timeline.getChapterAt(position);
+        }
+        final long timelineTime = System.nanoTime() - start;
+
+        Log.i(TAG, String.format("%d lookups in %d chapters: linear %.1f ms, timeline %.1f ms",
+                NUM_BENCHMARK_QUERIES, NUM_BENCHMARK_CHAPTERS, linearTime / 1000000.0, timelineTime / 1000000.0));
+        assertTrue(timelineTime < linearTime);
+    }
+}
@@ -0,0 +1,62 @@
+package instrumentationTest.de.test.antennapod.util.playback;
+
+import android.test.AndroidTestCase;
+import com.aocate.media.LoudnessAnalyzer;
+
+/**
+ * Test class for LoudnessAnalyzer. Audio is generated by the test.
+ */
+public class LoudnessAnalyzerTest extends AndroidTestCase {
+    private static final int SAMPLE_RATE = 44100;
+
+    public void testSineLoudness() {
+        // the mean square of a sine wave is half of its squared amplitude
+        LoudnessAnalyzer analyzer = new LoudnessAnalyzer(SAMPLE_RATE, 1);
+        short[] samples = sine(10, 3277);
+        analyzer.writeSamples(samples, samples.length);
+        assertEquals(-23.0f, analyzer.getLoudness(), 0.2f);
+        assertEquals(-20.0f, analyzer.getPeak(), 0.1f);
+        assertEquals(3.0f, analyzer.getGain(), 0.2f);
+    }
+
+    public void testPausesAreIgnored() {
+        LoudnessAnalyzer analyzer = new LoudnessAnalyzer(SAMPLE_RATE, 1);
+        short[] samples = sine(10, 3277);
+        short[] pause = sine(10, 100);
+        analyzer.writeSamples(samples, samples.length);
+        analyzer.writeSamples(pause, pause.length);
+        analyzer.writeSamples(new short[SAMPLE_RATE * 10], SAMPLE_RATE * 10);
+        assertEquals(-23.0f, analyzer.getLoudness(), 0.2f);
+    }
+
+    public void testGainIsLimitedByPeak() {
+        LoudnessAnalyzer analyzer = new LoudnessAnalyzer(SAMPLE_RATE, 1);
+        short[] samples = sine(10, 1000);
+        samples[0] = 30000;
+        analyzer.writeSamples(samples, samples.length);
+        assertTrue(analyzer.getGain() > 0);
+        assertTrue(analyzer.getGain() <= -analyzer.getPeak());
+    }
+
+    public void testLoudAudioIsAttenuated() {
+        LoudnessAnalyzer analyzer = new LoudnessAnalyzer(SAMPLE_RATE, 2);
+        short[] samples = sine(10, 30000);
+        analyzer.writeSamples(samples, samples.length);
+        assertTrue(analyzer.getGain() < -10);
+    }
+
+    public void testSilence() {
+        LoudnessAnalyzer analyzer = new LoudnessAnalyzer(SAMPLE_RATE, 1);
+        analyzer.writeSamples(new short[SAMPLE_RATE * 5], SAMPLE_RATE * 5);
+        assertEquals(Float.NEGATIVE_INFINITY, analyzer.getLoudness());
+        assertEquals(0f, analyzer.getGain());
+    }
+
+    private static short[] sine(int seconds, int amplitude) {
+        short[] samples = new short[seconds * SAMPLE_RATE];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (amplitude * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE));
+        }
+        return samples;
+    }
+}
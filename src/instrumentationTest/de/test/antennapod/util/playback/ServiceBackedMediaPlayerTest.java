@@ -0,0 +1,478 @@
+package instrumentationTest.de.test.antennapod.util.playback;
+
+import android.content.*;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.test.mock.MockPackageManager;
+import com.aocate.media.MediaPlayer;
+import com.aocate.media.ServiceBackedMediaPlayer;
+import com.aocate.presto.service.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test class for ServiceBackedMediaPlayer. The Presto service is replaced by a fake service that counts binder calls.
+ */
+public class ServiceBackedMediaPlayerTest extends InstrumentationTestCase {
+    private static final int DURATION = 60000;
+    private static final int POSITION_TOLERANCE = 100;
+    private static final int NUM_READS = 100;
+
+    private FakePlayMediaService service;
+    private MediaPlayer owningMediaPlayer;
+    private ServiceBackedMediaPlayer player;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Context context = getInstrumentation().getTargetContext();
+        service = new FakePlayMediaService();
+        Context serviceContext = new ContextWrapper(context) {
+            @Override
+            public android.content.pm.PackageManager getPackageManager() {
+                return new MockPackageManager() {
+                    @Override
+                    public List<ResolveInfo> queryIntentServices(Intent intent, int flags) {
+                        List<ResolveInfo> result = new ArrayList<ResolveInfo>();
+                        result.add(new ResolveInfo());
+                        return result;
+                    }
+                };
+            }
+
+            @Override
+            public boolean bindService(Intent service, ServiceConnection conn, int flags) {
+                conn.onServiceConnected(new ComponentName("com.aocate.presto", "PlayMediaService"),
+                        ServiceBackedMediaPlayerTest.this.service);
+                return true;
+            }
+
+            @Override
+            public void unbindService(ServiceConnection conn) {
+
+            }
+        };
+        owningMediaPlayer = new MediaPlayer(context, false);
+        player = new ServiceBackedMediaPlayer(owningMediaPlayer, serviceContext, new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder service) {
+
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {
+
+            }
+        });
+        assertTrue(player.isConnected());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        player.release();
+        owningMediaPlayer.release();
+        super.tearDown();
+    }
+
+    private void prepare() throws IOException {
+        player.setDataSource("/sdcard/episode.mp3");
+        player.prepare();
+    }
+
+    public void testGettersAreServedLocally() throws IOException {
+        prepare();
+        player.start();
+        service.getterCalls = 0;
+        readAll();
+        final int firstReadCalls = service.getterCalls;
+        // every value is requested at most once
+        assertTrue(firstReadCalls <= 6);
+
+        for (int i = 0; i < NUM_READS; i++) {
+            readAll();
+        }
+        assertEquals(firstReadCalls, service.getterCalls);
+    }
+
+    private void readAll() {
+        player.getCurrentPosition();
+        assertEquals(DURATION, player.getDuration());
+        assertTrue(player.isPlaying());
+        assertEquals(1.0f, player.getCurrentSpeedMultiplier(), 0.0f);
+        assertTrue(player.canSetSpeed());
+        assertEquals(FakePlayMediaService.MIN_SPEED, player.getMinSpeedMultiplier(), 0.0f);
+        assertEquals(FakePlayMediaService.MAX_SPEED, player.getMaxSpeedMultiplier(), 0.0f);
+    }
+
+    public void testPositionIsExtrapolated() throws IOException, InterruptedException, RemoteException {
+        prepare();
+        player.setPlaybackSpeed(2.0f);
+        player.seekTo(10000);
+        service.completeSeek();
+        player.start();
+        service.positionCalls = 0;
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(20);
+            assertTrue(Math.abs(service.position() - player.getCurrentPosition()) <= POSITION_TOLERANCE);
+        }
+        // position is requested once after the seek has been completed
+        assertEquals(1, service.positionCalls);
+    }
+
+    public void testPositionAfterPause() throws IOException, InterruptedException {
+        prepare();
+        player.start();
+        Thread.sleep(100);
+        player.pause();
+        assertFalse(player.isPlaying());
+        service.positionCalls = 0;
+        final int position = player.getCurrentPosition();
+        assertEquals(service.position(), position);
+        Thread.sleep(100);
+        assertEquals(position, player.getCurrentPosition());
+        assertEquals(1, service.positionCalls);
+    }
+
+    public void testCommandsAreSentToService() throws IOException {
+        prepare();
+        service.commandCalls = 0;
+        player.start();
+        player.setPlaybackSpeed(1.5f);
+        player.seekTo(1000);
+        player.pause();
+        assertEquals(4, service.commandCalls);
+        assertEquals(1.5f, player.getCurrentSpeedMultiplier(), 0.0f);
+    }
+
+    public void testCompletion() throws IOException, RemoteException {
+        prepare();
+        player.start();
+        service.getterCalls = 0;
+        service.complete();
+        assertFalse(player.isPlaying());
+        assertEquals(0, service.getterCalls);
+    }
+
+    public void testResetForgetsDuration() throws IOException {
+        prepare();
+        assertEquals(DURATION, player.getDuration());
+        player.reset();
+        service.getterCalls = 0;
+        prepare();
+        assertEquals(DURATION, player.getDuration());
+        assertEquals(1, service.getterCalls);
+    }
+
+    /**
+     * Fake implementation of the Presto service that plays a single media file without producing any sound.
+     */
+    private static class FakePlayMediaService extends IPlayMedia_0_8.Stub {
+        static final float MIN_SPEED = 0.5f;
+        static final float MAX_SPEED = 2.0f;
+
+        volatile int getterCalls;
+        volatile int positionCalls;
+        volatile int commandCalls;
+
+        private boolean playing;
+        private float speed = 1.0f;
+        private int anchorPosition;
+        private long anchorTime;
+        private IOnCompletionListenerCallback_0_8 completionCallback;
+        private IOnSeekCompleteListenerCallback_0_8 seekCompleteCallback;
+
+        synchronized int position() {
+            if (!playing) {
+                return anchorPosition;
+            }
+            return Math.min(DURATION, anchorPosition + (int) ((SystemClock.elapsedRealtime() - anchorTime) * speed));
+        }
+
+        private synchronized void setPosition(int position) {
+            anchorPosition = position;
+            anchorTime = SystemClock.elapsedRealtime();
+        }
+
+        /**
+         * The service reports the end of a seek asynchronously after seekTo has returned.
+         */
+        void completeSeek() throws RemoteException {
+            seekCompleteCallback.onSeekComplete();
+        }
+
+        void complete() throws RemoteException {
+            synchronized (this) {
+                playing = false;
+                anchorPosition = DURATION;
+            }
+            completionCallback.onCompletion();
+        }
+
+        @Override
+        public boolean canSetPitch(long sessionId) throws RemoteException {
+            getterCalls++;
+            return false;
+        }
+
+        @Override
+        public boolean canSetSpeed(long sessionId) throws RemoteException {
+            getterCalls++;
+            return true;
+        }
+
+        @Override
+        public float getCurrentPitchStepsAdjustment(long sessionId) throws RemoteException {
+            getterCalls++;
+            return 0;
+        }
+
+        @Override
+        public int getCurrentPosition(long sessionId) throws RemoteException {
+            getterCalls++;
+            positionCalls++;
+            return position();
+        }
+
+        @Override
+        public float getCurrentSpeedMultiplier(long sessionId) throws RemoteException {
+            getterCalls++;
+            return speed;
+        }
+
+        @Override
+        public int getDuration(long sessionId) throws RemoteException {
+            getterCalls++;
+            return DURATION;
+        }
+
+        @Override
+        public float getMaxSpeedMultiplier(long sessionId) throws RemoteException {
+            getterCalls++;
+            return MAX_SPEED;
+        }
+
+        @Override
+        public float getMinSpeedMultiplier(long sessionId) throws RemoteException {
+            getterCalls++;
+            return MIN_SPEED;
+        }
+
+        @Override
+        public int getVersionCode() throws RemoteException {
+            getterCalls++;
+            return 1;
+        }
+
+        @Override
+        public String getVersionName() throws RemoteException {
+            getterCalls++;
+            return "fake";
+        }
+
+        @Override
+        public boolean isLooping(long sessionId) throws RemoteException {
+            getterCalls++;
+            return false;
+        }
+
+        @Override
+        public boolean isPlaying(long sessionId) throws RemoteException {
+            getterCalls++;
+            return playing;
+        }
+
+        @Override
+        public void pause(long sessionId) throws RemoteException {
+            commandCalls++;
+            setPosition(position());
+            playing = false;
+        }
+
+        @Override
+        public void prepare(long sessionId) throws RemoteException {
+            commandCalls++;
+            setPosition(0);
+        }
+
+        @Override
+        public void prepareAsync(long sessionId) throws RemoteException {
+            commandCalls++;
+            setPosition(0);
+        }
+
+        @Override
+        public void release(long sessionId) throws RemoteException {
+            commandCalls++;
+            playing = false;
+        }
+
+        @Override
+        public void reset(long sessionId) throws RemoteException {
+            commandCalls++;
+            playing = false;
+            setPosition(0);
+        }
+
+        @Override
+        public void seekTo(long sessionId, int msec) throws RemoteException {
+            commandCalls++;
+            setPosition(msec);
+        }
+
+        @Override
+        public void setAudioStreamType(long sessionId, int streamtype) throws RemoteException {
+            commandCalls++;
+        }
+
+        @Override
+        public void setDataSourceString(long sessionId, String path) throws RemoteException {
+            commandCalls++;
+        }
+
+        @Override
+        public void setDataSourceUri(long sessionId, Uri uri) throws RemoteException {
+            commandCalls++;
+        }
+
+        @Override
+        public void setEnableSpeedAdjustment(long sessionId, boolean enableSpeedAdjustment) throws RemoteException {
+            commandCalls++;
+        }
+
+        @Override
+        public void setLooping(long sessionId, boolean looping) throws RemoteException {
+            commandCalls++;
+        }
+
+        @Override
+        public void setPitchStepsAdjustment(long sessionId, float pitchSteps) throws RemoteException {
+            commandCalls++;
+        }
+
+        @Override
+        public void setPlaybackPitch(long sessionId, float f) throws RemoteException {
+            commandCalls++;
+        }
+
+        @Override
+        public void setPlaybackSpeed(long sessionId, float f) throws RemoteException {
+            commandCalls++;
+            setPosition(position());
+            speed = Math.max(MIN_SPEED, Math.min(MAX_SPEED, f));
+        }
+
+        @Override
+        public void setSpeedAdjustmentAlgorithm(long sessionId, int algorithm) throws RemoteException {
+            commandCalls++;
+        }
+
+        @Override
+        public void setVolume(long sessionId, float left, float right) throws RemoteException {
+            commandCalls++;
+        }
+
+        @Override
+        public void start(long sessionId) throws RemoteException {
+            commandCalls++;
+            setPosition(position());
+            playing = true;
+        }
+
+        @Override
+        public long startSession(IDeathCallback_0_8 cb) throws RemoteException {
+            return 1;
+        }
+
+        @Override
+        public void stop(long sessionId) throws RemoteException {
+            commandCalls++;
+            playing = false;
+        }
+
+        @Override
+        public void registerOnBufferingUpdateCallback(long sessionId, IOnBufferingUpdateListenerCallback_0_8 cb) throws RemoteException {
+
+        }
+
+        @Override
+        public void registerOnCompletionCallback(long sessionId, IOnCompletionListenerCallback_0_8 cb) throws RemoteException {
+            completionCallback = cb;
+        }
+
+        @Override
+        public void registerOnErrorCallback(long sessionId, IOnErrorListenerCallback_0_8 cb) throws RemoteException {
+
+        }
+
+        @Override
+        public void registerOnInfoCallback(long sessionId, IOnInfoListenerCallback_0_8 cb) throws RemoteException {
+
+        }
+
+        @Override
+        public void registerOnPitchAdjustmentAvailableChangedCallback(long sessionId, IOnPitchAdjustmentAvailableChangedListenerCallback_0_8 cb) throws RemoteException {
+
+        }
+
+        @Override
+        public void registerOnPreparedCallback(long sessionId, IOnPreparedListenerCallback_0_8 cb) throws RemoteException {
+
+        }
+
+        @Override
+        public void registerOnSeekCompleteCallback(long sessionId, IOnSeekCompleteListenerCallback_0_8 cb) throws RemoteException {
+            seekCompleteCallback = cb;
+        }
+
+        @Override
+        public void registerOnSpeedAdjustmentAvailableChangedCallback(long sessionId, IOnSpeedAdjustmentAvailableChangedListenerCallback_0_8 cb) throws RemoteException {
+
+        }
+
+        @Override
+        public void unregisterOnBufferingUpdateCallback(long sessionId, IOnBufferingUpdateListenerCallback_0_8 cb) throws RemoteException {
+
+        }
+
+        @Override
+        public void unregisterOnCompletionCallback(long sessionId, IOnCompletionListenerCallback_0_8 cb) throws RemoteException {
+
+        }
+
+        @Override
+        public void unregisterOnErrorCallback(long sessionId, IOnErrorListenerCallback_0_8 cb) throws RemoteException {
+
+        }
+
+        @Override
+        public void unregisterOnInfoCallback(long sessionId, IOnInfoListenerCallback_0_8 cb) throws RemoteException {
+
+        }
+
+        @Override
+        public void unregisterOnPitchAdjustmentAvailableChangedCallback(long sessionId, IOnPitchAdjustmentAvailableChangedListenerCallback_0_8 cb) throws RemoteException {
+
+        }
+
+        @Override
+        public void unregisterOnPreparedCallback(long sessionId, IOnPreparedListenerCallback_0_8 cb) throws RemoteException {
+
+        }
+
+        @Override
+        public void unregisterOnSeekCompleteCallback(long sessionId, IOnSeekCompleteListenerCallback_0_8 cb) throws RemoteException {
+
+        }
+
+        @Override
+        public void unregisterOnSpeedAdjustmentAvailableChangedCallback(long sessionId, IOnSpeedAdjustmentAvailableChangedListenerCallback_0_8 cb) throws RemoteException {
+
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package instrumentationTest.de.test.antennapod.util.playback;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import com.aocate.media.TimeStretcher;
+
+/**
+ * Test class for TimeStretcher. Audio is generated by the test.
+ */
+public class TimeStretcherTest extends AndroidTestCase {
+    private static final String TAG = "TimeStretcherTest";
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHUNK_FRAMES = 4096;
+    private static final int BENCHMARK_SECONDS = 60;
+    private static final float[] BENCHMARK_SPEEDS = {1.0f, 1.5f, 2.0f, 2.5f, 3.0f};
+
+    public void testPassThroughAtNormalSpeed() {
+        short[] input = createVoicedSignal(SAMPLE_RATE, 2);
+        short[] output = process(input, 2, 1.0f);
+        assertEquals(input.length, output.length);
+        for (int i = 0; i < input.length; i++) {
+            assertEquals(input[i], output[i]);
+        }
+    }
+
+    public void testOutputLength() {
+        short[] input = createVoicedSignal(10 * SAMPLE_RATE, 2);
+        final float[] speeds = {0.5f, 0.75f, 1.25f, 1.5f, 2.0f, 3.0f};
+        for (float speed : speeds) {
+            final int expectedFrames = (int) (input.length / 2 / speed);
+            final int actualFrames = process(input, 2, speed).length / 2;
+            assertTrue("Unexpected length at speed " + speed + ": " + actualFrames,
+                    Math.abs(actualFrames - expectedFrames) < expectedFrames * 0.02);
+        }
+    }
+
+    public void testPitchIsPreserved() {
+        final int frequency = 200;
+        short[] input = new short[10 * SAMPLE_RATE];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (short) (8000 * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+        }
+        for (float speed : new float[]{0.5f, 2.0f, 3.0f}) {
+            short[] output = process(input, 1, speed);
+            int crossings = 0;
+            for (int i = 1; i < output.length; i++) {
+                if (output[i - 1] < 0 && output[i] >= 0) {
+                    crossings++;
+                }
+            }
+            final float measuredFrequency = crossings * SAMPLE_RATE / (float) output.length;
+            assertTrue("Pitch changed at speed " + speed + ": " + measuredFrequency + " Hz",
+                    Math.abs(measuredFrequency - frequency) < frequency * 0.05);
+        }
+    }
+
+    public void testSpeedChanges() {
+        final float[] speeds = {0.8f, 1.0f, 1.5f};
+        short[] chunk = new short[CHUNK_FRAMES * 2];
+        // the speed is changed at different points of the input, so that it is also changed while frames are copied
+        for (int extraFrames = 0; extraFrames < 1000; extraFrames += 250) {
+            short[] input = createVoicedSignal(10 * SAMPLE_RATE + extraFrames, 2);
+            short[] output = new short[2 * input.length];
+            TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 2);
+            for (float speed : speeds) {
+                stretcher.setSpeed(speed);
+                int outputFrames = 0;
+                for (int offset = 0; offset < input.length; offset += chunk.length) {
+                    final int length = Math.min(chunk.length, input.length - offset);
+                    System.arraycopy(input, offset, chunk, 0, length);
+                    stretcher.writeSamples(chunk, length / 2);
+                    outputFrames += stretcher.readSamples(output, output.length / 2);
+                }
+                // input that is still buffered from the previous speed is accepted as an error
+                final int expectedFrames = (int) (input.length / 2 / speed);
+                assertTrue("Unexpected length at speed " + speed + ": " + outputFrames,
+                        Math.abs(outputFrames - expectedFrames) < expectedFrames * 0.02);
+            }
+        }
+    }
+
+    public void testClear() {
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 2);
+        stretcher.setSpeed(2.0f);
+        short[] input = createVoicedSignal(SAMPLE_RATE, 2);
+        stretcher.writeSamples(input, input.length / 2);
+        assertTrue(stretcher.availableFrames() > 0);
+        stretcher.clear();
+        assertEquals(0, stretcher.availableFrames());
+        assertEquals(0, stretcher.pendingInputFrames());
+    }
+
+    public void testStretchBenchmark() {
+        short[] input = createVoicedSignal(BENCHMARK_SECONDS * SAMPLE_RATE, 2);
+        short[] output = new short[4 * CHUNK_FRAMES * 2];
+        short[] chunk = new short[CHUNK_FRAMES * 2];
+        StringBuilder result = new StringBuilder("Real-time factor:");
+        for (float speed : BENCHMARK_SPEEDS) {
+            TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 2);
+            stretcher.setSpeed(speed);
+            final long start = System.nanoTime();
+            for (int offset = 0; offset < input.length; offset += chunk.length) {
+                final int length = Math.min(chunk.length, input.length - offset);
+                System.arraycopy(input, offset, chunk, 0, length);
+                stretcher.writeSamples(chunk, length / 2);
+                while (stretcher.readSamples(output, output.length / 2) > 0) ;
+            }
+            stretcher.flush();
+            while (stretcher.readSamples(output, output.length / 2) > 0) ;
+            final long time = System.nanoTime() - start;
+
+            final double realTimeFactor = BENCHMARK_SECONDS * 1000000000.0 / time;
+            result.append(String.format(" %.1fx: %.1f", speed, realTimeFactor));
+            assertTrue("Slower than real time at speed " + speed, realTimeFactor > 1.0);
+        }
+        Log.i(TAG, result.toString());
+    }
+
+    private static short[] process(short[] input, int channels, float speed) {
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, channels);
+        stretcher.setSpeed(speed);
+        short[] output = new short[(int) (input.length / speed) + SAMPLE_RATE * channels];
+        int outputFrames = 0;
+        short[] chunk = new short[CHUNK_FRAMES * channels];
+        for (int offset = 0; offset < input.length; offset += chunk.length) {
+            final int length = Math.min(chunk.length, input.length - offset);
+            System.arraycopy(input, offset, chunk, 0, length);
+            stretcher.writeSamples(chunk, length / channels);
+            outputFrames += read(stretcher, output, outputFrames, channels);
+        }
+        stretcher.flush();
+        outputFrames += read(stretcher, output, outputFrames, channels);
+        short[] result = new short[outputFrames * channels];
+        System.arraycopy(output, 0, result, 0, result.length);
+        return result;
+    }
+
+    private static int read(TimeStretcher stretcher, short[] output, int outputFrames, int channels) {
+        final int available = stretcher.availableFrames();
+        short[] buffer = new short[available * channels];
+        stretcher.readSamples(buffer, available);
+        System.arraycopy(buffer, 0, output, outputFrames * channels, buffer.length);
+        return available;
+    }
+
+    /**
+     * Creates a signal that resembles speech: harmonics of a fundamental frequency that slowly moves between 100 and
+     * 200 Hz, with the amplitude modulated at syllable rate.
+     */
+    private static short[] createVoicedSignal(int frames, int channels) {
+        short[] samples = new short[frames * channels];
+        double phase = 0;
+        for (int i = 0; i < frames; i++) {
+            final double t = i / (double) SAMPLE_RATE;
+            final double fundamental = 150 + 50 * Math.sin(2 * Math.PI * 0.5 * t);
+            phase += 2 * Math.PI * fundamental / SAMPLE_RATE;
+            final double envelope = 0.6 + 0.4 * Math.sin(2 * Math.PI * 4 * t);
+            double value = 0;
+            for (int harmonic = 1; harmonic <= 5; harmonic++) {
+                value += Math.sin(harmonic * phase) / harmonic;
+            }
+            final short sample = (short) (6000 * envelope * value);
+            for (int c = 0; c < channels; c++) {
+                samples[i * channels + c] = sample;
+            }
+        }
+        return samples;
+    }
+}
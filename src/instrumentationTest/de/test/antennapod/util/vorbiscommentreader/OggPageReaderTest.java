@@ -0,0 +1,104 @@
+package instrumentationTest.de.test.antennapod.util.vorbiscommentreader;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import de.danoeh.antennapod.util.vorbiscommentreader.OggPage;
+import de.danoeh.antennapod.util.vorbiscommentreader.OggPageReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test class for OggPageReader
+ */
+public class OggPageReaderTest extends AndroidTestCase {
+    private static final String TAG = "OggPageReaderTest";
+
+    public void testReadPageHeader() throws Exception {
+        List<byte[]> packets = new ArrayList<byte[]>();
+        packets.add(OggTestUtils.createIdentificationHeader());
+        OggPageReader reader = new OggPageReader(new ByteArrayInputStream(OggTestUtils.createOggStream(packets)));
+        OggPage page = reader.readPage();
+        assertNotNull(page);
+        assertEquals(0, page.getVersion());
+        assertTrue(page.isBeginningOfStream());
+        assertFalse(page.isContinuation());
+        assertEquals(OggTestUtils.SERIAL_NUMBER, page.getSerialNumber());
+        assertEquals(0, page.getSequenceNumber());
+        assertEquals(1, page.getSegmentTable().length);
+        assertEquals(30, page.getPayload().remaining());
+        assertNull(reader.readPage());
+    }
+
+    /**
+     * Garbage in front of the first page must not hide the capture pattern.
+     */
+    public void testFindCapturePatternAfterPartialMatch() throws Exception {
+        List<byte[]> packets = new ArrayList<byte[]>();
+        packets.add(OggTestUtils.createIdentificationHeader());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("OgOgOggOggSOg".getBytes("ISO-8859-1"));
+        out.write(OggTestUtils.createOggStream(packets));
+        OggPageReader reader = new OggPageReader(new ByteArrayInputStream(out.toByteArray()));
+        OggPage page = reader.readPage();
+        assertNotNull(page);
+        assertEquals(OggTestUtils.SERIAL_NUMBER, page.getSerialNumber());
+        assertEquals(30, page.getPayload().remaining());
+    }
+
+    public void testReadMultiPagePacket() throws Exception {
+        byte[] large = new byte[200 * 1024];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+        List<byte[]> packets = new ArrayList<byte[]>();
+        packets.add(OggTestUtils.createIdentificationHeader());
+        packets.add(large);
+        packets.add(new byte[]{1, 2, 3});
+        OggPageReader reader = new OggPageReader(new ByteArrayInputStream(OggTestUtils.createOggStream(packets)));
+        assertEquals(30, reader.readPacket().remaining());
+        ByteBuffer packet = reader.readPacket();
+        assertEquals(large.length, packet.remaining());
+        for (int i = 0; i < large.length; i++) {
+            assertEquals(large[i], packet.get());
+        }
+        assertEquals(3, reader.readPacket().remaining());
+        assertNull(reader.readPacket());
+    }
+
+    public void testReadEmptyStream() throws Exception {
+        OggPageReader reader = new OggPageReader(new ByteArrayInputStream(new byte[0]));
+        assertNull(reader.readPage());
+    }
+
+    /**
+     * Reports how fast pages are read from an in-memory stream.
+     */
+    public void testReadPageThroughput() throws Exception {
+        final int numPackets = 2000;
+        List<byte[]> packets = new ArrayList<byte[]>();
+        packets.add(OggTestUtils.createIdentificationHeader());
+        for (int i = 0; i < numPackets; i++) {
+            packets.add(new byte[4000]);
+        }
+        byte[] stream = OggTestUtils.createOggStream(packets);
+
+        long start = System.nanoTime();
+        OggPageReader reader = new OggPageReader(new ByteArrayInputStream(stream));
+        int pages = 0;
+        long payloadBytes = 0;
+        OggPage page;
+        while ((page = reader.readPage()) != null) {
+            pages++;
+            payloadBytes += page.getPayload().remaining();
+        }
+        long time = System.nanoTime() - start;
+        assertTrue(pages > 1);
+        assertEquals(30L + numPackets * 4000L, payloadBytes);
+        Log.i(TAG, String.format("Read %d pages (%d bytes) in %d us, %.1f MB/s", pages, stream.length,
+                time / 1000, stream.length / (time / 1000000000.0) / (1024 * 1024)));
+    }
+}
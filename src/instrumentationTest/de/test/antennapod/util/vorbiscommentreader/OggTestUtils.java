@@ -0,0 +1,107 @@
+package instrumentationTest.de.test.antennapod.util.vorbiscommentreader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Utility methods for creating Ogg streams in tests.
+ */
+public class OggTestUtils {
+
+    public static final int SERIAL_NUMBER = 0x12345678;
+
+    /**
+     * Creates an Ogg stream that contains the given packets. The first packet
+     * is stored on its own page, all other packets are packed into pages of
+     * at most 255 segments.
+     */
+    public static byte[] createOggStream(List<byte[]> packets) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PageWriter writer = new PageWriter(out);
+        for (int i = 0; i < packets.size(); i++) {
+            writer.writePacket(packets.get(i));
+            if (i == 0) {
+                writer.flushPage();
+            }
+        }
+        writer.flushPage();
+        return out.toByteArray();
+    }
+
+    public static byte[] createIdentificationHeader() {
+        byte[] packet = new byte[30];
+        packet[0] = 1;
+        System.arraycopy("vorbis".getBytes(), 0, packet, 1, 6);
+        return packet;
+    }
+
+    public static byte[] createCommentHeader(List<String> comments) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(3);
+        out.write("vorbis".getBytes("UTF-8"));
+        byte[] vendor = "AntennaPod test".getBytes("UTF-8");
+        out.write(int32(vendor.length));
+        out.write(vendor);
+        out.write(int32(comments.size()));
+        for (String comment : comments) {
+            byte[] bytes = comment.getBytes("UTF-8");
+            out.write(int32(bytes.length));
+            out.write(bytes);
+        }
+        out.write(1); // framing bit
+        return out.toByteArray();
+    }
+
+    public static byte[] int32(int value) {
+        return new byte[]{(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)};
+    }
+
+    private static class PageWriter {
+        private final ByteArrayOutputStream out;
+        private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream segments = new ByteArrayOutputStream();
+        private int sequenceNumber;
+        private boolean continuation;
+
+        PageWriter(ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        void writePacket(byte[] packet) throws IOException {
+            int offset = 0;
+            while (true) {
+                int length = Math.min(255, packet.length - offset);
+                segments.write(length);
+                payload.write(packet, offset, length);
+                offset += length;
+                if (segments.size() == 255) {
+                    flushPage();
+                    continuation = length == 255;
+                }
+                if (length < 255) {
+                    break;
+                }
+            }
+        }
+
+        void flushPage() throws IOException {
+            if (segments.size() == 0) {
+                return;
+            }
+            out.write(new byte[]{'O', 'g', 'g', 'S', 0});
+            int headerType = (continuation ? 0x01 : 0) | (sequenceNumber == 0 ? 0x02 : 0);
+            out.write(headerType);
+            out.write(new byte[8]); // granule position
+            out.write(int32(SERIAL_NUMBER));
+            out.write(int32(sequenceNumber++));
+            out.write(new byte[4]); // checksum
+            out.write(segments.size());
+            segments.writeTo(out);
+            payload.writeTo(out);
+            segments.reset();
+            payload.reset();
+            continuation = false;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package instrumentationTest.de.test.antennapod.util.vorbiscommentreader;
+
+import android.test.AndroidTestCase;
+import de.danoeh.antennapod.feed.Chapter;
+import de.danoeh.antennapod.util.vorbiscommentreader.VorbisCommentChapterReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test class for VorbisCommentChapterReader
+ */
+public class VorbisCommentChapterReaderTest extends AndroidTestCase {
+
+    private static final int NUM_CHAPTERS = 50;
+
+    public void testReadChapters() throws Exception {
+        VorbisCommentChapterReader reader = new VorbisCommentChapterReader();
+        reader.readInputStream(new ByteArrayInputStream(createStream(0)));
+        assertChapters(reader.getChapters());
+    }
+
+    /**
+     * Comment header is spread across several pages because of a long
+     * comment in front of the chapters.
+     */
+    public void testReadMultiPageCommentHeader() throws Exception {
+        VorbisCommentChapterReader reader = new VorbisCommentChapterReader();
+        reader.readInputStream(new ByteArrayInputStream(createStream(300 * 1024)));
+        assertChapters(reader.getChapters());
+    }
+
+    /**
+     * Reading must stop after the comment header, so the audio data must
+     * never be read.
+     */
+    public void testStopAfterCommentHeader() throws Exception {
+        final byte[] stream = createStream(0);
+        final int[] maxPosition = new int[1];
+        InputStream in = new ByteArrayInputStream(stream) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int result = super.read(b, off, len);
+                maxPosition[0] = pos;
+                return result;
+            }
+        };
+        VorbisCommentChapterReader reader = new VorbisCommentChapterReader();
+        reader.readInputStream(in);
+        assertChapters(reader.getChapters());
+        assertTrue(maxPosition[0] < stream.length);
+    }
+
+    public void testNoVorbisComment() throws Exception {
+        VorbisCommentChapterReader reader = new VorbisCommentChapterReader();
+        reader.readInputStream(new ByteArrayInputStream(new byte[1024]));
+        assertNull(reader.getChapters());
+    }
+
+    private void assertChapters(List<Chapter> chapters) {
+        assertNotNull(chapters);
+        assertEquals(NUM_CHAPTERS, chapters.size());
+        for (int i = 0; i < NUM_CHAPTERS; i++) {
+            Chapter c = chapters.get(i);
+            assertEquals(i * 60000L, c.getStart());
+            assertEquals("Chapter " + i, c.getTitle());
+        }
+    }
+
+    private byte[] createStream(int paddingCommentLength) throws Exception {
+        List<String> comments = new ArrayList<String>();
+        comments.add("TITLE=Test");
+        if (paddingCommentLength > 0) {
+            StringBuilder padding = new StringBuilder("DESCRIPTION=");
+            for (int i = 0; i < paddingCommentLength; i++) {
+                padding.append('a');
+            }
+            comments.add(padding.toString());
+        }
+        for (int i = 0; i < NUM_CHAPTERS; i++) {
+            String id = String.format("CHAPTER%03d", i);
+            comments.add(String.format("%s=00:%02d:00.000", id, i));
+            comments.add(id + "NAME=Chapter " + i);
+        }
+        List<byte[]> packets = new ArrayList<byte[]>();
+        packets.add(OggTestUtils.createIdentificationHeader());
+        packets.add(OggTestUtils.createCommentHeader(comments));
+        // setup header and some audio data
+        for (int i = 0; i < 200; i++) {
+            packets.add(new byte[4000]);
+        }
+        return OggTestUtils.createOggStream(packets);
+    }
+}